@@ -0,0 +1,145 @@
+package com.trackshoot;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+// One coverage index per appId, each in its own file. Only the index of the current appId is in memory, switching
+// appId saves it and loads the other one. Used from the callback thread only.
+class CoverageStore {
+
+    private final File directory;
+    private final double cellSizeMeters;
+    private final long freshnessMillis;
+    private String appId;
+    private CoverageIndex coverageIndex;
+    private long skippedCount;
+    // Cells marked since the last save, so the periodic save skips the fsync when nothing changed.
+    private boolean dirty;
+
+    static final String PREFERENCE_CELL_SIZE = "COVERAGE_CELL_METERS";
+    static final String PREFERENCE_FRESHNESS = "COVERAGE_FRESHNESS_HOURS";
+    static final int DEFAULT_CELL_SIZE_METERS = 20;
+    static final int DEFAULT_FRESHNESS_HOURS = 7 * 24;
+
+    private static final String TAG = CoverageStore.class.getName();
+    private static final String INDEX_SUFFIX = ".cells";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAX_CELLS = 32768;
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+
+    // A freshness of 0 turns coverage off, every trigger shoots.
+    CoverageStore(File directory, double cellSizeMeters, long freshnessMillis) {
+        this.directory = directory;
+        this.cellSizeMeters = cellSizeMeters;
+        this.freshnessMillis = freshnessMillis;
+        directory.mkdirs();
+    }
+
+    static CoverageStore load(SharedPreferences sharedPreferences, File directory) {
+        return new CoverageStore(directory,
+                sharedPreferences.getInt(PREFERENCE_CELL_SIZE, DEFAULT_CELL_SIZE_METERS),
+                sharedPreferences.getInt(PREFERENCE_FRESHNESS, DEFAULT_FRESHNESS_HOURS) * MILLIS_PER_HOUR);
+    }
+
+    // Whether there is a fresh shot for the appId within about radiusMeters. Counts the shots this saves.
+    boolean isCovered(String appId, double latitude, double longitude, double radiusMeters, long nowMillis) {
+        if (freshnessMillis <= 0 || !select(appId)) {
+            return false;
+        }
+        if (coverageIndex.isCovered(latitude, longitude, radiusMeters, nowMillis)) {
+            skippedCount++;
+            return true;
+        }
+        return false;
+    }
+
+    void markCovered(String appId, double latitude, double longitude, long nowMillis) {
+        if (freshnessMillis > 0 && select(appId)) {
+            coverageIndex.markCovered(latitude, longitude, nowMillis);
+            dirty = true;
+        }
+    }
+
+    long getSkippedCount() {
+        return skippedCount;
+    }
+
+    int size() {
+        return coverageIndex != null ? coverageIndex.size() : 0;
+    }
+
+    void save() {
+        if (coverageIndex == null || !dirty) {
+            return;
+        }
+        File file = indexFile(appId);
+        File tempFile = new File(file.getAbsolutePath() + TEMP_SUFFIX);
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+            try {
+                DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+                coverageIndex.writeTo(dataOutputStream);
+                dataOutputStream.flush();
+                fileOutputStream.getFD().sync();
+            } finally {
+                fileOutputStream.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot replace " + file.getName());
+            }
+            dirty = false;
+        } catch (IOException e) {
+            tempFile.delete();
+            Log.e(TAG, "CANNOT SAVE COVERAGE: " + e.getMessage());
+        }
+    }
+
+    // Makes the appId's index the current one. Returns false when there is no appId yet.
+    private boolean select(String appId) {
+        if (appId == null) {
+            return false;
+        }
+        if (appId.equals(this.appId)) {
+            return true;
+        }
+
+        save();
+        this.appId = appId;
+        coverageIndex = new CoverageIndex(cellSizeMeters, freshnessMillis, MAX_CELLS);
+        try {
+            DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(indexFile(appId))));
+            try {
+                coverageIndex.readFrom(dataInputStream, System.currentTimeMillis());
+            } finally {
+                dataInputStream.close();
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing covered for this appId yet.
+        } catch (IOException e) {
+            Log.e(TAG, "CANNOT LOAD COVERAGE: " + e.getMessage());
+        }
+        Log.d(TAG, "COVERAGE LOADED: " + coverageIndex.size() + " cells");
+        return true;
+    }
+
+    private File indexFile(String appId) {
+        try {
+            return new File(directory, URLEncoder.encode(appId, "UTF-8") + INDEX_SUFFIX);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.trackshoot;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+
+// The network and battery state the upload policy decides on, read when asked.
+class DeviceConditions implements UploadPolicy.Connectivity, UploadPolicy.Battery {
+
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private final IntentFilter batteryFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+
+    DeviceConditions(Context context) {
+        this.context = context;
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public boolean isConnected() {
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    @Override
+    public boolean isMetered() {
+        return connectivityManager.isActiveNetworkMetered();
+    }
+
+    @Override
+    public boolean isCharging() {
+        // The battery broadcast is sticky, registering without a receiver just returns the last one.
+        Intent battery = context.registerReceiver(null, batteryFilter);
+        if (battery == null) {
+            return false;
+        }
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        return status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+    }
+
+    @Override
+    public int getLevelPercent() {
+        Intent battery = context.registerReceiver(null, batteryFilter);
+        if (battery == null) {
+            return 100;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 ? level * 100 / scale : 100;
+    }
+}
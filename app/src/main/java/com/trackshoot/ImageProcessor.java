@@ -0,0 +1,265 @@
+package com.trackshoot;
+
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shrinks captured images before they are queued for upload. Decoding is sampled so the full resolution bitmap
+// is never allocated, and each worker keeps its bitmap and output buffer between images.
+// The decoded bitmap is also reduced to a difference hash, and frames within the Hamming threshold of a recently
+// kept one are reported as duplicates instead of being encoded, so a vehicle stuck in traffic does not upload the
+// same view over and over.
+class ImageProcessor {
+
+    interface Callback {
+        // Called on a worker thread, or on the caller's thread when the image was passed through unprocessed.
+        void onProcessed(File imageFile);
+
+        // Called on a worker thread instead of onProcessed(), the image is left as captured.
+        void onDuplicate(File imageFile);
+    }
+
+    private final int maxDimension;
+    private final int quality;
+    private final int byteBudget;
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<Buffers> buffers;
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong duplicateBytesSaved = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    // Touched by the single worker thread only.
+    private final DuplicateFilter duplicateFilter;
+
+    static final int DEFAULT_MAX_DIMENSION = 1600;
+    static final int DEFAULT_QUALITY = 80;
+    static final int DEFAULT_BYTE_BUDGET = 0;
+    static final String PREFERENCE_MAX_DIMENSION = "IMAGE_MAX_DIMENSION";
+    static final String PREFERENCE_QUALITY = "IMAGE_QUALITY";
+    static final String PREFERENCE_BYTE_BUDGET = "IMAGE_BYTE_BUDGET";
+    static final int DEFAULT_DUPLICATE_THRESHOLD = 5;
+    static final String PREFERENCE_DUPLICATE_THRESHOLD = "IMAGE_DUPLICATE_THRESHOLD";
+
+    private static final String TAG = ImageProcessor.class.getName();
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int WORKER_THREADS = 1;
+    private static final int MAX_WAITING_IMAGES = 4;
+    private static final int HASH_CACHE_SIZE = 16;
+    private static final int HASH_WIDTH = DHash.GRID_WIDTH * 8;
+    private static final int HASH_HEIGHT = DHash.GRID_HEIGHT * 8;
+
+    // A byte budget of 0 means "encode once at the given quality", a negative duplicate threshold keeps every frame.
+    ImageProcessor(int maxDimension, int quality, int byteBudget, int duplicateThreshold) {
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+        this.byteBudget = byteBudget;
+        this.duplicateFilter = new DuplicateFilter(HASH_CACHE_SIZE, duplicateThreshold);
+        this.buffers = new ThreadLocal<Buffers>() {
+            @Override
+            protected Buffers initialValue() {
+                return new Buffers();
+            }
+        };
+
+        // A burst of shots never queues more than a few decodes, the rest go out as captured.
+        this.executor = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_WAITING_IMAGES), new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor threadPoolExecutor) {
+                ((ProcessTask) runnable).passThrough();
+            }
+        });
+    }
+
+    static ImageProcessor load(SharedPreferences sharedPreferences) {
+        return new ImageProcessor(sharedPreferences.getInt(PREFERENCE_MAX_DIMENSION, DEFAULT_MAX_DIMENSION),
+                sharedPreferences.getInt(PREFERENCE_QUALITY, DEFAULT_QUALITY),
+                sharedPreferences.getInt(PREFERENCE_BYTE_BUDGET, DEFAULT_BYTE_BUDGET),
+                sharedPreferences.getInt(PREFERENCE_DUPLICATE_THRESHOLD, DEFAULT_DUPLICATE_THRESHOLD));
+    }
+
+    void process(File imageFile, Callback callback) {
+        executor.execute(new ProcessTask(imageFile, callback));
+    }
+
+    long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    // Captured bytes of the duplicates that were not uploaded.
+    long getDuplicateBytesSaved() {
+        return duplicateBytesSaved.get();
+    }
+
+    // Lets queued images finish, they are already captured and their callbacks queue them for upload.
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    // Waits for the images queued before shutdown(). Returns false when some are still being processed.
+    boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Returns false when the image is a near duplicate and was left alone.
+    private boolean processImage(File imageFile) throws IOException {
+        long startMillis = SystemClock.elapsedRealtime();
+        long originalLength = imageFile.length();
+        Buffers workerBuffers = buffers.get();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot read image bounds");
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = ImageSizing.sampleSize(Math.max(options.outWidth, options.outHeight), maxDimension);
+        options.inMutable = true;
+        options.inBitmap = workerBuffers.reusableBitmap(options);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+        } catch (IllegalArgumentException e) {
+            // The reusable bitmap didn't fit after all, decode into a fresh one.
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Cannot decode image");
+        }
+        workerBuffers.bitmap = bitmap;
+
+        long hashStartNanos = System.nanoTime();
+        long hash = workerBuffers.hash(bitmap);
+        boolean duplicate = duplicateFilter.isDuplicate(hash);
+        long hashMicros = (System.nanoTime() - hashStartNanos) / 1000;
+        if (duplicate) {
+            duplicateCount.incrementAndGet();
+            duplicateBytesSaved.addAndGet(originalLength);
+            Log.d(TAG, "DUPLICATE " + imageFile.getName() + ": distance " + duplicateFilter.getLastDistance()
+                    + ", hash " + hashMicros + " us, " + duplicateCount.get() + " duplicates saved "
+                    + duplicateBytesSaved.get() + " bytes");
+            return false;
+        }
+
+        final ByteArrayOutputStream output = workerBuffers.output;
+        final Bitmap decoded = bitmap;
+        int encodeQuality = ImageSizing.encodeWithinBudget(new ImageSizing.Encoder() {
+            @Override
+            public int encode(int jpegQuality) {
+                output.reset();
+                decoded.compress(Bitmap.CompressFormat.JPEG, jpegQuality, output);
+                return output.size();
+            }
+        }, quality, byteBudget);
+
+        if (output.size() < originalLength) {
+            replace(imageFile, output);
+            bytesSaved.addAndGet(originalLength - output.size());
+        }
+
+        Log.d(TAG, "PROCESSED " + imageFile.getName() + ": " + originalLength + " -> " + Math.min(output.size(), originalLength)
+                + " bytes, quality " + encodeQuality + ", sample " + options.inSampleSize + ", hash " + hashMicros
+                + " us, " + (SystemClock.elapsedRealtime() - startMillis) + " ms, saved so far " + bytesSaved.get());
+        return true;
+    }
+
+    private static void replace(File imageFile, ByteArrayOutputStream output) throws IOException {
+        File tempFile = new File(imageFile.getAbsolutePath() + TEMP_SUFFIX);
+        FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+        try {
+            output.writeTo(fileOutputStream);
+            fileOutputStream.getFD().sync();
+        } finally {
+            fileOutputStream.close();
+        }
+        if (!tempFile.renameTo(imageFile)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + imageFile.getName());
+        }
+    }
+
+    private static class Buffers {
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(512 * 1024);
+        final Bitmap hashBitmap = Bitmap.createBitmap(HASH_WIDTH, HASH_HEIGHT, Bitmap.Config.ARGB_8888);
+        final Canvas hashCanvas = new Canvas(hashBitmap);
+        final Paint hashPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        final Rect hashRect = new Rect(0, 0, HASH_WIDTH, HASH_HEIGHT);
+        final int[] hashPixels = new int[HASH_WIDTH * HASH_HEIGHT];
+        final DHash dHash = new DHash();
+        Bitmap bitmap;
+
+        // The bitmap is scaled to a few pixels per hash cell first, DHash averages those per cell.
+        long hash(Bitmap source) {
+            hashCanvas.drawBitmap(source, null, hashRect, hashPaint);
+            hashBitmap.getPixels(hashPixels, 0, HASH_WIDTH, 0, 0, HASH_WIDTH, HASH_HEIGHT);
+            return dHash.compute(hashPixels, HASH_WIDTH, HASH_HEIGHT);
+        }
+
+        // Since KitKat any mutable bitmap with enough bytes can be decoded into, whatever its dimensions.
+        Bitmap reusableBitmap(BitmapFactory.Options options) {
+            int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            if (bitmap != null && bitmap.getAllocationByteCount() >= width * height * 4) {
+                return bitmap;
+            }
+            if (bitmap != null) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+            return null;
+        }
+    }
+
+    private class ProcessTask implements Runnable {
+
+        private final File imageFile;
+        private final Callback callback;
+
+        ProcessTask(File imageFile, Callback callback) {
+            this.imageFile = imageFile;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            boolean kept = true;
+            try {
+                kept = processImage(imageFile);
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                Log.e(TAG, "CANNOT PROCESS " + imageFile.getName() + ", UPLOADING AS CAPTURED: " + e);
+            }
+            if (kept) {
+                callback.onProcessed(imageFile);
+            } else {
+                callback.onDuplicate(imageFile);
+            }
+        }
+
+        void passThrough() {
+            Log.d(TAG, "PROCESSOR BUSY, UPLOADING AS CAPTURED: " + imageFile.getName());
+            callback.onProcessed(imageFile);
+        }
+    }
+}
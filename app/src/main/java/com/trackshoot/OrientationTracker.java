@@ -0,0 +1,127 @@
+package com.trackshoot;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.SystemClock;
+
+// Keeps track of the device orientation for shot metadata. The legacy mode listens to the accelerometer and
+// magnetometer at SENSOR_DELAY_NORMAL, like the service always did. The rotation vector mode listens to one fused
+// sensor at a low rate and lets the hardware FIFO batch the events, so the CPU wakes up every couple of seconds
+// instead of on every sample. Event rate and callback CPU time are counted for both, to compare them.
+// Events are delivered on the handler given to start(), all other calls except stop() belong on that thread too.
+class OrientationTracker implements SensorEventListener, ShotMetadata.OrientationSource {
+
+    private final SensorManager sensorManager;
+    private final Sensor rotationVectorSensor;
+    private final OrientationRingBuffer ringBuffer = new OrientationRingBuffer(RING_CAPACITY);
+    private final float[] accelerometerReading = new float[3];
+    private final float[] magnetometerReading = new float[3];
+    private final float[] rotationMatrix = new float[9];
+    private final float[] orientationAngles = new float[3];
+    private boolean batching;
+    private long eventCount;
+    private long callbackCpuNanos;
+    private long startMillis;
+
+    static final String PREFERENCE_ORIENTATION_MODE = "ORIENTATION_MODE";
+    static final String MODE_LEGACY = "legacy";
+    static final String MODE_ROTATION_VECTOR = "rotation_vector";
+
+    private static final int RING_CAPACITY = 32;
+    private static final int ROTATION_VECTOR_PERIOD_US = 200 * 1000;
+    private static final int MAX_REPORT_LATENCY_US = 2 * 1000 * 1000;
+
+    // Falls back to the legacy mode when the device has no rotation vector sensor.
+    OrientationTracker(SensorManager sensorManager, String mode) {
+        this.sensorManager = sensorManager;
+        this.rotationVectorSensor = MODE_LEGACY.equals(mode) ? null : sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+    }
+
+    void start(Handler handler) {
+        startMillis = SystemClock.elapsedRealtime();
+        if (rotationVectorSensor != null) {
+            batching = rotationVectorSensor.getFifoMaxEventCount() > 0;
+            sensorManager.registerListener(this, rotationVectorSensor, ROTATION_VECTOR_PERIOD_US,
+                    batching ? MAX_REPORT_LATENCY_US : 0, handler);
+        } else {
+            sensorManager.registerListener(this,
+                    sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
+                    SensorManager.SENSOR_DELAY_NORMAL, handler);
+            sensorManager.registerListener(this,
+                    sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
+                    SensorManager.SENSOR_DELAY_NORMAL, handler);
+        }
+    }
+
+    void stop() {
+        sensorManager.unregisterListener(this);
+    }
+
+    // A shot is coming, have the FIFO deliver what it holds so samples around the capture are available.
+    void flush() {
+        if (batching) {
+            sensorManager.flush(this);
+        }
+    }
+
+    // Orientation at the given SystemClock.elapsedRealtimeNanos() time, the time base of sensor events.
+    @Override
+    public float[] getOrientation(long timestampNanos, float[] out) {
+        if (rotationVectorSensor == null) {
+            OrientationMath.getRotationMatrix(rotationMatrix, accelerometerReading, magnetometerReading);
+            OrientationMath.getOrientation(rotationMatrix, out);
+        } else if (!ringBuffer.interpolate(timestampNanos, out)) {
+            out[0] = 0;
+            out[1] = 0;
+            out[2] = 0;
+        }
+        return out;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent sensorEvent) {
+        long cpuStartNanos = Debug.threadCpuTimeNanos();
+        int type = sensorEvent.sensor.getType();
+        if (type == Sensor.TYPE_ROTATION_VECTOR) {
+            SensorManager.getRotationMatrixFromVector(rotationMatrix, sensorEvent.values);
+            SensorManager.getOrientation(rotationMatrix, orientationAngles);
+            ringBuffer.add(sensorEvent.timestamp, orientationAngles[0], orientationAngles[1], orientationAngles[2]);
+        } else if (type == Sensor.TYPE_ACCELEROMETER) {
+            System.arraycopy(sensorEvent.values, 0, accelerometerReading,
+                    0, accelerometerReading.length);
+        } else if (type == Sensor.TYPE_MAGNETIC_FIELD) {
+            System.arraycopy(sensorEvent.values, 0, magnetometerReading,
+                    0, magnetometerReading.length);
+        }
+        eventCount++;
+        callbackCpuNanos += Debug.threadCpuTimeNanos() - cpuStartNanos;
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int i) {
+    }
+
+    String getModeName() {
+        if (rotationVectorSensor == null) {
+            return MODE_LEGACY;
+        }
+        return batching ? MODE_ROTATION_VECTOR + " (batched)" : MODE_ROTATION_VECTOR;
+    }
+
+    long getEventCount() {
+        return eventCount;
+    }
+
+    double getEventRate() {
+        long elapsedMillis = SystemClock.elapsedRealtime() - startMillis;
+        return elapsedMillis > 0 ? eventCount * 1000.0 / elapsedMillis : 0;
+    }
+
+    long getCallbackCpuNanos() {
+        return callbackCpuNanos;
+    }
+}
@@ -0,0 +1,19 @@
+package com.trackshoot;
+
+// What the service tells the activity about itself. One instance is filled in again for every update, on the main
+// thread, listeners copy what they keep.
+class ServiceStatus {
+
+    boolean running;
+    // 0 until the first fix.
+    long fixTimeMillis;
+    double latitude;
+    double longitude;
+    double distance;
+    long fixCount;
+    long shotCount;
+    long queueDepth;
+    long uploadCount;
+    long retryCount;
+    double uploadBytesPerSecond;
+}
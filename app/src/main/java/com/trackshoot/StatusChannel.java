@@ -0,0 +1,140 @@
+package com.trackshoot;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Status feedback from the service to the user. Every fix is published through a triple buffer, which costs a few
+// stores and no allocation, and the main thread is asked to push a status at most once per interval. The status is
+// assembled on the main thread from the newest fix and the metrics and goes to the bound listeners, a toast shows
+// it when no one is listening.
+class StatusChannel {
+
+    interface Listener {
+        // Main thread. The status is reused for the next update.
+        void onStatus(ServiceStatus status);
+    }
+
+    private final Context context;
+    private final Handler mainHandler;
+    private final long intervalMillis;
+    private final Metrics metrics;
+    private final TripleBuffer<double[]> fixes = new TripleBuffer<>(new double[4], new double[4], new double[4]);
+    private final AtomicLong lastPostMillis;
+    private final List<Listener> listeners = new ArrayList<>();
+    private final ServiceStatus status = new ServiceStatus();
+    private boolean running = true;
+    private long lastToastMillis;
+    private long lastUploadBytes;
+    private long lastUploadMillis;
+
+    private final Runnable pushStatus = new Runnable() {
+        @Override
+        public void run() {
+            push();
+        }
+    };
+
+    static final long STATUS_INTERVAL_MILLIS = 1000;
+
+    private static final String TAG = StatusChannel.class.getName();
+    private static final long TOAST_INTERVAL_MILLIS = 5000;
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    StatusChannel(Context context, Handler mainHandler, long intervalMillis, Metrics metrics) {
+        this.context = context;
+        this.mainHandler = mainHandler;
+        this.intervalMillis = intervalMillis;
+        this.metrics = metrics;
+        this.lastPostMillis = new AtomicLong(-intervalMillis);
+        this.lastToastMillis = -TOAST_INTERVAL_MILLIS;
+        this.lastUploadBytes = metrics.getUploadBytes();
+        this.lastUploadMillis = SystemClock.elapsedRealtime();
+    }
+
+    // Callback thread only.
+    void publish(long timeMillis, double latitude, double longitude, double distance) {
+        double[] fix = fixes.writeSlot();
+        fix[0] = timeMillis;
+        fix[1] = latitude;
+        fix[2] = longitude;
+        fix[3] = distance;
+        fixes.publish();
+        update();
+    }
+
+    // Something the status shows has changed. Any thread, coalesced to one push per interval.
+    void update() {
+        long now = SystemClock.elapsedRealtime();
+        long last = lastPostMillis.get();
+        if (now - last >= intervalMillis && lastPostMillis.compareAndSet(last, now)) {
+            mainHandler.post(pushStatus);
+        }
+    }
+
+    // Main thread. The listener gets the current status right away and every update after it.
+    void addListener(Listener listener) {
+        listeners.add(listener);
+        push();
+    }
+
+    // Main thread.
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Main thread. Tells the listeners the service has stopped.
+    void close() {
+        mainHandler.removeCallbacks(pushStatus);
+        running = false;
+        push();
+        listeners.clear();
+    }
+
+    private void push() {
+        double[] fix = fixes.read();
+        status.running = running;
+        status.fixTimeMillis = (long) fix[0];
+        status.latitude = fix[1];
+        status.longitude = fix[2];
+        status.distance = fix[3];
+        status.fixCount = metrics.getFixCount();
+        status.shotCount = metrics.getCaptureCount();
+        status.queueDepth = metrics.getQueueDepth();
+        status.uploadCount = metrics.getUploadCount();
+        status.retryCount = metrics.getRetryCount();
+        updateThroughput();
+
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onStatus(status);
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (listeners.isEmpty() && running && status.fixTimeMillis != 0 && now - lastToastMillis >= TOAST_INTERVAL_MILLIS) {
+            lastToastMillis = now;
+            String text = status.latitude + " " + status.longitude + " " + status.distance;
+            Toast.makeText(context, text, Toast.LENGTH_SHORT).show();
+            Log.d(TAG, "latitude: " + status.latitude + " longitude: " + status.longitude + " distance: " + status.distance);
+        }
+    }
+
+    // Upload bytes per second since the previous push, smoothed so one large image doesn't make it jump.
+    private void updateThroughput() {
+        long now = SystemClock.elapsedRealtime();
+        long elapsedMillis = now - lastUploadMillis;
+        if (elapsedMillis < intervalMillis / 2) {
+            return;
+        }
+        long bytes = metrics.getUploadBytes();
+        double rate = (bytes - lastUploadBytes) * 1000.0 / elapsedMillis;
+        status.uploadBytesPerSecond += THROUGHPUT_SMOOTHING * (rate - status.uploadBytesPerSecond);
+        lastUploadBytes = bytes;
+        lastUploadMillis = now;
+    }
+}
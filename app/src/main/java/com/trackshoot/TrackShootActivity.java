@@ -1,11 +1,13 @@
 package com.trackshoot;
 
-import android.app.ActivityManager;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
@@ -25,14 +27,54 @@ public class TrackShootActivity extends AppCompatActivity {
     private TextView labelSubmissionRate;
     private RadioGroup radioGroupDistance;
     private Button buttonService;
+    private TextView labelMetrics;
 
     private Intent trackShootServiceIntent;
+    private TrackShootService trackShootService;
+    private boolean serviceRunning;
+
+    private final StatusChannel.Listener statusListener = new StatusChannel.Listener() {
+        @Override
+        public void onStatus(ServiceStatus status) {
+            if (status.running != serviceRunning) {
+                serviceRunning = status.running;
+                if (serviceRunning) {
+                    activateSecondaryUI();
+                } else {
+                    activatePrimaryUI();
+                }
+            }
+            if (status.running) {
+                showStatus(status);
+            } else {
+                // The service has dropped its listeners, a new instance connects again.
+                trackShootService = null;
+            }
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            trackShootService = ((TrackShootService.LocalBinder) binder).getService();
+            trackShootService.addStatusListener(statusListener);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            trackShootService = null;
+            serviceRunning = false;
+            activatePrimaryUI();
+        }
+    };
 
     private int rate;
 
     private static final String TAG = TrackShootActivity.class.getName();
     public static final String APP_ID = "APP_ID";
     public static final String RATE = "RATE";
+    // Optional, true uploads every shot right away whatever the network and battery.
+    public static final String URGENT_UPLOAD = "URGENT_UPLOAD";
     private static final int VITAL_PERMISSIONS_CODE = 0;
 
     @Override
@@ -40,20 +82,40 @@ public class TrackShootActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_track_shoot);
         initComponents();
+        saveUploadServer();
         requestPermissions();
     }
 
+    // adb shell am start -n com.trackshoot/.TrackShootActivity --es UPLOAD_SERVER http://host:8080 points the
+    // uploads at a self-hosted ingest server, an empty value goes back to Imgur. Read when the service starts.
+    private void saveUploadServer() {
+        String server = getIntent().getStringExtra(UploadPreferences.PREFERENCE_SERVER);
+        if (server != null) {
+            getSharedPreferences(getString(R.string.app_name), MODE_PRIVATE).edit()
+                    .putString(UploadPreferences.PREFERENCE_SERVER, server.trim())
+                    .commit();
+        }
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
-        // Activate the appropriate UI and get the service if it's running.
         loadPreferences();
-        if (isServiceRunning(TrackShootService.class)) {
-            startTrackService();
-            activateSecondaryUI();
-        } else {
-            activatePrimaryUI();
+        serviceRunning = false;
+        activatePrimaryUI();
+        // Without BIND_AUTO_CREATE the binding attaches to a running service, or to one started later, but never
+        // starts it. The first status then switches to the UI of a running service.
+        bindService(new Intent(this, TrackShootService.class), serviceConnection, 0);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (trackShootService != null) {
+            trackShootService.removeStatusListener(statusListener);
+            trackShootService = null;
         }
+        unbindService(serviceConnection);
     }
 
     public void onRadioButtonClicked(View view) {
@@ -86,6 +148,7 @@ public class TrackShootActivity extends AppCompatActivity {
         labelSubmissionRate = (TextView) findViewById(R.id.label_submission_rate);
         radioGroupDistance = (RadioGroup) findViewById(R.id.radio_group_distance);
         buttonService = (Button) findViewById(R.id.button_service);
+        labelMetrics = (TextView) findViewById(R.id.label_metrics);
 
         labelServiceStatus.setText(getString(R.string.status_not_running));
         buttonService.setText(getString(R.string.button_start));
@@ -93,8 +156,9 @@ public class TrackShootActivity extends AppCompatActivity {
         buttonService.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if (isServiceRunning(TrackShootService.class)) {
+                if (serviceRunning) {
                     stopTrackService();
+                    serviceRunning = false;
                     activatePrimaryUI();
                 } else {
                     // Start the service only if the distance has been chosen.
@@ -102,6 +166,7 @@ public class TrackShootActivity extends AppCompatActivity {
                         Toast.makeText(getApplicationContext(), getString(R.string.message_choose_distance), Toast.LENGTH_SHORT).show();
                     } else {
                         startTrackService();
+                        serviceRunning = true;
                         activateSecondaryUI();
                         savePreferences();
                     }
@@ -115,6 +180,7 @@ public class TrackShootActivity extends AppCompatActivity {
         editTextAppId.setVisibility(View.VISIBLE);
         labelAppId.setVisibility(View.INVISIBLE);
         radioGroupDistance.setVisibility(View.VISIBLE);
+        labelMetrics.setVisibility(View.INVISIBLE);
         labelServiceStatus.setText(getString(R.string.status_not_running));
         buttonService.setText(getString(R.string.button_start));
     }
@@ -125,10 +191,20 @@ public class TrackShootActivity extends AppCompatActivity {
         labelAppId.setText(getString(R.string.label_app_id_secondary) + editTextAppId.getText());
         labelSubmissionRate.setText(getString(R.string.label_submit_every) + rate + getString(R.string.sign_meters_space));
         radioGroupDistance.setVisibility(View.INVISIBLE);
+        labelMetrics.setVisibility(View.VISIBLE);
         labelServiceStatus.setText(getString(R.string.status_running));
         buttonService.setText(getString(R.string.button_stop));
     }
 
+    // The latency histograms are read straight from the service's metrics, the service runs in this process.
+    private void showStatus(ServiceStatus status) {
+        Metrics metrics = TrackShootService.getMetrics();
+        labelMetrics.setText(getString(R.string.label_metrics, status.latitude, status.longitude, status.fixCount,
+                status.shotCount, status.uploadCount, status.uploadBytesPerSecond / 1024, status.queueDepth,
+                status.retryCount, metrics.getFixToCapture().getQuantileMillis(0.9),
+                metrics.getCaptureToUpload().getQuantileMillis(0.9) / 1000));
+    }
+
     private void savePreferences() {
         SharedPreferences.Editor editor = getSharedPreferences(getString(R.string.app_name), Context.MODE_PRIVATE).edit();
         editor.putString(APP_ID, editTextAppId.getText().toString());
@@ -162,17 +238,7 @@ public class TrackShootActivity extends AppCompatActivity {
     }
 
     private void stopTrackService() {
-        stopService(trackShootServiceIntent);
-    }
-
-    private boolean isServiceRunning(Class<?> serviceClass) {
-        ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
-        for (ActivityManager.RunningServiceInfo service : activityManager.getRunningServices(Integer.MAX_VALUE)) {
-            if (serviceClass.getName().equals(service.service.getClassName())) {
-                return true;
-            }
-        }
-        return false;
+        stopService(new Intent(this, TrackShootService.class));
     }
 
     private void requestPermissions() {
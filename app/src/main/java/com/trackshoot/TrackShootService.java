@@ -3,14 +3,19 @@ package com.trackshoot;
 import android.Manifest;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.location.Location;
+import android.os.Binder;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
@@ -26,60 +31,254 @@ import com.androidhiddencamera.config.CameraImageFormat;
 import com.androidhiddencamera.config.CameraResolution;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
 import com.google.android.gms.location.LocationListener;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.location.LocationSettingsRequest;
-import com.google.android.gms.location.LocationSettingsResult;
-
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TrackShootService extends HiddenCameraService implements
-        SensorEventListener,
         GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener,
         LocationListener {
 
-    private boolean isInitialCoordinatesSet;
-    private String appId;
-    private int rate;
-    private double distance;
-    private double initialLatitude;
-    private double initialLongitude;
+    // Outlives the service, so the activity can show the counters of the whole process.
+    private static final Metrics metrics = new Metrics();
+    // Before Process.getStartElapsedRealtime() the loading of this class is the nearest to the process start.
+    private static final long classLoadMillis = SystemClock.elapsedRealtime();
+    private static boolean createdBefore;
+
+    private volatile String appId;
+    private volatile int rate;
+    private final ShotTrigger shotTrigger = new ShotTrigger(new ShotTrigger.Conditions() {
+        @Override
+        public boolean isCovered(double latitude, double longitude, double radiusMeters, long timeMillis) {
+            // Shot on an earlier run, look again one rate further on. Counted, not logged, it is per fix.
+            return coverageStore.isCovered(appId, latitude, longitude, radiusMeters, timeMillis);
+        }
 
-    private SensorManager sensorManager;
+        @Override
+        public boolean isBacklogged() {
+            return uploadScheduler.updateBacklog(uploadPolicy.getReleasedShots(uploadQueue.size()));
+        }
+    });
+    private final LocationScheduler locationScheduler = new LocationScheduler(LOCATION_TIME_INTERVAL);
+
+    private OrientationTracker orientationTracker;
+    private volatile long startMillis;
+    private volatile long firstFixNanos;
+    private volatile long captureRequestNanos;
+    private volatile long captureWallMillis;
+    private volatile long triggerFixNanos;
+    private boolean cameraStarted;
+    private long cameraStartMillis;
+    private boolean captureInFlight;
+    private boolean capturePending;
+    private long captureDelayMillis;
+    private HandlerThread callbackThread;
+    private Handler callbackHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private StatusChannel statusChannel;
+    private TrackLog trackLog;
+    private TrackLog simplifiedTrackLog;
+    private TrackSimplifier trackSimplifier;
+    private CoverageStore coverageStore;
     private GoogleApiClient googleClient;
     private LocationRequest locationRequest;
-    private JSONObject shotInfo;
+    private ShotMetadata shotMetadata;
+    private UploadConfig uploadConfig;
+    private UploadQueue uploadQueue;
+    private UploadScheduler uploadScheduler;
+    // Written last by the startup work on the callback thread, once set the logs and the queue before it are open.
+    private volatile UploaderThread uploaderThread;
+    private StorageBudget storageBudget;
+    private AcknowledgedHashes acknowledgedHashes;
+    private UploadPolicy uploadPolicy;
+    private final AtomicBoolean sweepScheduled = new AtomicBoolean();
+    private ImageProcessor imageProcessor;
+
+    private final IBinder binder = new LocalBinder();
+
+    private final Runnable shootRunnable = new Runnable() {
+        @Override
+        public void run() {
+            capture();
+        }
+    };
 
-    private final float[] accelerometerReading = new float[3];
-    private final float[] magnetometerReading = new float[3];
-    private final float[] rotationMatrix = new float[9];
-    private final float[] orientationAngles = new float[3];
+    private final Runnable loadCameraRunnable = new Runnable() {
+        @Override
+        public void run() {
+            loadCamera();
+        }
+    };
+
+    // Frees storage a few images at a time, the callback thread is never held up for long.
+    private final Runnable sweepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (storageBudget.sweep(STORAGE_SWEEP_BATCH)) {
+                callbackHandler.post(this);
+            } else {
+                sweepScheduled.set(false);
+            }
+        }
+    };
+
+    // Holding the queue is all it takes to defer, the drain jobs are there to let it go again.
+    private final UploadPolicy.Gate uploadGate = new UploadPolicy.Gate() {
+        @Override
+        public void setHeld(boolean held) {
+            uploadQueue.setHeld(held);
+            if (held) {
+                scheduleDrain();
+            }
+        }
+    };
+
+    private final Logger logger = new Logger() {
+        @Override
+        public void debug(String message) {
+            Log.d(TAG, message);
+        }
+
+        @Override
+        public void error(String message) {
+            Log.e(TAG, message);
+        }
+    };
+
+    // Saves the coverage on the thread that uses it, a crash loses at most one interval of it.
+    private final Runnable coverageSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            coverageStore.save();
+            callbackHandler.postDelayed(this, COVERAGE_SAVE_INTERVAL_MILLIS);
+        }
+    };
+
+    // Before JobScheduler the conditions are simply checked again now and then while shots are held.
+    private final Runnable drainCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            uploadPolicy.evaluate(System.currentTimeMillis());
+            if (!uploadPolicy.isDraining()) {
+                callbackHandler.postDelayed(this, DRAIN_CHECK_INTERVAL_MILLIS);
+            }
+        }
+    };
+
+    private final Runnable metricsDumpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dumpMetrics();
+            callbackHandler.postDelayed(this, METRICS_DUMP_INTERVAL_MILLIS);
+        }
+    };
+
+    // The last message of the callback thread, the track logs are appended to there and closed after the last fix.
+    private final Runnable closeTrackLogRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Null when the service stopped before the startup work, nothing was opened then.
+            if (uploaderThread != null) {
+                closeTrackLog();
+            }
+        }
+    };
 
     private static final String TAG = TrackShootService.class.getName();
     private static final int LOCATION_TIME_INTERVAL = 1000;
     private static final int LOCATION_FASTEST_TIME_INTERVAL = 500;
-
+    private static final String UPLOAD_QUEUE_DIRECTORY = "upload_queue";
+    private static final String TRACK_LOG_DIRECTORY = "track_log";
+    private static final String SIMPLIFIED_TRACK_LOG_DIRECTORY = "track_simplified";
+    private static final String COVERAGE_DIRECTORY = "coverage";
+    private static final long COVERAGE_SAVE_INTERVAL_MILLIS = 60 * 1000;
+    private static final String METRICS_FILE = "metrics.prom";
+    private static final long METRICS_DUMP_INTERVAL_MILLIS = 60 * 1000;
+    private static final String STORAGE_JOURNAL_FILE = "storage_journal";
+    private static final String ACKNOWLEDGED_HASHES_FILE = "acknowledged_hashes";
+    private static final String PREFERENCE_STORAGE_BUDGET = "STORAGE_BUDGET_MB";
+    private static final int DEFAULT_STORAGE_BUDGET_MB = 512;
+    private static final int STORAGE_SWEEP_BATCH = 8;
+    private static final long DRAIN_CHECK_INTERVAL_MILLIS = 5 * 60 * 1000;
+    private static final String PREFERENCE_TRACK_TOLERANCE = "TRACK_TOLERANCE_METERS";
+    private static final float DEFAULT_TRACK_TOLERANCE_METERS = 5;
+    private static final int TRACK_SIMPLIFIER_WINDOW = 64;
+    private static final String PREFERENCE_CAPTURE_DELAY = "CAPTURE_DELAY_MILLIS";
+    private static final long CAMERA_WARMUP_MILLIS = 1000;
+    private static final int FIX_HISTORY = 8;
+    private static final long MAX_EXTRAPOLATION_NANOS = 2000000000L;
+    private static final int LATENCY_LOG_INTERVAL = 20;
+    private static final long CALLBACK_THREAD_JOIN_MILLIS = 1000;
+    private static final long IMAGE_PROCESSOR_AWAIT_MILLIS = 5000;
+
+    // Only what a restarted service needs before its first fix is set up here. The track logs and the upload queue
+    // replay their files on the callback thread, location updates start once onStartCommand knows the app id and
+    // rate, the sensors and the camera once the first fix has come.
     @Override
     public void onCreate() {
         super.onCreate();
-        isInitialCoordinatesSet = false;
-        loadOrientationService();
-        createGoogleClient();
-        setLocationRequestSettings();
+        startMillis = SystemClock.elapsedRealtime();
+        ShotRecordEncoder shotRecordEncoder = new ShotRecordEncoder(getString(R.string.json_string_app_id),
+                getString(R.string.json_string_rate),
+                getString(R.string.json_string_gps),
+                getString(R.string.json_string_datetime),
+                getString(R.string.json_string_timestamp),
+                getString(R.string.json_string_orientation),
+                getString(R.string.sign_meters));
+        // No delay by default, the camera stays open between shots. 1000 restores the old fixed delay.
+        captureDelayMillis = getSharedPreferences(getString(R.string.app_name), MODE_PRIVATE)
+                .getLong(PREFERENCE_CAPTURE_DELAY, 0);
+        startCallbackThread();
+        // Journal replays, compactions and fsyncs. Posted before any fix can be, so every fix finds them done.
+        callbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                openTrackLog();
+                startUploader();
+            }
+        });
+        coverageStore = CoverageStore.load(getSharedPreferences(getString(R.string.app_name), MODE_PRIVATE),
+                new File(getFilesDir(), COVERAGE_DIRECTORY));
+        callbackHandler.postDelayed(coverageSaveRunnable, COVERAGE_SAVE_INTERVAL_MILLIS);
+        createOrientationTracker();
+        shotMetadata = new ShotMetadata(shotRecordEncoder, orientationTracker, FIX_HISTORY, MAX_EXTRAPOLATION_NANOS);
+        callbackHandler.postDelayed(metricsDumpRunnable, METRICS_DUMP_INTERVAL_MILLIS);
+    }
+
+    static Metrics getMetrics() {
+        return metrics;
+    }
+
+    // The activity runs in the same process and talks to the service directly.
+    class LocalBinder extends Binder {
+        TrackShootService getService() {
+            return TrackShootService.this;
+        }
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
+    }
+
+    // Main thread. The listener gets the status right away, then whenever it changes until the service stops.
+    void addStatusListener(StatusChannel.Listener listener) {
+        statusChannel.addListener(listener);
+    }
+
+    // Main thread.
+    void removeStatusListener(StatusChannel.Listener listener) {
+        statusChannel.removeListener(listener);
     }
 
     @Override
@@ -87,61 +286,175 @@ public class TrackShootService extends HiddenCameraService implements
         if (intent != null) {
             appId = (String) intent.getExtras().get(TrackShootActivity.APP_ID);
             rate = (int) intent.getExtras().get(TrackShootActivity.RATE);
+            if (intent.hasExtra(TrackShootActivity.URGENT_UPLOAD)) {
+                final boolean urgent = intent.getBooleanExtra(TrackShootActivity.URGENT_UPLOAD, false);
+                // The policy is created on the callback thread, after the posted startup work.
+                callbackHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        uploadPolicy.setUrgent(urgent, System.currentTimeMillis());
+                    }
+                });
+            }
+        } else if (appId == null) {
+            // Restarted by the system, go on with what the activity last started.
+            SharedPreferences sharedPreferences = getSharedPreferences(getString(R.string.app_name), MODE_PRIVATE);
+            appId = sharedPreferences.getString(TrackShootActivity.APP_ID, "");
+            rate = sharedPreferences.getInt(TrackShootActivity.RATE, 0);
+            if (!createdBefore) {
+                startMillis = processStartMillis();
+            }
         }
+        createdBefore = true;
 
-        loadCamera();
+        startLocationUpdates();
+        if (firstFixNanos != 0) {
+            // Started again, maybe after the camera or overdraw permission was granted.
+            loadCamera();
+        }
 
         return START_STICKY;
     }
 
-    private String getDateTime() {
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(getString(R.string.date_format));
-        return simpleDateFormat.format(new Date());
+    private static long processStartMillis() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return classLoadMillis;
     }
 
-    private void loadOrientationService() {
-        sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+    // Location fixes and sensor events are delivered here, along with the trigger logic and the shot metadata
+    // that depend on them, so the main thread is left to the camera and the UI.
+    private void startCallbackThread() {
+        callbackThread = new HandlerThread("TrackShootCallbacks");
+        callbackThread.start();
+        callbackHandler = new Handler(callbackThread.getLooper());
+        statusChannel = new StatusChannel(getApplicationContext(), mainHandler, StatusChannel.STATUS_INTERVAL_MILLIS,
+                metrics);
+    }
 
-        sensorManager.registerListener(this,
-                sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                SensorManager.SENSOR_DELAY_NORMAL);
+    // The raw track keeps every fix, the simplified one is the compact copy meant for uploading the track.
+    private void openTrackLog() {
+        trackLog = openTrackLog(TRACK_LOG_DIRECTORY);
+        simplifiedTrackLog = openTrackLog(SIMPLIFIED_TRACK_LOG_DIRECTORY);
+        float tolerance = getSharedPreferences(getString(R.string.app_name), MODE_PRIVATE)
+                .getFloat(PREFERENCE_TRACK_TOLERANCE, DEFAULT_TRACK_TOLERANCE_METERS);
+        trackSimplifier = new TrackSimplifier(tolerance, TRACK_SIMPLIFIER_WINDOW, new TrackSimplifier.Listener() {
+            @Override
+            public void onKept(TrackFix fix) {
+                if (simplifiedTrackLog != null) {
+                    simplifiedTrackLog.append(fix.timeMillis, fix.latitude, fix.longitude, fix.accuracy, fix.speed,
+                            fix.bearing);
+                }
+            }
+        });
+    }
 
-        sensorManager.registerListener(this,
-                sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
-                SensorManager.SENSOR_DELAY_NORMAL);
+    private TrackLog openTrackLog(String directory) {
+        try {
+            return new TrackLog(new File(getFilesDir(), directory), TrackLog.DEFAULT_SEGMENT_RECORDS,
+                    TrackLog.DEFAULT_MAX_BYTES);
+        } catch (IOException e) {
+            // Shots do not depend on the track, carry on without it.
+            Log.e(TAG, "CANNOT OPEN TRACK LOG " + directory + ": " + e.getMessage());
+            return null;
+        }
     }
 
-    @Override
-    public void onSensorChanged(SensorEvent sensorEvent) {
-        if (sensorEvent.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            System.arraycopy(sensorEvent.values, 0, accelerometerReading,
-                    0, accelerometerReading.length);
-        } else if (sensorEvent.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-            System.arraycopy(sensorEvent.values, 0, magnetometerReading,
-                    0, magnetometerReading.length);
+    private void startUploader() {
+        // Shots left over from a previous run are picked up by the queue and uploaded first.
+        SharedPreferences sharedPreferences = getSharedPreferences(getString(R.string.app_name), MODE_PRIVATE);
+        uploadConfig = UploadPreferences.load(sharedPreferences);
+        imageProcessor = ImageProcessor.load(sharedPreferences);
+        uploadQueue = new UploadQueue(new File(getFilesDir(), UPLOAD_QUEUE_DIRECTORY), metrics, logger);
+        storageBudget = openStorageBudget(sharedPreferences.getInt(PREFERENCE_STORAGE_BUDGET, DEFAULT_STORAGE_BUDGET_MB));
+        DeviceConditions deviceConditions = new DeviceConditions(getApplicationContext());
+        uploadPolicy = UploadPreferences.loadPolicy(sharedPreferences, deviceConditions, uploadGate, metrics);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            UploadDrainJobService.attach(uploadPolicy);
         }
+        uploadPolicy.start(uploadQueue.storedCount(), System.currentTimeMillis());
+        uploadScheduler = new UploadScheduler(uploadConfig);
+        acknowledgedHashes = openAcknowledgedHashes();
+        UploaderThread thread = new UploaderThread(uploadQueue, uploadScheduler, uploadConfig, metrics, storageBudget,
+                uploadPolicy, acknowledgedHashes, logger);
+        thread.start();
+        Log.d(TAG, "UPLOAD QUEUE LOADED: " + uploadQueue.size());
+        uploaderThread = thread;
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int i) {
+    // Any thread, called by the policy when it starts holding shots back.
+    private void scheduleDrain() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            UploadDrainJobService.schedule(this, uploadPolicy.getDeadlineMillis());
+        } else {
+            callbackHandler.removeCallbacks(drainCheckRunnable);
+            callbackHandler.postDelayed(drainCheckRunnable, DRAIN_CHECK_INTERVAL_MILLIS);
+        }
     }
 
-    private String getOrientation() {
-        sensorManager.getRotationMatrix(rotationMatrix, null,
-                accelerometerReading, magnetometerReading);
-        sensorManager.getOrientation(rotationMatrix, orientationAngles);
-        return "[" + orientationAngles[0] + ", " + orientationAngles[1] + ", " + orientationAngles[2] + "]";
+    private StorageBudget openStorageBudget(int budgetMegabytes) {
+        try {
+            return new StorageBudget(new File(getFilesDir(), STORAGE_JOURNAL_FILE), budgetMegabytes * 1024L * 1024L,
+                    metrics);
+        } catch (IOException e) {
+            // Images are kept until there is an index to delete them by.
+            Log.e(TAG, "CANNOT OPEN STORAGE JOURNAL: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private AcknowledgedHashes openAcknowledgedHashes() {
+        try {
+            return new AcknowledgedHashes(new File(getFilesDir(), ACKNOWLEDGED_HASHES_FILE),
+                    AcknowledgedHashes.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            // Delivered shots left in the queue are sent again, the server drops them.
+            Log.e(TAG, "CANNOT OPEN ACKNOWLEDGED HASHES: " + e.getMessage());
+            return null;
+        }
     }
 
-    private void createGoogleClient() {
-        if (googleClient == null) {
-            googleClient = new GoogleApiClient.Builder(this)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .addApi(LocationServices.API)
-                    .build();
+    // Image processor thread. The first image shows where the camera stores them, whatever was there before the
+    // budget existed is taken into it once.
+    private void trackImage(File imageFile) {
+        if (storageBudget == null) {
+            return;
         }
+        storageBudget.add(imageFile);
+        if (!storageBudget.isAdopted() && imageFile.getParentFile() != null) {
+            int adopted = storageBudget.adopt(imageFile.getParentFile(), uploadQueue.storedImagePaths());
+            Log.d(TAG, "STORAGE ADOPTED " + adopted + " IMAGES, " + storageBudget.getTotalBytes() + " bytes");
+        }
+        if (storageBudget.isOverBudget() && sweepScheduled.compareAndSet(false, true)) {
+            if (!callbackHandler.post(sweepRunnable)) {
+                sweepScheduled.set(false);
+            }
+        }
+    }
 
+    // Only created here, onFirstFix() starts it since no shot needs the orientation before.
+    private void createOrientationTracker() {
+        SensorManager sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        String mode = getSharedPreferences(getString(R.string.app_name), MODE_PRIVATE)
+                .getString(OrientationTracker.PREFERENCE_ORIENTATION_MODE, OrientationTracker.MODE_ROTATION_VECTOR);
+        orientationTracker = new OrientationTracker(sensorManager, mode);
+        Log.d(TAG, "ORIENTATION MODE: " + orientationTracker.getModeName());
+    }
+
+    private void startLocationUpdates() {
+        if (googleClient != null) {
+            return;
+        }
+        locationRequest = new LocationRequest();
+        locationRequest.setInterval(LOCATION_TIME_INTERVAL);
+        locationRequest.setFastestInterval(LOCATION_FASTEST_TIME_INTERVAL);
+        locationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
+        googleClient = new GoogleApiClient.Builder(this)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(LocationServices.API)
+                .build();
         googleClient.connect();
     }
 
@@ -149,7 +462,7 @@ public class TrackShootService extends HiddenCameraService implements
     public void onConnected(@Nullable Bundle bundle) {
         if (ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
             LocationServices.FusedLocationApi.requestLocationUpdates(
-                    googleClient, locationRequest, this);
+                    googleClient, locationRequest, this, callbackThread.getLooper());
         }
     }
 
@@ -161,80 +474,184 @@ public class TrackShootService extends HiddenCameraService implements
     public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
     }
 
-    protected void setLocationRequestSettings() {
-        locationRequest = new LocationRequest();
-        locationRequest.setInterval(LOCATION_TIME_INTERVAL);
-        locationRequest.setFastestInterval(LOCATION_FASTEST_TIME_INTERVAL);
-        locationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
-
-        LocationSettingsRequest.Builder builder = new LocationSettingsRequest.Builder()
-                .addLocationRequest(locationRequest);
-
-        PendingResult<LocationSettingsResult> result =
-                LocationServices.SettingsApi.checkLocationSettings(googleClient,
-                        builder.build());
-    }
-
+    // Runs on the callback thread.
     @Override
     public void onLocationChanged(Location location) {
-        if (!isInitialCoordinatesSet) {
-            initialLatitude = location.getLatitude();
-            initialLongitude = location.getLongitude();
-            isInitialCoordinatesSet = true;
+        metrics.recordFix();
+        if (firstFixNanos == 0) {
+            onFirstFix();
+        }
+        if (trackLog != null) {
+            trackLog.append(location.getTime(), location.getLatitude(), location.getLongitude(),
+                    location.getAccuracy(), location.getSpeed(), location.getBearing());
+        }
+
+        shotMetadata.addFix(location.getElapsedRealtimeNanos(), location.getLatitude(), location.getLongitude(),
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.hasBearing() ? location.getBearing() : Float.NaN);
+
+        int decision = shotTrigger.onFix(location.getLatitude(), location.getLongitude(), location.getTime(), rate);
+        boolean shot = decision == ShotTrigger.SHOOT;
+        if (decision == ShotTrigger.ANCHORED) {
             Log.d(TAG, "INITIAL COORDINATES SET");
         } else {
-            distance = calculateDistance(initialLatitude, initialLongitude, location.getLatitude(), location.getLongitude());
-            Toast.makeText(getApplicationContext(), location.getLatitude() +
-                    " " + location.getLongitude() + " " + distance, Toast.LENGTH_SHORT).show();
-            Log.d(TAG, "latitude: " + location.getLatitude() + " longitude: " + location.getLongitude() + " distance: " + distance);
-
-            // If the distance is >= required distance then take a picture, pack and send the data and set the initial coordinates.
-            distance = rate;
-
-            if (distance >= rate) {
-                packData(location.getLatitude(), location.getLongitude());
-                shootPicture();
-                initialLatitude = location.getLatitude();
-                initialLongitude = location.getLongitude();
-            }
+            statusChannel.publish(location.getTime(), location.getLatitude(), location.getLongitude(),
+                    shotTrigger.getDistance());
+        }
+        if (decision == ShotTrigger.BACKLOGGED) {
+            // Too many shots are waiting for upload, hold off until the backlog drains.
+            Log.d(TAG, "UPLOAD BACKLOG, SHOT SKIPPED");
+        } else if (shot) {
+            packData(location.getLatitude(), location.getLongitude());
+            shootPicture(location.getElapsedRealtimeNanos());
         }
+
+        trackSimplifier.add(location.getTime(), location.getLatitude(), location.getLongitude(),
+                location.getAccuracy(), location.getSpeed(), location.getBearing(), shot);
+        scheduleLocationUpdates(location);
     }
 
-    private double calculateDistance(double initialLatitude, double initialLongitude, double newLatitude, double newLongitude) {
-        double earthRadius = 3958.75;
-        double dLatitude = Math.toRadians(newLatitude - initialLatitude);
-        double dLongitude = Math.toRadians(newLongitude - initialLongitude);
-        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2) +
-                Math.cos(Math.toRadians(initialLatitude)) * Math.cos(Math.toRadians(newLatitude)) *
-                        Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        double distance = earthRadius * c;
-        double meterConversion = 1609.00;
-        return distance * meterConversion;
+    // Callback thread.
+    private void onFirstFix() {
+        firstFixNanos = SystemClock.elapsedRealtimeNanos();
+        long startToFixMillis = firstFixNanos / 1000000 - startMillis;
+        metrics.recordStartToFix(startToFixMillis * 1000000);
+        Log.i(TAG, "STARTUP: FIRST FIX AFTER " + startToFixMillis + " ms");
+        orientationTracker.start(callbackHandler);
+        // The camera belongs to the main thread.
+        mainHandler.post(loadCameraRunnable);
     }
 
-    private void packData(double latitude, double longitude) {
-        try {
-            String gpsCoordinates = "[" + latitude + ", " + longitude + "]";
-            shotInfo = new JSONObject();
-            shotInfo.put(getString(R.string.json_string_app_id), appId);
-            shotInfo.put(getString(R.string.json_string_rate), Integer.toString(rate) + getString(R.string.sign_meters));
-            shotInfo.put(getString(R.string.json_string_gps), gpsCoordinates);
-            shotInfo.put(getString(R.string.json_string_datetime), getDateTime());
-            shotInfo.put(getString(R.string.json_string_orientation), getOrientation());
-        } catch (JSONException e) {
-            e.printStackTrace();
+    // Adapts the location request to the current speed and the distance left to the next decision.
+    private void scheduleLocationUpdates(Location location) {
+        float speed = location.hasSpeed() ? location.getSpeed() : Float.NaN;
+        double distanceFromAnchor = shotTrigger.distanceFromDecision(location.getLatitude(), location.getLongitude());
+        if (!locationScheduler.onFix(location.getTime(), location.getLatitude(), location.getLongitude(), speed,
+                distanceFromAnchor, rate)) {
+            return;
+        }
+
+        long interval = locationScheduler.getIntervalMillis();
+        locationRequest = new LocationRequest();
+        locationRequest.setInterval(interval);
+        locationRequest.setFastestInterval(Math.min(interval / 2, LOCATION_FASTEST_TIME_INTERVAL));
+        locationRequest.setPriority(locationScheduler.getPriority() == LocationScheduler.PRIORITY_BALANCED ?
+                LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY : LocationRequest.PRIORITY_HIGH_ACCURACY);
+        Log.d(TAG, "LOCATION INTERVAL " + interval + " ms AT " + locationScheduler.getSpeed() + " m/s");
+
+        if (googleClient.isConnected() && ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+            // Requesting again with the same listener replaces the previous request.
+            LocationServices.FusedLocationApi.requestLocationUpdates(googleClient, locationRequest, this,
+                    callbackThread.getLooper());
         }
     }
 
+    private void packData(double latitude, double longitude) {
+        shotMetadata.onTrigger(appId, rate, latitude, longitude, System.currentTimeMillis());
+        // The orientation is filled in from samples around the actual capture, flush batched samples for it.
+        orientationTracker.flush();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
-        LocationServices.FusedLocationApi.removeLocationUpdates(
-                googleClient, this);
+        if (googleClient != null && googleClient.isConnected()) {
+            LocationServices.FusedLocationApi.removeLocationUpdates(googleClient, this);
+        }
+        orientationTracker.stop();
+        mainHandler.removeCallbacks(shootRunnable);
+        mainHandler.removeCallbacks(loadCameraRunnable);
+        statusChannel.close();
+        // Let shots already handed to the callback thread reach the image processor before it shuts down.
+        callbackHandler.post(closeTrackLogRunnable);
+        callbackThread.quitSafely();
+        try {
+            callbackThread.join(CALLBACK_THREAD_JOIN_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Null when the service stopped before the callback thread got to the startup work, nothing was opened then.
+        boolean started = uploaderThread != null;
+        dumpMetrics();
+        coverageStore.save();
+        Log.d(TAG, "COVERAGE: " + coverageStore.size() + " cells, " + coverageStore.getSkippedCount() + " fixes skipped");
+        logLatency();
+        Log.d(TAG, "ORIENTATION " + orientationTracker.getModeName() + ": " + orientationTracker.getEventCount() + " events, "
+                + orientationTracker.getEventRate() + " events/s, " + orientationTracker.getCallbackCpuNanos() / 1000000 + " ms CPU");
+        if (started) {
+            Log.d(TAG, "DUPLICATES: " + imageProcessor.getDuplicateCount() + " frames, "
+                    + imageProcessor.getDuplicateBytesSaved() + " bytes not uploaded");
+            imageProcessor.shutdown();
+            try {
+                // Their callbacks still queue and track images, the budget and the hashes close after them.
+                if (!imageProcessor.awaitTermination(IMAGE_PROCESSOR_AWAIT_MILLIS)) {
+                    Log.e(TAG, "IMAGE PROCESSOR STILL BUSY, CLOSING ANYWAY");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            uploaderThread.shutdown();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                UploadDrainJobService.detach(this);
+            }
+        }
+        Log.d(TAG, "RADIO WAKEUPS: " + metrics.getRadioWakeupCount() + ", IMMEDIATE MODE "
+                + metrics.getImmediateRadioWakeupCount() + ". METERED BYTES: " + metrics.getMeteredBytes()
+                + ", IMMEDIATE MODE " + metrics.getImmediateMeteredBytes());
+        if (started) {
+            closeStorageBudget();
+            closeAcknowledgedHashes();
+        }
         Log.d(TAG, "SERVICE DESTROYED");
     }
 
+    private void closeStorageBudget() {
+        if (storageBudget == null) {
+            return;
+        }
+        Log.d(TAG, "STORAGE: " + storageBudget.getTotalBytes() + " bytes, " + storageBudget.getPendingCount()
+                + " pending, " + storageBudget.getUploadedCount() + " uploaded, evicted "
+                + metrics.getUploadedEvictionCount() + " uploaded and " + metrics.getPendingEvictionCount()
+                + " pending");
+        try {
+            storageBudget.close();
+        } catch (IOException e) {
+            Log.e(TAG, "CANNOT CLOSE STORAGE JOURNAL: " + e.getMessage());
+        }
+    }
+
+    private void closeAcknowledgedHashes() {
+        if (acknowledgedHashes == null) {
+            return;
+        }
+        try {
+            acknowledgedHashes.close();
+        } catch (IOException e) {
+            Log.e(TAG, "CANNOT CLOSE ACKNOWLEDGED HASHES: " + e.getMessage());
+        }
+    }
+
+    private void closeTrackLog() {
+        trackSimplifier.flush();
+        Log.d(TAG, "TRACK SIMPLIFIED: " + trackSimplifier.getInputCount() + " -> " + trackSimplifier.getOutputCount()
+                + " fixes");
+        closeTrackLog(trackLog);
+        closeTrackLog(simplifiedTrackLog);
+    }
+
+    private void closeTrackLog(TrackLog trackLog) {
+        if (trackLog == null) {
+            return;
+        }
+        try {
+            trackLog.close();
+        } catch (IOException e) {
+            Log.e(TAG, "CANNOT CLOSE TRACK LOG: " + e.getMessage());
+        }
+        Log.d(TAG, "TRACK LOG: " + trackLog.getAppendedCount() + " fixes, " + trackLog.getDroppedCount() + " dropped");
+    }
+
+    // Main thread.
     private void loadCamera() {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED) {
             Log.d(TAG, "WRITE EXTERNAL STORAGE GRANTED");
@@ -251,7 +668,15 @@ public class TrackShootService extends HiddenCameraService implements
                         .setImageFormat(CameraImageFormat.FORMAT_JPEG)
                         .build();
 
-                startCamera(cameraConfig);
+                if (!cameraStarted) {
+                    // Opened once and kept open, so a shot never waits for the camera.
+                    startCamera(cameraConfig);
+                    cameraStarted = true;
+                    cameraStartMillis = SystemClock.elapsedRealtime();
+                    long fixToReadyNanos = SystemClock.elapsedRealtimeNanos() - firstFixNanos;
+                    metrics.recordFixToReady(fixToReadyNanos);
+                    Log.i(TAG, "STARTUP: READY TO SHOOT " + fixToReadyNanos / 1000000 + " ms AFTER THE FIRST FIX");
+                }
             } else {
                 // Open settings to grant permission for "Draw other apps".
                 Toast.makeText(TrackShootService.this, getString(R.string.message_overdraw), Toast.LENGTH_SHORT).show();
@@ -262,29 +687,122 @@ public class TrackShootService extends HiddenCameraService implements
         }
     }
 
-    private void shootPicture() {
+    private void shootPicture(long fixNanos) {
         Log.d(TAG, "READY TO SHOOT");
+        metrics.recordTrigger();
+
+        // The camera belongs to the main thread.
+        triggerFixNanos = fixNanos;
+        mainHandler.postDelayed(shootRunnable, captureDelayMillis);
+    }
+
+    // Main thread. Fires right away unless the camera has only just been opened, a trigger during a capture
+    // fires as soon as that capture is delivered.
+    private void capture() {
+        if (captureInFlight) {
+            capturePending = true;
+            return;
+        }
+        long warmupMillis = cameraStartMillis + CAMERA_WARMUP_MILLIS - SystemClock.elapsedRealtime();
+        if (warmupMillis > 0) {
+            mainHandler.postDelayed(shootRunnable, warmupMillis);
+            return;
+        }
+
+        try {
+            captureRequestNanos = SystemClock.elapsedRealtimeNanos();
+            captureWallMillis = System.currentTimeMillis();
+            captureInFlight = true;
+            takePicture();
+            metrics.recordCapture(captureRequestNanos - triggerFixNanos);
+        } catch (Exception e) {
+            captureInFlight = false;
+            Log.e(TAG, "CANNOT TAKE PICTURE!");
+        }
+    }
+
+    @Override
+    public void onImageCapture(@NonNull final File imageFile) {
+        metrics.recordImage(SystemClock.elapsedRealtimeNanos() - captureRequestNanos);
+        if (metrics.getCaptureToImage().getCount() % LATENCY_LOG_INTERVAL == 0) {
+            logLatency();
+        }
 
-        new android.os.Handler().postDelayed(new Runnable() {
+        // The shot record, the fixes and the orientation samples live on the callback thread.
+        final long captureNanos = captureRequestNanos;
+        final long captureMillis = captureWallMillis;
+        callbackHandler.post(new Runnable() {
             @Override
             public void run() {
+                queueShot(imageFile, captureNanos, captureMillis);
+            }
+        });
+
+        captureInFlight = false;
+        if (capturePending) {
+            capturePending = false;
+            capture();
+        }
+        statusChannel.update();
+    }
+
+    private void logLatency() {
+        Log.i(TAG, "FIX TO CAPTURE: " + metrics.getFixToCapture());
+        Log.i(TAG, "CAPTURE TO IMAGE: " + metrics.getCaptureToImage());
+    }
+
+    // Replaces the metrics file as a whole, a reader never sees half of it.
+    private void dumpMetrics() {
+        File file = new File(getFilesDir(), METRICS_FILE);
+        File tempFile = new File(getFilesDir(), METRICS_FILE + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(tempFile)), "UTF-8");
+            try {
+                metrics.writePrometheus(writer);
+            } finally {
+                writer.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot replace " + file.getName());
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            Log.e(TAG, "CANNOT WRITE METRICS: " + e.getMessage());
+        }
+    }
+
+    private void queueShot(File imageFile, long captureNanos, final long captureMillis) {
+        // Where the camera was when it fired, not where the trigger fix was.
+        ShotRecord shotRecord = shotMetadata.onCapture(captureNanos, captureMillis);
+        coverageStore.markCovered(shotRecord.appId, shotRecord.latitude, shotRecord.longitude, captureMillis);
+        // Encode the metadata now, the next trigger refills the record while the image is being processed.
+        final String shotAppId = appId;
+        final String metadata = shotMetadata.toJson();
+        final byte[] record = shotMetadata.toBinary();
+        imageProcessor.process(imageFile, new ImageProcessor.Callback() {
+            @Override
+            public void onProcessed(File imageFile) {
                 try {
-                    takePicture();
-                } catch (Exception e) {
-                    Log.e(TAG, "CANNOT TAKE PICTURE!");
+                    // Known to the budget before the uploader can take it and mark it uploaded.
+                    trackImage(imageFile);
+                    uploadQueue.add(imageFile, shotAppId, metadata, record, captureMillis);
+                    uploadPolicy.onShotQueued(imageFile.length(), System.currentTimeMillis());
+                } catch (IOException e) {
+                    Log.e(TAG, "CANNOT QUEUE SHOT: " + e.getMessage());
                 }
             }
-        }, 1000);
-    }
 
-    @Override
-    public void onImageCapture(@NonNull File imageFile) {
-        UploaderThread uploaderThread = new UploaderThread(this, shotInfo, imageFile);
-        uploaderThread.execute();
+            @Override
+            public void onDuplicate(File imageFile) {
+                imageFile.delete();
+            }
+        });
     }
 
     @Override
     public void onCameraError(int errorCode) {
+        captureInFlight = false;
+        capturePending = false;
         switch (errorCode) {
             case CameraError.ERROR_CAMERA_OPEN_FAILED:
                 // Camera open failed. Probably because another application is using the camera.
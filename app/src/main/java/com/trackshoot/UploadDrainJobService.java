@@ -0,0 +1,66 @@
+package com.trackshoot;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+// Wakes the upload policy when the system sees the conditions for a drain: an unmetered network, or charging with
+// any network. The system batches these jobs with other apps' network work, so deferred shots ride along with a
+// radio that is awake anyway. The job only asks the policy to look again, the uploader of the running service does
+// the drain. Without a running service there is nothing to drain, its next start picks the queue up.
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class UploadDrainJobService extends JobService {
+
+    private static volatile UploadPolicy uploadPolicy;
+
+    private static final int UNMETERED_JOB_ID = 1;
+    private static final int CHARGING_JOB_ID = 2;
+
+    static void attach(UploadPolicy policy) {
+        uploadPolicy = policy;
+    }
+
+    static void detach(Context context) {
+        uploadPolicy = null;
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        jobScheduler.cancel(UNMETERED_JOB_ID);
+        jobScheduler.cancel(CHARGING_JOB_ID);
+    }
+
+    // Scheduling again replaces the pending jobs. The unmetered one also runs at deadlineMillis, the deadline of the
+    // oldest deferred shot, whatever the conditions, for the policy to decide on. Long.MAX_VALUE with nothing
+    // deferred yet, the policy holds again with the first one.
+    static void schedule(Context context, long deadlineMillis) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        ComponentName componentName = new ComponentName(context, UploadDrainJobService.class);
+        JobInfo.Builder unmetered = new JobInfo.Builder(UNMETERED_JOB_ID, componentName)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+        if (deadlineMillis != Long.MAX_VALUE) {
+            unmetered.setOverrideDeadline(Math.max(0, deadlineMillis - System.currentTimeMillis()));
+        }
+        jobScheduler.schedule(unmetered.build());
+        jobScheduler.schedule(new JobInfo.Builder(CHARGING_JOB_ID, componentName)
+                .setRequiresCharging(true)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        UploadPolicy policy = uploadPolicy;
+        if (policy != null) {
+            policy.evaluate(System.currentTimeMillis());
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
@@ -0,0 +1,53 @@
+package com.trackshoot;
+
+import android.content.SharedPreferences;
+
+class UploadPreferences {
+
+    // http://host:port of a self-hosted ingest server, which then takes all uploads.
+    static final String PREFERENCE_SERVER = "UPLOAD_SERVER";
+    static final String PREFERENCE_CLIENT_ID = "UPLOAD_CLIENT_ID";
+    static final String PREFERENCE_ENDPOINT = "UPLOAD_ENDPOINT";
+    static final String PREFERENCE_BATCH_ENDPOINT = "UPLOAD_BATCH_ENDPOINT";
+    static final String PREFERENCE_BATCH_SIZE = "UPLOAD_BATCH_SIZE";
+    static final String PREFERENCE_BATCH_MAX_AGE = "UPLOAD_BATCH_MAX_AGE";
+    static final String PREFERENCE_BATCH_BINARY_METADATA = "UPLOAD_BATCH_BINARY_METADATA";
+    static final String PREFERENCE_CHUNK_ENDPOINT = "UPLOAD_CHUNK_ENDPOINT";
+    static final String PREFERENCE_CHUNK_SIZE = "UPLOAD_CHUNK_SIZE";
+    static final String PREFERENCE_DEFERRED = "UPLOAD_DEFERRED";
+    static final String PREFERENCE_MAX_DEFER_MINUTES = "UPLOAD_MAX_DEFER_MINUTES";
+    static final String PREFERENCE_MAX_DEFERRED_SHOTS = "UPLOAD_MAX_DEFERRED_SHOTS";
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+    // Anything not set in the preferences keeps its default, so a stand-in server can be configured without a rebuild.
+    // An explicit endpoint overrides the one of the ingest server.
+    static UploadConfig load(SharedPreferences sharedPreferences) {
+        UploadConfig uploadConfig = new UploadConfig();
+        String server = sharedPreferences.getString(PREFERENCE_SERVER, "");
+        if (!server.isEmpty()) {
+            uploadConfig.setServer(server);
+        }
+        uploadConfig.setClientId(sharedPreferences.getString(PREFERENCE_CLIENT_ID, uploadConfig.getClientId()));
+        uploadConfig.setEndpoint(sharedPreferences.getString(PREFERENCE_ENDPOINT, uploadConfig.getEndpoint()));
+        uploadConfig.setBatchEndpoint(sharedPreferences.getString(PREFERENCE_BATCH_ENDPOINT,
+                server.isEmpty() ? uploadConfig.getEndpoint() : uploadConfig.getBatchEndpoint()));
+        uploadConfig.setBatching(sharedPreferences.getInt(PREFERENCE_BATCH_SIZE, UploadConfig.DEFAULT_BATCH_SIZE),
+                sharedPreferences.getLong(PREFERENCE_BATCH_MAX_AGE, UploadConfig.DEFAULT_BATCH_MAX_AGE_MILLIS));
+        uploadConfig.setBinaryBatchMetadata(sharedPreferences.getBoolean(PREFERENCE_BATCH_BINARY_METADATA, false));
+        uploadConfig.setChunking(sharedPreferences.getString(PREFERENCE_CHUNK_ENDPOINT, uploadConfig.getChunkEndpoint()),
+                sharedPreferences.getInt(PREFERENCE_CHUNK_SIZE, UploadConfig.DEFAULT_CHUNK_SIZE));
+        return uploadConfig;
+    }
+
+    // Deferred unless turned off, UPLOAD_DEFERRED false brings back an upload right after every shot.
+    static UploadPolicy loadPolicy(SharedPreferences sharedPreferences, DeviceConditions deviceConditions,
+                                   UploadPolicy.Gate gate, Metrics metrics) {
+        return new UploadPolicy(sharedPreferences.getBoolean(PREFERENCE_DEFERRED, true) ?
+                UploadPolicy.MODE_DEFERRED : UploadPolicy.MODE_IMMEDIATE,
+                sharedPreferences.getLong(PREFERENCE_MAX_DEFER_MINUTES,
+                        UploadPolicy.DEFAULT_MAX_DEFER_MILLIS / MILLIS_PER_MINUTE) * MILLIS_PER_MINUTE,
+                sharedPreferences.getInt(PREFERENCE_MAX_DEFERRED_SHOTS, UploadPolicy.DEFAULT_MAX_DEFERRED_SHOTS),
+                deviceConditions, deviceConditions, gate, metrics);
+    }
+}
@@ -0,0 +1,73 @@
+package com.trackshoot.benchmark;
+
+import com.trackshoot.GeoDistance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Per-fix cost of the trigger distance, the original haversine against GeoDistance.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+
+    private static final int FIXES = 1024;
+    private static final double ANCHOR_LATITUDE = 55.7558;
+    private static final double ANCHOR_LONGITUDE = 37.6173;
+
+    private final double[] latitudes = new double[FIXES];
+    private final double[] longitudes = new double[FIXES];
+    private final GeoDistance geoDistance = new GeoDistance();
+    private int index;
+
+    @Setup
+    public void setUp() {
+        // Fixes within a few hundred meters of the anchor, like a vehicle between two triggers.
+        Random random = new Random(1);
+        for (int i = 0; i < FIXES; i++) {
+            latitudes[i] = ANCHOR_LATITUDE + (random.nextDouble() - 0.5) * 0.004;
+            longitudes[i] = ANCHOR_LONGITUDE + (random.nextDouble() - 0.5) * 0.006;
+        }
+        geoDistance.setAnchor(ANCHOR_LATITUDE, ANCHOR_LONGITUDE);
+    }
+
+    @Benchmark
+    public double legacyHaversine() {
+        int i = index++ & (FIXES - 1);
+        return calculateDistance(ANCHOR_LATITUDE, ANCHOR_LONGITUDE, latitudes[i], longitudes[i]);
+    }
+
+    @Benchmark
+    public double geoDistance() {
+        int i = index++ & (FIXES - 1);
+        return geoDistance.distanceTo(latitudes[i], longitudes[i]);
+    }
+
+    // TrackShootService.calculateDistance as it was before GeoDistance, kept as the baseline.
+    private static double calculateDistance(double initialLatitude, double initialLongitude, double newLatitude, double newLongitude) {
+        double earthRadius = 3958.75;
+        double dLatitude = Math.toRadians(newLatitude - initialLatitude);
+        double dLongitude = Math.toRadians(newLongitude - initialLongitude);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2) +
+                Math.cos(Math.toRadians(initialLatitude)) * Math.cos(Math.toRadians(newLatitude)) *
+                        Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        double distance = earthRadius * c;
+        double meterConversion = 1609.00;
+        return distance * meterConversion;
+    }
+}
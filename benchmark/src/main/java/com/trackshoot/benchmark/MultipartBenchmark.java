@@ -0,0 +1,75 @@
+package com.trackshoot.benchmark;
+
+import com.trackshoot.PendingShot;
+import com.trackshoot.ShotRequestFactory;
+import com.trackshoot.UploadConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okio.Buffer;
+
+// Per-shot request construction, and writing the multipart body the way OkHttp streams it to the socket.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultipartBenchmark {
+
+    @Param({"500000", "3000000"})
+    public int imageBytes;
+
+    private final ShotRequestFactory shotRequestFactory = new ShotRequestFactory(new UploadConfig());
+    private final Buffer sink = new Buffer();
+    private PendingShot pendingShot;
+    private File imageFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] content = new byte[imageBytes];
+        new Random(1).nextBytes(content);
+        imageFile = File.createTempFile("benchmark", ".jpg");
+        FileOutputStream fileOutputStream = new FileOutputStream(imageFile);
+        fileOutputStream.write(content);
+        fileOutputStream.close();
+        pendingShot = new PendingShot(1, imageFile, "benchmark-app", "{\"app_id\":\"benchmark-app\"}", 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        imageFile.delete();
+    }
+
+    @Benchmark
+    public Request buildRequest() {
+        return shotRequestFactory.newShotRequest(pendingShot);
+    }
+
+    @Benchmark
+    public long writeBody() throws IOException {
+        shotRequestFactory.newShotRequest(pendingShot).body().writeTo(sink);
+        long written = sink.size();
+        sink.clear();
+        return written;
+    }
+}
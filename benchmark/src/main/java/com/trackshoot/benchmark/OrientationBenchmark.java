@@ -0,0 +1,42 @@
+package com.trackshoot.benchmark;
+
+import com.trackshoot.OrientationMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Orientation at shot time: rotation matrix from accelerometer and magnetometer, then the angles and their text form.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrientationBenchmark {
+
+    private final float[] accelerometerReading = {0.31f, 9.62f, 1.84f};
+    private final float[] magnetometerReading = {-12.4f, 21.7f, -38.9f};
+    private final float[] rotationMatrix = new float[9];
+    private final float[] orientationAngles = new float[3];
+
+    @Benchmark
+    public float[] getOrientation() {
+        OrientationMath.getRotationMatrix(rotationMatrix, accelerometerReading, magnetometerReading);
+        return OrientationMath.getOrientation(rotationMatrix, orientationAngles);
+    }
+
+    @Benchmark
+    public String getOrientationString() {
+        OrientationMath.getRotationMatrix(rotationMatrix, accelerometerReading, magnetometerReading);
+        return ShotInfoPacker.formatOrientation(OrientationMath.getOrientation(rotationMatrix, orientationAngles));
+    }
+}
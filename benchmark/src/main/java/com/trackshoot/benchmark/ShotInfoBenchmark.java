@@ -0,0 +1,45 @@
+package com.trackshoot.benchmark;
+
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Per-shot metadata: building the shotInfo JSON and formatting its timestamp.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShotInfoBenchmark {
+
+    private final ShotInfoPacker shotInfoPacker = new ShotInfoPacker("app_id", "rate", "gps", "datetime", "orientation",
+            "m", "yyyy-MM-dd HH:mm:ss");
+    private final float[] orientationAngles = {1.2345678f, -0.0123456f, 0.5432101f};
+
+    @Benchmark
+    public JSONObject packData() throws JSONException {
+        return shotInfoPacker.pack("benchmark-app", 50, 55.755826, 37.6173, orientationAngles);
+    }
+
+    @Benchmark
+    public String packDataToString() throws JSONException {
+        return shotInfoPacker.pack("benchmark-app", 50, 55.755826, 37.6173, orientationAngles).toString();
+    }
+
+    @Benchmark
+    public String getDateTime() {
+        return shotInfoPacker.getDateTime();
+    }
+}
@@ -0,0 +1,50 @@
+package com.trackshoot.benchmark;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+// The JSON shotInfo packing the app used before ShotRecordEncoder, kept as the baseline the benchmarks compare against.
+public class ShotInfoPacker {
+
+    private final String keyAppId;
+    private final String keyRate;
+    private final String keyGps;
+    private final String keyDateTime;
+    private final String keyOrientation;
+    private final String metersSign;
+    private final String dateFormat;
+
+    public ShotInfoPacker(String keyAppId, String keyRate, String keyGps, String keyDateTime, String keyOrientation,
+                          String metersSign, String dateFormat) {
+        this.keyAppId = keyAppId;
+        this.keyRate = keyRate;
+        this.keyGps = keyGps;
+        this.keyDateTime = keyDateTime;
+        this.keyOrientation = keyOrientation;
+        this.metersSign = metersSign;
+        this.dateFormat = dateFormat;
+    }
+
+    public JSONObject pack(String appId, int rate, double latitude, double longitude, float[] orientationAngles) throws JSONException {
+        String gpsCoordinates = "[" + latitude + ", " + longitude + "]";
+        JSONObject shotInfo = new JSONObject();
+        shotInfo.put(keyAppId, appId);
+        shotInfo.put(keyRate, Integer.toString(rate) + metersSign);
+        shotInfo.put(keyGps, gpsCoordinates);
+        shotInfo.put(keyDateTime, getDateTime());
+        shotInfo.put(keyOrientation, formatOrientation(orientationAngles));
+        return shotInfo;
+    }
+
+    public String getDateTime() {
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat);
+        return simpleDateFormat.format(new Date());
+    }
+
+    public static String formatOrientation(float[] orientationAngles) {
+        return "[" + orientationAngles[0] + ", " + orientationAngles[1] + ", " + orientationAngles[2] + "]";
+    }
+}
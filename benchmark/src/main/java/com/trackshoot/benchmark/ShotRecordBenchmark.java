@@ -0,0 +1,58 @@
+package com.trackshoot.benchmark;
+
+import com.trackshoot.ShotRecord;
+import com.trackshoot.ShotRecordEncoder;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Per-shot metadata encoding: the JSONObject path next to ShotRecordEncoder's JSON and binary output.
+// Run with -prof gc to compare allocation rates as well.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShotRecordBenchmark {
+
+    private final ShotInfoPacker shotInfoPacker = new ShotInfoPacker("app_id", "rate", "gps", "datetime", "orientation",
+            "m", "yyyy-MM-dd HH:mm:ss");
+    private final ShotRecordEncoder shotRecordEncoder = new ShotRecordEncoder("app_id", "rate", "gps", "datetime",
+            "timestamp", "orientation", "m");
+    private final float[] orientationAngles = {1.2345678f, -0.0123456f, 0.5432101f};
+    private final ShotRecord shotRecord = new ShotRecord();
+
+    @Benchmark
+    public String jsonObject() throws JSONException {
+        return shotInfoPacker.pack("benchmark-app", 50, 55.755826, 37.6173, orientationAngles).toString();
+    }
+
+    @Benchmark
+    public int recordJson() {
+        shotRecord.set("benchmark-app", 50, 55.755826, 37.6173, System.currentTimeMillis(), orientationAngles);
+        return shotRecordEncoder.writeJson(shotRecord);
+    }
+
+    @Benchmark
+    public int recordBinary() {
+        shotRecord.set("benchmark-app", 50, 55.755826, 37.6173, System.currentTimeMillis(), orientationAngles);
+        return shotRecordEncoder.writeBinary(shotRecord);
+    }
+
+    @Benchmark
+    public String recordJsonString() {
+        shotRecord.set("benchmark-app", 50, 55.755826, 37.6173, System.currentTimeMillis(), orientationAngles);
+        return shotRecordEncoder.toJson(shotRecord);
+    }
+}
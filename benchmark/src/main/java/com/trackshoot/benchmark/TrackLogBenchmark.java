@@ -0,0 +1,135 @@
+package com.trackshoot.benchmark;
+
+import com.trackshoot.TrackLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+// Track log append throughput on the writer thread, and the time to reopen a log whose process died in the middle
+// of a record. Appends here come far faster than fixes ever do and keep catching up with the background thread
+// mapping the next segment, a dropped append is retried so the score is the sustained rate including rollover.
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackLogBenchmark {
+
+    @State(Scope.Thread)
+    public static class Appending {
+
+        private File directory;
+        private TrackLog trackLog;
+        private long time;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = newDirectory();
+            trackLog = new TrackLog(directory, TrackLog.DEFAULT_SEGMENT_RECORDS, TrackLog.DEFAULT_MAX_BYTES);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            trackLog.close();
+            System.out.println("appended " + trackLog.getAppendedCount() + ", retried " + trackLog.getDroppedCount());
+            deleteDirectory(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Crashed {
+
+        @Param({"4096", "65536"})
+        public int records;
+
+        private File directory;
+
+        // Writes the records, then puts the last segment back the way a crash leaves it: at full mapped length
+        // with a torn record after the last complete one.
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            directory = newDirectory();
+            TrackLog trackLog = new TrackLog(directory, TrackLog.DEFAULT_SEGMENT_RECORDS, Long.MAX_VALUE);
+            for (int i = 0; i < records; i++) {
+                while (!trackLog.append(1000000 + i * 1000L, 55.755826 + i * 1e-6, 37.6173, 5f, 1.4f, 90f)) {
+                    Thread.yield();
+                }
+            }
+            trackLog.close();
+
+            File last = null;
+            for (File file : directory.listFiles()) {
+                if (last == null || file.getName().compareTo(last.getName()) > 0) {
+                    last = file;
+                }
+            }
+            RandomAccessFile randomAccessFile = new RandomAccessFile(last, "rw");
+            try {
+                long length = randomAccessFile.length();
+                randomAccessFile.setLength(TrackLog.HEADER_SIZE
+                        + (long) TrackLog.DEFAULT_SEGMENT_RECORDS * TrackLog.RECORD_SIZE);
+                randomAccessFile.seek(length);
+                randomAccessFile.writeLong(2000000000L);
+                randomAccessFile.writeLong(Double.doubleToRawLongBits(55.8));
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long append(Appending state) {
+        state.time += 1000;
+        while (!state.trackLog.append(state.time, 55.755826, 37.6173, 5f, 1.4f, 90f)) {
+            Thread.yield();
+        }
+        return state.time;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long recover(Crashed state) throws IOException {
+        TrackLog trackLog = new TrackLog(state.directory, TrackLog.DEFAULT_SEGMENT_RECORDS, Long.MAX_VALUE);
+        trackLog.close();
+        return trackLog.getAppendedCount();
+    }
+
+    private static File newDirectory() throws IOException {
+        File directory = File.createTempFile("tracklog", "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
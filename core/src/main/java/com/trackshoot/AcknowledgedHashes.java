@@ -0,0 +1,147 @@
+package com.trackshoot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okio.ByteString;
+
+// The content hashes of the last shots a server acknowledged. A shot whose hash is among them was delivered before
+// and is dropped instead of sent again, as when its queue entry outlived the upload. The hashes are kept in a
+// journal of 32 byte records, one appended per acknowledgement, that is rewritten with only the newest ones once
+// it holds twice the capacity.
+public class AcknowledgedHashes {
+
+    private final File journalFile;
+    private final int capacity;
+    private final LinkedHashMap<String, Boolean> hashes;
+    private DataOutputStream journal;
+    private int journalRecords;
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final int JOURNAL_VERSION = 1;
+    private static final int HASH_BYTES = 32;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    public AcknowledgedHashes(File journalFile, final int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.journalFile = journalFile;
+        this.capacity = capacity;
+        this.hashes = new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+        replay();
+        compact();
+    }
+
+    public synchronized boolean contains(String hash) {
+        return hash != null && hashes.containsKey(hash);
+    }
+
+    // A hex SHA-256, anything else is ignored.
+    public synchronized void add(String hash) {
+        if (hash == null || hashes.containsKey(hash)) {
+            return;
+        }
+        ByteString bytes;
+        try {
+            bytes = ByteString.decodeHex(hash);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        if (bytes.size() != HASH_BYTES) {
+            return;
+        }
+        hashes.put(hash, Boolean.TRUE);
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.write(bytes.toByteArray());
+            // Flushed record by record, a crash loses at most the one being written.
+            journal.flush();
+            journalRecords++;
+            if (journalRecords > 2 * capacity) {
+                compact();
+            }
+        } catch (IOException e) {
+            // Still known until the process ends.
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized int size() {
+        return hashes.size();
+    }
+
+    // Hashes added after close() are only known until the process ends.
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private void replay() throws IOException {
+        DataInputStream input;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        try {
+            if (input.readInt() != JOURNAL_VERSION) {
+                return;
+            }
+            byte[] record = new byte[HASH_BYTES];
+            while (true) {
+                input.readFully(record);
+                hashes.put(ByteString.of(record).hex(), Boolean.TRUE);
+            }
+        } catch (EOFException e) {
+            // A record torn by a crash ends the journal, everything before it stands.
+        } finally {
+            input.close();
+        }
+    }
+
+    private void compact() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        File tempFile = new File(journalFile.getAbsolutePath() + TEMP_SUFFIX);
+        FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            output.writeInt(JOURNAL_VERSION);
+            for (String hash : hashes.keySet()) {
+                output.write(ByteString.decodeHex(hash).toByteArray());
+            }
+            output.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            fileOutputStream.close();
+        }
+        if (!tempFile.renameTo(journalFile)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + journalFile.getName());
+        }
+        journalRecords = hashes.size();
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+    }
+}
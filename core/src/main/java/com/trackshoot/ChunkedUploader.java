@@ -0,0 +1,259 @@
+package com.trackshoot;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.Okio;
+import okio.Source;
+
+// Sends a file as a sequence of PUT requests, each carrying the byte range [Upload-Offset, Upload-Offset + chunk).
+// The server answers with the offset it has stored, which is the only progress the client trusts, so an interrupted
+// transfer resumes from the last acknowledged chunk instead of from the start. A server may keep part of a chunk
+// that was cut off, so after a failure an empty chunk asks where it is before the next one is sent.
+// The last chunk carries the file's SHA-256 as idempotency key, for the server to recognize a shot it stored before.
+// The chunks are hashed on their way out and the hash is carried from one to the next, the file is only read again
+// for the bytes that were not acknowledged as sent, the acknowledged prefix when resuming after a restart, and the
+// last chunk, whose hash has to be in its headers before its bytes go out.
+public class ChunkedUploader {
+
+    public interface ProgressListener {
+        void onProgress(long acknowledgedOffset);
+    }
+
+    private final OkHttpClient okHttpClient;
+    private final UploadConfig uploadConfig;
+    // Chunk bytes handed to requests, across the uploads running at once.
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public static final String HEADER_OFFSET = "Upload-Offset";
+    public static final String HEADER_LENGTH = "Upload-Length";
+    public static final String HEADER_APP_ID = "Upload-App-Id";
+    public static final String HEADER_METADATA = "Upload-Metadata";
+    private static final MediaType MEDIA_TYPE_CHUNK = MediaType.parse("application/offset+octet-stream");
+    private static final int HTTP_CONFLICT = 409;
+    private static final int MAX_CHUNK_ATTEMPTS = 3;
+    private static final int HASH_BUFFER_BYTES = 8 * 1024;
+
+    public ChunkedUploader(OkHttpClient okHttpClient, UploadConfig uploadConfig) {
+        this.okHttpClient = okHttpClient;
+        this.uploadConfig = uploadConfig;
+    }
+
+    // Uploads the file starting at the given offset. Returns the file's SHA-256 in hex once the server holds the whole
+    // file, throws after MAX_CHUNK_ATTEMPTS consecutive failures of the same chunk.
+    public String upload(File file, String uploadId, String appId, String metadata, long offset, ProgressListener progressListener) throws IOException {
+        long length = file.length();
+        HttpUrl url = HttpUrl.parse(uploadConfig.getChunkEndpoint()).newBuilder()
+                .addPathSegment(uploadId)
+                .build();
+        String encodedMetadata = ByteString.encodeUtf8(metadata).base64();
+        int failures = 0;
+        // A previous attempt may have left part of a chunk on the server.
+        boolean resuming = offset > 0;
+        PrefixHash prefixHash = new PrefixHash(file);
+
+        while (offset < length) {
+            boolean probe = resuming;
+            resuming = false;
+            long chunkLength = probe ? 0 : Math.min(uploadConfig.getChunkSize(), length - offset);
+            boolean last = chunkLength > 0 && offset + chunkLength == length;
+            Request.Builder requestBuilder = new Request.Builder()
+                    .url(url)
+                    .header(HEADER_OFFSET, Long.toString(offset))
+                    .header(HEADER_LENGTH, Long.toString(length))
+                    .header(HEADER_APP_ID, appId)
+                    .header(HEADER_METADATA, encodedMetadata);
+            FileChunkBody chunkBody;
+            if (last) {
+                prefixHash.advanceTo(length);
+                requestBuilder.header(ShotRequestFactory.HEADER_IDEMPOTENCY_KEY, prefixHash.hex());
+                chunkBody = new FileChunkBody(file, offset, chunkLength, null);
+            } else if (chunkLength > 0) {
+                prefixHash.advanceTo(offset);
+                chunkBody = new FileChunkBody(file, offset, chunkLength, prefixHash.copyDigest());
+            } else {
+                chunkBody = new FileChunkBody(file, offset, 0, null);
+            }
+            Request request = requestBuilder.put(chunkBody).build();
+
+            Response response = null;
+            try {
+                bytesSent.addAndGet(chunkLength);
+                response = okHttpClient.newCall(request).execute();
+                if (response.isSuccessful() || response.code() == HTTP_CONFLICT) {
+                    // On a conflict the server tells us where it really is, continue from there.
+                    String acknowledged = response.header(HEADER_OFFSET);
+                    long newOffset = acknowledged != null ? Long.parseLong(acknowledged) : offset + chunkLength;
+                    if (newOffset != offset) {
+                        if (newOffset == offset + chunkLength && chunkBody.getDigest() != null) {
+                            prefixHash.set(chunkBody.getDigest(), newOffset);
+                        }
+                        offset = newOffset;
+                        failures = 0;
+                        progressListener.onProgress(offset);
+                        continue;
+                    }
+                    if (probe) {
+                        continue;
+                    }
+                }
+                throw new IOException("Chunk at " + offset + " rejected with " + response.code());
+            } catch (IOException | NumberFormatException e) {
+                if (++failures >= MAX_CHUNK_ATTEMPTS) {
+                    throw e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                resuming = true;
+            } finally {
+                if (response != null) {
+                    response.close();
+                }
+            }
+        }
+        prefixHash.advanceTo(length);
+        return prefixHash.hex();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Null if the digest cannot be copied, the bytes are then hashed from the file.
+    private static MessageDigest copy(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+    // The SHA-256 of the file's first bytes, up to offset.
+    private static class PrefixHash {
+
+        private final File file;
+        private MessageDigest digest = newDigest();
+        private long offset;
+
+        PrefixHash(File file) {
+            this.file = file;
+        }
+
+        // Hashes the bytes up to target from the file. Starts over if the server went back, which it should not.
+        void advanceTo(long target) throws IOException {
+            if (target < offset) {
+                digest = newDigest();
+                offset = 0;
+            }
+            if (target == offset) {
+                return;
+            }
+            FileInputStream fileInputStream = new FileInputStream(file);
+            try {
+                fileInputStream.getChannel().position(offset);
+                byte[] buffer = new byte[HASH_BUFFER_BYTES];
+                while (offset < target) {
+                    int read = fileInputStream.read(buffer, 0, (int) Math.min(buffer.length, target - offset));
+                    if (read == -1) {
+                        throw new EOFException("File shorter than " + target);
+                    }
+                    digest.update(buffer, 0, read);
+                    offset += read;
+                }
+            } finally {
+                fileInputStream.close();
+            }
+        }
+
+        // The digest of a chunk that started at offset and was acknowledged up to newOffset.
+        void set(MessageDigest chunkDigest, long newOffset) {
+            digest = chunkDigest;
+            offset = newOffset;
+        }
+
+        MessageDigest copyDigest() {
+            return copy(digest);
+        }
+
+        String hex() {
+            MessageDigest result = copy(digest);
+            if (result == null) {
+                // Finishing the digest resets it, the next advance hashes the file from the start.
+                result = digest;
+                digest = newDigest();
+                offset = 0;
+            }
+            return ByteString.of(result.digest()).hex();
+        }
+    }
+
+    // Streams one byte range of the file straight from disk, the chunk is never held on the heap as a whole. With a
+    // digest of the bytes before the range, it goes on hashing the range as it is sent.
+    private static class FileChunkBody extends RequestBody {
+
+        private final File file;
+        private final long offset;
+        private final long length;
+        private final MessageDigest prefixDigest;
+        private volatile MessageDigest digest;
+
+        FileChunkBody(File file, long offset, long length, MessageDigest prefixDigest) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.prefixDigest = prefixDigest;
+        }
+
+        // The digest up to the end of the range once it was sent whole, null before or without a prefix digest.
+        MessageDigest getDigest() {
+            return digest;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MEDIA_TYPE_CHUNK;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            // Written again when a request is retried, every write hashes from the prefix.
+            digest = null;
+            MessageDigest chunkDigest = prefixDigest != null ? copy(prefixDigest) : null;
+            FileInputStream fileInputStream = new FileInputStream(file);
+            try {
+                fileInputStream.getChannel().position(offset);
+                Source source = Okio.source(chunkDigest != null ?
+                        new DigestInputStream(fileInputStream, chunkDigest) : fileInputStream);
+                sink.write(source, length);
+            } finally {
+                fileInputStream.close();
+            }
+            digest = chunkDigest;
+        }
+    }
+}
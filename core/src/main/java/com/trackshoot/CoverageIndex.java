@@ -0,0 +1,207 @@
+package com.trackshoot;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Grid cells that already have a shot, with the time of the last one. A cell counts as covered for freshnessMillis
+// after its shot. The grid has rows cellSizeMeters tall and columns cellSizeMeters wide at the row's latitude, a
+// cell's row and column are packed into one long key.
+// Cells live in an open addressing table of primitive arrays, so a lookup on the fix path is a hash and a short
+// probe. When the table holds maxCells, expired cells are swept out, and when that is not enough the oldest go
+// too, down to three quarters of maxCells.
+// Confined to one thread.
+public class CoverageIndex {
+
+    private final double cellSizeMeters;
+    private final long freshnessMillis;
+    private final int maxCells;
+    private final long[] keys;
+    private final int[] minutes;
+    private final int mask;
+    private int size;
+    private long evictedCount;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GeoDistance.EARTH_RADIUS_METERS);
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final int FILE_VERSION = 1;
+
+    public CoverageIndex(double cellSizeMeters, long freshnessMillis, int maxCells) {
+        this.cellSizeMeters = cellSizeMeters;
+        this.freshnessMillis = freshnessMillis;
+        this.maxCells = maxCells;
+        int capacity = Integer.highestOneBit(Math.max(maxCells, 2) * 2 - 1) << 1;
+        keys = new long[capacity];
+        // Minute 0 marks an empty slot, captures are long after 1970.
+        minutes = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public double getCellSizeMeters() {
+        return cellSizeMeters;
+    }
+
+    public long cellKey(double latitude, double longitude) {
+        long row = (long) Math.floor(latitude * METERS_PER_DEGREE / cellSizeMeters);
+        long column = (long) Math.floor(longitude / columnDegrees(row));
+        return row << 32 | column & 0xffffffffL;
+    }
+
+    // Whether the cell of the position has a shot taken less than freshnessMillis before nowMillis.
+    public boolean isCovered(double latitude, double longitude, long nowMillis) {
+        return isFresh(find(cellKey(latitude, longitude)), nowMillis);
+    }
+
+    // Like isCovered() for every cell that overlaps the square of radiusMeters around the position, so a shot up to
+    // radiusMeters away always counts and one up to a cell further may.
+    public boolean isCovered(double latitude, double longitude, double radiusMeters, long nowMillis) {
+        double northing = latitude * METERS_PER_DEGREE;
+        long firstRow = (long) Math.floor((northing - radiusMeters) / cellSizeMeters);
+        long lastRow = (long) Math.floor((northing + radiusMeters) / cellSizeMeters);
+        for (long row = firstRow; row <= lastRow; row++) {
+            double columnDegrees = columnDegrees(row);
+            double radiusDegrees = radiusMeters / cellSizeMeters * columnDegrees;
+            long firstColumn = (long) Math.floor((longitude - radiusDegrees) / columnDegrees);
+            long lastColumn = (long) Math.floor((longitude + radiusDegrees) / columnDegrees);
+            for (long column = firstColumn; column <= lastColumn; column++) {
+                if (isFresh(find(row << 32 | column & 0xffffffffL), nowMillis)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void markCovered(double latitude, double longitude, long nowMillis) {
+        put(cellKey(latitude, longitude), toMinutes(nowMillis), nowMillis);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public void writeTo(DataOutputStream output) throws IOException {
+        output.writeInt(FILE_VERSION);
+        output.writeDouble(cellSizeMeters);
+        output.writeInt(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (minutes[i] != 0) {
+                output.writeLong(keys[i]);
+                output.writeInt(minutes[i]);
+            }
+        }
+    }
+
+    // Reads cells written by writeTo(). Cells of a different grid size mean nothing here and are skipped, expired
+    // ones are dropped when the table fills up.
+    public void readFrom(DataInputStream input, long nowMillis) throws IOException {
+        if (input.readInt() != FILE_VERSION || input.readDouble() != cellSizeMeters) {
+            return;
+        }
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            long key = input.readLong();
+            int minute = input.readInt();
+            if (minute != 0) {
+                put(key, minute, nowMillis);
+            }
+        }
+    }
+
+    private void put(long key, int minute, long nowMillis) {
+        int slot = find(key);
+        if (minutes[slot] == 0) {
+            if (size >= maxCells) {
+                evict(nowMillis);
+                slot = find(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        minutes[slot] = Math.max(minutes[slot], minute);
+    }
+
+    private boolean isFresh(int slot, long nowMillis) {
+        return minutes[slot] != 0 && nowMillis - minutes[slot] * MILLIS_PER_MINUTE < freshnessMillis;
+    }
+
+    // Columns are cellSizeMeters wide at the middle of their row.
+    private double columnDegrees(long row) {
+        double rowLatitude = (row + 0.5) * cellSizeMeters / METERS_PER_DEGREE;
+        return cellSizeMeters / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(rowLatitude)), 1e-6));
+    }
+
+    // The slot holding the key, or the empty slot where it belongs.
+    private int find(long key) {
+        int slot = hash(key) & mask;
+        while (minutes[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Drops the expired cells, then the oldest until three quarters of maxCells are left. Frees at least a quarter
+    // of the table, so the sweep adds a constant per insertion.
+    private void evict(long nowMillis) {
+        int expired = toMinutes(nowMillis - freshnessMillis);
+        int newest = 0;
+        int oldest = Integer.MAX_VALUE;
+        int fresh = 0;
+        for (int minute : minutes) {
+            if (minute != 0 && minute > expired) {
+                newest = Math.max(newest, minute);
+                oldest = Math.min(oldest, minute);
+                fresh++;
+            }
+        }
+
+        // A coarse histogram of the fresh cells' ages finds the minute to cut at.
+        int cutoff = expired + 1;
+        int toEvict = fresh - maxCells * 3 / 4;
+        if (toEvict > 0) {
+            int[] buckets = new int[64];
+            long span = (long) newest - oldest + 1;
+            for (int minute : minutes) {
+                if (minute != 0 && minute > expired) {
+                    buckets[(int) ((minute - oldest) * buckets.length / span)]++;
+                }
+            }
+            for (int i = 0; i < buckets.length && toEvict > 0; i++) {
+                toEvict -= buckets[i];
+                cutoff = (int) (oldest + ((i + 1) * span + buckets.length - 1) / buckets.length);
+            }
+        }
+
+        long[] oldKeys = keys.clone();
+        int[] oldMinutes = minutes.clone();
+        Arrays.fill(minutes, 0);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldMinutes[i] == 0) {
+                continue;
+            }
+            if (oldMinutes[i] >= cutoff) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                minutes[slot] = oldMinutes[i];
+                size++;
+            } else {
+                evictedCount++;
+            }
+        }
+    }
+
+    private static int toMinutes(long millis) {
+        return (int) Math.max(1, millis / MILLIS_PER_MINUTE);
+    }
+
+    private static int hash(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ hash >>> 32);
+    }
+}
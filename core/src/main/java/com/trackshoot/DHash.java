@@ -0,0 +1,49 @@
+package com.trackshoot;
+
+// Difference hash of an image: the luma is averaged down to 9x8 cells and each of the 64 bits says whether a cell
+// is brighter than its right neighbour. Small changes in exposure, compression or a few moving pixels flip few
+// bits, so near-identical frames end up a small Hamming distance apart.
+public class DHash {
+
+    public static final int GRID_WIDTH = 9;
+    public static final int GRID_HEIGHT = 8;
+
+    private final long[] cellSums = new long[GRID_WIDTH * GRID_HEIGHT];
+    private final int[] cellCounts = new int[GRID_WIDTH * GRID_HEIGHT];
+
+    // Hash of ARGB pixels in row order, at least 9x8 of them. Reuses its cell buffers, one instance per thread.
+    public long compute(int[] pixels, int width, int height) {
+        for (int i = 0; i < cellSums.length; i++) {
+            cellSums[i] = 0;
+            cellCounts[i] = 0;
+        }
+        for (int y = 0; y < height; y++) {
+            int row = y * GRID_HEIGHT / height * GRID_WIDTH;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                // Integer Rec. 601 luma.
+                int luma = (77 * (pixel >> 16 & 0xff) + 150 * (pixel >> 8 & 0xff) + 29 * (pixel & 0xff)) >> 8;
+                int cell = row + x * GRID_WIDTH / width;
+                cellSums[cell] += luma;
+                cellCounts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                int left = y * GRID_WIDTH + x;
+                // Compare averages without dividing: a / n > b / m  <=>  a * m > b * n.
+                hash <<= 1;
+                if (cellSums[left] * cellCounts[left + 1] > cellSums[left + 1] * cellCounts[left]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+}
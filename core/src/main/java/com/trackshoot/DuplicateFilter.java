@@ -0,0 +1,44 @@
+package com.trackshoot;
+
+// Remembers the hashes of the last few kept frames in a fixed ring and tells whether a new frame is within the
+// Hamming threshold of any of them. Duplicates are not remembered, so a scene that creeps slowly still gets a new
+// frame once it has drifted far enough from the last kept one.
+// Confined to one thread.
+public class DuplicateFilter {
+
+    private final long[] hashes;
+    private final int threshold;
+    private int next;
+    private int size;
+    private int lastDistance;
+
+    // A negative threshold turns the filter off.
+    public DuplicateFilter(int capacity, int threshold) {
+        this.hashes = new long[capacity];
+        this.threshold = threshold;
+    }
+
+    // Returns true when the frame is a near duplicate of a recent one, otherwise remembers it.
+    public boolean isDuplicate(long hash) {
+        int nearest = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            nearest = Math.min(nearest, DHash.distance(hash, hashes[i]));
+        }
+        lastDistance = nearest;
+        if (threshold >= 0 && nearest <= threshold) {
+            return true;
+        }
+
+        hashes[next] = hash;
+        next = (next + 1) % hashes.length;
+        if (size < hashes.length) {
+            size++;
+        }
+        return false;
+    }
+
+    // Distance to the nearest remembered frame in the last isDuplicate() call, Integer.MAX_VALUE when empty.
+    public int getLastDistance() {
+        return lastDistance;
+    }
+}
@@ -0,0 +1,97 @@
+package com.trackshoot;
+
+// The last few location fixes in fixed primitive arrays, so a shot can be stamped with the position at the moment
+// it was captured rather than at the fix that triggered it. Times are SystemClock.elapsedRealtimeNanos(), the
+// time base of Location.getElapsedRealtimeNanos() and of the capture request.
+// Confined to one thread, like OrientationRingBuffer.
+public class FixRingBuffer {
+
+    private final long[] timestamps;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final float[] speeds;
+    private final float[] bearings;
+    private int next;
+    private int size;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GeoDistance.EARTH_RADIUS_METERS);
+
+    public FixRingBuffer(int capacity) {
+        timestamps = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        speeds = new float[capacity];
+        bearings = new float[capacity];
+    }
+
+    // Fixes must arrive in timestamp order. Speed and bearing may be NaN when the fix has none.
+    public void add(long timestampNanos, double latitude, double longitude, float speed, float bearing) {
+        timestamps[next] = timestampNanos;
+        latitudes[next] = latitude;
+        longitudes[next] = longitude;
+        speeds[next] = speed;
+        bearings[next] = bearing;
+        next = (next + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Writes latitude and longitude at the given time into out. Between fixes the position is interpolated. After
+    // the newest fix it is extrapolated along the newest fix's speed and bearing for at most maxExtrapolationNanos,
+    // before the oldest fix the oldest position is used. Returns false when there are no fixes yet.
+    public boolean interpolate(long timestampNanos, long maxExtrapolationNanos, double[] out) {
+        if (size == 0) {
+            return false;
+        }
+
+        int newest = index(size - 1);
+        if (timestampNanos >= timestamps[newest]) {
+            extrapolate(newest, Math.min(timestampNanos - timestamps[newest], maxExtrapolationNanos), out);
+            return true;
+        }
+        int oldest = index(0);
+        if (timestampNanos <= timestamps[oldest]) {
+            out[0] = latitudes[oldest];
+            out[1] = longitudes[oldest];
+            return true;
+        }
+
+        int after = newest;
+        for (int i = size - 2; i >= 0; i--) {
+            int before = index(i);
+            if (timestamps[before] <= timestampNanos) {
+                double fraction = (double) (timestampNanos - timestamps[before]) / (timestamps[after] - timestamps[before]);
+                out[0] = latitudes[before] + (latitudes[after] - latitudes[before]) * fraction;
+                out[1] = longitudes[before] + (longitudes[after] - longitudes[before]) * fraction;
+                return true;
+            }
+            after = before;
+        }
+        out[0] = latitudes[oldest];
+        out[1] = longitudes[oldest];
+        return true;
+    }
+
+    private void extrapolate(int index, long elapsedNanos, double[] out) {
+        out[0] = latitudes[index];
+        out[1] = longitudes[index];
+        float speed = speeds[index];
+        float bearing = bearings[index];
+        if (Float.isNaN(speed) || Float.isNaN(bearing) || speed <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+        double meters = speed * elapsedNanos / 1e9;
+        double bearingRadians = Math.toRadians(bearing);
+        out[0] += meters * Math.cos(bearingRadians) / METERS_PER_DEGREE;
+        out[1] += meters * Math.sin(bearingRadians) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(out[0])));
+    }
+
+    private int index(int age) {
+        return (next - size + age + timestamps.length) % timestamps.length;
+    }
+}
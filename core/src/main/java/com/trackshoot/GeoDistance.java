@@ -0,0 +1,63 @@
+package com.trackshoot;
+
+// Distance from a fixed anchor point to each new fix. Trigger distances are a few hundred meters at most, where
+// a flat-earth projection around the anchor is accurate to well under a centimeter, so the per-fix cost is one
+// square root. Anything further away falls back to haversine. No allocations on either path.
+public class GeoDistance {
+
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private double anchorCosLatitude;
+    private double anchorHalfSinLatitude;
+
+    // IUGG mean earth radius.
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+    // Beyond this the flat-earth error grows past a few centimeters.
+    public static final double FLAT_EARTH_LIMIT_METERS = 2000;
+
+    private static final double DEGREES_TO_RADIANS = Math.PI / 180;
+    private static final double FLAT_EARTH_LIMIT_RADIANS = FLAT_EARTH_LIMIT_METERS / EARTH_RADIUS_METERS;
+
+    public void setAnchor(double latitude, double longitude) {
+        anchorLatitude = latitude * DEGREES_TO_RADIANS;
+        anchorLongitude = longitude * DEGREES_TO_RADIANS;
+        anchorCosLatitude = Math.cos(anchorLatitude);
+        anchorHalfSinLatitude = Math.sin(anchorLatitude) / 2;
+    }
+
+    public double distanceTo(double latitude, double longitude) {
+        double latitudeRadians = latitude * DEGREES_TO_RADIANS;
+        double deltaLatitude = latitudeRadians - anchorLatitude;
+        double deltaLongitude = longitude * DEGREES_TO_RADIANS - anchorLongitude;
+        // Take the short way round across the antimeridian.
+        if (deltaLongitude > Math.PI) {
+            deltaLongitude -= 2 * Math.PI;
+        } else if (deltaLongitude < -Math.PI) {
+            deltaLongitude += 2 * Math.PI;
+        }
+
+        // Scale longitude by the cosine of the mid latitude, taken from the anchor with a first order correction.
+        double x = deltaLongitude * (anchorCosLatitude - anchorHalfSinLatitude * deltaLatitude);
+        double angle = Math.sqrt(deltaLatitude * deltaLatitude + x * x);
+        if (angle <= FLAT_EARTH_LIMIT_RADIANS) {
+            return angle * EARTH_RADIUS_METERS;
+        }
+        return haversine(anchorLatitude, anchorCosLatitude, latitudeRadians, deltaLatitude, deltaLongitude);
+    }
+
+    public static double haversine(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        double fromLatitudeRadians = fromLatitude * DEGREES_TO_RADIANS;
+        double toLatitudeRadians = toLatitude * DEGREES_TO_RADIANS;
+        return haversine(fromLatitudeRadians, Math.cos(fromLatitudeRadians), toLatitudeRadians,
+                toLatitudeRadians - fromLatitudeRadians, (toLongitude - fromLongitude) * DEGREES_TO_RADIANS);
+    }
+
+    private static double haversine(double fromLatitude, double fromCosLatitude, double toLatitude,
+                                    double deltaLatitude, double deltaLongitude) {
+        double sinHalfLatitude = Math.sin(deltaLatitude / 2);
+        double sinHalfLongitude = Math.sin(deltaLongitude / 2);
+        double a = sinHalfLatitude * sinHalfLatitude +
+                fromCosLatitude * Math.cos(toLatitude) * sinHalfLongitude * sinHalfLongitude;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,42 @@
+package com.trackshoot;
+
+import java.io.IOException;
+
+// How the app's ImageProcessor sizes an image, without the Android dependency: the sampling of the decode and the
+// JPEG quality that brings the image within a byte budget.
+public final class ImageSizing {
+
+    // Encodes the image at the quality and returns the encoded size. The last encoding is the one kept.
+    public interface Encoder {
+        int encode(int quality) throws IOException;
+    }
+
+    public static final int MIN_QUALITY = 40;
+    public static final int QUALITY_STEP = 10;
+
+    private ImageSizing() {
+    }
+
+    // Largest power of two that keeps the long edge at or above maxDimension, 1 when there is no maxDimension.
+    public static int sampleSize(int longEdge, int maxDimension) {
+        int sampleSize = 1;
+        if (maxDimension <= 0) {
+            return sampleSize;
+        }
+        while (longEdge / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Encodes at the quality, then a step lower each time the result is over the budget, down to MIN_QUALITY. A
+    // budget of 0 encodes once. Returns the quality of the last encoding.
+    public static int encodeWithinBudget(Encoder encoder, int quality, int byteBudget) throws IOException {
+        int encodeQuality = quality;
+        while (encoder.encode(encodeQuality) > byteBudget && byteBudget > 0
+                && encodeQuality - QUALITY_STEP >= MIN_QUALITY) {
+            encodeQuality -= QUALITY_STEP;
+        }
+        return encodeQuality;
+    }
+}
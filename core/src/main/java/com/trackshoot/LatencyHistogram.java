@@ -0,0 +1,101 @@
+package com.trackshoot;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Latency counts in fixed buckets, safe to record from any thread without locks. The bucket bounds are upper
+// bounds in milliseconds, the last bucket takes everything slower.
+public class LatencyHistogram {
+
+    private final long[] boundsNanos;
+    private final AtomicLongArray counts;
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public static final long[] DEFAULT_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 300, 500, 750, 1000, 1500, 2000,
+            3000, 5000};
+
+    public LatencyHistogram() {
+        this(DEFAULT_BOUNDS_MILLIS);
+    }
+
+    public LatencyHistogram(long[] boundsMillis) {
+        boundsNanos = new long[boundsMillis.length];
+        for (int i = 0; i < boundsMillis.length; i++) {
+            boundsNanos[i] = boundsMillis[i] * 1000000;
+        }
+        counts = new AtomicLongArray(boundsMillis.length + 1);
+    }
+
+    public void record(long latencyNanos) {
+        if (latencyNanos < 0) {
+            latencyNanos = 0;
+        }
+        int bucket = 0;
+        while (bucket < boundsNanos.length && latencyNanos > boundsNanos[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        sumNanos.addAndGet(latencyNanos);
+        long max = maxNanos.get();
+        while (latencyNanos > max && !maxNanos.compareAndSet(max, latencyNanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    // Number of buckets, one more than there are bounds.
+    public int getBucketCount() {
+        return counts.length();
+    }
+
+    // Upper bound of the bucket in milliseconds, Long.MAX_VALUE for the last one.
+    public long getBucketBoundMillis(int bucket) {
+        return bucket < boundsNanos.length ? boundsNanos[bucket] / 1000000 : Long.MAX_VALUE;
+    }
+
+    public long getBucket(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    // Upper bound in milliseconds of the bucket the quantile falls into, the maximum for the last bucket.
+    public long getQuantileMillis(double quantile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < boundsNanos.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return boundsNanos[i] / 1000000;
+            }
+        }
+        return maxNanos.get() / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        long count = getCount();
+        return String.format(Locale.US, "n=%d mean=%.1fms p50<=%dms p90<=%dms p99<=%dms max=%.1fms", count,
+                count > 0 ? sumNanos.get() / 1e6 / count : 0.0, getQuantileMillis(0.5), getQuantileMillis(0.9),
+                getQuantileMillis(0.99), maxNanos.get() / 1e6);
+    }
+}
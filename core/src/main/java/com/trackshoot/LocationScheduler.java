@@ -0,0 +1,86 @@
+package com.trackshoot;
+
+// Picks the location request interval and priority from the current speed and the distance left to the next
+// trigger. Parked, fixes are sparse and low power. Moving, the next fix is requested for just after the predicted
+// crossing of the trigger distance, so the fix that fires the shot lands near the trigger point without paying
+// for dense fixes all the way there. Small changes of the prediction don't renew the request, which is an IPC
+// to Play Services.
+public class LocationScheduler {
+
+    public static final int PRIORITY_HIGH_ACCURACY = 0;
+    public static final int PRIORITY_BALANCED = 1;
+
+    public static final long MIN_INTERVAL_MILLIS = 500;
+    public static final long MAX_MOVING_INTERVAL_MILLIS = 4000;
+    public static final long STATIONARY_INTERVAL_MILLIS = 2000;
+    public static final float STATIONARY_SPEED = 0.7f;
+
+    // Lands the fix slightly past the predicted crossing rather than slightly before it.
+    private static final long CROSSING_MARGIN_MILLIS = 100;
+    // Interval changes smaller than this fraction keep the current request.
+    private static final double RESCHEDULE_THRESHOLD = 0.15;
+
+    // Weight of the newest estimated speed in the moving average. Provider speed is Doppler based and used as is.
+    private static final double SPEED_SMOOTHING = 0.5;
+
+    private final GeoDistance lastFixDistance = new GeoDistance();
+    private boolean hasLastFix;
+    private long lastFixMillis;
+    private double speed;
+    private long intervalMillis;
+    private int priority;
+
+    public LocationScheduler(long initialIntervalMillis) {
+        this.intervalMillis = initialIntervalMillis;
+        this.priority = PRIORITY_HIGH_ACCURACY;
+    }
+
+    // Feeds one fix. reportedSpeed is the provider's speed in m/s, or NaN when it has none.
+    // Returns true when the interval or priority changed and the location request should be renewed.
+    public boolean onFix(long timeMillis, double latitude, double longitude, float reportedSpeed,
+                         double distanceFromAnchor, int rate) {
+        double sample = reportedSpeed;
+        if (Double.isNaN(sample) && hasLastFix && timeMillis > lastFixMillis) {
+            sample = lastFixDistance.distanceTo(latitude, longitude) * 1000 / (timeMillis - lastFixMillis);
+        }
+        if (!Double.isNaN(reportedSpeed)) {
+            speed = reportedSpeed;
+        } else if (!Double.isNaN(sample)) {
+            speed = hasLastFix ? speed + SPEED_SMOOTHING * (sample - speed) : sample;
+        }
+        lastFixDistance.setAnchor(latitude, longitude);
+        lastFixMillis = timeMillis;
+        hasLastFix = true;
+
+        long newInterval;
+        int newPriority;
+        if (speed < STATIONARY_SPEED) {
+            newInterval = STATIONARY_INTERVAL_MILLIS;
+            newPriority = PRIORITY_BALANCED;
+        } else {
+            double millisToTrigger = Math.max(0, rate - distanceFromAnchor) * 1000 / speed;
+            newInterval = Math.max(MIN_INTERVAL_MILLIS,
+                    Math.min(MAX_MOVING_INTERVAL_MILLIS, (long) millisToTrigger + CROSSING_MARGIN_MILLIS));
+            newPriority = PRIORITY_HIGH_ACCURACY;
+        }
+
+        if (newPriority == priority && Math.abs(newInterval - intervalMillis) <= intervalMillis * RESCHEDULE_THRESHOLD) {
+            return false;
+        }
+        intervalMillis = newInterval;
+        priority = newPriority;
+        return true;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+}
@@ -0,0 +1,8 @@
+package com.trackshoot;
+
+// Where the upload classes report what they do, android.util.Log on the device.
+public interface Logger {
+    void debug(String message);
+
+    void error(String message);
+}
@@ -0,0 +1,309 @@
+package com.trackshoot;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters and latency histograms of the capture and upload pipeline. Recording is an atomic update, safe from any
+// thread without locks and without allocating, readers see each value on its own and may catch a histogram
+// between its count and its sum. writePrometheus() renders everything in the Prometheus text exposition format.
+public class Metrics {
+
+    private final AtomicLong fixes = new AtomicLong();
+    private final AtomicLong triggers = new AtomicLong();
+    private final AtomicLong captures = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong uploadFailures = new AtomicLong();
+    private final AtomicLong uploadRetries = new AtomicLong();
+    private final AtomicLong uploadBytes = new AtomicLong();
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final AtomicLong uploadedEvictions = new AtomicLong();
+    private final AtomicLong pendingEvictions = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong deferrals = new AtomicLong();
+    private final AtomicLong drains = new AtomicLong();
+    private final AtomicLong radioWakeups = new AtomicLong();
+    private final AtomicLong immediateRadioWakeups = new AtomicLong();
+    private final AtomicLong meteredBytes = new AtomicLong();
+    private final AtomicLong immediateMeteredBytes = new AtomicLong();
+    private final LatencyHistogram fixToCapture = new LatencyHistogram();
+    private final LatencyHistogram captureToImage = new LatencyHistogram();
+    private final LatencyHistogram captureToUpload = new LatencyHistogram(CAPTURE_TO_UPLOAD_BOUNDS_MILLIS);
+    private final LatencyHistogram uploadDuration = new LatencyHistogram(UPLOAD_DURATION_BOUNDS_MILLIS);
+    private final LatencyHistogram startToFix = new LatencyHistogram(STARTUP_BOUNDS_MILLIS);
+    private final LatencyHistogram fixToReady = new LatencyHistogram(STARTUP_BOUNDS_MILLIS);
+
+    // Shots wait in the queue through backoff and outages, so their way to the server is counted in minutes.
+    public static final long[] CAPTURE_TO_UPLOAD_BOUNDS_MILLIS = {100, 500, 1000, 2000, 5000, 10000, 30000, 60000,
+            300000, 900000, 3600000};
+    public static final long[] UPLOAD_DURATION_BOUNDS_MILLIS = {50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000,
+            60000};
+    // A cold GPS takes tens of seconds to its first fix, a warm one a second or two.
+    public static final long[] STARTUP_BOUNDS_MILLIS = {250, 500, 1000, 2000, 5000, 10000, 20000, 30000, 60000,
+            120000};
+
+    private static final String PREFIX = "trackshoot_";
+
+    public void recordFix() {
+        fixes.incrementAndGet();
+    }
+
+    public void recordTrigger() {
+        triggers.incrementAndGet();
+    }
+
+    // From the time of the fix that triggered the shot to the capture request.
+    public void recordCapture(long fixToCaptureNanos) {
+        captures.incrementAndGet();
+        fixToCapture.record(fixToCaptureNanos);
+    }
+
+    // From the capture request to the image arriving from the camera.
+    public void recordImage(long captureToImageNanos) {
+        captureToImage.record(captureToImageNanos);
+    }
+
+    // One successful upload request, which may carry several shots.
+    public void recordUpload(long bytes, long durationNanos) {
+        uploads.incrementAndGet();
+        uploadBytes.addAndGet(bytes);
+        uploadDuration.record(durationNanos);
+    }
+
+    // A shot has reached the server.
+    public void recordDelivery(long captureToUploadNanos) {
+        captureToUpload.record(captureToUploadNanos);
+    }
+
+    // From the service's start to its first fix, from the start of the process when the system restarted the service.
+    public void recordStartToFix(long startToFixNanos) {
+        startToFix.record(startToFixNanos);
+    }
+
+    // From the service's first fix to the camera being open, when a shot can be taken.
+    public void recordFixToReady(long fixToReadyNanos) {
+        fixToReady.record(fixToReadyNanos);
+    }
+
+    public void recordUploadFailure(long durationNanos) {
+        uploadFailures.incrementAndGet();
+        uploadDuration.record(durationNanos);
+    }
+
+    public void recordRetry() {
+        uploadRetries.incrementAndGet();
+    }
+
+    public void setQueueDepth(int shots) {
+        queueDepth.set(shots);
+    }
+
+    // An image deleted to stay within the storage budget, uploaded or still waiting for upload.
+    public void recordEviction(boolean uploaded, long bytes) {
+        (uploaded ? uploadedEvictions : pendingEvictions).incrementAndGet();
+        evictedBytes.addAndGet(bytes);
+    }
+
+    public void setStoredBytes(long bytes) {
+        storedBytes.set(bytes);
+    }
+
+    public void recordDeferral() {
+        deferrals.incrementAndGet();
+    }
+
+    public void recordDrain() {
+        drains.incrementAndGet();
+    }
+
+    // An upload started with the radio idle.
+    public void recordRadioWakeup() {
+        radioWakeups.incrementAndGet();
+    }
+
+    // A wakeup immediate mode would have caused for the same shots.
+    public void recordImmediateRadioWakeup() {
+        immediateRadioWakeups.incrementAndGet();
+    }
+
+    public void recordMeteredBytes(long bytes) {
+        meteredBytes.addAndGet(bytes);
+    }
+
+    public void recordImmediateMeteredBytes(long bytes) {
+        immediateMeteredBytes.addAndGet(bytes);
+    }
+
+    public long getFixCount() {
+        return fixes.get();
+    }
+
+    public long getTriggerCount() {
+        return triggers.get();
+    }
+
+    public long getCaptureCount() {
+        return captures.get();
+    }
+
+    public long getUploadCount() {
+        return uploads.get();
+    }
+
+    public long getUploadFailureCount() {
+        return uploadFailures.get();
+    }
+
+    public long getRetryCount() {
+        return uploadRetries.get();
+    }
+
+    public long getUploadBytes() {
+        return uploadBytes.get();
+    }
+
+    public long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getUploadedEvictionCount() {
+        return uploadedEvictions.get();
+    }
+
+    public long getPendingEvictionCount() {
+        return pendingEvictions.get();
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    public long getDeferralCount() {
+        return deferrals.get();
+    }
+
+    public long getDrainCount() {
+        return drains.get();
+    }
+
+    public long getRadioWakeupCount() {
+        return radioWakeups.get();
+    }
+
+    public long getImmediateRadioWakeupCount() {
+        return immediateRadioWakeups.get();
+    }
+
+    public long getMeteredBytes() {
+        return meteredBytes.get();
+    }
+
+    public long getImmediateMeteredBytes() {
+        return immediateMeteredBytes.get();
+    }
+
+    public LatencyHistogram getFixToCapture() {
+        return fixToCapture;
+    }
+
+    public LatencyHistogram getCaptureToImage() {
+        return captureToImage;
+    }
+
+    public LatencyHistogram getCaptureToUpload() {
+        return captureToUpload;
+    }
+
+    public LatencyHistogram getUploadDuration() {
+        return uploadDuration;
+    }
+
+    public LatencyHistogram getStartToFix() {
+        return startToFix;
+    }
+
+    public LatencyHistogram getFixToReady() {
+        return fixToReady;
+    }
+
+    public void writePrometheus(Writer writer) throws IOException {
+        writeCounter(writer, "fixes_total", "Location fixes received.", fixes.get());
+        writeCounter(writer, "triggers_total", "Shots triggered by distance.", triggers.get());
+        writeCounter(writer, "captures_total", "Capture requests sent to the camera.", captures.get());
+        writeCounter(writer, "uploads_total", "Successful upload requests.", uploads.get());
+        writeCounter(writer, "upload_failures_total", "Failed upload requests.", uploadFailures.get());
+        writeCounter(writer, "upload_retries_total", "Shots put back into the queue for another attempt.",
+                uploadRetries.get());
+        writeCounter(writer, "upload_bytes_total", "Image bytes delivered.", uploadBytes.get());
+        writeGauge(writer, "queue_depth", "Shots stored and not yet delivered.", queueDepth.get());
+        writeCounter(writer, "evictions_uploaded_total", "Uploaded images deleted for the storage budget.",
+                uploadedEvictions.get());
+        writeCounter(writer, "evictions_pending_total", "Images deleted for the storage budget before upload.",
+                pendingEvictions.get());
+        writeCounter(writer, "evicted_bytes_total", "Bytes freed for the storage budget.", evictedBytes.get());
+        writeGauge(writer, "stored_bytes", "Bytes of the images on the device.", storedBytes.get());
+        writeCounter(writer, "deferrals_total", "Shots held back by the upload policy.", deferrals.get());
+        writeCounter(writer, "drains_total", "Times held back shots were let out together.", drains.get());
+        writeCounter(writer, "radio_wakeups_total", "Uploads started with the radio idle.", radioWakeups.get());
+        writeCounter(writer, "radio_wakeups_immediate_total", "Radio wakeups immediate mode would have caused.",
+                immediateRadioWakeups.get());
+        writeCounter(writer, "metered_bytes_total", "Image bytes delivered over a metered network.",
+                meteredBytes.get());
+        writeCounter(writer, "metered_bytes_immediate_total",
+                "Image bytes immediate mode would have sent over a metered network.", immediateMeteredBytes.get());
+        writeHistogram(writer, "fix_to_capture_seconds", "From the triggering fix to the capture request.",
+                fixToCapture);
+        writeHistogram(writer, "capture_to_image_seconds", "From the capture request to the camera's image.",
+                captureToImage);
+        writeHistogram(writer, "capture_to_upload_seconds", "From the capture request to the shot's delivery.",
+                captureToUpload);
+        writeHistogram(writer, "upload_duration_seconds", "Duration of one upload request.", uploadDuration);
+        writeHistogram(writer, "start_to_fix_seconds", "From the service or process start to the first fix.",
+                startToFix);
+        writeHistogram(writer, "fix_to_ready_seconds", "From the first fix to the camera being open.", fixToReady);
+    }
+
+    private static void writeCounter(Writer writer, String name, String help, long value) throws IOException {
+        writeHeader(writer, name, help, "counter");
+        writer.write(PREFIX + name + " " + value + "\n");
+    }
+
+    private static void writeGauge(Writer writer, String name, String help, long value) throws IOException {
+        writeHeader(writer, name, help, "gauge");
+        writer.write(PREFIX + name + " " + value + "\n");
+    }
+
+    // Prometheus buckets are cumulative and in seconds. The count is the sum of the buckets, so it agrees with
+    // them even while other threads record.
+    private static void writeHistogram(Writer writer, String name, String help, LatencyHistogram histogram)
+            throws IOException {
+        writeHeader(writer, name, help, "histogram");
+        long cumulative = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            cumulative += histogram.getBucket(i);
+            long boundMillis = histogram.getBucketBoundMillis(i);
+            String bound = boundMillis == Long.MAX_VALUE ? "+Inf" : formatSeconds(boundMillis / 1e3);
+            writer.write(PREFIX + name + "_bucket{le=\"" + bound + "\"} " + cumulative + "\n");
+        }
+        writer.write(PREFIX + name + "_sum " + formatSeconds(histogram.getSumNanos() / 1e9) + "\n");
+        writer.write(PREFIX + name + "_count " + cumulative + "\n");
+    }
+
+    private static void writeHeader(Writer writer, String name, String help, String type) throws IOException {
+        writer.write("# HELP " + PREFIX + name + " " + help + "\n");
+        writer.write("# TYPE " + PREFIX + name + " " + type + "\n");
+    }
+
+    private static String formatSeconds(double seconds) {
+        String formatted = String.format(Locale.US, "%.6f", seconds);
+        // Trailing zeros only make the bucket labels harder to read.
+        formatted = formatted.replaceAll("0+$", "");
+        return formatted.endsWith(".") ? formatted.substring(0, formatted.length() - 1) : formatted;
+    }
+}
@@ -0,0 +1,65 @@
+package com.trackshoot;
+
+// The 3x3 rotation matrix and orientation math of android.hardware.SensorManager, without the Android dependency.
+public final class OrientationMath {
+
+    private static final float GRAVITY_EARTH = 9.80665f;
+    private static final float FREE_FALL_GRAVITY_SQUARED = 0.01f * GRAVITY_EARTH * GRAVITY_EARTH;
+
+    private OrientationMath() {
+    }
+
+    // Same contract as SensorManager.getRotationMatrix with a 9 element R and no inclination matrix.
+    // Returns false and leaves R untouched while in free fall or close to magnetic north or south.
+    public static boolean getRotationMatrix(float[] rotationMatrix, float[] gravity, float[] geomagnetic) {
+        float ax = gravity[0];
+        float ay = gravity[1];
+        float az = gravity[2];
+        float normSquaredA = ax * ax + ay * ay + az * az;
+        if (normSquaredA < FREE_FALL_GRAVITY_SQUARED) {
+            return false;
+        }
+
+        float ex = geomagnetic[0];
+        float ey = geomagnetic[1];
+        float ez = geomagnetic[2];
+        float hx = ey * az - ez * ay;
+        float hy = ez * ax - ex * az;
+        float hz = ex * ay - ey * ax;
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        if (normH < 0.1f) {
+            return false;
+        }
+
+        float invH = 1.0f / normH;
+        hx *= invH;
+        hy *= invH;
+        hz *= invH;
+        float invA = 1.0f / (float) Math.sqrt(normSquaredA);
+        ax *= invA;
+        ay *= invA;
+        az *= invA;
+        float mx = ay * hz - az * hy;
+        float my = az * hx - ax * hz;
+        float mz = ax * hy - ay * hx;
+
+        rotationMatrix[0] = hx;
+        rotationMatrix[1] = hy;
+        rotationMatrix[2] = hz;
+        rotationMatrix[3] = mx;
+        rotationMatrix[4] = my;
+        rotationMatrix[5] = mz;
+        rotationMatrix[6] = ax;
+        rotationMatrix[7] = ay;
+        rotationMatrix[8] = az;
+        return true;
+    }
+
+    // Azimuth, pitch and roll in radians, same as SensorManager.getOrientation with a 9 element R.
+    public static float[] getOrientation(float[] rotationMatrix, float[] orientationAngles) {
+        orientationAngles[0] = (float) Math.atan2(rotationMatrix[1], rotationMatrix[4]);
+        orientationAngles[1] = (float) Math.asin(-rotationMatrix[7]);
+        orientationAngles[2] = (float) Math.atan2(-rotationMatrix[6], rotationMatrix[8]);
+        return orientationAngles;
+    }
+}
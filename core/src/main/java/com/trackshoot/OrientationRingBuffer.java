@@ -0,0 +1,104 @@
+package com.trackshoot;
+
+// The last few orientation samples in fixed primitive arrays, so the orientation at capture time can be
+// interpolated between the samples around it rather than taken from whatever arrived last.
+// Confined to one thread, callers hand samples over themselves.
+public class OrientationRingBuffer {
+
+    private final long[] timestamps;
+    private final float[] azimuths;
+    private final float[] pitches;
+    private final float[] rolls;
+    private int next;
+    private int size;
+
+    public OrientationRingBuffer(int capacity) {
+        timestamps = new long[capacity];
+        azimuths = new float[capacity];
+        pitches = new float[capacity];
+        rolls = new float[capacity];
+    }
+
+    // Samples must arrive in timestamp order, as sensor events do.
+    public void add(long timestampNanos, float azimuth, float pitch, float roll) {
+        timestamps[next] = timestampNanos;
+        azimuths[next] = azimuth;
+        pitches[next] = pitch;
+        rolls[next] = roll;
+        next = (next + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    // Writes azimuth, pitch and roll at the given time into out. Outside the buffered range the nearest sample
+    // is used. Returns false when there are no samples yet.
+    public boolean interpolate(long timestampNanos, float[] out) {
+        if (size == 0) {
+            return false;
+        }
+
+        int newest = index(size - 1);
+        if (timestampNanos >= timestamps[newest]) {
+            copy(newest, out);
+            return true;
+        }
+        int oldest = index(0);
+        if (timestampNanos <= timestamps[oldest]) {
+            copy(oldest, out);
+            return true;
+        }
+
+        // Newest first, a shot is almost always close to the latest samples.
+        int after = newest;
+        for (int i = size - 2; i >= 0; i--) {
+            int before = index(i);
+            if (timestamps[before] <= timestampNanos) {
+                float fraction = (float) (timestampNanos - timestamps[before]) / (timestamps[after] - timestamps[before]);
+                out[0] = interpolateAngle(azimuths[before], azimuths[after], fraction);
+                out[1] = pitches[before] + (pitches[after] - pitches[before]) * fraction;
+                out[2] = interpolateAngle(rolls[before], rolls[after], fraction);
+                return true;
+            }
+            after = before;
+        }
+        copy(oldest, out);
+        return true;
+    }
+
+    private int index(int age) {
+        return (next - size + age + timestamps.length) % timestamps.length;
+    }
+
+    private void copy(int index, float[] out) {
+        out[0] = azimuths[index];
+        out[1] = pitches[index];
+        out[2] = rolls[index];
+    }
+
+    // Azimuth and roll wrap at +-pi, interpolate along the shorter arc.
+    private static float interpolateAngle(float from, float to, float fraction) {
+        float delta = to - from;
+        if (delta > Math.PI) {
+            delta -= 2 * Math.PI;
+        } else if (delta < -Math.PI) {
+            delta += 2 * Math.PI;
+        }
+        float angle = from + delta * fraction;
+        if (angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        } else if (angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+}
@@ -0,0 +1,30 @@
+package com.trackshoot;
+
+import java.io.File;
+
+public class PendingShot {
+
+    public final long id;
+    public final File imageFile;
+    public final String appId;
+    public final String metadata;
+    // The same shot as a ShotRecordEncoder binary record, null for shots queued before it existed.
+    public byte[] record;
+    // Wall clock time of the capture, 0 for shots queued before it was stored.
+    public long captureMillis;
+    // Hex SHA-256 of the image, taken while the first upload streamed it, null until then.
+    public String contentHash;
+    public int attempts;
+    public long notBefore;
+    public long uploadedOffset;
+    // Random id of the chunked upload on the server, kept so a restart resumes the same one, null until it starts.
+    public String uploadId;
+
+    public PendingShot(long id, File imageFile, String appId, String metadata, int attempts) {
+        this.id = id;
+        this.imageFile = imageFile;
+        this.appId = appId;
+        this.metadata = metadata;
+        this.attempts = attempts;
+    }
+}
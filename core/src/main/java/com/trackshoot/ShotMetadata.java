@@ -0,0 +1,51 @@
+package com.trackshoot;
+
+// The metadata of the shot being taken. Filled in at the trigger, then moved to where the camera actually was when
+// it fired, by interpolating the recent fixes, and given the orientation at that moment. Encoded right after, so
+// the next trigger can refill it while the image is still on its way. Not thread safe.
+public class ShotMetadata {
+
+    public interface OrientationSource {
+        float[] getOrientation(long timestampNanos, float[] out);
+    }
+
+    private final ShotRecordEncoder shotRecordEncoder;
+    private final OrientationSource orientationSource;
+    private final long maxExtrapolationNanos;
+    private final FixRingBuffer fixRingBuffer;
+    private final ShotRecord shotRecord = new ShotRecord();
+    private final double[] capturePosition = new double[2];
+    private final float[] orientationAngles = new float[3];
+
+    public ShotMetadata(ShotRecordEncoder shotRecordEncoder, OrientationSource orientationSource, int fixHistory,
+                        long maxExtrapolationNanos) {
+        this.shotRecordEncoder = shotRecordEncoder;
+        this.orientationSource = orientationSource;
+        this.maxExtrapolationNanos = maxExtrapolationNanos;
+        this.fixRingBuffer = new FixRingBuffer(fixHistory);
+    }
+
+    public void addFix(long timestampNanos, double latitude, double longitude, float speed, float bearing) {
+        fixRingBuffer.add(timestampNanos, latitude, longitude, speed, bearing);
+    }
+
+    public ShotRecord onTrigger(String appId, int rate, double latitude, double longitude, long timeMillis) {
+        return shotRecord.set(appId, rate, latitude, longitude, timeMillis, orientationAngles);
+    }
+
+    // Past the newest fix the position is extrapolated, the trigger position only stays without any fixes.
+    public ShotRecord onCapture(long captureNanos, long captureMillis) {
+        if (fixRingBuffer.interpolate(captureNanos, maxExtrapolationNanos, capturePosition)) {
+            shotRecord.setPosition(capturePosition[0], capturePosition[1], captureMillis);
+        }
+        return shotRecord.setOrientation(orientationSource.getOrientation(captureNanos, orientationAngles));
+    }
+
+    public String toJson() {
+        return shotRecordEncoder.toJson(shotRecord);
+    }
+
+    public byte[] toBinary() {
+        return shotRecordEncoder.toBinary(shotRecord);
+    }
+}
@@ -0,0 +1,41 @@
+package com.trackshoot;
+
+// Everything known about a shot at trigger time. Mutable so the trigger path can refill one instance per shot.
+public class ShotRecord {
+
+    public String appId;
+    public int rate;
+    public double latitude;
+    public double longitude;
+    public long epochMillis;
+    public float azimuth;
+    public float pitch;
+    public float roll;
+
+    public ShotRecord set(String appId, int rate, double latitude, double longitude, long epochMillis, float[] orientationAngles) {
+        this.appId = appId;
+        this.rate = rate;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.epochMillis = epochMillis;
+        this.azimuth = orientationAngles[0];
+        this.pitch = orientationAngles[1];
+        this.roll = orientationAngles[2];
+        return this;
+    }
+
+    // The position and time the shot was actually captured at, which come after the trigger.
+    public ShotRecord setPosition(double latitude, double longitude, long epochMillis) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.epochMillis = epochMillis;
+        return this;
+    }
+
+    public ShotRecord setOrientation(float[] orientationAngles) {
+        this.azimuth = orientationAngles[0];
+        this.pitch = orientationAngles[1];
+        this.roll = orientationAngles[2];
+        return this;
+    }
+}
@@ -0,0 +1,326 @@
+package com.trackshoot;
+
+import java.nio.charset.Charset;
+import java.util.TimeZone;
+
+// Writes ShotRecords as JSON or as a compact binary record into one reusable byte buffer. Keys are encoded once up
+// front and numbers are written digit by digit, so encoding a shot allocates nothing once the buffer has grown.
+// Not thread safe, use one encoder per thread.
+public class ShotRecordEncoder {
+
+    private final byte[] keyAppId;
+    private final byte[] keyRate;
+    private final byte[] keyGps;
+    private final byte[] keyDateTime;
+    private final byte[] keyTimestamp;
+    private final byte[] keyOrientation;
+    private final byte[] rateSuffix;
+    private final TimeZone timeZone;
+    private byte[] buffer;
+    private int length;
+
+    public static final int BINARY_VERSION = 1;
+    // Version, app id length, rate, latitude, longitude, timestamp and three angles, app id bytes come on top.
+    public static final int BINARY_FIXED_SIZE = 1 + 2 + 4 + 8 + 8 + 8 + 3 * 4;
+
+    private static final int COORDINATE_DECIMALS = 7;
+    private static final int ANGLE_DECIMALS = 6;
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    // U+00A0 in UTF-8, the separator of the original "yyyy-MM-dd&#160;HH:mm:ss" date_format string.
+    private static final byte[] NO_BREAK_SPACE = {(byte) 0xc2, (byte) 0xa0};
+
+    public ShotRecordEncoder(String keyAppId, String keyRate, String keyGps, String keyDateTime, String keyTimestamp,
+                             String keyOrientation, String rateSuffix) {
+        this.buffer = new byte[256];
+        this.keyAppId = encodeKey(keyAppId);
+        this.keyRate = encodeKey(keyRate);
+        this.keyGps = encodeKey(keyGps);
+        this.keyDateTime = encodeKey(keyDateTime);
+        this.keyTimestamp = encodeKey(keyTimestamp);
+        this.keyOrientation = encodeKey(keyOrientation);
+        length = 0;
+        writeUtf8(rateSuffix, false);
+        this.rateSuffix = copy();
+        this.timeZone = TimeZone.getDefault();
+    }
+
+    // {"app_id":"...","rate":"50m","gps":[lat,lon],"datetime":"yyyy-MM-dd\u00a0HH:mm:ss","timestamp":millis,"orientation":[a,p,r]}
+    public int writeJson(ShotRecord record) {
+        length = 0;
+        writeByte('{');
+        write(keyAppId);
+        writeQuoted(record.appId);
+        writeByte(',');
+        write(keyRate);
+        writeByte('"');
+        writeLong(record.rate);
+        write(rateSuffix);
+        writeByte('"');
+        writeByte(',');
+        write(keyGps);
+        writeByte('[');
+        writeFixed(record.latitude, COORDINATE_DECIMALS);
+        writeByte(',');
+        writeFixed(record.longitude, COORDINATE_DECIMALS);
+        writeByte(']');
+        writeByte(',');
+        write(keyDateTime);
+        writeByte('"');
+        writeDateTime(record.epochMillis);
+        writeByte('"');
+        writeByte(',');
+        write(keyTimestamp);
+        writeLong(record.epochMillis);
+        writeByte(',');
+        write(keyOrientation);
+        writeByte('[');
+        writeFixed(record.azimuth, ANGLE_DECIMALS);
+        writeByte(',');
+        writeFixed(record.pitch, ANGLE_DECIMALS);
+        writeByte(',');
+        writeFixed(record.roll, ANGLE_DECIMALS);
+        writeByte(']');
+        writeByte('}');
+        return length;
+    }
+
+    // Big endian: version, app id (unsigned short length + UTF-8), rate, latitude, longitude, epoch millis, angles.
+    public int writeBinary(ShotRecord record) {
+        length = 0;
+        writeByte(BINARY_VERSION);
+        int lengthPosition = length;
+        length += 2;
+        if (record.appId != null) {
+            writeUtf8(record.appId, false);
+        }
+        int appIdLength = length - lengthPosition - 2;
+        buffer[lengthPosition] = (byte) (appIdLength >>> 8);
+        buffer[lengthPosition + 1] = (byte) appIdLength;
+        writeInt(record.rate);
+        writeLongBits(Double.doubleToLongBits(record.latitude));
+        writeLongBits(Double.doubleToLongBits(record.longitude));
+        writeLongBits(record.epochMillis);
+        writeInt(Float.floatToIntBits(record.azimuth));
+        writeInt(Float.floatToIntBits(record.pitch));
+        writeInt(Float.floatToIntBits(record.roll));
+        return length;
+    }
+
+    // Reads one binary record into the given instance and returns the offset right after it.
+    public static int readBinary(byte[] data, int offset, ShotRecord record) {
+        if (data[offset] != BINARY_VERSION) {
+            throw new IllegalArgumentException("Unknown shot record version " + data[offset]);
+        }
+        int position = offset + 1;
+        int appIdLength = ((data[position] & 0xff) << 8) | (data[position + 1] & 0xff);
+        position += 2;
+        record.appId = new String(data, position, appIdLength, UTF_8);
+        position += appIdLength;
+        record.rate = readInt(data, position);
+        record.latitude = Double.longBitsToDouble(readLong(data, position + 4));
+        record.longitude = Double.longBitsToDouble(readLong(data, position + 12));
+        record.epochMillis = readLong(data, position + 20);
+        record.azimuth = Float.intBitsToFloat(readInt(data, position + 28));
+        record.pitch = Float.intBitsToFloat(readInt(data, position + 32));
+        record.roll = Float.intBitsToFloat(readInt(data, position + 36));
+        return position + 40;
+    }
+
+    // Valid up to the length returned by the last write call, overwritten by the next one.
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public String toJson(ShotRecord record) {
+        writeJson(record);
+        return new String(buffer, 0, length, UTF_8);
+    }
+
+    public byte[] toBinary(ShotRecord record) {
+        writeBinary(record);
+        return copy();
+    }
+
+    private byte[] encodeKey(String key) {
+        length = 0;
+        writeQuoted(key);
+        writeByte(':');
+        return copy();
+    }
+
+    private byte[] copy() {
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, 0, copy, 0, length);
+        return copy;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeQuoted(String value) {
+        if (value == null) {
+            write(NULL);
+            return;
+        }
+        writeByte('"');
+        writeUtf8(value, true);
+        writeByte('"');
+    }
+
+    private void writeUtf8(String value, boolean escape) {
+        ensureCapacity(value.length() * 6);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (escape && (c == '"' || c == '\\')) {
+                buffer[length++] = '\\';
+                buffer[length++] = (byte) c;
+            } else if (escape && c < 0x20) {
+                buffer[length++] = '\\';
+                buffer[length++] = 'u';
+                buffer[length++] = '0';
+                buffer[length++] = '0';
+                buffer[length++] = HEX[c >> 4];
+                buffer[length++] = HEX[c & 0xf];
+            } else if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                buffer[length++] = (byte) (0xe0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void writeLong(long value) {
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        writeDigits(value, 1);
+    }
+
+    // Writes the value with at least minDigits digits, zero padded.
+    private void writeDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    // Fixed point with trailing zeros trimmed, NaN and infinities become null.
+    private void writeFixed(double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL);
+            return;
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            writeByte('-');
+        }
+        writeDigits(scaled / scale, 1);
+        long fraction = scaled % scale;
+        if (fraction != 0) {
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                decimals--;
+            }
+            writeByte('.');
+            writeDigits(fraction, decimals);
+        }
+    }
+
+    // yyyy-MM-dd HH:mm:ss in the device time zone, with a no-break space between date and time.
+    private void writeDateTime(long epochMillis) {
+        long localMillis = epochMillis + timeZone.getOffset(epochMillis);
+        long days = floorDiv(localMillis, MILLIS_PER_DAY);
+        long millisOfDay = localMillis - days * MILLIS_PER_DAY;
+
+        // Civil date from days since the epoch (Howard Hinnant's algorithm).
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        long month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        writeDigits(year, 4);
+        writeByte('-');
+        writeDigits(month, 2);
+        writeByte('-');
+        writeDigits(day, 2);
+        write(NO_BREAK_SPACE);
+        writeDigits(millisOfDay / 3600000, 2);
+        writeByte(':');
+        writeDigits(millisOfDay / 60000 % 60, 2);
+        writeByte(':');
+        writeDigits(millisOfDay / 1000 % 60, 2);
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        buffer[length++] = (byte) (value >>> 24);
+        buffer[length++] = (byte) (value >>> 16);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeLongBits(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return ((long) readInt(data, offset) << 32) | (readInt(data, offset + 4) & 0xffffffffL);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? quotient - 1 : quotient;
+    }
+}
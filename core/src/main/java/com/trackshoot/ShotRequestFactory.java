@@ -0,0 +1,139 @@
+package com.trackshoot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.HashingSource;
+import okio.Okio;
+
+public class ShotRequestFactory {
+
+    private final UploadConfig uploadConfig;
+
+    private static final MediaType MEDIA_TYPE_JPEG = MediaType.parse("image/jpeg");
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final MediaType MEDIA_TYPE_RECORDS = MediaType.parse("application/octet-stream");
+    public static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    public ShotRequestFactory(UploadConfig uploadConfig) {
+        this.uploadConfig = uploadConfig;
+    }
+
+    // The image with its metadata, as JSON and as a binary record when the shot has one. Imgur keeps the title and
+    // description and ignores the rest, the ingest server indexes the metadata.
+    // A shot sent before carries its content hash as idempotency key and asks to continue before the image goes out,
+    // so a server that stored it already answers without receiving it again.
+    public Request newShotRequest(PendingShot pendingShot) {
+        MultipartBody.Builder builder = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("title", "shot")
+                .addFormDataPart("description", pendingShot.appId)
+                .addFormDataPart("image", pendingShot.imageFile.getName(), new HashingImageBody(pendingShot));
+        if (pendingShot.metadata != null) {
+            builder.addFormDataPart("metadata", null, RequestBody.create(MEDIA_TYPE_JSON, pendingShot.metadata));
+        }
+        if (pendingShot.record != null) {
+            builder.addFormDataPart("record", null, RequestBody.create(MEDIA_TYPE_RECORDS, pendingShot.record));
+        }
+
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(uploadConfig.getEndpoint())
+                .post(builder.build());
+        if (uploadConfig.getClientId() != null) {
+            requestBuilder.header("Authorization", "Client-ID " + uploadConfig.getClientId());
+        }
+        if (pendingShot.contentHash != null) {
+            requestBuilder.header(HEADER_IDEMPOTENCY_KEY, pendingShot.contentHash)
+                    .header("Expect", "100-continue");
+        }
+        return requestBuilder.build();
+    }
+
+    // One multipart request for the whole batch: a count part followed by an image_<n> and metadata_<n> pair per shot.
+    // In binary mode the metadata parts are replaced by a single records part holding the shots' binary records in order.
+    public Request newBatchRequest(List<PendingShot> batch) {
+        MultipartBody.Builder builder = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("count", Integer.toString(batch.size()));
+        boolean binary = uploadConfig.isBinaryBatchMetadata() && hasRecords(batch);
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingShot pendingShot = batch.get(i);
+            builder.addFormDataPart("image_" + i, pendingShot.imageFile.getName(), new HashingImageBody(pendingShot));
+            if (!binary) {
+                builder.addFormDataPart("metadata_" + i, null, RequestBody.create(MEDIA_TYPE_JSON, pendingShot.metadata));
+            }
+        }
+        if (binary) {
+            builder.addFormDataPart("records", null, RequestBody.create(MEDIA_TYPE_RECORDS, concatenateRecords(batch)));
+        }
+
+        return new Request.Builder()
+                .url(uploadConfig.getBatchEndpoint())
+                .post(builder.build())
+                .build();
+    }
+
+    private static boolean hasRecords(List<PendingShot> batch) {
+        for (PendingShot pendingShot : batch) {
+            if (pendingShot.record == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] concatenateRecords(List<PendingShot> batch) {
+        int size = 0;
+        for (PendingShot pendingShot : batch) {
+            size += pendingShot.record.length;
+        }
+        byte[] records = new byte[size];
+        int offset = 0;
+        for (PendingShot pendingShot : batch) {
+            System.arraycopy(pendingShot.record, 0, records, offset, pendingShot.record.length);
+            offset += pendingShot.record.length;
+        }
+        return records;
+    }
+
+    // Streams the image like RequestBody.create(MediaType, File) and takes its SHA-256 on the way, there is no second
+    // read of the file. The hash is only set once the whole image was read.
+    private static class HashingImageBody extends RequestBody {
+
+        private final PendingShot pendingShot;
+        private final File file;
+
+        HashingImageBody(PendingShot pendingShot) {
+            this.pendingShot = pendingShot;
+            this.file = pendingShot.imageFile.getAbsoluteFile();
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MEDIA_TYPE_JPEG;
+        }
+
+        @Override
+        public long contentLength() {
+            return file.length();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            HashingSource source = HashingSource.sha256(Okio.source(file));
+            try {
+                sink.writeAll(source);
+            } finally {
+                source.close();
+            }
+            pendingShot.contentHash = source.hash().hex();
+        }
+    }
+}
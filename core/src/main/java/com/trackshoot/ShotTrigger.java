@@ -0,0 +1,76 @@
+package com.trackshoot;
+
+// Decides at every fix whether to shoot: once the fix is at least the rate away from the last shot, unless the spot
+// is already covered or too many shots wait for upload. A covered spot counts as shot, so a route driven before is
+// looked at every rate along it. The first fix only sets where the distance is counted from.
+// Not thread safe, fixes come in one at a time.
+public class ShotTrigger {
+
+    // What can hold a shot back besides the distance.
+    public interface Conditions {
+        // Whether there is a shot within about radiusMeters.
+        boolean isCovered(double latitude, double longitude, double radiusMeters, long timeMillis);
+
+        boolean isBacklogged();
+    }
+
+    private final Conditions conditions;
+    private final GeoDistance geoDistance = new GeoDistance();
+    // The last fix a decision was taken at, a shot or one held back. The next one is due a rate further on.
+    private final GeoDistance decisionPoint = new GeoDistance();
+    private boolean anchored;
+    private double distance;
+
+    public static final int ANCHORED = 0;
+    public static final int TOO_CLOSE = 1;
+    public static final int COVERED = 2;
+    public static final int BACKLOGGED = 3;
+    public static final int SHOOT = 4;
+
+    public ShotTrigger(Conditions conditions) {
+        this.conditions = conditions;
+    }
+
+    // Returns one of the decisions above. On SHOOT and COVERED the distance is counted from this fix on.
+    public int onFix(double latitude, double longitude, long timeMillis, int rate) {
+        if (!anchored) {
+            geoDistance.setAnchor(latitude, longitude);
+            decisionPoint.setAnchor(latitude, longitude);
+            anchored = true;
+            distance = 0;
+            return ANCHORED;
+        }
+        distance = geoDistance.distanceTo(latitude, longitude);
+        if (distance < rate) {
+            return TOO_CLOSE;
+        }
+        decisionPoint.setAnchor(latitude, longitude);
+        // Shots taken at the rate along a route leave no point on it further than half the rate from one.
+        if (conditions.isCovered(latitude, longitude, rate / 2.0, timeMillis)) {
+            geoDistance.setAnchor(latitude, longitude);
+            return COVERED;
+        }
+        if (conditions.isBacklogged()) {
+            return BACKLOGGED;
+        }
+        geoDistance.setAnchor(latitude, longitude);
+        return SHOOT;
+    }
+
+    // What the last decision was based on, from the previous shot, or the first fix, to the last fix.
+    public double getDistance() {
+        return distance;
+    }
+
+    // From the last decision, a shot, a shot held back or the first fix, to any position, 0 before the first fix.
+    // A held shot is looked at again one rate further on, at the latest.
+    public double distanceFromDecision(double latitude, double longitude) {
+        return anchored ? decisionPoint.distanceTo(latitude, longitude) : 0;
+    }
+
+    // The next fix starts over.
+    public void reset() {
+        anchored = false;
+        distance = 0;
+    }
+}
@@ -0,0 +1,295 @@
+package com.trackshoot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Set;
+
+// Keeps the captured images within a byte budget. Every image is tracked from the moment it is queued, first as
+// pending, then as uploaded. Over the budget, sweep() deletes uploaded images first, oldest upload first, and only
+// then pending ones, oldest capture first, a few at a time so it never holds the caller up for long.
+// The index is a journal of small records appended as images come and go, replayed and compacted on open, so the
+// image directory is never scanned to find out what it holds.
+public class StorageBudget {
+
+    private final File journalFile;
+    private final long budgetBytes;
+    private final Metrics metrics;
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> uploaded = new LinkedHashMap<>();
+    private DataOutputStream journal;
+    private int journalRecords;
+    private long totalBytes;
+    private String adoptedDirectory;
+
+    private static final int JOURNAL_VERSION = 1;
+    private static final byte RECORD_ADDED = 1;
+    private static final byte RECORD_UPLOADED = 2;
+    private static final byte RECORD_REMOVED = 3;
+    private static final byte RECORD_ADOPTED = 4;
+    private static final int MIN_COMPACT_RECORDS = 256;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String[] IMAGE_EXTENSIONS = {".jpeg", ".jpg", ".png"};
+
+    private static class Entry {
+
+        final String path;
+        final long bytes;
+
+        Entry(String path, long bytes) {
+            this.path = path;
+            this.bytes = bytes;
+        }
+    }
+
+    public StorageBudget(File journalFile, long budgetBytes, Metrics metrics) throws IOException {
+        this.journalFile = journalFile;
+        this.budgetBytes = budgetBytes;
+        this.metrics = metrics;
+        replay();
+        compact();
+    }
+
+    // Whether adopt() has run, on this or an earlier start.
+    public synchronized boolean isAdopted() {
+        return adoptedDirectory != null;
+    }
+
+    public synchronized void add(File imageFile) {
+        String path = imageFile.getAbsolutePath();
+        if (pending.containsKey(path) || uploaded.containsKey(path)) {
+            return;
+        }
+        Entry entry = new Entry(path, imageFile.length());
+        pending.put(path, entry);
+        totalBytes += entry.bytes;
+        metrics.setStoredBytes(totalBytes);
+        append(RECORD_ADDED, entry);
+    }
+
+    public synchronized void markUploaded(File imageFile) {
+        Entry entry = pending.remove(imageFile.getAbsolutePath());
+        if (entry != null) {
+            uploaded.put(entry.path, entry);
+            append(RECORD_UPLOADED, entry);
+        }
+    }
+
+    // The image has been deleted by someone else.
+    public synchronized void forget(File imageFile) {
+        String path = imageFile.getAbsolutePath();
+        Entry entry = pending.remove(path);
+        if (entry == null) {
+            entry = uploaded.remove(path);
+        }
+        if (entry != null) {
+            totalBytes -= entry.bytes;
+            metrics.setStoredBytes(totalBytes);
+            append(RECORD_REMOVED, entry);
+        }
+    }
+
+    // Takes the image files in the directory that are not in the index yet, the ones captured before the index
+    // existed. Images in queuedPaths still wait for upload, the rest have been uploaded or never will be. The one
+    // directory scan there is, meant to run once.
+    public synchronized int adopt(File directory, Set<String> queuedPaths) {
+        File[] files = directory.listFiles();
+        int adopted = 0;
+        if (files != null) {
+            for (File file : files) {
+                String path = file.getAbsolutePath();
+                if (!file.isFile() || !isImage(file.getName()) || pending.containsKey(path)
+                        || uploaded.containsKey(path)) {
+                    continue;
+                }
+                Entry entry = new Entry(path, file.length());
+                totalBytes += entry.bytes;
+                if (queuedPaths.contains(path)) {
+                    pending.put(path, entry);
+                    append(RECORD_ADDED, entry);
+                } else {
+                    uploaded.put(path, entry);
+                    append(RECORD_ADDED, entry);
+                    append(RECORD_UPLOADED, entry);
+                }
+                adopted++;
+            }
+        }
+        adoptedDirectory = directory.getAbsolutePath();
+        append(RECORD_ADOPTED, new Entry(adoptedDirectory, 0));
+        metrics.setStoredBytes(totalBytes);
+        return adopted;
+    }
+
+    public synchronized boolean isOverBudget() {
+        return totalBytes > budgetBytes;
+    }
+
+    // Deletes at most maxDeletions images while over the budget. Returns whether it is still over the budget.
+    public synchronized boolean sweep(int maxDeletions) {
+        for (int i = 0; i < maxDeletions && totalBytes > budgetBytes; i++) {
+            boolean wasUploaded = !uploaded.isEmpty();
+            Iterator<Entry> iterator = (wasUploaded ? uploaded : pending).values().iterator();
+            Entry entry = iterator.next();
+            iterator.remove();
+            totalBytes -= entry.bytes;
+            append(RECORD_REMOVED, entry);
+
+            File file = new File(entry.path);
+            // An image that cannot be deleted is dropped from the index all the same, or the sweep would stall on it.
+            if (file.delete() || !file.exists()) {
+                metrics.recordEviction(wasUploaded, entry.bytes);
+            }
+        }
+        metrics.setStoredBytes(totalBytes);
+        return totalBytes > budgetBytes;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getUploadedCount() {
+        return uploaded.size();
+    }
+
+    // Images tracked after close() are only known until the process ends.
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private void replay() throws IOException {
+        DataInputStream input;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        try {
+            if (input.readInt() != JOURNAL_VERSION) {
+                return;
+            }
+            while (true) {
+                byte type = input.readByte();
+                String path = input.readUTF();
+                if (type == RECORD_ADDED) {
+                    Entry entry = new Entry(path, input.readLong());
+                    if (!pending.containsKey(path) && !uploaded.containsKey(path)) {
+                        pending.put(path, entry);
+                        totalBytes += entry.bytes;
+                    }
+                } else if (type == RECORD_UPLOADED) {
+                    Entry entry = pending.remove(path);
+                    if (entry != null) {
+                        uploaded.put(path, entry);
+                    }
+                } else if (type == RECORD_REMOVED) {
+                    Entry entry = pending.remove(path);
+                    if (entry == null) {
+                        entry = uploaded.remove(path);
+                    }
+                    if (entry != null) {
+                        totalBytes -= entry.bytes;
+                    }
+                } else if (type == RECORD_ADOPTED) {
+                    adoptedDirectory = path;
+                } else {
+                    throw new IOException("Unknown storage journal record " + type);
+                }
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // A record torn by a crash ends the journal, everything before it stands.
+        } finally {
+            input.close();
+        }
+    }
+
+    // Rewrites the journal with only the images it still tracks, in their order, and keeps appending to it.
+    private void compact() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        File tempFile = new File(journalFile.getAbsolutePath() + TEMP_SUFFIX);
+        FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            output.writeInt(JOURNAL_VERSION);
+            if (adoptedDirectory != null) {
+                writeRecord(output, RECORD_ADOPTED, new Entry(adoptedDirectory, 0));
+            }
+            for (Entry entry : uploaded.values()) {
+                writeRecord(output, RECORD_ADDED, entry);
+                writeRecord(output, RECORD_UPLOADED, entry);
+            }
+            for (Entry entry : pending.values()) {
+                writeRecord(output, RECORD_ADDED, entry);
+            }
+            output.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            fileOutputStream.close();
+        }
+        if (!tempFile.renameTo(journalFile)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + journalFile.getName());
+        }
+        journalRecords = uploaded.size() * 2 + pending.size() + 1;
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+        metrics.setStoredBytes(totalBytes);
+    }
+
+    private void append(byte type, Entry entry) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            writeRecord(journal, type, entry);
+            // Flushed record by record, a crash loses at most the one being written.
+            journal.flush();
+            journalRecords++;
+            if (journalRecords > MIN_COMPACT_RECORDS + 2 * (pending.size() + uploaded.size())) {
+                compact();
+            }
+        } catch (IOException e) {
+            // The index in memory is still right, only a restart would forget what this record says.
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean isImage(String name) {
+        String lowerCase = name.toLowerCase(Locale.US);
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (lowerCase.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeRecord(DataOutputStream output, byte type, Entry entry) throws IOException {
+        output.writeByte(type);
+        output.writeUTF(entry.path);
+        if (type == RECORD_ADDED) {
+            output.writeLong(entry.bytes);
+        }
+    }
+}
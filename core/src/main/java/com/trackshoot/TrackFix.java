@@ -0,0 +1,21 @@
+package com.trackshoot;
+
+// One location fix as stored in the track log. Reused by readers, one instance per cursor.
+public class TrackFix {
+
+    public long timeMillis;
+    public double latitude;
+    public double longitude;
+    public float accuracy;
+    public float speed;
+    public float bearing;
+
+    public void set(long timeMillis, double latitude, double longitude, float accuracy, float speed, float bearing) {
+        this.timeMillis = timeMillis;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.bearing = bearing;
+    }
+}
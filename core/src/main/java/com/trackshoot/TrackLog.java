@@ -0,0 +1,633 @@
+package com.trackshoot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Full resolution track: every fix is appended as a fixed size record to a memory mapped segment file. On the
+// writer thread an append is a few stores into mapped memory. Mapping the next segment, forcing full segments to
+// disk and compaction run on a background thread, and a fix that finds the segment full before the next one is
+// mapped is dropped and counted rather than waited for.
+// Each record ends with a checksum that is written last, so after a crash the log ends at the last complete record.
+// Compaction merges the small segments left behind by restarts into full sized ones and deletes the oldest
+// segments beyond the size limit.
+public class TrackLog implements Closeable {
+
+    private final File directory;
+    private final int segmentRecords;
+    private final long maxBytes;
+    private final ExecutorService background;
+    private final ReentrantReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private Segment active;
+    private volatile Segment next;
+    private volatile boolean preparing;
+    private volatile long activeSequence;
+
+    private final Runnable compaction = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                compact();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    };
+
+    public static final int RECORD_SIZE = 40;
+    public static final int HEADER_SIZE = 24;
+    public static final int DEFAULT_SEGMENT_RECORDS = 4096;
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private static final int MAGIC = 0x54524b31;
+    private static final int VERSION = 1;
+    private static final String SEGMENT_SUFFIX = ".track";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int READ_BATCH_RECORDS = 128;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    // Recovers what a previous run left behind and starts a new segment.
+    public TrackLog(File directory, int segmentRecords, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.maxBytes = maxBytes;
+        this.background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TrackLog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        directory.mkdirs();
+
+        long[] sequences = recover();
+        long sequence = sequences.length > 0 ? sequences[sequences.length - 1] + 1 : 0;
+        active = Segment.create(segmentFile(sequence), sequence, segmentRecords);
+        activeSequence = sequence;
+        prepareNext();
+        background.execute(compaction);
+    }
+
+    // Writer thread only, one thread at a time. Returns false when the fix was dropped.
+    public boolean append(long timeMillis, double latitude, double longitude, float accuracy, float speed,
+                          float bearing) {
+        Segment segment = active;
+        if (segment.records == segmentRecords) {
+            Segment prepared = next;
+            if (prepared == null) {
+                if (!preparing) {
+                    prepareNext();
+                }
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            next = null;
+            active = prepared;
+            activeSequence = prepared.sequence;
+            seal(segment);
+            prepareNext();
+            segment = prepared;
+        }
+        segment.write(timeMillis, latitude, longitude, accuracy, speed, bearing);
+        appendedCount.incrementAndGet();
+        return true;
+    }
+
+    // Streams the fixes with fromMillis <= time <= toMillis in time order, a few records at a time, the active
+    // segment included. Compaction waits while a cursor is open, close it on the thread that opened it.
+    public Cursor read(long fromMillis, long toMillis) throws IOException {
+        segmentsLock.readLock().lock();
+        try {
+            return new Cursor(listSequences(), fromMillis, toMillis);
+        } catch (RuntimeException e) {
+            segmentsLock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    public long getAppendedCount() {
+        return appendedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    // Seals the active segment and waits for the background work. Call after the last append().
+    @Override
+    public void close() throws IOException {
+        final Segment last = active;
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                segmentsLock.writeLock().lock();
+                try {
+                    last.seal();
+                    if (last.records == 0) {
+                        last.file.delete();
+                    }
+                    Segment unused = next;
+                    next = null;
+                    if (unused != null) {
+                        unused.file.delete();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    segmentsLock.writeLock().unlock();
+                }
+            }
+        });
+        background.shutdown();
+        try {
+            background.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void prepareNext() {
+        preparing = true;
+        final long sequence = activeSequence + 1;
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    next = Segment.create(segmentFile(sequence), sequence, segmentRecords);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    preparing = false;
+                }
+            }
+        });
+    }
+
+    private void seal(final Segment segment) {
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    segment.seal();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                compaction.run();
+            }
+        });
+    }
+
+    // Removes what an interrupted compaction left behind and cuts the segments that were open for writing back
+    // to their last complete record. Returns the remaining segment sequences.
+    private long[] recover() throws IOException {
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    new File(directory, name).delete();
+                }
+            }
+        }
+
+        // A merged segment covers the sequences after its own up to the one in its header. A crash between
+        // the merge and deleting the merged segments leaves those behind.
+        long[] sequences = listSequences();
+        long covered = -1;
+        for (long sequence : sequences) {
+            File file = segmentFile(sequence);
+            if (sequence <= covered) {
+                file.delete();
+            } else {
+                covered = Math.max(covered, readCoverage(file, sequence));
+            }
+        }
+
+        // Only the last two segments can have been open, the active one and the one mapped after it.
+        sequences = listSequences();
+        for (int i = Math.max(0, sequences.length - 2); i < sequences.length; i++) {
+            truncateToValid(segmentFile(sequences[i]));
+        }
+        return listSequences();
+    }
+
+    private void compact() throws IOException {
+        segmentsLock.writeLock().lock();
+        try {
+            long[] sequences = listSequences();
+            int sealed = 0;
+            while (sealed < sequences.length && sequences[sealed] < activeSequence) {
+                sealed++;
+            }
+
+            int start = 0;
+            while (start < sealed) {
+                long records = recordCount(segmentFile(sequences[start]));
+                int end = start + 1;
+                while (end < sealed && records + recordCount(segmentFile(sequences[end])) <= segmentRecords) {
+                    records += recordCount(segmentFile(sequences[end]));
+                    end++;
+                }
+                if (end - start > 1) {
+                    merge(sequences, start, end);
+                }
+                start = end;
+            }
+
+            sequences = listSequences();
+            long totalBytes = 0;
+            for (long sequence : sequences) {
+                totalBytes += segmentFile(sequence).length();
+            }
+            for (int i = 0; i < sequences.length && totalBytes > maxBytes && sequences[i] < activeSequence; i++) {
+                File file = segmentFile(sequences[i]);
+                totalBytes -= file.length();
+                file.delete();
+            }
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+    }
+
+    // Concatenates the records of sealed segments [start, end) into the first of them.
+    private void merge(long[] sequences, int start, int end) throws IOException {
+        File target = segmentFile(sequences[start]);
+        File tempFile = new File(directory, sequences[start] + TEMP_SUFFIX);
+        RandomAccessFile output = new RandomAccessFile(tempFile, "rw");
+        try {
+            output.setLength(0);
+            FileChannel channel = output.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            writeHeader(header, sequences[end - 1]);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            for (int i = start; i < end; i++) {
+                RandomAccessFile input = new RandomAccessFile(segmentFile(sequences[i]), "r");
+                try {
+                    FileChannel source = input.getChannel();
+                    long size = HEADER_SIZE + recordCount(segmentFile(sequences[i])) * RECORD_SIZE;
+                    long position = HEADER_SIZE;
+                    while (position < size) {
+                        position += source.transferTo(position, size - position, channel);
+                    }
+                } finally {
+                    input.close();
+                }
+            }
+            channel.force(true);
+        } finally {
+            output.close();
+        }
+
+        if (!tempFile.renameTo(target)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + target);
+        }
+        for (int i = start + 1; i < end; i++) {
+            segmentFile(sequences[i]).delete();
+        }
+    }
+
+    private long[] listSequences() {
+        String[] names = directory.list();
+        List<Long> sequences = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        sequences.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // Not a segment.
+                    }
+                }
+            }
+        }
+        long[] result = new long[sequences.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sequences.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(directory, String.format(Locale.US, "%016d", sequence) + SEGMENT_SUFFIX);
+    }
+
+    // Sealed segments hold exactly their records.
+    private static long recordCount(File file) {
+        return Math.max(0, (file.length() - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    private static void writeHeader(ByteBuffer buffer, long lastSequence) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, RECORD_SIZE);
+        buffer.putInt(12, 0);
+        buffer.putLong(16, lastSequence);
+    }
+
+    private static boolean validHeader(ByteBuffer header) {
+        return header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(8) == RECORD_SIZE;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    // The last sequence a segment covers, its own unless it is the result of a merge.
+    private static long readCoverage(File file, long sequence) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (!readFully(randomAccessFile.getChannel(), header, 0) || !validHeader(header)) {
+                return sequence;
+            }
+            return Math.max(sequence, header.getLong(16));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void truncateToValid(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        long records = 0;
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (readFully(channel, header, 0) && validHeader(header)) {
+                long capacity = recordCount(file);
+                ByteBuffer buffer = ByteBuffer.allocate(READ_BATCH_RECORDS * RECORD_SIZE);
+                boolean valid = true;
+                while (valid && records < capacity) {
+                    int batch = (int) Math.min(READ_BATCH_RECORDS, capacity - records);
+                    buffer.clear();
+                    buffer.limit(batch * RECORD_SIZE);
+                    if (!readFully(channel, buffer, HEADER_SIZE + records * RECORD_SIZE)) {
+                        break;
+                    }
+                    for (int i = 0; i < batch && valid; i++) {
+                        valid = isValid(buffer, i * RECORD_SIZE);
+                        if (valid) {
+                            records++;
+                        }
+                    }
+                }
+                randomAccessFile.setLength(HEADER_SIZE + records * RECORD_SIZE);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        if (records == 0) {
+            file.delete();
+        }
+    }
+
+    private static boolean isValid(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + 36) == checksum(buffer.getLong(offset), buffer.getLong(offset + 8),
+                buffer.getLong(offset + 16), buffer.getInt(offset + 24), buffer.getInt(offset + 28),
+                buffer.getInt(offset + 32));
+    }
+
+    private static boolean readRecord(ByteBuffer buffer, int offset, TrackFix out) {
+        if (!isValid(buffer, offset)) {
+            return false;
+        }
+        out.set(buffer.getLong(offset),
+                Double.longBitsToDouble(buffer.getLong(offset + 8)),
+                Double.longBitsToDouble(buffer.getLong(offset + 16)),
+                Float.intBitsToFloat(buffer.getInt(offset + 24)),
+                Float.intBitsToFloat(buffer.getInt(offset + 28)),
+                Float.intBitsToFloat(buffer.getInt(offset + 32)));
+        return true;
+    }
+
+    static int checksum(long time, long latitude, long longitude, int accuracy, int speed, int bearing) {
+        long hash = mix(0x9e3779b97f4a7c15L ^ time);
+        hash = mix(hash ^ latitude);
+        hash = mix(hash ^ longitude);
+        hash = mix(hash ^ ((long) accuracy << 32 | speed & 0xffffffffL));
+        hash = mix(hash ^ bearing);
+        int result = (int) (hash ^ hash >>> 32);
+        // A zero filled record that was never written must not pass.
+        return result != 0 ? result : 1;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ value >>> 30) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ value >>> 27) * 0x94d049bb133111ebL;
+        return value ^ value >>> 31;
+    }
+
+    // A mapped segment file, written by the writer thread and handed to the background thread to be sealed.
+    private static class Segment {
+
+        private final long sequence;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private int records;
+
+        private Segment(long sequence, File file, MappedByteBuffer buffer, int capacity) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        static Segment create(File file, long sequence, int capacity) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                long length = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+                randomAccessFile.setLength(length);
+                // The mapping stays valid once the file is closed.
+                MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+                writeHeader(buffer, sequence);
+                return new Segment(sequence, file, buffer, capacity);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        void write(long timeMillis, double latitude, double longitude, float accuracy, float speed, float bearing) {
+            int offset = HEADER_SIZE + records * RECORD_SIZE;
+            long latitudeBits = Double.doubleToRawLongBits(latitude);
+            long longitudeBits = Double.doubleToRawLongBits(longitude);
+            int accuracyBits = Float.floatToRawIntBits(accuracy);
+            int speedBits = Float.floatToRawIntBits(speed);
+            int bearingBits = Float.floatToRawIntBits(bearing);
+            buffer.putLong(offset, timeMillis);
+            buffer.putLong(offset + 8, latitudeBits);
+            buffer.putLong(offset + 16, longitudeBits);
+            buffer.putInt(offset + 24, accuracyBits);
+            buffer.putInt(offset + 28, speedBits);
+            buffer.putInt(offset + 32, bearingBits);
+            buffer.putInt(offset + 36, checksum(timeMillis, latitudeBits, longitudeBits, accuracyBits, speedBits,
+                    bearingBits));
+            records++;
+        }
+
+        // Forces the records to disk and cuts off the unused tail.
+        void seal() throws IOException {
+            buffer.force();
+            if (records < capacity) {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                try {
+                    randomAccessFile.setLength(HEADER_SIZE + (long) records * RECORD_SIZE);
+                } finally {
+                    randomAccessFile.close();
+                }
+            }
+        }
+    }
+
+    public class Cursor implements Closeable {
+
+        private final long[] sequences;
+        private final long fromMillis;
+        private final long toMillis;
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BATCH_RECORDS * RECORD_SIZE);
+        private int segmentIndex;
+        private RandomAccessFile segment;
+        private long recordIndex;
+        private long recordCount;
+        private boolean done;
+        private boolean closed;
+
+        private Cursor(long[] sequences, long fromMillis, long toMillis) {
+            this.sequences = sequences;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            buffer.limit(0);
+        }
+
+        // Fills out with the next fix in range. Returns false once there are no more.
+        public boolean next(TrackFix out) throws IOException {
+            while (!done) {
+                if (segment == null && !openNextSegment()) {
+                    done = true;
+                    break;
+                }
+                if (!buffer.hasRemaining() && !fill()) {
+                    closeSegment();
+                    continue;
+                }
+                int offset = buffer.position();
+                buffer.position(offset + RECORD_SIZE);
+                if (!readRecord(buffer, offset, out)) {
+                    // The end of the segment being written.
+                    closeSegment();
+                    continue;
+                }
+                if (out.timeMillis > toMillis) {
+                    done = true;
+                    break;
+                }
+                if (out.timeMillis >= fromMillis) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            done = true;
+            try {
+                closeSegment();
+            } finally {
+                segmentsLock.readLock().unlock();
+            }
+        }
+
+        private boolean openNextSegment() throws IOException {
+            while (segmentIndex < sequences.length) {
+                File file = segmentFile(sequences[segmentIndex++]);
+                if (!file.exists()) {
+                    continue;
+                }
+                segment = new RandomAccessFile(file, "r");
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                if (!readFully(segment.getChannel(), header, 0) || !validHeader(header)) {
+                    closeSegment();
+                    continue;
+                }
+                recordCount = recordCount(file);
+                recordIndex = firstAtOrAfter(fromMillis);
+                buffer.limit(0);
+                return true;
+            }
+            return false;
+        }
+
+        // Binary search for the first record at or after the time. Records are in time order up to the first
+        // invalid one, which counts as later than any time.
+        private long firstAtOrAfter(long timeMillis) throws IOException {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            long low = 0;
+            long high = recordCount;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                record.clear();
+                if (!readFully(segment.getChannel(), record, HEADER_SIZE + middle * RECORD_SIZE)
+                        || !isValid(record, 0) || record.getLong(0) >= timeMillis) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+
+        private boolean fill() throws IOException {
+            if (recordIndex >= recordCount) {
+                return false;
+            }
+            int batch = (int) Math.min(READ_BATCH_RECORDS, recordCount - recordIndex);
+            buffer.clear();
+            buffer.limit(batch * RECORD_SIZE);
+            boolean complete = readFully(segment.getChannel(), buffer, HEADER_SIZE + recordIndex * RECORD_SIZE);
+            buffer.flip();
+            buffer.limit(buffer.limit() / RECORD_SIZE * RECORD_SIZE);
+            recordIndex += batch;
+            return complete || buffer.hasRemaining();
+        }
+
+        private void closeSegment() throws IOException {
+            if (segment != null) {
+                RandomAccessFile closing = segment;
+                segment = null;
+                buffer.limit(0);
+                closing.close();
+            }
+        }
+    }
+}
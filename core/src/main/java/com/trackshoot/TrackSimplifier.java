@@ -0,0 +1,197 @@
+package com.trackshoot;
+
+import java.util.Arrays;
+
+// Simplifies the fix stream as it arrives, Douglas-Peucker over a sliding window of at most windowSize fixes.
+// When the window is full, the part of it up to the last interior point Douglas-Peucker keeps is final and goes
+// to the listener, the window restarts from that point. Shot points are never dropped, a shot closes the window.
+// Every dropped fix lies within the tolerance of the segment between the kept fixes around it, memory is the
+// window's primitive arrays and nothing is allocated per fix.
+public class TrackSimplifier {
+
+    private final double toleranceMeters;
+    private final Listener listener;
+    private final long[] times;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final float[] accuracies;
+    private final float[] speeds;
+    private final float[] bearings;
+    private final double[] x;
+    private final double[] y;
+    private final boolean[] kept;
+    private final int[] stack;
+    private final TrackFix fix = new TrackFix();
+    private int size;
+    private long inputCount;
+    private long outputCount;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GeoDistance.EARTH_RADIUS_METERS);
+
+    public interface Listener {
+        // The fix is reused, copy what is needed.
+        void onKept(TrackFix fix);
+    }
+
+    public TrackSimplifier(double toleranceMeters, int windowSize, Listener listener) {
+        if (windowSize < 3) {
+            throw new IllegalArgumentException("windowSize < 3");
+        }
+        this.toleranceMeters = toleranceMeters;
+        this.listener = listener;
+        times = new long[windowSize];
+        latitudes = new double[windowSize];
+        longitudes = new double[windowSize];
+        accuracies = new float[windowSize];
+        speeds = new float[windowSize];
+        bearings = new float[windowSize];
+        x = new double[windowSize];
+        y = new double[windowSize];
+        kept = new boolean[windowSize];
+        stack = new int[windowSize * 2];
+    }
+
+    // Pinned fixes, the ones a shot was taken at, are always kept. They end the window, so Douglas-Peucker only
+    // ever sees them as an endpoint.
+    public void add(long timeMillis, double latitude, double longitude, float accuracy, float speed, float bearing,
+                    boolean pinned) {
+        times[size] = timeMillis;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        accuracies[size] = accuracy;
+        speeds[size] = speed;
+        bearings[size] = bearing;
+        size++;
+        inputCount++;
+
+        if (size == 1) {
+            // The first fix of the stream, nothing to simplify against.
+            emit(0);
+        } else if (pinned) {
+            simplify();
+            emitUpTo(size - 1);
+            restartFrom(size - 1);
+        } else if (size == times.length) {
+            simplify();
+            int last = lastInteriorKept();
+            if (last == 0) {
+                // A straight run as long as the window, keep its end to bound memory.
+                last = size - 1;
+                kept[last] = true;
+            }
+            emitUpTo(last);
+            restartFrom(last);
+        }
+    }
+
+    // End of the stream, everything still in the window is final.
+    public void flush() {
+        if (size > 1) {
+            simplify();
+            emitUpTo(size - 1);
+            restartFrom(size - 1);
+        }
+    }
+
+    public long getInputCount() {
+        return inputCount;
+    }
+
+    public long getOutputCount() {
+        return outputCount;
+    }
+
+    // Marks what Douglas-Peucker keeps between the window's first and last fix, iteratively with a fixed stack.
+    private void simplify() {
+        project();
+        kept[0] = true;
+        kept[size - 1] = true;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double maxDistance = 0;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = segmentDistance(i, first, last);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0 && maxDistance > toleranceMeters) {
+                kept[farthest] = true;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+    }
+
+    // Local flat coordinates in meters around the window's first fix, fine over a window's extent.
+    private void project() {
+        double cosLatitude = Math.cos(Math.toRadians(latitudes[0]));
+        for (int i = 0; i < size; i++) {
+            x[i] = (longitudes[i] - longitudes[0]) * METERS_PER_DEGREE * cosLatitude;
+            y[i] = (latitudes[i] - latitudes[0]) * METERS_PER_DEGREE;
+        }
+    }
+
+    // Distance from fix i to the segment between fixes first and last.
+    private double segmentDistance(int i, int first, int last) {
+        double dx = x[last] - x[first];
+        double dy = y[last] - y[first];
+        double px = x[i] - x[first];
+        double py = y[i] - y[first];
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? (px * dx + py * dy) / lengthSquared : 0;
+        if (t < 0) {
+            t = 0;
+        } else if (t > 1) {
+            t = 1;
+        }
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+
+    private int lastInteriorKept() {
+        for (int i = size - 2; i > 0; i--) {
+            if (kept[i]) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    // Emits the kept fixes after the window's first one, which has been emitted already, up to and including last.
+    private void emitUpTo(int last) {
+        for (int i = 1; i <= last; i++) {
+            if (kept[i]) {
+                emit(i);
+            }
+        }
+    }
+
+    private void emit(int i) {
+        fix.set(times[i], latitudes[i], longitudes[i], accuracies[i], speeds[i], bearings[i]);
+        outputCount++;
+        listener.onKept(fix);
+    }
+
+    // The window continues from fix start, which becomes its already emitted first fix.
+    private void restartFrom(int start) {
+        int remaining = size - start;
+        System.arraycopy(times, start, times, 0, remaining);
+        System.arraycopy(latitudes, start, latitudes, 0, remaining);
+        System.arraycopy(longitudes, start, longitudes, 0, remaining);
+        System.arraycopy(accuracies, start, accuracies, 0, remaining);
+        System.arraycopy(speeds, start, speeds, 0, remaining);
+        System.arraycopy(bearings, start, bearings, 0, remaining);
+        Arrays.fill(kept, false);
+        size = remaining;
+    }
+}
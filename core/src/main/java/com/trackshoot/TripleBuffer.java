@@ -0,0 +1,51 @@
+package com.trackshoot;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands the latest value from one writer thread to one reader thread without locks or allocation. Three slots
+// rotate between them: the writer fills its back slot and swaps it with the middle one, the reader swaps the
+// middle one with its front slot when something new was published. Neither side ever waits, and the reader
+// always sees a complete value, the newest one at the time of the swap.
+public class TripleBuffer<T> {
+
+    private final Object[] slots;
+    private final AtomicInteger middle;
+    private int back;
+    private int front;
+
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    // The slots must be distinct instances, front is what read() returns until the first publish.
+    public TripleBuffer(T front, T middle, T back) {
+        slots = new Object[]{front, middle, back};
+        this.front = 0;
+        this.middle = new AtomicInteger(1);
+        this.back = 2;
+    }
+
+    // Writer side. The slot holds whatever was published two or three values ago, overwrite all of it.
+    @SuppressWarnings("unchecked")
+    public T writeSlot() {
+        return (T) slots[back];
+    }
+
+    // Writer side. Makes the slot returned by writeSlot() the newest value.
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    // Reader side. The returned slot stays untouched by the writer until the next read().
+    @SuppressWarnings("unchecked")
+    public T read() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return (T) slots[front];
+    }
+
+    // Reader side. Whether something was published since the last read().
+    public boolean hasFresh() {
+        return (middle.get() & FRESH) != 0;
+    }
+}
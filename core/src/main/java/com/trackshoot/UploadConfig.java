@@ -0,0 +1,152 @@
+package com.trackshoot;
+
+public class UploadConfig {
+
+    private String endpoint = DEFAULT_ENDPOINT;
+    private String clientId = DEFAULT_CLIENT_ID;
+    private String batchEndpoint = DEFAULT_ENDPOINT;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long batchMaxAgeMillis = DEFAULT_BATCH_MAX_AGE_MILLIS;
+    private boolean binaryBatchMetadata;
+    private String chunkEndpoint;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int backlogHighWatermark = DEFAULT_BACKLOG_HIGH_WATERMARK;
+    private int backlogLowWatermark = DEFAULT_BACKLOG_LOW_WATERMARK;
+
+    public static final String DEFAULT_ENDPOINT = "https://api.imgur.com/3/image";
+    public static final String DEFAULT_CLIENT_ID = "581faf1f75dd3f1";
+    // The routes of the ingest server.
+    public static final String SERVER_SHOTS_PATH = "/shots";
+    public static final String SERVER_BATCH_PATH = "/batch";
+    public static final String SERVER_CHUNKS_PATH = "/chunks";
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    public static final int DEFAULT_BACKLOG_HIGH_WATERMARK = 100;
+    public static final int DEFAULT_BACKLOG_LOW_WATERMARK = 50;
+    public static final int DEFAULT_BATCH_SIZE = 1;
+    public static final long DEFAULT_BATCH_MAX_AGE_MILLIS = 30 * 1000;
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public UploadConfig setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+        return this;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    // Sent as the Client-ID authorization of single shot requests, null sends none.
+    public UploadConfig setClientId(String clientId) {
+        this.clientId = clientId;
+        return this;
+    }
+
+    // Points single, batch and chunked uploads at a self-hosted ingest server, http://host:port without a path.
+    // The server takes no client id.
+    public UploadConfig setServer(String serverUrl) {
+        String base = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+        this.endpoint = base + SERVER_SHOTS_PATH;
+        this.batchEndpoint = base + SERVER_BATCH_PATH;
+        this.chunkEndpoint = base + SERVER_CHUNKS_PATH;
+        this.clientId = null;
+        return this;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public UploadConfig setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public int getBacklogHighWatermark() {
+        return backlogHighWatermark;
+    }
+
+    public int getBacklogLowWatermark() {
+        return backlogLowWatermark;
+    }
+
+    // Capturing pauses once the backlog reaches the high watermark and resumes when it drains below the low one.
+    public UploadConfig setBacklogWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("Invalid backlog watermarks");
+        }
+        this.backlogLowWatermark = lowWatermark;
+        this.backlogHighWatermark = highWatermark;
+        return this;
+    }
+
+    public String getBatchEndpoint() {
+        return batchEndpoint;
+    }
+
+    public UploadConfig setBatchEndpoint(String batchEndpoint) {
+        this.batchEndpoint = batchEndpoint;
+        return this;
+    }
+
+    public boolean isBatching() {
+        return batchSize > 1;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getBatchMaxAgeMillis() {
+        return batchMaxAgeMillis;
+    }
+
+    // A batch is sent once it holds batchSize shots or its oldest shot has waited maxAgeMillis. Size 1 disables batching.
+    public UploadConfig setBatching(int batchSize, long maxAgeMillis) {
+        if (batchSize < 1 || maxAgeMillis < 0) {
+            throw new IllegalArgumentException("Invalid batch limits");
+        }
+        this.batchSize = batchSize;
+        this.batchMaxAgeMillis = maxAgeMillis;
+        return this;
+    }
+
+    public boolean isBinaryBatchMetadata() {
+        return binaryBatchMetadata;
+    }
+
+    // Send batch metadata as one part of concatenated binary ShotRecords instead of a JSON part per shot.
+    public UploadConfig setBinaryBatchMetadata(boolean binaryBatchMetadata) {
+        this.binaryBatchMetadata = binaryBatchMetadata;
+        return this;
+    }
+
+    public boolean isChunking() {
+        return chunkEndpoint != null;
+    }
+
+    public String getChunkEndpoint() {
+        return chunkEndpoint;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    // Images larger than one chunk are sent with the resumable chunk protocol. A null endpoint disables it.
+    public UploadConfig setChunking(String chunkEndpoint, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid chunk size");
+        }
+        this.chunkEndpoint = chunkEndpoint;
+        this.chunkSize = chunkSize;
+        return this;
+    }
+}
@@ -0,0 +1,197 @@
+package com.trackshoot;
+
+// Decides when shots go out. In immediate mode every shot is uploaded as soon as it is queued, as before. In
+// deferred mode shots wait in the queue while the device is on a metered network and on battery, and go out
+// together in one drain once it is on an unmetered network or charging, or when too many have waited or the oldest
+// has waited too long, unless the battery is low. A drain runs until the queue is empty, the connection is lost or
+// uploads keep failing. The urgent flag overrides deferral while it is set.
+// Alongside, it counts radio wakeups and metered bytes, both as they happen and as immediate mode would have
+// caused them for the same shots, so the two modes can be compared on the same shift.
+public class UploadPolicy {
+
+    public interface Connectivity {
+        boolean isConnected();
+
+        boolean isMetered();
+    }
+
+    public interface Battery {
+        boolean isCharging();
+
+        int getLevelPercent();
+    }
+
+    // Holds the queued shots back, or lets the uploader take them. Held again when the first shot is deferred, from
+    // then on there is a deadline.
+    public interface Gate {
+        void setHeld(boolean held);
+    }
+
+    private final int mode;
+    private final long maxDeferMillis;
+    private final int maxDeferredShots;
+    private final Connectivity connectivity;
+    private final Battery battery;
+    private final Gate gate;
+    private final Metrics metrics;
+    private boolean urgent;
+    private boolean draining;
+    private int deferredShots;
+    private long oldestDeferredMillis;
+    private int consecutiveFailures;
+    private int inFlight;
+    private long lastRadioMillis = Long.MIN_VALUE / 2;
+    private long lastImmediateRadioMillis = Long.MIN_VALUE / 2;
+
+    public static final int MODE_IMMEDIATE = 0;
+    public static final int MODE_DEFERRED = 1;
+    public static final long DEFAULT_MAX_DEFER_MILLIS = 60 * 60 * 1000;
+    public static final int DEFAULT_MAX_DEFERRED_SHOTS = 200;
+    // How long a cellular radio stays in its high power state after the last transfer, a transfer within it
+    // does not wake the radio again.
+    public static final long RADIO_TAIL_MILLIS = 10 * 1000;
+    public static final int LOW_BATTERY_PERCENT = 20;
+    public static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    public UploadPolicy(int mode, long maxDeferMillis, int maxDeferredShots, Connectivity connectivity,
+                        Battery battery, Gate gate, Metrics metrics) {
+        this.mode = mode;
+        this.maxDeferMillis = maxDeferMillis;
+        this.maxDeferredShots = maxDeferredShots;
+        this.connectivity = connectivity;
+        this.battery = battery;
+        this.gate = gate;
+        this.metrics = metrics;
+    }
+
+    // The shots a previous run left in the queue, they count as deferred since now.
+    public synchronized void start(int queuedShots, long nowMillis) {
+        deferredShots = queuedShots;
+        oldestDeferredMillis = nowMillis;
+        draining = shouldDrain(nowMillis);
+        if (draining && queuedShots > 0 && mode == MODE_DEFERRED) {
+            metrics.recordDrain();
+        }
+        gate.setHeld(!draining);
+    }
+
+    public synchronized void setUrgent(boolean urgent, long nowMillis) {
+        this.urgent = urgent;
+        evaluate(nowMillis);
+    }
+
+    public synchronized void onShotQueued(long bytes, long nowMillis) {
+        // Immediate mode would start this upload right now.
+        if (connectivity.isConnected()) {
+            if (nowMillis - lastImmediateRadioMillis > RADIO_TAIL_MILLIS) {
+                metrics.recordImmediateRadioWakeup();
+            }
+            lastImmediateRadioMillis = nowMillis;
+            if (connectivity.isMetered()) {
+                metrics.recordImmediateMeteredBytes(bytes);
+            }
+        }
+
+        boolean first = false;
+        if (!draining) {
+            if (deferredShots == 0) {
+                oldestDeferredMillis = nowMillis;
+                first = true;
+            }
+            deferredShots++;
+            metrics.recordDeferral();
+        }
+        evaluate(nowMillis);
+        if (first && !draining) {
+            gate.setHeld(true);
+        }
+    }
+
+    // Conditions may have changed, a drain job has started or the deadline of the oldest shot has passed.
+    public synchronized void evaluate(long nowMillis) {
+        if (draining) {
+            if (!isImmediate() && !connectivity.isConnected()) {
+                stopDraining();
+            }
+        } else if (deferredShots > 0 && shouldDrain(nowMillis)) {
+            draining = true;
+            metrics.recordDrain();
+            gate.setHeld(false);
+        }
+    }
+
+    public synchronized void onUploadStarted(long nowMillis) {
+        if (inFlight == 0 && nowMillis - lastRadioMillis > RADIO_TAIL_MILLIS) {
+            metrics.recordRadioWakeup();
+        }
+        inFlight++;
+    }
+
+    public synchronized void onUploadFinished(long bytes, boolean successful, long nowMillis) {
+        inFlight = Math.max(0, inFlight - 1);
+        lastRadioMillis = nowMillis;
+        if (successful) {
+            consecutiveFailures = 0;
+            if (connectivity.isMetered()) {
+                metrics.recordMeteredBytes(bytes);
+            }
+        } else if (++consecutiveFailures >= MAX_CONSECUTIVE_FAILURES && draining && !isImmediate()) {
+            // A weak signal, wait for better conditions rather than retrying into it.
+            consecutiveFailures = 0;
+            stopDraining();
+        }
+    }
+
+    // Every queued shot has been delivered.
+    public synchronized void onQueueEmpty() {
+        deferredShots = 0;
+        consecutiveFailures = 0;
+        if (draining && !isImmediate()) {
+            stopDraining();
+        }
+    }
+
+    public synchronized boolean isDraining() {
+        return draining;
+    }
+
+    public synchronized int getDeferredShots() {
+        return deferredShots;
+    }
+
+    // The queued shots the uploader may take now, none while they are held. Only these are a backlog, held ones
+    // wait for a drain, which a capture stopped at the backlog would never bring.
+    public synchronized int getReleasedShots(int queuedShots) {
+        return draining ? queuedShots : 0;
+    }
+
+    // When the oldest deferred shot has to go out at the latest, Long.MAX_VALUE with nothing deferred.
+    public synchronized long getDeadlineMillis() {
+        return deferredShots > 0 ? oldestDeferredMillis + maxDeferMillis : Long.MAX_VALUE;
+    }
+
+    private boolean shouldDrain(long nowMillis) {
+        if (isImmediate()) {
+            return true;
+        }
+        if (!connectivity.isConnected()) {
+            return false;
+        }
+        if (!connectivity.isMetered() || battery.isCharging()) {
+            return true;
+        }
+        if (battery.getLevelPercent() <= LOW_BATTERY_PERCENT) {
+            return false;
+        }
+        return deferredShots >= maxDeferredShots || nowMillis - oldestDeferredMillis >= maxDeferMillis;
+    }
+
+    private boolean isImmediate() {
+        return mode == MODE_IMMEDIATE || urgent;
+    }
+
+    private void stopDraining() {
+        draining = false;
+        gate.setHeld(true);
+    }
+}
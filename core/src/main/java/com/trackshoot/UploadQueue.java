@@ -0,0 +1,278 @@
+package com.trackshoot;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+public class UploadQueue {
+
+    private final File directory;
+    private final PriorityQueue<PendingShot> pendingShots;
+    private final Metrics metrics;
+    private final Logger logger;
+    private final Set<String> storedImagePaths = new HashSet<>();
+    private long nextId;
+    private boolean closed;
+    private boolean held;
+
+    private static final String ENTRY_SUFFIX = ".shot";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int ENTRY_VERSION = 5;
+
+    public UploadQueue(File directory, Metrics metrics, Logger logger) {
+        this.directory = directory;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.pendingShots = new PriorityQueue<>(16, new Comparator<PendingShot>() {
+            @Override
+            public int compare(PendingShot first, PendingShot second) {
+                // Due shots first, oldest capture first among shots due at the same time.
+                if (first.notBefore != second.notBefore) {
+                    return first.notBefore < second.notBefore ? -1 : 1;
+                }
+                return first.id < second.id ? -1 : (first.id == second.id ? 0 : 1);
+            }
+        });
+        directory.mkdirs();
+        load();
+        metrics.setQueueDepth(storedImagePaths.size());
+    }
+
+    public synchronized void add(File imageFile, String appId, String metadata, byte[] record, long captureMillis)
+            throws IOException {
+        PendingShot pendingShot = new PendingShot(nextId++, imageFile, appId, metadata, 0);
+        pendingShot.record = record;
+        pendingShot.captureMillis = captureMillis;
+        write(pendingShot);
+        pendingShots.add(pendingShot);
+        storedImagePaths.add(imageFile.getAbsolutePath());
+        metrics.setQueueDepth(storedImagePaths.size());
+        notifyAll();
+    }
+
+    // Blocks until a shot is due for upload. Returns null once the queue has been closed.
+    public synchronized PendingShot take() throws InterruptedException {
+        while (!closed) {
+            PendingShot head = held ? null : pendingShots.peek();
+            if (head == null) {
+                wait();
+            } else {
+                long delay = head.notBefore - System.currentTimeMillis();
+                if (delay <= 0) {
+                    return pendingShots.poll();
+                }
+                wait(delay);
+            }
+        }
+        return null;
+    }
+
+    // Like take(), but gives up after the timeout. Returns null on timeout or once the queue has been closed.
+    public synchronized PendingShot poll(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            PendingShot head = held ? null : pendingShots.peek();
+            if (head != null && head.notBefore <= now) {
+                return pendingShots.poll();
+            }
+            if (now >= deadline) {
+                return null;
+            }
+            long delay = deadline - now;
+            if (head != null) {
+                delay = Math.min(delay, head.notBefore - now);
+            }
+            wait(delay);
+        }
+        return null;
+    }
+
+    // The shot has been delivered, forget it for good.
+    public synchronized void complete(PendingShot pendingShot) {
+        entryFile(pendingShot.id).delete();
+        storedImagePaths.remove(pendingShot.imageFile.getAbsolutePath());
+        metrics.setQueueDepth(storedImagePaths.size());
+        notifyAll();
+    }
+
+    // The upload failed, keep the shot on disk and hand it out again after the delay.
+    public synchronized void retry(PendingShot pendingShot, long delayMillis) {
+        pendingShot.attempts++;
+        pendingShot.notBefore = System.currentTimeMillis() + delayMillis;
+        try {
+            write(pendingShot);
+        } catch (IOException e) {
+            // The previous version of the entry is still on disk, only the attempt count is lost.
+            logger.error("CANNOT SAVE RETRY OF SHOT " + pendingShot.id + ": " + e.getMessage());
+        }
+        pendingShots.add(pendingShot);
+        notifyAll();
+    }
+
+    // Records how much of a chunked upload the server has acknowledged, so it survives a restart.
+    public synchronized void saveProgress(PendingShot pendingShot) {
+        try {
+            write(pendingShot);
+        } catch (IOException e) {
+            // Resumes from the progress saved before, the chunks since are sent again.
+            logger.error("CANNOT SAVE PROGRESS OF SHOT " + pendingShot.id + ": " + e.getMessage());
+        }
+    }
+
+    // While held, take() and poll() hand out nothing, shots stay queued on disk.
+    public synchronized void setHeld(boolean held) {
+        this.held = held;
+        notifyAll();
+    }
+
+    // Shots not delivered yet, waiting or being uploaded.
+    public synchronized int storedCount() {
+        return storedImagePaths.size();
+    }
+
+    // Images of the shots not delivered yet, waiting or being uploaded.
+    public synchronized Set<String> storedImagePaths() {
+        return new HashSet<>(storedImagePaths);
+    }
+
+    // Blocks until every stored shot has been delivered or the timeout has passed. Returns false on timeout.
+    public synchronized boolean awaitDelivered(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!storedImagePaths.isEmpty()) {
+            long delay = deadline - System.currentTimeMillis();
+            if (delay <= 0) {
+                return false;
+            }
+            wait(delay);
+        }
+        return true;
+    }
+
+    public synchronized int size() {
+        return pendingShots.size();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private File entryFile(long id) {
+        return new File(directory, id + ENTRY_SUFFIX);
+    }
+
+    // Write to a temporary file first so a crash never leaves a half written entry behind.
+    private void write(PendingShot pendingShot) throws IOException {
+        File tempFile = new File(directory, pendingShot.id + TEMP_SUFFIX);
+        FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream dataOutputStream = new DataOutputStream(fileOutputStream);
+            dataOutputStream.writeInt(ENTRY_VERSION);
+            dataOutputStream.writeUTF(pendingShot.imageFile.getAbsolutePath());
+            dataOutputStream.writeUTF(pendingShot.appId != null ? pendingShot.appId : "");
+            dataOutputStream.writeUTF(pendingShot.metadata);
+            dataOutputStream.writeInt(pendingShot.attempts);
+            dataOutputStream.writeLong(pendingShot.uploadedOffset);
+            dataOutputStream.writeUTF(pendingShot.uploadId != null ? pendingShot.uploadId : "");
+            if (pendingShot.record != null) {
+                dataOutputStream.writeInt(pendingShot.record.length);
+                dataOutputStream.write(pendingShot.record);
+            } else {
+                dataOutputStream.writeInt(-1);
+            }
+            dataOutputStream.writeLong(pendingShot.captureMillis);
+            dataOutputStream.writeUTF(pendingShot.contentHash != null ? pendingShot.contentHash : "");
+            dataOutputStream.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            fileOutputStream.close();
+        }
+
+        if (!tempFile.renameTo(entryFile(pendingShot.id))) {
+            tempFile.delete();
+            throw new IOException("Cannot commit queue entry " + pendingShot.id);
+        }
+    }
+
+    private PendingShot read(long id, File file) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(new FileInputStream(file));
+        try {
+            int version = dataInputStream.readInt();
+            if (version < 1 || version > ENTRY_VERSION) {
+                throw new IOException("Unknown queue entry version");
+            }
+            File imageFile = new File(dataInputStream.readUTF());
+            String appId = dataInputStream.readUTF();
+            String metadata = dataInputStream.readUTF();
+            int attempts = dataInputStream.readInt();
+            PendingShot pendingShot = new PendingShot(id, imageFile, appId, metadata, attempts);
+            // Version 1 entries were written before chunked uploads and have no progress.
+            if (version >= 2) {
+                pendingShot.uploadedOffset = dataInputStream.readLong();
+                String uploadId = dataInputStream.readUTF();
+                pendingShot.uploadId = uploadId.isEmpty() ? null : uploadId;
+            }
+            // Version 3 added the binary shot record.
+            if (version >= 3) {
+                int recordLength = dataInputStream.readInt();
+                if (recordLength >= 0) {
+                    pendingShot.record = new byte[recordLength];
+                    dataInputStream.readFully(pendingShot.record);
+                }
+            }
+            // Version 4 added the capture time.
+            if (version >= 4) {
+                pendingShot.captureMillis = dataInputStream.readLong();
+            }
+            // Version 5 added the content hash.
+            if (version >= 5) {
+                String contentHash = dataInputStream.readUTF();
+                pendingShot.contentHash = contentHash.isEmpty() ? null : contentHash;
+            }
+            return pendingShot;
+        } finally {
+            dataInputStream.close();
+        }
+    }
+
+    // Pick up the shots left over by a previous run of the service.
+    private void load() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            if (!name.endsWith(ENTRY_SUFFIX)) {
+                continue;
+            }
+
+            try {
+                long id = Long.parseLong(name.substring(0, name.length() - ENTRY_SUFFIX.length()));
+                PendingShot pendingShot = read(id, file);
+                if (pendingShot.imageFile.exists()) {
+                    pendingShots.add(pendingShot);
+                    storedImagePaths.add(pendingShot.imageFile.getAbsolutePath());
+                } else {
+                    file.delete();
+                }
+                nextId = Math.max(nextId, id + 1);
+            } catch (NumberFormatException | IOException e) {
+                file.delete();
+            }
+        }
+    }
+}
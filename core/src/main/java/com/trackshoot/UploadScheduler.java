@@ -0,0 +1,131 @@
+package com.trackshoot;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class UploadScheduler {
+
+    public interface Listener {
+        void onUploaded(Response response, long latencyNanos) throws IOException;
+
+        void onFailed(IOException e, long latencyNanos);
+    }
+
+    private final UploadConfig uploadConfig;
+    private final OkHttpClient okHttpClient;
+    private final Semaphore slots;
+    private final ThreadPoolExecutor blockingExecutor;
+    private volatile boolean backlogged;
+
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final long IDLE_THREAD_SECONDS = 60;
+
+    public UploadScheduler(UploadConfig uploadConfig) {
+        this.uploadConfig = uploadConfig;
+        this.slots = new Semaphore(uploadConfig.getMaxInFlight());
+
+        // All in-flight uploads go to the same host, let them share one HTTP/2 connection
+        // or a small pool of kept-alive HTTP/1.1 connections.
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(uploadConfig.getMaxInFlight());
+        dispatcher.setMaxRequestsPerHost(uploadConfig.getMaxInFlight());
+        this.okHttpClient = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(uploadConfig.getMaxInFlight(), KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .build();
+
+        // Uploads made of several sequential requests run here, bounded by the same slots as single requests.
+        this.blockingExecutor = new ThreadPoolExecutor(uploadConfig.getMaxInFlight(), uploadConfig.getMaxInFlight(),
+                IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        this.blockingExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public OkHttpClient getClient() {
+        return okHttpClient;
+    }
+
+    // Blocks until fewer than maxInFlight uploads are running.
+    public void acquireSlot() throws InterruptedException {
+        slots.acquire();
+    }
+
+    // Gives back a slot that was acquired but not used for an upload.
+    public void releaseSlot() {
+        slots.release();
+    }
+
+    // Starts the upload in a slot previously taken with acquireSlot(). The slot is released when the call completes.
+    public void enqueue(Request request, final Listener listener) {
+        final long startNanos = System.nanoTime();
+        okHttpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                slots.release();
+                listener.onFailed(e, System.nanoTime() - startNanos);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                slots.release();
+                try {
+                    listener.onUploaded(response, System.nanoTime() - startNanos);
+                } catch (IOException e) {
+                    listener.onFailed(e, System.nanoTime() - startNanos);
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+
+    // Runs a blocking upload in a slot previously taken with acquireSlot(). The slot is released when the task returns.
+    public void execute(final Runnable task) {
+        blockingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    slots.release();
+                }
+            }
+        });
+    }
+
+    public int inFlight() {
+        return uploadConfig.getMaxInFlight() - slots.availablePermits();
+    }
+
+    // Called with the number of shots waiting for upload. Uses hysteresis so capturing doesn't flap around the threshold.
+    public boolean updateBacklog(int queuedShots) {
+        int backlog = queuedShots + inFlight();
+        if (backlog >= uploadConfig.getBacklogHighWatermark()) {
+            backlogged = true;
+        } else if (backlog <= uploadConfig.getBacklogLowWatermark()) {
+            backlogged = false;
+        }
+        return backlogged;
+    }
+
+    public boolean isBacklogged() {
+        return backlogged;
+    }
+
+    // Cancelled uploads stay in the queue and are sent again by the next service run.
+    public void shutdown() {
+        okHttpClient.dispatcher().cancelAll();
+        okHttpClient.connectionPool().evictAll();
+        blockingExecutor.shutdown();
+    }
+}
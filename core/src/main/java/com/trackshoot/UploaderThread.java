@@ -0,0 +1,333 @@
+package com.trackshoot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class UploaderThread extends Thread {
+
+    private final UploadQueue uploadQueue;
+    private final UploadScheduler uploadScheduler;
+    private final UploadConfig uploadConfig;
+    private final ShotRequestFactory shotRequestFactory;
+    private final ChunkedUploader chunkedUploader;
+    private final Metrics metrics;
+    // Null when images are not tracked, e.g. the storage journal could not be opened.
+    private final StorageBudget storageBudget;
+    private final UploadPolicy uploadPolicy;
+    // Null when delivered hashes are not remembered, e.g. the journal could not be opened.
+    private final AcknowledgedHashes acknowledgedHashes;
+    private final Logger logger;
+    private volatile boolean running;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    public UploaderThread(UploadQueue uploadQueue, UploadScheduler uploadScheduler, UploadConfig uploadConfig,
+                          Metrics metrics, StorageBudget storageBudget, UploadPolicy uploadPolicy,
+                          AcknowledgedHashes acknowledgedHashes, Logger logger) {
+        super("UploaderThread");
+        this.logger = logger;
+        this.acknowledgedHashes = acknowledgedHashes;
+        this.uploadPolicy = uploadPolicy;
+        this.metrics = metrics;
+        this.storageBudget = storageBudget;
+        this.uploadQueue = uploadQueue;
+        this.uploadScheduler = uploadScheduler;
+        this.uploadConfig = uploadConfig;
+        this.shotRequestFactory = new ShotRequestFactory(uploadConfig);
+        this.chunkedUploader = new ChunkedUploader(uploadScheduler.getClient(), uploadConfig);
+        this.running = true;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                // Only take shots off the queue once there is room for them, the rest stay safely on disk.
+                uploadScheduler.acquireSlot();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            if (uploadConfig.isBatching()) {
+                List<PendingShot> batch = collectBatch();
+                if (batch.isEmpty()) {
+                    uploadScheduler.releaseSlot();
+                } else if (running) {
+                    uploadBatch(batch);
+                } else {
+                    // The service is stopping, send what has been collected so far before the thread exits.
+                    uploadScheduler.releaseSlot();
+                    flushBatch(batch);
+                }
+            } else {
+                PendingShot pendingShot = takeShot();
+                if (pendingShot == null) {
+                    uploadScheduler.releaseSlot();
+                } else if (uploadConfig.isChunking() && pendingShot.imageFile.length() > uploadConfig.getChunkSize()) {
+                    uploadInChunks(pendingShot);
+                } else {
+                    upload(pendingShot);
+                }
+            }
+        }
+        uploadScheduler.shutdown();
+        logger.debug("UPLOADER STOPPED, SHOTS LEFT: " + uploadQueue.size());
+    }
+
+    public void shutdown() {
+        running = false;
+        uploadQueue.close();
+        interrupt();
+    }
+
+    private PendingShot takeShot() {
+        try {
+            PendingShot pendingShot;
+            while ((pendingShot = uploadQueue.take()) != null) {
+                if (isDelivered(pendingShot)) {
+                    skip(pendingShot);
+                } else if (pendingShot.imageFile.exists()) {
+                    return pendingShot;
+                } else {
+                    logger.debug("IMAGE FILE IS GONE: " + pendingShot.imageFile.getAbsolutePath());
+                    forget(pendingShot);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.debug("UPLOADER INTERRUPTED");
+        }
+        return null;
+    }
+
+    // Collects shots until the batch is full, its first shot is older than the age limit or the queue closes.
+    private List<PendingShot> collectBatch() {
+        List<PendingShot> batch = new ArrayList<>(uploadConfig.getBatchSize());
+        PendingShot first = takeShot();
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+
+        long deadline = System.currentTimeMillis() + uploadConfig.getBatchMaxAgeMillis();
+        try {
+            while (batch.size() < uploadConfig.getBatchSize()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                PendingShot pendingShot = uploadQueue.poll(remaining);
+                if (pendingShot == null) {
+                    break;
+                }
+                if (isDelivered(pendingShot)) {
+                    skip(pendingShot);
+                } else if (pendingShot.imageFile.exists()) {
+                    batch.add(pendingShot);
+                } else {
+                    forget(pendingShot);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.debug("UPLOADER INTERRUPTED");
+        }
+        return batch;
+    }
+
+    private void upload(final PendingShot pendingShot) {
+        logger.debug("FILE PATH: " + pendingShot.imageFile.getAbsolutePath());
+
+        uploadPolicy.onUploadStarted(System.currentTimeMillis());
+        uploadScheduler.enqueue(shotRequestFactory.newShotRequest(pendingShot), new UploadScheduler.Listener() {
+            @Override
+            public void onUploaded(Response response, long latencyNanos) throws IOException {
+                logger.debug("POST RESPONSE: " + response.body().string());
+                logger.debug("IS RESPONSE SUCCESSFUL: " + response.isSuccessful() + " IN " + latencyNanos / 1000000 + " ms");
+                if (response.isSuccessful()) {
+                    long bytes = pendingShot.imageFile.length();
+                    metrics.recordUpload(bytes, latencyNanos);
+                    uploadPolicy.onUploadFinished(bytes, true, System.currentTimeMillis());
+                    complete(pendingShot);
+                } else {
+                    metrics.recordUploadFailure(latencyNanos);
+                    uploadPolicy.onUploadFinished(0, false, System.currentTimeMillis());
+                    retry(pendingShot);
+                }
+            }
+
+            @Override
+            public void onFailed(IOException e, long latencyNanos) {
+                logger.error("UPLOAD FAILED, ATTEMPT " + (pendingShot.attempts + 1) + ": " + e.getMessage());
+                metrics.recordUploadFailure(latencyNanos);
+                uploadPolicy.onUploadFinished(0, false, System.currentTimeMillis());
+                retry(pendingShot);
+            }
+        });
+    }
+
+    private void uploadInChunks(final PendingShot pendingShot) {
+        logger.debug("CHUNKED UPLOAD FROM " + pendingShot.uploadedOffset + ": " + pendingShot.imageFile.getAbsolutePath());
+
+        uploadScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (pendingShot.uploadId == null) {
+                    // Camera file names repeat across devices and reinstalls, only a random id is the shot's own.
+                    // Saved before the first chunk, a restart resumes the same upload.
+                    pendingShot.uploadId = UUID.randomUUID().toString();
+                    // An entry from before the id was kept has its progress under another id, it starts over.
+                    pendingShot.uploadedOffset = 0;
+                    uploadQueue.saveProgress(pendingShot);
+                }
+                String uploadId = pendingShot.uploadId;
+                long startOffset = pendingShot.uploadedOffset;
+                long startNanos = System.nanoTime();
+                uploadPolicy.onUploadStarted(System.currentTimeMillis());
+                try {
+                    pendingShot.contentHash = chunkedUploader.upload(pendingShot.imageFile, uploadId, pendingShot.appId, pendingShot.metadata,
+                            pendingShot.uploadedOffset, new ChunkedUploader.ProgressListener() {
+                                @Override
+                                public void onProgress(long acknowledgedOffset) {
+                                    pendingShot.uploadedOffset = acknowledgedOffset;
+                                    uploadQueue.saveProgress(pendingShot);
+                                }
+                            });
+                    logger.debug("CHUNKED UPLOAD COMPLETE: " + uploadId);
+                    long bytes = pendingShot.imageFile.length() - startOffset;
+                    metrics.recordUpload(bytes, System.nanoTime() - startNanos);
+                    uploadPolicy.onUploadFinished(bytes, true, System.currentTimeMillis());
+                    complete(pendingShot);
+                } catch (IOException e) {
+                    logger.error("CHUNKED UPLOAD STOPPED AT " + pendingShot.uploadedOffset + ": " + e.getMessage());
+                    metrics.recordUploadFailure(System.nanoTime() - startNanos);
+                    uploadPolicy.onUploadFinished(0, false, System.currentTimeMillis());
+                    retry(pendingShot);
+                }
+            }
+        });
+    }
+
+    private void uploadBatch(final List<PendingShot> batch) {
+        logger.debug("BATCH OF " + batch.size() + " SHOTS");
+
+        uploadPolicy.onUploadStarted(System.currentTimeMillis());
+        uploadScheduler.enqueue(shotRequestFactory.newBatchRequest(batch), new UploadScheduler.Listener() {
+            @Override
+            public void onUploaded(Response response, long latencyNanos) throws IOException {
+                logger.debug("BATCH RESPONSE SUCCESSFUL: " + response.isSuccessful() + " IN " + latencyNanos / 1000000 + " ms");
+                completeBatch(batch, response.isSuccessful(), latencyNanos);
+            }
+
+            @Override
+            public void onFailed(IOException e, long latencyNanos) {
+                logger.error("BATCH UPLOAD FAILED: " + e.getMessage());
+                completeBatch(batch, false, latencyNanos);
+            }
+        });
+    }
+
+    // Synchronous send used on shutdown, when the scheduler is about to cancel pending calls.
+    private void flushBatch(List<PendingShot> batch) {
+        logger.debug("FLUSHING BATCH OF " + batch.size() + " SHOTS");
+        Request request = shotRequestFactory.newBatchRequest(batch);
+        Response response = null;
+        // Clear the interrupt from shutdown(), it would abort the blocking call.
+        Thread.interrupted();
+        long startNanos = System.nanoTime();
+        uploadPolicy.onUploadStarted(System.currentTimeMillis());
+        try {
+            response = uploadScheduler.getClient().newCall(request).execute();
+            completeBatch(batch, response.isSuccessful(), System.nanoTime() - startNanos);
+        } catch (IOException e) {
+            logger.error("BATCH FLUSH FAILED: " + e.getMessage());
+            completeBatch(batch, false, System.nanoTime() - startNanos);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    private void completeBatch(List<PendingShot> batch, boolean successful, long latencyNanos) {
+        if (successful) {
+            long bytes = 0;
+            for (PendingShot pendingShot : batch) {
+                bytes += pendingShot.imageFile.length();
+            }
+            metrics.recordUpload(bytes, latencyNanos);
+            uploadPolicy.onUploadFinished(bytes, true, System.currentTimeMillis());
+        } else {
+            metrics.recordUploadFailure(latencyNanos);
+            uploadPolicy.onUploadFinished(0, false, System.currentTimeMillis());
+        }
+        for (PendingShot pendingShot : batch) {
+            if (successful) {
+                complete(pendingShot);
+            } else {
+                retry(pendingShot);
+            }
+        }
+    }
+
+    private void complete(PendingShot pendingShot) {
+        if (pendingShot.captureMillis > 0) {
+            metrics.recordDelivery((System.currentTimeMillis() - pendingShot.captureMillis) * 1000000);
+        }
+        // The hash was taken during this upload, the entry on disk gets it before the journal does and the journal
+        // before the entry goes, so a crash anywhere in between leaves an entry that is known to be delivered.
+        if (acknowledgedHashes != null && pendingShot.contentHash != null) {
+            uploadQueue.saveProgress(pendingShot);
+            acknowledgedHashes.add(pendingShot.contentHash);
+        }
+        uploadQueue.complete(pendingShot);
+        if (storageBudget != null) {
+            storageBudget.markUploaded(pendingShot.imageFile);
+        }
+        checkDrained();
+    }
+
+    // Hashed on an earlier upload that the server acknowledged, sending it again would only be dropped there.
+    private boolean isDelivered(PendingShot pendingShot) {
+        return acknowledgedHashes != null && acknowledgedHashes.contains(pendingShot.contentHash);
+    }
+
+    private void skip(PendingShot pendingShot) {
+        logger.debug("ALREADY DELIVERED: " + pendingShot.imageFile.getAbsolutePath());
+        uploadQueue.complete(pendingShot);
+        if (storageBudget != null) {
+            storageBudget.markUploaded(pendingShot.imageFile);
+        }
+        checkDrained();
+    }
+
+    // The image is gone, deleted to stay within the storage budget or by someone else, there is nothing to send.
+    private void forget(PendingShot pendingShot) {
+        uploadQueue.complete(pendingShot);
+        if (storageBudget != null) {
+            storageBudget.forget(pendingShot.imageFile);
+        }
+        checkDrained();
+    }
+
+    private void checkDrained() {
+        if (uploadQueue.storedCount() == 0) {
+            uploadPolicy.onQueueEmpty();
+        }
+    }
+
+    private void retry(PendingShot pendingShot) {
+        metrics.recordRetry();
+        uploadQueue.retry(pendingShot, backoff(pendingShot.attempts));
+    }
+
+    private static long backoff(int attempts) {
+        // 1 s, 2 s, 4 s ... capped at 5 minutes.
+        long delay = INITIAL_BACKOFF_MILLIS << Math.min(attempts, 20);
+        return Math.min(delay, MAX_BACKOFF_MILLIS);
+    }
+}
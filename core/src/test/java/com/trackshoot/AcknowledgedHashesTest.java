@@ -0,0 +1,63 @@
+package com.trackshoot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import okio.ByteString;
+
+import static org.junit.Assert.*;
+
+public class AcknowledgedHashesTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void add_keepsOnlyTheNewestHashesAcrossReopens() throws IOException {
+        File journalFile = temporaryFolder.newFile();
+        AcknowledgedHashes acknowledgedHashes = new AcknowledgedHashes(journalFile, 3);
+        // Enough to compact the journal on the way.
+        for (int i = 0; i < 10; i++) {
+            acknowledgedHashes.add(hash(i));
+        }
+        acknowledgedHashes.add("not a hash");
+        assertEquals(3, acknowledgedHashes.size());
+        assertFalse(acknowledgedHashes.contains(hash(6)));
+        assertTrue(acknowledgedHashes.contains(hash(7)));
+        acknowledgedHashes.close();
+
+        acknowledgedHashes = new AcknowledgedHashes(journalFile, 3);
+        assertEquals(3, acknowledgedHashes.size());
+        for (int i = 7; i < 10; i++) {
+            assertTrue(acknowledgedHashes.contains(hash(i)));
+        }
+        assertFalse(acknowledgedHashes.contains(null));
+        acknowledgedHashes.close();
+    }
+
+    @Test
+    public void open_dropsATornRecord() throws IOException {
+        File journalFile = temporaryFolder.newFile();
+        AcknowledgedHashes acknowledgedHashes = new AcknowledgedHashes(journalFile, 10);
+        acknowledgedHashes.add(hash(1));
+        acknowledgedHashes.add(hash(2));
+        acknowledgedHashes.close();
+        RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        file.setLength(file.length() - 5);
+        file.close();
+
+        acknowledgedHashes = new AcknowledgedHashes(journalFile, 10);
+        assertTrue(acknowledgedHashes.contains(hash(1)));
+        assertFalse(acknowledgedHashes.contains(hash(2)));
+        acknowledgedHashes.close();
+    }
+
+    private static String hash(int i) {
+        return ByteString.encodeUtf8(Integer.toString(i)).sha256().hex();
+    }
+}
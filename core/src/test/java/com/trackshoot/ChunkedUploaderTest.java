@@ -0,0 +1,151 @@
+package com.trackshoot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.ByteString;
+
+import static org.junit.Assert.*;
+
+public class ChunkedUploaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private FlakyChunkServer flakyChunkServer;
+
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 123;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Before
+    public void setUp() throws Exception {
+        flakyChunkServer = new FlakyChunkServer(FILE_SIZE, 0.3, 42);
+        server = new MockWebServer();
+        server.setDispatcher(flakyChunkServer);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void interruptedUpload_resumesAndResendsBoundedBytes() throws Exception {
+        byte[] content = new byte[FILE_SIZE];
+        new Random(7).nextBytes(content);
+        File file = temporaryFolder.newFile("shot.jpg");
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(content);
+        fileOutputStream.close();
+
+        UploadConfig uploadConfig = new UploadConfig().setChunking(server.url("/chunks").toString(), CHUNK_SIZE);
+        ChunkedUploader chunkedUploader = new ChunkedUploader(new OkHttpClient.Builder().retryOnConnectionFailure(false).build(), uploadConfig);
+        final long[] progress = new long[1];
+
+        // Like the queue does: every failed attempt resumes from the last acknowledged offset.
+        int attempts = 0;
+        String contentHash = null;
+        while (progress[0] < FILE_SIZE) {
+            attempts++;
+            try {
+                contentHash = chunkedUploader.upload(file, "app_shot", "app", "{}", progress[0], new ChunkedUploader.ProgressListener() {
+                    @Override
+                    public void onProgress(long acknowledgedOffset) {
+                        progress[0] = acknowledgedOffset;
+                    }
+                });
+            } catch (IOException e) {
+                assertTrue(attempts < 1000);
+            }
+        }
+
+        assertArrayEquals(content, flakyChunkServer.received);
+        // Hashed across the chunks and the restarts, and sent with every attempt at the last chunk.
+        String expectedHash = ByteString.of(content).sha256().hex();
+        assertEquals(expectedHash, contentHash);
+        assertFalse(flakyChunkServer.keys.isEmpty());
+        for (String key : flakyChunkServer.keys) {
+            assertEquals(expectedHash, key);
+        }
+        assertTrue(flakyChunkServer.disconnects > 0);
+        assertTrue(flakyChunkServer.keptPartially > 0);
+        // Only what did not reach the server of each cut chunk is sent again.
+        long resent = chunkedUploader.getBytesSent() - FILE_SIZE;
+        System.out.printf("%d disconnects, %d bytes resent%n", flakyChunkServer.disconnects, resent);
+        assertTrue(resent <= flakyChunkServer.lostBytes);
+    }
+
+    // Stores chunks in order and drops the connection at random halfway through a chunk, keeping the half it read.
+    private static class FlakyChunkServer extends Dispatcher {
+
+        final byte[] received;
+        int offset;
+        int disconnects;
+        int keptPartially;
+        // The idempotency keys sent, only the last chunk has one.
+        final List<String> keys = new ArrayList<>();
+        // Bytes of cut chunks that never arrived.
+        long lostBytes;
+        private final double disconnectRate;
+        private final Random random;
+
+        FlakyChunkServer(int length, double disconnectRate, long seed) {
+            this.received = new byte[length];
+            this.disconnectRate = disconnectRate;
+            this.random = new Random(seed);
+        }
+
+        // Asked before the body is read, the policy decides whether it is cut.
+        @Override
+        public synchronized MockResponse peek() {
+            if (random.nextDouble() < disconnectRate) {
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_DURING_REQUEST_BODY);
+            }
+            return new MockResponse();
+        }
+
+        @Override
+        public synchronized MockResponse dispatch(RecordedRequest request) {
+            int requestOffset = Integer.parseInt(request.getHeader(ChunkedUploader.HEADER_OFFSET));
+            if (requestOffset != offset) {
+                return new MockResponse().setResponseCode(409).setHeader(ChunkedUploader.HEADER_OFFSET, offset);
+            }
+            Buffer body = request.getBody();
+            int length = (int) body.size();
+            String key = request.getHeader(ShotRequestFactory.HEADER_IDEMPOTENCY_KEY);
+            if (key != null) {
+                keys.add(key);
+            }
+            byte[] chunk = body.readByteArray();
+            System.arraycopy(chunk, 0, received, offset, length);
+            offset += length;
+            long missing = Long.parseLong(request.getHeader("Content-Length")) - length;
+            if (missing > 0) {
+                // The connection is gone, the response never arrives.
+                disconnects++;
+                keptPartially++;
+                lostBytes += missing;
+            }
+            return new MockResponse().setResponseCode(204).setHeader(ChunkedUploader.HEADER_OFFSET, offset);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class CoverageIndexTest {
+
+    private static final long NOW = 1500000000000L;
+    private static final long HOUR = 60 * 60 * 1000;
+    // About 20 m north, and about 20 m east at 55 degrees.
+    private static final double LATITUDE_STEP = 20 / 111195.0;
+    private static final double LONGITUDE_STEP = 20 / (111195.0 * Math.cos(Math.toRadians(55)));
+
+    @Test
+    public void isCovered_withinCellAndFreshness() {
+        CoverageIndex coverageIndex = new CoverageIndex(20, 24 * HOUR, 1000);
+        assertFalse(coverageIndex.isCovered(55.0, 37.0, NOW));
+
+        coverageIndex.markCovered(55.0, 37.0, NOW);
+        assertTrue(coverageIndex.isCovered(55.0, 37.0, NOW + HOUR));
+        assertFalse(coverageIndex.isCovered(55.0, 37.0, NOW + 25 * HOUR));
+        assertFalse(coverageIndex.isCovered(55.0 + LATITUDE_STEP, 37.0, NOW));
+        assertFalse(coverageIndex.isCovered(55.0, 37.0 + LONGITUDE_STEP, NOW));
+        assertNotEquals(coverageIndex.cellKey(55.0, -37.0), coverageIndex.cellKey(55.0, 37.0));
+    }
+
+    @Test
+    public void isCovered_withinRadius() {
+        CoverageIndex coverageIndex = new CoverageIndex(20, 24 * HOUR, 1000);
+        coverageIndex.markCovered(55.0, 37.0, NOW);
+
+        assertTrue(coverageIndex.isCovered(55.0, 37.0, 25, NOW));
+        assertTrue(coverageIndex.isCovered(55.0 + LATITUDE_STEP, 37.0, 25, NOW));
+        assertTrue(coverageIndex.isCovered(55.0, 37.0 - LONGITUDE_STEP, 25, NOW));
+        assertFalse(coverageIndex.isCovered(55.0 + LATITUDE_STEP, 37.0, 0, NOW));
+        assertFalse(coverageIndex.isCovered(55.0 + 4 * LATITUDE_STEP, 37.0, 25, NOW));
+        assertFalse(coverageIndex.isCovered(55.0, 37.0 + 4 * LONGITUDE_STEP, 25, NOW));
+        assertFalse(coverageIndex.isCovered(55.0 + LATITUDE_STEP, 37.0, 25, NOW + 25 * HOUR));
+    }
+
+    @Test
+    public void markCovered_evictsExpiredThenOldest() {
+        CoverageIndex coverageIndex = new CoverageIndex(20, 24 * HOUR, 100);
+        for (int i = 0; i < 50; i++) {
+            coverageIndex.markCovered(55.0 + i * LATITUDE_STEP, 37.0, NOW - 48 * HOUR);
+        }
+        for (int i = 0; i < 150; i++) {
+            coverageIndex.markCovered(56.0 + i * LATITUDE_STEP, 37.0, NOW + i * HOUR / 10);
+        }
+
+        assertTrue(coverageIndex.size() <= 100);
+        assertEquals(200 - coverageIndex.size(), coverageIndex.getEvictedCount());
+        long last = NOW + 149 * HOUR / 10;
+        assertTrue(coverageIndex.isCovered(56.0 + 149 * LATITUDE_STEP, 37.0, last));
+        assertFalse(coverageIndex.isCovered(56.0, 37.0, last));
+        assertFalse(coverageIndex.isCovered(55.0, 37.0, last));
+    }
+
+    @Test
+    public void readFrom_restoresCellsOfSameGrid() throws IOException {
+        CoverageIndex coverageIndex = new CoverageIndex(20, 24 * HOUR, 1000);
+        for (int i = 0; i < 10; i++) {
+            coverageIndex.markCovered(55.0 + i * LATITUDE_STEP, 37.0, NOW);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        coverageIndex.writeTo(new DataOutputStream(bytes));
+
+        CoverageIndex restored = new CoverageIndex(20, 24 * HOUR, 1000);
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), NOW);
+        assertEquals(10, restored.size());
+        assertTrue(restored.isCovered(55.0 + 9 * LATITUDE_STEP, 37.0, NOW));
+
+        CoverageIndex otherGrid = new CoverageIndex(50, 24 * HOUR, 1000);
+        otherGrid.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), NOW);
+        assertEquals(0, otherGrid.size());
+    }
+}
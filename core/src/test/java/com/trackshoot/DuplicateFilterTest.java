@@ -0,0 +1,79 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DuplicateFilterTest {
+
+    private static final int WIDTH = 72;
+    private static final int HEIGHT = 64;
+
+    private final DHash dHash = new DHash();
+
+    @Test
+    public void compute_isStableUnderNoiseAndExposure() {
+        int[] scene = scene(1);
+        long hash = dHash.compute(scene, WIDTH, HEIGHT);
+
+        int[] noisy = scene.clone();
+        Random random = new Random(2);
+        for (int i = 0; i < noisy.length; i++) {
+            int delta = random.nextInt(7) - 3 + 10;
+            noisy[i] = gray(Math.min(255, (noisy[i] & 0xff) + delta));
+        }
+        assertTrue(DHash.distance(hash, dHash.compute(noisy, WIDTH, HEIGHT)) <= 3);
+        assertTrue(DHash.distance(hash, dHash.compute(scene(3), WIDTH, HEIGHT)) > 16);
+    }
+
+    @Test
+    public void isDuplicate_comparesWithKeptFramesOnly() {
+        DuplicateFilter duplicateFilter = new DuplicateFilter(4, 5);
+        assertFalse(duplicateFilter.isDuplicate(0L));
+        assertEquals(Integer.MAX_VALUE, duplicateFilter.getLastDistance());
+        assertTrue(duplicateFilter.isDuplicate(0x1fL));
+        assertEquals(5, duplicateFilter.getLastDistance());
+        // Drifted 6 bits from the kept frame, though only 1 from the dropped one.
+        assertFalse(duplicateFilter.isDuplicate(0x3fL));
+        assertTrue(duplicateFilter.isDuplicate(0x3fL));
+    }
+
+    @Test
+    public void isDuplicate_forgetsOldestBeyondCapacity() {
+        DuplicateFilter duplicateFilter = new DuplicateFilter(2, 0);
+        assertFalse(duplicateFilter.isDuplicate(1L));
+        assertFalse(duplicateFilter.isDuplicate(2L));
+        assertFalse(duplicateFilter.isDuplicate(4L));
+        assertFalse(duplicateFilter.isDuplicate(1L));
+        assertTrue(duplicateFilter.isDuplicate(4L));
+    }
+
+    @Test
+    public void isDuplicate_negativeThresholdKeepsEverything() {
+        DuplicateFilter duplicateFilter = new DuplicateFilter(2, -1);
+        assertFalse(duplicateFilter.isDuplicate(7L));
+        assertFalse(duplicateFilter.isDuplicate(7L));
+    }
+
+    // Random blocks of gray, different seeds make unrelated scenes.
+    private static int[] scene(long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        int[] blocks = new int[16 * 16];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = random.nextInt(200);
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                pixels[y * WIDTH + x] = gray(blocks[(y * 16 / HEIGHT) * 16 + x * 16 / WIDTH]);
+            }
+        }
+        return pixels;
+    }
+
+    private static int gray(int value) {
+        return 0xff000000 | value << 16 | value << 8 | value;
+    }
+}
@@ -0,0 +1,50 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FixRingBufferTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private final double[] out = new double[2];
+
+    @Test
+    public void interpolate_betweenFixes() {
+        FixRingBuffer fixRingBuffer = new FixRingBuffer(4);
+        assertFalse(fixRingBuffer.interpolate(0, SECOND, out));
+
+        fixRingBuffer.add(SECOND, 55.0, 37.0, 10f, 0f);
+        fixRingBuffer.add(2 * SECOND, 55.001, 37.002, 10f, 0f);
+        assertTrue(fixRingBuffer.interpolate(SECOND + SECOND / 4, SECOND, out));
+        assertEquals(55.00025, out[0], 1e-9);
+        assertEquals(37.0005, out[1], 1e-9);
+
+        fixRingBuffer.interpolate(0, SECOND, out);
+        assertEquals(55.0, out[0], 0);
+    }
+
+    @Test
+    public void interpolate_extrapolatesAlongBearingUpToLimit() {
+        FixRingBuffer fixRingBuffer = new FixRingBuffer(4);
+        fixRingBuffer.add(SECOND, 55.0, 37.0, 16.7f, 90f);
+
+        GeoDistance geoDistance = new GeoDistance();
+        geoDistance.setAnchor(55.0, 37.0);
+        fixRingBuffer.interpolate(SECOND + SECOND / 2, SECOND, out);
+        assertEquals(55.0, out[0], 1e-6);
+        assertEquals(8.35, geoDistance.distanceTo(out[0], out[1]), 0.05);
+
+        fixRingBuffer.interpolate(10 * SECOND, SECOND, out);
+        assertEquals(16.7, geoDistance.distanceTo(out[0], out[1]), 0.05);
+    }
+
+    @Test
+    public void interpolate_holdsPositionWithoutSpeed() {
+        FixRingBuffer fixRingBuffer = new FixRingBuffer(4);
+        fixRingBuffer.add(SECOND, 55.0, 37.0, Float.NaN, Float.NaN);
+        fixRingBuffer.interpolate(2 * SECOND, SECOND, out);
+        assertArrayEquals(new double[]{55.0, 37.0}, out, 0);
+    }
+}
@@ -0,0 +1,87 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GeoDistanceTest {
+
+    private static final int SAMPLES = 100000;
+
+    @Test
+    public void triggerRange_staysWithinCentimeterOfReference() {
+        Random random = new Random(1);
+        GeoDistance geoDistance = new GeoDistance();
+        double maxError = 0;
+
+        for (int i = 0; i < SAMPLES; i++) {
+            double latitude = -80 + random.nextDouble() * 160;
+            double longitude = -180 + random.nextDouble() * 360;
+            double[] destination = destination(latitude, longitude, random.nextDouble() * 360, random.nextDouble() * 500);
+
+            geoDistance.setAnchor(latitude, longitude);
+            double error = Math.abs(geoDistance.distanceTo(destination[0], destination[1])
+                    - reference(latitude, longitude, destination[0], destination[1]));
+            maxError = Math.max(maxError, error);
+        }
+
+        System.out.printf("max error up to 500 m: %.6f m%n", maxError);
+        assertTrue(maxError < 0.01);
+    }
+
+    @Test
+    public void flatEarthLimit_staysWithinFewCentimetersOfReference() {
+        Random random = new Random(2);
+        GeoDistance geoDistance = new GeoDistance();
+
+        for (int i = 0; i < SAMPLES; i++) {
+            double latitude = -80 + random.nextDouble() * 160;
+            double longitude = -180 + random.nextDouble() * 360;
+            double[] destination = destination(latitude, longitude, random.nextDouble() * 360, GeoDistance.FLAT_EARTH_LIMIT_METERS);
+
+            geoDistance.setAnchor(latitude, longitude);
+            double expected = reference(latitude, longitude, destination[0], destination[1]);
+            assertEquals(expected, geoDistance.distanceTo(destination[0], destination[1]), 0.1);
+        }
+    }
+
+    @Test
+    public void longJumps_matchReference() {
+        GeoDistance geoDistance = new GeoDistance();
+        geoDistance.setAnchor(55.7558, 37.6173);
+        assertEquals(reference(55.7558, 37.6173, 59.9343, 30.3351), geoDistance.distanceTo(59.9343, 30.3351), 1e-6);
+        assertEquals(reference(55.7558, 37.6173, 59.9343, 30.3351), GeoDistance.haversine(55.7558, 37.6173, 59.9343, 30.3351), 1e-6);
+    }
+
+    @Test
+    public void antimeridian_takesShortWay() {
+        GeoDistance geoDistance = new GeoDistance();
+        geoDistance.setAnchor(0, 179.9995);
+        assertEquals(reference(0, 179.9995, 0, -179.9995), geoDistance.distanceTo(0, -179.9995), 0.01);
+        assertTrue(geoDistance.distanceTo(0, -179.9995) < 200);
+    }
+
+    // Textbook haversine, kept independent of the implementation under test.
+    private static double reference(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double deltaPhi = Math.toRadians(latitude2 - latitude1);
+        double deltaLambda = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(deltaPhi / 2) * Math.sin(deltaPhi / 2) +
+                Math.cos(phi1) * Math.cos(phi2) * Math.sin(deltaLambda / 2) * Math.sin(deltaLambda / 2);
+        return GeoDistance.EARTH_RADIUS_METERS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private static double[] destination(double latitude, double longitude, double bearing, double meters) {
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        double theta = Math.toRadians(bearing);
+        double delta = meters / GeoDistance.EARTH_RADIUS_METERS;
+        double phi2 = Math.asin(Math.sin(phi) * Math.cos(delta) + Math.cos(phi) * Math.sin(delta) * Math.cos(theta));
+        double lambda2 = lambda + Math.atan2(Math.sin(theta) * Math.sin(delta) * Math.cos(phi),
+                Math.cos(delta) - Math.sin(phi) * Math.sin(phi2));
+        return new double[]{Math.toDegrees(phi2), Math.toDegrees(lambda2)};
+    }
+}
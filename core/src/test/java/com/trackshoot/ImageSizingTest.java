@@ -0,0 +1,59 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ImageSizingTest {
+
+    @Test
+    public void sampleSize_keepsTheLongEdgeAtLeastMaxDimension() {
+        assertEquals(1, ImageSizing.sampleSize(1000, 1600));
+        assertEquals(1, ImageSizing.sampleSize(3199, 1600));
+        assertEquals(2, ImageSizing.sampleSize(3200, 1600));
+        assertEquals(2, ImageSizing.sampleSize(4032, 1600));
+        assertEquals(4, ImageSizing.sampleSize(6400, 1600));
+        assertEquals(1, ImageSizing.sampleSize(4032, 0));
+    }
+
+    @Test
+    public void encodeWithinBudget_stepsQualityDownUntilItFits() throws Exception {
+        RecordingEncoder encoder = new RecordingEncoder();
+        assertEquals(50, ImageSizing.encodeWithinBudget(encoder, 80, 55000));
+        assertEquals(Arrays.asList(80, 70, 60, 50), encoder.qualities);
+    }
+
+    @Test
+    public void encodeWithinBudget_stopsAtMinimumQuality() throws Exception {
+        RecordingEncoder encoder = new RecordingEncoder();
+        assertEquals(ImageSizing.MIN_QUALITY, ImageSizing.encodeWithinBudget(encoder, 80, 1000));
+        assertEquals(Arrays.asList(80, 70, 60, 50, 40), encoder.qualities);
+
+        encoder.qualities.clear();
+        assertEquals(45, ImageSizing.encodeWithinBudget(encoder, 45, 1000));
+        assertEquals(Arrays.asList(45), encoder.qualities);
+    }
+
+    @Test
+    public void encodeWithinBudget_withoutBudgetEncodesOnce() throws Exception {
+        RecordingEncoder encoder = new RecordingEncoder();
+        assertEquals(80, ImageSizing.encodeWithinBudget(encoder, 80, 0));
+        assertEquals(Arrays.asList(80), encoder.qualities);
+    }
+
+    // A thousand bytes per quality point.
+    private static class RecordingEncoder implements ImageSizing.Encoder {
+
+        final List<Integer> qualities = new ArrayList<>();
+
+        @Override
+        public int encode(int quality) {
+            qualities.add(quality);
+            return quality * 1000;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void record_countsIntoBuckets() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram(new long[]{10, 100});
+        latencyHistogram.record(5000000);
+        latencyHistogram.record(10000000);
+        latencyHistogram.record(50000000);
+        latencyHistogram.record(500000000);
+
+        assertEquals(3, latencyHistogram.getBucketCount());
+        assertEquals(2, latencyHistogram.getBucket(0));
+        assertEquals(1, latencyHistogram.getBucket(1));
+        assertEquals(1, latencyHistogram.getBucket(2));
+        assertEquals(Long.MAX_VALUE, latencyHistogram.getBucketBoundMillis(2));
+        assertEquals(4, latencyHistogram.getCount());
+        assertEquals(565000000, latencyHistogram.getSumNanos());
+        assertEquals(500000000, latencyHistogram.getMaxNanos());
+    }
+
+    @Test
+    public void getQuantileMillis_returnsBucketBound() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        assertEquals(0, latencyHistogram.getQuantileMillis(0.5));
+        for (int i = 1; i <= 100; i++) {
+            latencyHistogram.record(i * 10000000L);
+        }
+        assertEquals(500, latencyHistogram.getQuantileMillis(0.5));
+        assertEquals(1000, latencyHistogram.getQuantileMillis(0.9));
+        assertEquals(1000, latencyHistogram.getQuantileMillis(1.0));
+    }
+
+    @Test
+    public void record_isSafeAcrossThreads() throws InterruptedException {
+        final LatencyHistogram latencyHistogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        latencyHistogram.record((i + offset) * 1000L);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, latencyHistogram.getCount());
+        assertEquals(100002000L, latencyHistogram.getMaxNanos());
+    }
+}
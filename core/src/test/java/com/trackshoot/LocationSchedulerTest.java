@@ -0,0 +1,173 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LocationSchedulerTest {
+
+    private static final int RATE = 50;
+    private static final long FIXED_INTERVAL_MILLIS = 1000;
+    private static final double START_LATITUDE = 55.75;
+    private static final double METERS_PER_DEGREE = GeoDistance.EARTH_RADIUS_METERS * Math.PI / 180;
+
+    // Speed profile of a simulated drive in m/s, one segment per row: {duration in seconds, speed}.
+    // Speed steps are spread over a few seconds like a car accelerating and braking.
+    private static final double[][] TRACE = {
+            {120, 0}, {3, 3}, {3, 6}, {300, 8}, {3, 4}, {60, 0}, {3, 4}, {3, 9}, {600, 14}, {3, 7}, {180, 0},
+            {3, 4}, {3, 10}, {3, 16}, {3, 22}, {600, 28}, {3, 15}, {90, 3}, {300, 0}, {3, 5}, {3, 10}, {420, 17},
+    };
+
+    @Test
+    public void adaptiveSchedule_usesFewerFixesWithoutLosingTriggerAccuracy() {
+        Result fixed = simulate(false);
+        Result adaptive = simulate(true);
+
+        System.out.printf("fixed:    %d fixes, %d triggers, mean error %.2f m, max error %.2f m%n",
+                fixed.fixes, fixed.triggers, fixed.meanError(), fixed.maxError);
+        System.out.printf("adaptive: %d fixes, %d triggers, mean error %.2f m, max error %.2f m%n",
+                adaptive.fixes, adaptive.triggers, adaptive.meanError(), adaptive.maxError);
+
+        assertTrue(adaptive.fixes < fixed.fixes / 2);
+        // Every overshoot pushes the following shots further along, so less overshoot means more shots.
+        assertTrue(adaptive.triggers >= fixed.triggers);
+        assertTrue(adaptive.meanError() <= fixed.meanError());
+        // Speeding up from a crawl between two sparse fixes can't be predicted, keep that bounded.
+        assertTrue(adaptive.maxError < RATE / 2);
+    }
+
+    @Test
+    public void stationary_switchesToSparseLowPowerFixes() {
+        LocationScheduler locationScheduler = new LocationScheduler(FIXED_INTERVAL_MILLIS);
+        locationScheduler.onFix(0, START_LATITUDE, 37.6, 0f, 0, RATE);
+        assertEquals(LocationScheduler.STATIONARY_INTERVAL_MILLIS, locationScheduler.getIntervalMillis());
+        assertEquals(LocationScheduler.PRIORITY_BALANCED, locationScheduler.getPriority());
+
+        assertTrue(locationScheduler.onFix(1000, START_LATITUDE, 37.6, 20f, 0, RATE));
+        assertEquals(LocationScheduler.PRIORITY_HIGH_ACCURACY, locationScheduler.getPriority());
+        assertTrue(locationScheduler.getIntervalMillis() <= LocationScheduler.MAX_MOVING_INTERVAL_MILLIS);
+    }
+
+    @Test
+    public void missingSpeed_isEstimatedFromFixes() {
+        LocationScheduler locationScheduler = new LocationScheduler(FIXED_INTERVAL_MILLIS);
+        for (int i = 0; i <= 10; i++) {
+            locationScheduler.onFix(i * 1000, START_LATITUDE + i * 10 / METERS_PER_DEGREE, 37.6, Float.NaN, 0, RATE);
+        }
+        assertEquals(10, locationScheduler.getSpeed(), 0.1);
+    }
+
+    // A covered stretch or a backlog holds shots back for minutes, the fixes must stay as sparse as when shooting.
+    @Test
+    public void declinedShots_keepFixesSparse() {
+        final boolean[] backlogged = {true};
+        ShotTrigger shotTrigger = new ShotTrigger(new ShotTrigger.Conditions() {
+            @Override
+            public boolean isCovered(double latitude, double longitude, double radiusMeters, long timeMillis) {
+                return !backlogged[0];
+            }
+
+            @Override
+            public boolean isBacklogged() {
+                return backlogged[0];
+            }
+        });
+        LocationScheduler locationScheduler = new LocationScheduler(FIXED_INTERVAL_MILLIS);
+        long durationMillis = 600 * 1000;
+        float speed = 14;
+        int fixes = 0;
+        int declined = 0;
+        long interval = FIXED_INTERVAL_MILLIS;
+        for (long time = 0; time <= durationMillis; time += interval) {
+            backlogged[0] = time < durationMillis / 2;
+            double latitude = START_LATITUDE + time / 1000.0 * speed / METERS_PER_DEGREE;
+            fixes++;
+            int decision = shotTrigger.onFix(latitude, 37.6, time, RATE);
+            if (decision == ShotTrigger.BACKLOGGED || decision == ShotTrigger.COVERED) {
+                declined++;
+            }
+            locationScheduler.onFix(time, latitude, 37.6, speed, shotTrigger.distanceFromDecision(latitude, 37.6),
+                    RATE);
+            interval = locationScheduler.getIntervalMillis();
+        }
+
+        System.out.printf("declined: %d fixes, %d shots held back%n", fixes, declined);
+        // About one fix per trigger distance, the fixed schedule takes one a second.
+        assertTrue(declined > 0);
+        assertTrue(fixes < durationMillis / FIXED_INTERVAL_MILLIS / 2);
+    }
+
+    // Drives the trace through the same trigger logic as the service, with fixes delivered at the requested interval.
+    private static Result simulate(boolean adaptive) {
+        LocationScheduler locationScheduler = new LocationScheduler(FIXED_INTERVAL_MILLIS);
+        GeoDistance geoDistance = new GeoDistance();
+        Result result = new Result();
+        long durationMillis = 0;
+        for (double[] segment : TRACE) {
+            durationMillis += (long) (segment[0] * 1000);
+        }
+
+        double anchorPosition = 0;
+        geoDistance.setAnchor(START_LATITUDE, 37.6);
+        long interval = FIXED_INTERVAL_MILLIS;
+        for (long time = 0; time <= durationMillis; time += interval) {
+            double position = positionAt(time);
+            double latitude = START_LATITUDE + position / METERS_PER_DEGREE;
+            result.fixes++;
+
+            double distance = geoDistance.distanceTo(latitude, 37.6);
+            if (distance >= RATE) {
+                result.triggers++;
+                double error = position - (anchorPosition + RATE);
+                result.totalError += error;
+                result.maxError = Math.max(result.maxError, error);
+                // Re-anchor at the triggering fix, as the service and ShotTrigger do.
+                anchorPosition = position;
+                geoDistance.setAnchor(latitude, 37.6);
+                distance = 0;
+            }
+
+            if (adaptive) {
+                locationScheduler.onFix(time, latitude, 37.6, (float) speedAt(time), distance, RATE);
+                interval = locationScheduler.getIntervalMillis();
+            }
+        }
+        return result;
+    }
+
+    private static double speedAt(long timeMillis) {
+        double time = timeMillis / 1000.0;
+        for (double[] segment : TRACE) {
+            if (time < segment[0]) {
+                return segment[1];
+            }
+            time -= segment[0];
+        }
+        return 0;
+    }
+
+    private static double positionAt(long timeMillis) {
+        double time = timeMillis / 1000.0;
+        double position = 0;
+        for (double[] segment : TRACE) {
+            double inSegment = Math.min(time, segment[0]);
+            position += inSegment * segment[1];
+            time -= inSegment;
+            if (time <= 0) {
+                break;
+            }
+        }
+        return position;
+    }
+
+    private static class Result {
+        int fixes;
+        int triggers;
+        double totalError;
+        double maxError;
+
+        double meanError() {
+            return triggers > 0 ? totalError / triggers : 0;
+        }
+    }
+}
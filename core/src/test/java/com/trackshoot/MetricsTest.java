@@ -0,0 +1,71 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void record_updatesCounters() {
+        Metrics metrics = new Metrics();
+        metrics.recordFix();
+        metrics.recordFix();
+        metrics.recordTrigger();
+        metrics.recordCapture(30000000);
+        metrics.recordUpload(1000, 200000000);
+        metrics.recordUpload(500, 300000000);
+        metrics.recordDelivery(4000000000L);
+        metrics.recordUploadFailure(100000000);
+        metrics.recordRetry();
+        metrics.setQueueDepth(7);
+        metrics.recordStartToFix(3000000000L);
+        metrics.recordFixToReady(400000000);
+
+        assertEquals(2, metrics.getFixCount());
+        assertEquals(1, metrics.getTriggerCount());
+        assertEquals(1, metrics.getCaptureCount());
+        assertEquals(2, metrics.getUploadCount());
+        assertEquals(1, metrics.getUploadFailureCount());
+        assertEquals(1, metrics.getRetryCount());
+        assertEquals(1500, metrics.getUploadBytes());
+        assertEquals(7, metrics.getQueueDepth());
+        assertEquals(1, metrics.getFixToCapture().getCount());
+        assertEquals(3, metrics.getUploadDuration().getCount());
+        assertEquals(1, metrics.getCaptureToUpload().getCount());
+        assertEquals(1, metrics.getStartToFix().getCount());
+        assertEquals(1, metrics.getFixToReady().getCount());
+    }
+
+    @Test
+    public void writePrometheus_rendersTextFormat() throws IOException {
+        Metrics metrics = new Metrics();
+        metrics.recordFix();
+        metrics.recordUpload(2048, 150000000);
+        metrics.recordDelivery(1500000000L);
+        metrics.setQueueDepth(3);
+        metrics.recordStartToFix(1500000000L);
+        StringWriter writer = new StringWriter();
+        metrics.writePrometheus(writer);
+        String text = writer.toString();
+
+        assertTrue(text.contains("# TYPE trackshoot_fixes_total counter\ntrackshoot_fixes_total 1\n"));
+        assertTrue(text.contains("# TYPE trackshoot_queue_depth gauge\ntrackshoot_queue_depth 3\n"));
+        assertTrue(text.contains("trackshoot_upload_bytes_total 2048\n"));
+        assertTrue(text.contains("# TYPE trackshoot_upload_duration_seconds histogram\n"));
+        assertTrue(text.contains("trackshoot_upload_duration_seconds_bucket{le=\"0.1\"} 0\n"));
+        assertTrue(text.contains("trackshoot_upload_duration_seconds_bucket{le=\"0.2\"} 1\n"));
+        assertTrue(text.contains("trackshoot_upload_duration_seconds_bucket{le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("trackshoot_upload_duration_seconds_sum 0.15\n"));
+        assertTrue(text.contains("trackshoot_upload_duration_seconds_count 1\n"));
+        assertTrue(text.contains("trackshoot_capture_to_upload_seconds_bucket{le=\"1\"} 0\n"));
+        assertTrue(text.contains("trackshoot_capture_to_upload_seconds_bucket{le=\"2\"} 1\n"));
+        assertTrue(text.contains("trackshoot_fix_to_capture_seconds_count 0\n"));
+        assertTrue(text.contains("trackshoot_start_to_fix_seconds_bucket{le=\"1\"} 0\n"));
+        assertTrue(text.contains("trackshoot_start_to_fix_seconds_bucket{le=\"2\"} 1\n"));
+        assertTrue(text.contains("trackshoot_fix_to_ready_seconds_count 0\n"));
+    }
+}
@@ -0,0 +1,46 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrientationRingBufferTest {
+
+    private final float[] out = new float[3];
+
+    @Test
+    public void interpolate_betweenSamples() {
+        OrientationRingBuffer ringBuffer = new OrientationRingBuffer(4);
+        assertFalse(ringBuffer.interpolate(0, out));
+
+        ringBuffer.add(100, 0f, 0f, 0f);
+        ringBuffer.add(200, 1f, 0.5f, -1f);
+        assertTrue(ringBuffer.interpolate(150, out));
+        assertArrayEquals(new float[]{0.5f, 0.25f, -0.5f}, out, 1e-6f);
+
+        assertTrue(ringBuffer.interpolate(500, out));
+        assertArrayEquals(new float[]{1f, 0.5f, -1f}, out, 1e-6f);
+    }
+
+    @Test
+    public void interpolate_wrapsAzimuthTheShortWay() {
+        OrientationRingBuffer ringBuffer = new OrientationRingBuffer(4);
+        ringBuffer.add(0, 3.0f, 0f, 0f);
+        ringBuffer.add(100, -3.0f, 0f, 0f);
+        ringBuffer.interpolate(50, out);
+        assertEquals(Math.PI, Math.abs(out[0]), 1e-3);
+    }
+
+    @Test
+    public void add_overwritesOldestWhenFull() {
+        OrientationRingBuffer ringBuffer = new OrientationRingBuffer(3);
+        for (int i = 0; i < 10; i++) {
+            ringBuffer.add(i * 10, 0f, i * 0.1f, 0f);
+        }
+        assertEquals(3, ringBuffer.size());
+        ringBuffer.interpolate(0, out);
+        assertEquals(0.7f, out[1], 1e-6f);
+        ringBuffer.interpolate(85, out);
+        assertEquals(0.85f, out[1], 1e-6f);
+    }
+}
@@ -0,0 +1,53 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ShotMetadataTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private static final ShotMetadata.OrientationSource LEVEL_EAST = new ShotMetadata.OrientationSource() {
+        @Override
+        public float[] getOrientation(long timestampNanos, float[] out) {
+            out[0] = (float) (Math.PI / 2);
+            out[1] = 0;
+            out[2] = 0;
+            return out;
+        }
+    };
+
+    @Test
+    public void onCapture_movesTheShotToTheCapturePosition() {
+        ShotMetadata shotMetadata = new ShotMetadata(newEncoder(), LEVEL_EAST, 4, SECOND);
+        shotMetadata.addFix(SECOND, 55.0, 37.0, 10f, 0f);
+        shotMetadata.addFix(2 * SECOND, 55.001, 37.0, 10f, 0f);
+        shotMetadata.onTrigger("app", 50, 55.0, 37.0, 1500000000000L);
+
+        ShotRecord shotRecord = shotMetadata.onCapture(SECOND + SECOND / 2, 1500000000500L);
+        assertEquals("app", shotRecord.appId);
+        assertEquals(55.0005, shotRecord.latitude, 1e-9);
+        assertEquals(1500000000500L, shotRecord.epochMillis);
+        assertEquals(Math.PI / 2, shotRecord.azimuth, 1e-6);
+
+        ShotRecord decoded = new ShotRecord();
+        ShotRecordEncoder.readBinary(shotMetadata.toBinary(), 0, decoded);
+        assertEquals(55.0005, decoded.latitude, 1e-7);
+        assertTrue(shotMetadata.toJson().startsWith("{\"app_id\":\"app\",\"rate\":\"50m\""));
+    }
+
+    @Test
+    public void onCapture_keepsTheTriggerPositionWithoutFixes() {
+        ShotMetadata shotMetadata = new ShotMetadata(newEncoder(), LEVEL_EAST, 4, SECOND);
+        shotMetadata.onTrigger("app", 50, 55.0, 37.0, 1500000000000L);
+
+        ShotRecord shotRecord = shotMetadata.onCapture(10 * SECOND, 1500000009000L);
+        assertEquals(55.0, shotRecord.latitude, 0);
+        assertEquals(1500000000000L, shotRecord.epochMillis);
+    }
+
+    private static ShotRecordEncoder newEncoder() {
+        return new ShotRecordEncoder("app_id", "rate", "gps", "datetime", "timestamp", "orientation", "m");
+    }
+}
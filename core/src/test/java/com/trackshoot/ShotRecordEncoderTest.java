@@ -0,0 +1,76 @@
+package com.trackshoot;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ShotRecordEncoderTest {
+
+    private final ShotRecordEncoder shotRecordEncoder = new ShotRecordEncoder("app_id", "rate", "gps", "datetime",
+            "timestamp", "orientation", "m");
+
+    @Test
+    public void json_parsesBackToRecord() throws Exception {
+        ShotRecord shotRecord = new ShotRecord().set("route \"7\" \\ \u0001 \u00e9\u4e2d\ud83d\ude97", 50,
+                -33.8688197, 151.2092955, 1500000000123L, new float[]{-3.1415f, 0.25f, 1e-7f});
+
+        JSONObject json = new JSONObject(shotRecordEncoder.toJson(shotRecord));
+        assertEquals(shotRecord.appId, json.getString("app_id"));
+        assertEquals("50m", json.getString("rate"));
+        JSONArray gps = json.getJSONArray("gps");
+        assertEquals(-33.8688197, gps.getDouble(0), 1e-9);
+        assertEquals(151.2092955, gps.getDouble(1), 1e-9);
+        assertEquals(1500000000123L, json.getLong("timestamp"));
+        JSONArray orientation = json.getJSONArray("orientation");
+        assertEquals(-3.1415, orientation.getDouble(0), 1e-6);
+        assertEquals(0.25, orientation.getDouble(1), 1e-6);
+        assertEquals(0, orientation.getDouble(2), 1e-6);
+    }
+
+    @Test
+    public void json_formatsDateTimeLikeSimpleDateFormat() throws Exception {
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd\u00a0HH:mm:ss");
+        Random random = new Random(3);
+        ShotRecord shotRecord = new ShotRecord().set("app", 100, 0, 0, 0, new float[3]);
+
+        for (int i = 0; i < 10000; i++) {
+            shotRecord.epochMillis = (long) (random.nextDouble() * 4102444800000L);
+            JSONObject json = new JSONObject(shotRecordEncoder.toJson(shotRecord));
+            assertEquals(simpleDateFormat.format(new Date(shotRecord.epochMillis)), json.getString("datetime"));
+        }
+    }
+
+    @Test
+    public void json_writesSpecialNumbers() throws Exception {
+        ShotRecord shotRecord = new ShotRecord().set(null, 200, Double.NaN, -0.00000001, 0, new float[]{Float.POSITIVE_INFINITY, -1.5f, 2f});
+        JSONObject json = new JSONObject(shotRecordEncoder.toJson(shotRecord));
+        assertTrue(json.isNull("app_id"));
+        assertTrue(json.getJSONArray("gps").isNull(0));
+        assertEquals("0", json.getJSONArray("gps").get(1).toString());
+        assertTrue(json.getJSONArray("orientation").isNull(0));
+    }
+
+    @Test
+    public void binary_roundTrips() throws Exception {
+        ShotRecord shotRecord = new ShotRecord().set("app \u4e2d", 100, 55.7558, 37.6173, 1500000000123L, new float[]{0.1f, -0.2f, 0.3f});
+        byte[] record = shotRecordEncoder.toBinary(shotRecord);
+        assertEquals(ShotRecordEncoder.BINARY_FIXED_SIZE + "app \u4e2d".getBytes("UTF-8").length, record.length);
+
+        ShotRecord decoded = new ShotRecord();
+        assertEquals(record.length, ShotRecordEncoder.readBinary(record, 0, decoded));
+        assertEquals(shotRecord.appId, decoded.appId);
+        assertEquals(shotRecord.rate, decoded.rate);
+        assertEquals(shotRecord.latitude, decoded.latitude, 0);
+        assertEquals(shotRecord.longitude, decoded.longitude, 0);
+        assertEquals(shotRecord.epochMillis, decoded.epochMillis);
+        assertEquals(shotRecord.azimuth, decoded.azimuth, 0);
+        assertEquals(shotRecord.pitch, decoded.pitch, 0);
+        assertEquals(shotRecord.roll, decoded.roll, 0);
+    }
+}
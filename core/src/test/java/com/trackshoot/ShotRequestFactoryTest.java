@@ -0,0 +1,117 @@
+package com.trackshoot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+
+import static org.junit.Assert.*;
+
+public class ShotRequestFactoryTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void batchRequest_carriesEveryImageAndMetadata() throws Exception {
+        UploadConfig uploadConfig = new UploadConfig()
+                .setBatchEndpoint(server.url("/batch").toString())
+                .setBatching(3, 1000);
+        ShotRequestFactory shotRequestFactory = new ShotRequestFactory(uploadConfig);
+
+        List<PendingShot> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(new PendingShot(i, newImage("shot" + i + ".jpg", 1000 + i), "app", "{\"shot\":" + i + "}", 0));
+        }
+
+        server.enqueue(new MockResponse().setResponseCode(200));
+        Response response = new OkHttpClient().newCall(shotRequestFactory.newBatchRequest(batch)).execute();
+        response.close();
+
+        RecordedRequest recordedRequest = server.takeRequest();
+        String body = recordedRequest.getBody().readUtf8();
+        assertEquals("/batch", recordedRequest.getPath());
+        assertTrue(body.contains("name=\"count\""));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(body.contains("name=\"image_" + i + "\"; filename=\"shot" + i + ".jpg\""));
+            assertTrue(body.contains("{\"shot\":" + i + "}"));
+        }
+    }
+
+    @Test
+    public void shotRequest_carriesMetadataAndAuthorizesOnlyWithAClientId() throws Exception {
+        UploadConfig uploadConfig = new UploadConfig().setEndpoint(server.url("/3/image").toString());
+        PendingShot pendingShot = new PendingShot(1, newImage("shot.jpg", 1000), "app", "{\"shot\":1}", 0);
+        pendingShot.record = new byte[]{1, 2, 3};
+
+        server.enqueue(new MockResponse().setResponseCode(200));
+        new OkHttpClient().newCall(new ShotRequestFactory(uploadConfig).newShotRequest(pendingShot)).execute().close();
+        RecordedRequest recordedRequest = server.takeRequest();
+        String body = recordedRequest.getBody().readUtf8();
+        assertEquals("Client-ID " + UploadConfig.DEFAULT_CLIENT_ID, recordedRequest.getHeader("Authorization"));
+        assertTrue(body.contains("name=\"image\"; filename=\"shot.jpg\""));
+        assertTrue(body.contains("name=\"metadata\""));
+        assertTrue(body.contains("{\"shot\":1}"));
+        assertTrue(body.contains("name=\"record\""));
+
+        uploadConfig.setServer(server.url("/").toString());
+        server.enqueue(new MockResponse().setResponseCode(200));
+        new OkHttpClient().newCall(new ShotRequestFactory(uploadConfig).newShotRequest(pendingShot)).execute().close();
+        recordedRequest = server.takeRequest();
+        assertEquals(UploadConfig.SERVER_SHOTS_PATH, recordedRequest.getPath());
+        assertNull(recordedRequest.getHeader("Authorization"));
+    }
+
+    @Test
+    public void shotRequest_hashesTheImageOnTheWayAndRetriesWithIt() throws Exception {
+        UploadConfig uploadConfig = new UploadConfig().setEndpoint(server.url("/3/image").toString());
+        File image = newImage("shot.jpg", 100000);
+        PendingShot pendingShot = new PendingShot(1, image, "app", "{}", 0);
+        ShotRequestFactory shotRequestFactory = new ShotRequestFactory(uploadConfig);
+
+        server.enqueue(new MockResponse().setResponseCode(500));
+        new OkHttpClient().newCall(shotRequestFactory.newShotRequest(pendingShot)).execute().close();
+        assertNull(server.takeRequest().getHeader(ShotRequestFactory.HEADER_IDEMPOTENCY_KEY));
+        assertEquals(ByteString.of(new byte[100000]).sha256().hex(), pendingShot.contentHash);
+
+        server.enqueue(new MockResponse().setResponseCode(200));
+        new OkHttpClient().newCall(shotRequestFactory.newShotRequest(pendingShot)).execute().close();
+        RecordedRequest recordedRequest = server.takeRequest();
+        assertEquals(pendingShot.contentHash, recordedRequest.getHeader(ShotRequestFactory.HEADER_IDEMPOTENCY_KEY));
+        assertEquals("100-continue", recordedRequest.getHeader("Expect"));
+    }
+
+    private File newImage(String name, int size) throws Exception {
+        File file = temporaryFolder.newFile(name);
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(new byte[size]);
+        fileOutputStream.close();
+        return file;
+    }
+}
@@ -0,0 +1,140 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShotTriggerTest {
+
+    // About 11.1 m north per step.
+    private static final double STEP_DEGREES = 1e-4;
+
+    private static class FakeConditions implements ShotTrigger.Conditions {
+
+        boolean covered;
+        boolean backlogged;
+
+        @Override
+        public boolean isCovered(double latitude, double longitude, double radiusMeters, long timeMillis) {
+            return covered;
+        }
+
+        @Override
+        public boolean isBacklogged() {
+            return backlogged;
+        }
+    }
+
+    @Test
+    public void onFix_shootsOnceTheRateIsCovered() {
+        ShotTrigger shotTrigger = new ShotTrigger(new FakeConditions());
+        assertEquals(0, shotTrigger.distanceFromDecision(55.0, 37.0), 0);
+        assertEquals(ShotTrigger.ANCHORED, shotTrigger.onFix(55.0, 37.0, 0, 50));
+
+        int shots = 0;
+        for (int i = 1; i <= 20; i++) {
+            int decision = shotTrigger.onFix(55.0 + i * STEP_DEGREES, 37.0, i * 1000L, 50);
+            if (i % 5 == 0) {
+                assertEquals(ShotTrigger.SHOOT, decision);
+                assertEquals(55.6, shotTrigger.getDistance(), 0.1);
+                shots++;
+            } else {
+                assertEquals(ShotTrigger.TOO_CLOSE, decision);
+            }
+        }
+        assertEquals(4, shots);
+        assertEquals(11.1, shotTrigger.distanceFromDecision(55.0 + 21 * STEP_DEGREES, 37.0), 0.1);
+    }
+
+    @Test
+    public void onFix_coveredSpotCountsAsShot() {
+        FakeConditions conditions = new FakeConditions();
+        ShotTrigger shotTrigger = new ShotTrigger(conditions);
+        shotTrigger.onFix(55.0, 37.0, 0, 20);
+
+        conditions.covered = true;
+        assertEquals(ShotTrigger.COVERED, shotTrigger.onFix(55.0 + 2 * STEP_DEGREES, 37.0, 1000, 20));
+        conditions.covered = false;
+        assertEquals(ShotTrigger.TOO_CLOSE, shotTrigger.onFix(55.0 + 3 * STEP_DEGREES, 37.0, 2000, 20));
+        conditions.backlogged = true;
+        assertEquals(ShotTrigger.BACKLOGGED, shotTrigger.onFix(55.0 + 4 * STEP_DEGREES, 37.0, 3000, 20));
+        // The next fixes are planned from the held shot, the distance is still counted from the covered spot.
+        assertEquals(11.1, shotTrigger.distanceFromDecision(55.0 + 5 * STEP_DEGREES, 37.0), 0.1);
+        conditions.backlogged = false;
+        assertEquals(ShotTrigger.SHOOT, shotTrigger.onFix(55.0 + 5 * STEP_DEGREES, 37.0, 4000, 20));
+        assertEquals(33.4, shotTrigger.getDistance(), 0.1);
+
+        shotTrigger.reset();
+        assertEquals(ShotTrigger.ANCHORED, shotTrigger.onFix(56.0, 37.0, 5000, 20));
+    }
+
+    @Test
+    public void onFix_skipsARouteDrivenBefore() throws IOException {
+        List<double[]> fixes = readTrace("/tracks/drive.csv");
+        final CoverageIndex coverageIndex = new CoverageIndex(20, 7 * 24 * 3600 * 1000L, 32768);
+        ShotTrigger.Conditions conditions = new ShotTrigger.Conditions() {
+            @Override
+            public boolean isCovered(double latitude, double longitude, double radiusMeters, long timeMillis) {
+                return coverageIndex.isCovered(latitude, longitude, radiusMeters, timeMillis);
+            }
+
+            @Override
+            public boolean isBacklogged() {
+                return false;
+            }
+        };
+
+        int firstShots = drive(new ShotTrigger(conditions), coverageIndex, fixes, 0, 0, 0);
+        // The next day the fixes fall elsewhere along the route and a few meters aside.
+        int dayMillis = 24 * 3600 * 1000;
+        int secondShots = drive(new ShotTrigger(conditions), coverageIndex, fixes, 7, dayMillis, 4e-5);
+        int thirdShots = drive(new ShotTrigger(conditions), coverageIndex, fixes, 3, 2 * dayMillis, -3e-5);
+        System.out.println(String.format("drive.csv shots: %d, %d, %d", firstShots, secondShots, thirdShots));
+        assertTrue(firstShots > 50);
+        assertTrue(secondShots < firstShots / 10);
+        assertTrue(thirdShots < firstShots / 10);
+    }
+
+    private static int drive(ShotTrigger shotTrigger, CoverageIndex coverageIndex, List<double[]> fixes, int skip,
+                             long offsetMillis, double offsetDegrees) {
+        int shots = 0;
+        for (int i = skip; i < fixes.size(); i++) {
+            double[] fix = fixes.get(i);
+            double latitude = fix[1] + offsetDegrees;
+            double longitude = fix[2] + offsetDegrees;
+            long timeMillis = (long) fix[0] + offsetMillis;
+            if (shotTrigger.onFix(latitude, longitude, timeMillis, 40) == ShotTrigger.SHOOT) {
+                coverageIndex.markCovered(latitude, longitude, timeMillis);
+                shots++;
+            }
+        }
+        return shots;
+    }
+
+    private List<double[]> readTrace(String resource) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream(resource),
+                "UTF-8"));
+        List<double[]> fixes = new ArrayList<>();
+        try {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                double[] fix = new double[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    fix[i] = Double.parseDouble(fields[i]);
+                }
+                fixes.add(fix);
+            }
+        } finally {
+            reader.close();
+        }
+        return fixes;
+    }
+}
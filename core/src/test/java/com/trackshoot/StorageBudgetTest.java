@@ -0,0 +1,125 @@
+package com.trackshoot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class StorageBudgetTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void sweep_evictsUploadedBeforeOldestPending() throws IOException {
+        File images = temporaryFolder.newFolder();
+        Metrics metrics = new Metrics();
+        StorageBudget storageBudget = new StorageBudget(temporaryFolder.newFile(), 2500, metrics);
+        File[] files = new File[5];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = newImage(images, "IMG_" + i + ".jpeg", 1000);
+            storageBudget.add(files[i]);
+        }
+        storageBudget.markUploaded(files[3]);
+        storageBudget.markUploaded(files[1]);
+        assertTrue(storageBudget.isOverBudget());
+
+        // One at a time, uploaded in upload order, then the oldest capture.
+        assertTrue(storageBudget.sweep(1));
+        assertFalse(files[3].exists());
+        assertFalse(storageBudget.sweep(10));
+        assertFalse(files[1].exists());
+        assertFalse(files[0].exists());
+        assertTrue(files[2].exists());
+        assertTrue(files[4].exists());
+
+        assertEquals(2000, storageBudget.getTotalBytes());
+        assertEquals(2, metrics.getUploadedEvictionCount());
+        assertEquals(1, metrics.getPendingEvictionCount());
+        assertEquals(3000, metrics.getEvictedBytes());
+        assertEquals(2000, metrics.getStoredBytes());
+    }
+
+    @Test
+    public void reopen_replaysJournalUpToTornRecord() throws IOException {
+        File images = temporaryFolder.newFolder();
+        File journal = new File(temporaryFolder.getRoot(), "journal");
+        StorageBudget storageBudget = new StorageBudget(journal, 10000, new Metrics());
+        for (int i = 0; i < 400; i++) {
+            File file = newImage(images, "IMG_" + i + ".jpeg", 10);
+            storageBudget.add(file);
+            if (i % 2 == 0) {
+                storageBudget.markUploaded(file);
+            }
+            if (i % 4 == 0) {
+                storageBudget.forget(file);
+            }
+        }
+        storageBudget.close();
+        // A crash in the middle of the next record.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(journal, "rw");
+        try {
+            randomAccessFile.seek(randomAccessFile.length());
+            randomAccessFile.writeByte(1);
+            randomAccessFile.writeShort(40);
+            randomAccessFile.write(new byte[7]);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        StorageBudget reopened = new StorageBudget(journal, 10000, new Metrics());
+        assertEquals(200, reopened.getPendingCount());
+        assertEquals(100, reopened.getUploadedCount());
+        assertEquals(3000, reopened.getTotalBytes());
+        reopened.close();
+    }
+
+    @Test
+    public void adopt_takesUnknownImagesOnce() throws IOException {
+        File images = temporaryFolder.newFolder();
+        File journal = new File(temporaryFolder.getRoot(), "journal");
+        File queued = newImage(images, "IMG_1.jpeg", 100);
+        File delivered = newImage(images, "IMG_2.jpeg", 200);
+        newImage(images, "notes.txt", 50);
+        StorageBudget storageBudget = new StorageBudget(journal, 10000, new Metrics());
+        File captured = newImage(images, "IMG_3.jpeg", 300);
+        storageBudget.add(captured);
+        assertFalse(storageBudget.isAdopted());
+
+        Set<String> queuedPaths = new HashSet<>(Collections.singleton(queued.getAbsolutePath()));
+        assertEquals(2, storageBudget.adopt(images, queuedPaths));
+        assertEquals(2, storageBudget.getPendingCount());
+        assertEquals(1, storageBudget.getUploadedCount());
+        assertEquals(600, storageBudget.getTotalBytes());
+        storageBudget.close();
+
+        StorageBudget reopened = new StorageBudget(journal, 10000, new Metrics());
+        assertTrue(reopened.isAdopted());
+        assertEquals(600, reopened.getTotalBytes());
+        reopened.markUploaded(queued);
+        reopened.markUploaded(captured);
+        assertEquals(3, reopened.getUploadedCount());
+        reopened.close();
+        assertTrue(delivered.exists());
+    }
+
+    private static File newImage(File directory, String name, int bytes) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        try {
+            fileOutputStream.write(new byte[bytes]);
+        } finally {
+            fileOutputStream.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,142 @@
+package com.trackshoot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class TrackLogTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final TrackFix fix = new TrackFix();
+
+    @Test
+    public void read_streamsTimeRangeAcrossSegments() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        TrackLog trackLog = new TrackLog(directory, 16, TrackLog.DEFAULT_MAX_BYTES);
+        appendAll(trackLog, 0, 100);
+
+        TrackLog.Cursor cursor = trackLog.read(1030000, 1060000);
+        try {
+            long expected = 30;
+            while (cursor.next(fix)) {
+                assertEquals(1000000 + expected * 1000, fix.timeMillis);
+                assertEquals(55.0 + expected * 1e-5, fix.latitude, 0);
+                assertEquals(37.0, fix.longitude, 0);
+                assertEquals(expected % 10, fix.speed, 0);
+                expected++;
+            }
+            assertEquals(61, expected);
+        } finally {
+            cursor.close();
+        }
+        trackLog.close();
+        assertEquals(100, trackLog.getAppendedCount());
+    }
+
+    @Test
+    public void reopen_mergesSmallSegments() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        for (int run = 0; run < 4; run++) {
+            TrackLog trackLog = new TrackLog(directory, 16, TrackLog.DEFAULT_MAX_BYTES);
+            appendAll(trackLog, run * 3, 3);
+            trackLog.close();
+        }
+
+        TrackLog trackLog = new TrackLog(directory, 16, TrackLog.DEFAULT_MAX_BYTES);
+        trackLog.close();
+        assertEquals(1, directory.list().length);
+        assertEquals(12, countAll(directory));
+    }
+
+    @Test
+    public void reopen_dropsOldestBeyondSizeLimit() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        long segmentBytes = TrackLog.HEADER_SIZE + 16 * TrackLog.RECORD_SIZE;
+        TrackLog trackLog = new TrackLog(directory, 16, 4 * segmentBytes);
+        appendAll(trackLog, 0, 16 * 10);
+        trackLog.close();
+
+        trackLog = new TrackLog(directory, 16, 4 * segmentBytes);
+        TrackLog.Cursor cursor = trackLog.read(0, Long.MAX_VALUE);
+        try {
+            assertTrue(cursor.next(fix));
+            assertTrue(fix.timeMillis > 1000000);
+        } finally {
+            cursor.close();
+        }
+        trackLog.close();
+        long totalBytes = 0;
+        for (File file : directory.listFiles()) {
+            totalBytes += file.length();
+        }
+        assertTrue(totalBytes <= 4 * segmentBytes);
+    }
+
+    @Test
+    public void reopen_recoversAfterCrashMidWrite() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        TrackLog trackLog = new TrackLog(directory, 64, TrackLog.DEFAULT_MAX_BYTES);
+        appendAll(trackLog, 0, 40);
+        // No close(): the process dies here, once the next segment has been mapped. Tear the last record as if
+        // the crash hit in the middle of it.
+        while (directory.list().length < 2) {
+            sleep(1);
+        }
+        File active = new File(directory, "0000000000000000.track");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(active, "rw");
+        try {
+            randomAccessFile.seek(TrackLog.HEADER_SIZE + 39 * TrackLog.RECORD_SIZE + 8);
+            randomAccessFile.writeLong(0x1234567890L);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        trackLog = new TrackLog(directory, 64, TrackLog.DEFAULT_MAX_BYTES);
+        appendAll(trackLog, 100, 5);
+        trackLog.close();
+        assertEquals(39 + 5, countAll(directory));
+    }
+
+    // Tiny segments fill up faster than a real fix stream could, give the next one time to be mapped.
+    private static void appendAll(TrackLog trackLog, int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            while (!trackLog.append(1000000 + i * 1000L, 55.0 + i * 1e-5, 37.0, 5f, i % 10, 90f)) {
+                sleep(1);
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private int countAll(File directory) throws IOException {
+        TrackLog trackLog = new TrackLog(directory, 16, TrackLog.DEFAULT_MAX_BYTES);
+        int count = 0;
+        long lastTime = Long.MIN_VALUE;
+        TrackLog.Cursor cursor = trackLog.read(Long.MIN_VALUE, Long.MAX_VALUE);
+        try {
+            while (cursor.next(fix)) {
+                assertTrue(fix.timeMillis > lastTime);
+                lastTime = fix.timeMillis;
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        trackLog.close();
+        return count;
+    }
+}
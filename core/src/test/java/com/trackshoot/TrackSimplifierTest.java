@@ -0,0 +1,150 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackSimplifierTest {
+
+    private static final double TOLERANCE_METERS = 5;
+    private static final int WINDOW_SIZE = 64;
+    private static final int SHOT_EVERY = 50;
+
+    @Test
+    public void add_keepsEndsOfStraightLine() {
+        Collector collector = new Collector();
+        TrackSimplifier trackSimplifier = new TrackSimplifier(TOLERANCE_METERS, WINDOW_SIZE, collector);
+        for (int i = 0; i < 40; i++) {
+            trackSimplifier.add(i * 1000L, 55.0 + i * 1e-4, 37.0, 5f, 11f, 0f, false);
+        }
+        trackSimplifier.flush();
+
+        assertEquals(2, collector.times.size());
+        assertEquals(0L, (long) collector.times.get(0));
+        assertEquals(39000L, (long) collector.times.get(1));
+    }
+
+    @Test
+    public void add_keepsCornerAndPinnedFixes() {
+        Collector collector = new Collector();
+        TrackSimplifier trackSimplifier = new TrackSimplifier(TOLERANCE_METERS, WINDOW_SIZE, collector);
+        for (int i = 0; i < 20; i++) {
+            trackSimplifier.add(i * 1000L, 55.0 + i * 1e-4, 37.0, 5f, 11f, 0f, i == 7);
+        }
+        for (int i = 20; i < 40; i++) {
+            trackSimplifier.add(i * 1000L, 55.0 + 19 * 1e-4, 37.0 + (i - 19) * 1e-4, 5f, 11f, 90f, false);
+        }
+        trackSimplifier.flush();
+
+        assertEquals(4, collector.times.size());
+        assertTrue(collector.times.contains(7000L));
+        assertTrue(collector.times.contains(19000L));
+    }
+
+    @Test
+    public void add_boundsMemoryToWindow() {
+        Collector collector = new Collector();
+        TrackSimplifier trackSimplifier = new TrackSimplifier(TOLERANCE_METERS, 16, collector);
+        for (int i = 0; i < 1000; i++) {
+            trackSimplifier.add(i * 1000L, 55.0 + i * 1e-4, 37.0, 5f, 11f, 0f, false);
+        }
+        trackSimplifier.flush();
+
+        // A straight run longer than the window is cut at every window's end.
+        assertEquals(1 + (999 + 14) / 15, collector.times.size());
+    }
+
+    // The traces are 1 Hz fixes generated with a correlated GPS error model, a city drive with stops and a walk.
+    @Test
+    public void add_staysWithinToleranceOnTraces() throws IOException {
+        for (String trace : new String[]{"drive.csv", "walk.csv"}) {
+            List<double[]> fixes = readTrace("/tracks/" + trace);
+            Collector collector = new Collector();
+            TrackSimplifier trackSimplifier = new TrackSimplifier(TOLERANCE_METERS, WINDOW_SIZE, collector);
+            for (int i = 0; i < fixes.size(); i++) {
+                double[] fix = fixes.get(i);
+                trackSimplifier.add((long) fix[0], fix[1], fix[2], (float) fix[3], (float) fix[4], (float) fix[5],
+                        i % SHOT_EVERY == 0);
+            }
+            trackSimplifier.flush();
+
+            for (int i = 0; i < fixes.size(); i += SHOT_EVERY) {
+                assertTrue(collector.times.contains((long) fixes.get(i)[0]));
+            }
+            double maxDeviation = maxDeviation(fixes, collector);
+            double ratio = (double) fixes.size() / collector.times.size();
+            System.out.println(String.format("%s: %d -> %d fixes, %.1fx, max deviation %.2f m", trace, fixes.size(),
+                    collector.times.size(), ratio, maxDeviation));
+            assertEquals(fixes.size(), trackSimplifier.getInputCount());
+            assertEquals(collector.times.size(), trackSimplifier.getOutputCount());
+            assertTrue(maxDeviation <= TOLERANCE_METERS + 1e-6);
+            assertTrue(ratio > 4);
+        }
+    }
+
+    // Distance of every fix to the simplified segment spanning its time.
+    private static double maxDeviation(List<double[]> fixes, Collector collector) {
+        double maxDeviation = 0;
+        int segment = 0;
+        for (double[] fix : fixes) {
+            while (segment < collector.times.size() - 2 && collector.times.get(segment + 1) < fix[0]) {
+                segment++;
+            }
+            double[] start = collector.points.get(segment);
+            double[] end = collector.points.get(segment + 1);
+            maxDeviation = Math.max(maxDeviation, segmentDistance(fix[1], fix[2], start, end));
+        }
+        return maxDeviation;
+    }
+
+    private static double segmentDistance(double latitude, double longitude, double[] start, double[] end) {
+        double metersPerDegree = Math.toRadians(GeoDistance.EARTH_RADIUS_METERS);
+        double cosLatitude = Math.cos(Math.toRadians(start[0]));
+        double dx = (end[1] - start[1]) * metersPerDegree * cosLatitude;
+        double dy = (end[0] - start[0]) * metersPerDegree;
+        double px = (longitude - start[1]) * metersPerDegree * cosLatitude;
+        double py = (latitude - start[0]) * metersPerDegree;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+        return Math.hypot(px - t * dx, py - t * dy);
+    }
+
+    private List<double[]> readTrace(String resource) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream(resource),
+                "UTF-8"));
+        List<double[]> fixes = new ArrayList<>();
+        try {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                double[] fix = new double[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    fix[i] = Double.parseDouble(fields[i]);
+                }
+                fixes.add(fix);
+            }
+        } finally {
+            reader.close();
+        }
+        return fixes;
+    }
+
+    private static class Collector implements TrackSimplifier.Listener {
+
+        private final List<Long> times = new ArrayList<>();
+        private final List<double[]> points = new ArrayList<>();
+
+        @Override
+        public void onKept(TrackFix fix) {
+            times.add(fix.timeMillis);
+            points.add(new double[]{fix.latitude, fix.longitude});
+        }
+    }
+}
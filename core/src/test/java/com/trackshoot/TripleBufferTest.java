@@ -0,0 +1,61 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TripleBufferTest {
+
+    @Test
+    public void read_returnsNewestPublished() {
+        TripleBuffer<long[]> buffer = new TripleBuffer<>(new long[1], new long[1], new long[1]);
+        assertFalse(buffer.hasFresh());
+        assertEquals(0, buffer.read()[0]);
+
+        for (long i = 1; i <= 5; i++) {
+            buffer.writeSlot()[0] = i;
+            buffer.publish();
+        }
+        assertTrue(buffer.hasFresh());
+        assertEquals(5, buffer.read()[0]);
+        assertFalse(buffer.hasFresh());
+        assertEquals(5, buffer.read()[0]);
+    }
+
+    @Test
+    public void read_neverSeesTornOrOlderValues() throws InterruptedException {
+        final TripleBuffer<long[]> buffer = new TripleBuffer<>(new long[2], new long[2], new long[2]);
+        final long count = 2000000;
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long last = 0;
+                while (last < count) {
+                    long[] value = buffer.read();
+                    // Both halves are written together, a torn read would see them differ.
+                    if (value[0] != value[1] || value[0] < last) {
+                        failure.set("read " + value[0] + "/" + value[1] + " after " + last);
+                        return;
+                    }
+                    last = value[0];
+                }
+            }
+        });
+        reader.start();
+
+        for (long i = 1; i <= count; i++) {
+            long[] slot = buffer.writeSlot();
+            slot[0] = i;
+            slot[1] = i;
+            buffer.publish();
+        }
+        reader.join(10000);
+
+        assertNull(failure.get());
+        assertFalse(reader.isAlive());
+    }
+}
@@ -0,0 +1,197 @@
+package com.trackshoot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UploadPolicyTest {
+
+    private final FakeDevice device = new FakeDevice();
+    private final Metrics metrics = new Metrics();
+
+    @Test
+    public void deferred_holdsOnMeteredBatteryUntilUnmetered() {
+        UploadPolicy uploadPolicy = newPolicy(UploadPolicy.MODE_DEFERRED);
+        uploadPolicy.start(0, 0);
+        assertTrue(device.held);
+
+        for (int i = 0; i < 5; i++) {
+            uploadPolicy.onShotQueued(1000, i * 60000L);
+        }
+        assertTrue(device.held);
+        assertEquals(5, uploadPolicy.getDeferredShots());
+
+        device.metered = false;
+        uploadPolicy.evaluate(300000);
+        assertFalse(device.held);
+        assertEquals(1, metrics.getDrainCount());
+
+        // The drain goes on until the queue is empty, even if the network turns metered again.
+        device.metered = true;
+        uploadPolicy.onShotQueued(1000, 301000);
+        assertFalse(device.held);
+        uploadPolicy.onQueueEmpty();
+        assertTrue(device.held);
+        assertEquals(5, metrics.getDeferralCount());
+    }
+
+    @Test
+    public void deferred_drainsWhenChargingOrTooOldButNotOnLowBattery() {
+        UploadPolicy uploadPolicy = newPolicy(UploadPolicy.MODE_DEFERRED);
+        uploadPolicy.start(0, 0);
+        uploadPolicy.onShotQueued(1000, 0);
+
+        device.charging = true;
+        uploadPolicy.evaluate(1000);
+        assertFalse(device.held);
+        uploadPolicy.onQueueEmpty();
+
+        device.charging = false;
+        device.batteryPercent = 10;
+        uploadPolicy.onShotQueued(1000, 2000);
+        uploadPolicy.evaluate(2000 + UploadPolicy.DEFAULT_MAX_DEFER_MILLIS);
+        assertTrue(device.held);
+
+        device.batteryPercent = 50;
+        uploadPolicy.evaluate(2000 + UploadPolicy.DEFAULT_MAX_DEFER_MILLIS);
+        assertFalse(device.held);
+    }
+
+    @Test
+    public void deferred_stopsDrainOnRepeatedFailuresAndDisconnect() {
+        UploadPolicy uploadPolicy = newPolicy(UploadPolicy.MODE_DEFERRED);
+        device.metered = false;
+        uploadPolicy.start(3, 0);
+        assertFalse(device.held);
+
+        for (int i = 0; i < UploadPolicy.MAX_CONSECUTIVE_FAILURES; i++) {
+            uploadPolicy.onUploadStarted(i);
+            uploadPolicy.onUploadFinished(0, false, i);
+        }
+        assertTrue(device.held);
+
+        uploadPolicy.evaluate(10);
+        assertFalse(device.held);
+        device.connected = false;
+        uploadPolicy.evaluate(20);
+        assertTrue(device.held);
+    }
+
+    // Capture stops at the backlog, which held shots must not count toward, or the drain after
+    // DEFAULT_MAX_DEFERRED_SHOTS would never come.
+    @Test
+    public void deferred_heldShotsAreNoBacklog() {
+        UploadPolicy uploadPolicy = newPolicy(UploadPolicy.MODE_DEFERRED);
+        UploadScheduler uploadScheduler = new UploadScheduler(new UploadConfig());
+        uploadPolicy.start(0, 0);
+        device.holds = 0;
+
+        int queuedShots = 0;
+        for (int i = 0; i < 2 * UploadPolicy.DEFAULT_MAX_DEFERRED_SHOTS && !uploadPolicy.isDraining(); i++) {
+            if (!uploadScheduler.updateBacklog(uploadPolicy.getReleasedShots(queuedShots))) {
+                queuedShots++;
+                uploadPolicy.onShotQueued(1000, i * 1000L);
+            }
+        }
+        assertEquals(UploadPolicy.DEFAULT_MAX_DEFERRED_SHOTS, queuedShots);
+        assertFalse(device.held);
+        // Held again with the first deferred shot, for the deadline.
+        assertEquals(1, device.holds);
+
+        // The drain makes them a backlog until the uploader is through most of them.
+        assertTrue(uploadScheduler.updateBacklog(uploadPolicy.getReleasedShots(queuedShots)));
+        assertFalse(uploadScheduler.updateBacklog(uploadPolicy.getReleasedShots(
+                UploadConfig.DEFAULT_BACKLOG_LOW_WATERMARK)));
+        uploadScheduler.shutdown();
+    }
+
+    @Test
+    public void urgent_overridesDeferral() {
+        UploadPolicy uploadPolicy = newPolicy(UploadPolicy.MODE_DEFERRED);
+        uploadPolicy.start(0, 0);
+        uploadPolicy.onShotQueued(1000, 0);
+        assertTrue(device.held);
+
+        uploadPolicy.setUrgent(true, 1000);
+        assertFalse(device.held);
+        uploadPolicy.onQueueEmpty();
+        assertFalse(device.held);
+    }
+
+    @Test
+    public void immediate_neverHolds() {
+        UploadPolicy uploadPolicy = newPolicy(UploadPolicy.MODE_IMMEDIATE);
+        device.connected = false;
+        uploadPolicy.start(2, 0);
+        assertFalse(device.held);
+        uploadPolicy.onShotQueued(1000, 0);
+        uploadPolicy.onQueueEmpty();
+        assertFalse(device.held);
+        assertEquals(0, metrics.getDeferralCount());
+    }
+
+    @Test
+    public void radioWakeups_comparedWithImmediateMode() {
+        UploadPolicy uploadPolicy = newPolicy(UploadPolicy.MODE_DEFERRED);
+        uploadPolicy.start(0, 0);
+        // Shots a minute apart, immediate mode would wake the radio for each of them.
+        for (int i = 0; i < 10; i++) {
+            uploadPolicy.onShotQueued(1000, i * 60000L);
+        }
+        device.metered = false;
+        uploadPolicy.evaluate(600000);
+        // One drain, back to back uploads keep the radio awake.
+        for (int i = 0; i < 10; i++) {
+            uploadPolicy.onUploadStarted(600000 + i * 500L);
+            uploadPolicy.onUploadFinished(1000, true, 600000 + i * 500L + 400);
+        }
+
+        assertEquals(10, metrics.getImmediateRadioWakeupCount());
+        assertEquals(1, metrics.getRadioWakeupCount());
+        assertEquals(10000, metrics.getImmediateMeteredBytes());
+        assertEquals(0, metrics.getMeteredBytes());
+    }
+
+    private UploadPolicy newPolicy(int mode) {
+        return new UploadPolicy(mode, UploadPolicy.DEFAULT_MAX_DEFER_MILLIS, UploadPolicy.DEFAULT_MAX_DEFERRED_SHOTS,
+                device, device, device, metrics);
+    }
+
+    private static class FakeDevice implements UploadPolicy.Connectivity, UploadPolicy.Battery, UploadPolicy.Gate {
+
+        boolean connected = true;
+        boolean metered = true;
+        boolean charging;
+        int batteryPercent = 80;
+        boolean held;
+        int holds;
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public boolean isMetered() {
+            return metered;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return charging;
+        }
+
+        @Override
+        public int getLevelPercent() {
+            return batteryPercent;
+        }
+
+        @Override
+        public void setHeld(boolean held) {
+            this.held = held;
+            if (held) {
+                holds++;
+            }
+        }
+    }
+}
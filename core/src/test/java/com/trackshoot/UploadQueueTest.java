@@ -0,0 +1,196 @@
+package com.trackshoot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UploadQueueTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<String> errors = new ArrayList<>();
+
+    private final Logger logger = new Logger() {
+        @Override
+        public void debug(String message) {
+        }
+
+        @Override
+        public void error(String message) {
+            errors.add(message);
+        }
+    };
+
+    @Test
+    public void add_survivesRestart() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        File first = newImage("IMG_1.jpeg");
+        File second = newImage("IMG_2.jpeg");
+        UploadQueue uploadQueue = new UploadQueue(directory, new Metrics(), logger);
+        uploadQueue.add(first, "app", "{\"n\":1}", new byte[]{1, 2, 3}, 1000);
+        uploadQueue.add(second, "app", "{\"n\":2}", null, 2000);
+        PendingShot taken = uploadQueue.take();
+        taken.uploadedOffset = 4096;
+        taken.contentHash = "ab";
+        taken.uploadId = "upload";
+        uploadQueue.saveProgress(taken);
+
+        // A shot taken but not completed is still stored, the next run sends it again.
+        UploadQueue reloaded = new UploadQueue(directory, new Metrics(), logger);
+        assertEquals(2, reloaded.size());
+        PendingShot pendingShot = reloaded.take();
+        assertEquals(taken.id, pendingShot.id);
+        assertEquals(first.getAbsolutePath(), pendingShot.imageFile.getAbsolutePath());
+        assertEquals("app", pendingShot.appId);
+        assertEquals("{\"n\":1}", pendingShot.metadata);
+        assertArrayEquals(new byte[]{1, 2, 3}, pendingShot.record);
+        assertEquals(1000, pendingShot.captureMillis);
+        assertEquals(4096, pendingShot.uploadedOffset);
+        assertEquals("ab", pendingShot.contentHash);
+        assertEquals("upload", pendingShot.uploadId);
+        pendingShot = reloaded.take();
+        assertEquals(second.getAbsolutePath(), pendingShot.imageFile.getAbsolutePath());
+        assertNull(pendingShot.record);
+        assertNull(pendingShot.uploadId);
+        assertNull(pendingShot.contentHash);
+
+        reloaded.complete(pendingShot);
+        assertEquals(1, new UploadQueue(directory, new Metrics(), logger).size());
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void retry_handsOutDueShotsFirst() throws Exception {
+        UploadQueue uploadQueue = new UploadQueue(temporaryFolder.newFolder(), new Metrics(), logger);
+        uploadQueue.add(newImage("IMG_1.jpeg"), "app", "{}", null, 1000);
+        uploadQueue.add(newImage("IMG_2.jpeg"), "app", "{}", null, 2000);
+        uploadQueue.add(newImage("IMG_3.jpeg"), "app", "{}", null, 3000);
+
+        PendingShot failed = uploadQueue.take();
+        uploadQueue.retry(failed, 60000);
+        assertEquals(1, failed.attempts);
+        assertEquals(1, uploadQueue.poll(0).id);
+        PendingShot soonFailed = uploadQueue.poll(0);
+        assertEquals(2, soonFailed.id);
+        uploadQueue.retry(soonFailed, 50);
+        assertNull(uploadQueue.poll(0));
+        // The shot due first comes first, whatever its capture order.
+        assertSame(soonFailed, uploadQueue.poll(5000));
+        assertNull(uploadQueue.poll(10));
+    }
+
+    @Test
+    public void retry_reportsWriteFailure() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        UploadQueue uploadQueue = new UploadQueue(directory, new Metrics(), logger);
+        uploadQueue.add(newImage("IMG_1.jpeg"), "app", "{}", null, 1000);
+        PendingShot pendingShot = uploadQueue.take();
+
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+        uploadQueue.retry(pendingShot, 0);
+        uploadQueue.saveProgress(pendingShot);
+
+        // The shot stays in memory and is handed out again.
+        assertEquals(2, errors.size());
+        assertSame(pendingShot, uploadQueue.take());
+    }
+
+    @Test
+    public void load_dropsTornAndOrphanedEntries() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        File imageFile = newImage("IMG_1.jpeg");
+        File gone = newImage("IMG_2.jpeg");
+        UploadQueue uploadQueue = new UploadQueue(directory, new Metrics(), logger);
+        uploadQueue.add(imageFile, "app", "{}", null, 1000);
+        uploadQueue.add(gone, "app", "{}", null, 2000);
+        assertTrue(gone.delete());
+        // A crash in write() leaves a temporary file behind, a damaged file system an unreadable entry.
+        writeBytes(new File(directory, "2.tmp"), new byte[]{0, 0, 0, 5, 0});
+        writeBytes(new File(directory, "3.shot"), new byte[]{0, 0, 0, 5, 0, 40, 47});
+
+        UploadQueue reloaded = new UploadQueue(directory, new Metrics(), logger);
+        assertEquals(1, reloaded.size());
+        assertEquals(imageFile.getAbsolutePath(), reloaded.take().imageFile.getAbsolutePath());
+        assertEquals(Arrays.asList("0.shot"), Arrays.asList(directory.list()));
+    }
+
+    @Test
+    public void load_readsEntriesOfEarlierVersions() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        File imageFile = newImage("IMG_1.jpeg");
+        for (int version = 1; version <= 5; version++) {
+            FileOutputStream fileOutputStream = new FileOutputStream(new File(directory, version + ".shot"));
+            DataOutputStream dataOutputStream = new DataOutputStream(fileOutputStream);
+            try {
+                dataOutputStream.writeInt(version);
+                dataOutputStream.writeUTF(imageFile.getAbsolutePath());
+                dataOutputStream.writeUTF("app" + version);
+                dataOutputStream.writeUTF("{}");
+                dataOutputStream.writeInt(version);
+                if (version >= 2) {
+                    dataOutputStream.writeLong(version * 1000);
+                    dataOutputStream.writeUTF("upload" + version);
+                }
+                if (version >= 3) {
+                    dataOutputStream.writeInt(1);
+                    dataOutputStream.writeByte(version);
+                }
+                if (version >= 4) {
+                    dataOutputStream.writeLong(4000);
+                }
+                if (version >= 5) {
+                    dataOutputStream.writeUTF("hash" + version);
+                }
+            } finally {
+                dataOutputStream.close();
+            }
+        }
+
+        UploadQueue uploadQueue = new UploadQueue(directory, new Metrics(), logger);
+        assertEquals(5, uploadQueue.size());
+        for (int version = 1; version <= 5; version++) {
+            PendingShot pendingShot = uploadQueue.take();
+            assertEquals(version, pendingShot.id);
+            assertEquals("app" + version, pendingShot.appId);
+            assertEquals(version, pendingShot.attempts);
+            assertEquals(version >= 2 ? version * 1000 : 0, pendingShot.uploadedOffset);
+            assertEquals(version >= 2 ? "upload" + version : null, pendingShot.uploadId);
+            if (version >= 3) {
+                assertArrayEquals(new byte[]{(byte) version}, pendingShot.record);
+            } else {
+                assertNull(pendingShot.record);
+            }
+            assertEquals(version >= 4 ? 4000 : 0, pendingShot.captureMillis);
+            assertEquals(version >= 5 ? "hash" + version : null, pendingShot.contentHash);
+        }
+    }
+
+    private File newImage(String name) throws IOException {
+        File imageFile = new File(temporaryFolder.getRoot(), name);
+        writeBytes(imageFile, new byte[]{(byte) 0xff, (byte) 0xd8, 0, 0});
+        return imageFile;
+    }
+
+    private static void writeBytes(File file, byte[] bytes) throws IOException {
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        try {
+            fileOutputStream.write(bytes);
+        } finally {
+            fileOutputStream.close();
+        }
+    }
+}
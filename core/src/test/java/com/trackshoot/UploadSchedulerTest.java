@@ -0,0 +1,168 @@
+package com.trackshoot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+public class UploadSchedulerTest {
+
+    private MockWebServer server;
+
+    private static final int SHOTS = 200;
+    private static final int SHOT_BYTES = 64 * 1024;
+    private static final long SERVER_DELAY_MILLIS = 10;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(200).setBody("{}")
+                        .setBodyDelay(SERVER_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    // The server holds every request until released, so the requests it sees at once are the ones in flight.
+    @Test
+    public void inFlightUploads_neverExceedLimit() throws Exception {
+        final AtomicInteger current = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final Semaphore arrived = new Semaphore(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int inFlight = current.incrementAndGet();
+                synchronized (peak) {
+                    peak.set(Math.max(peak.get(), inFlight));
+                }
+                arrived.release();
+                release.await();
+                current.decrementAndGet();
+                return new MockResponse().setResponseCode(200).setBody("{}");
+            }
+        });
+        final UploadScheduler uploadScheduler = new UploadScheduler(new UploadConfig().setMaxInFlight(3));
+        final CountDownLatch done = new CountDownLatch(10);
+        Thread uploader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 10; i++) {
+                        uploadScheduler.acquireSlot();
+                        uploadScheduler.enqueue(newRequest(), new UploadScheduler.Listener() {
+                            @Override
+                            public void onUploaded(Response response, long latencyNanos) {
+                                done.countDown();
+                            }
+
+                            @Override
+                            public void onFailed(IOException e, long latencyNanos) {
+                                done.countDown();
+                            }
+                        });
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        uploader.start();
+
+        assertTrue(arrived.tryAcquire(3, 10, TimeUnit.SECONDS));
+        // A fourth request would come now if the limit let it.
+        assertFalse(arrived.tryAcquire(1, 500, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        uploader.join();
+
+        assertEquals(3, peak.get());
+        uploadScheduler.shutdown();
+    }
+
+    @Test
+    public void backlog_usesHysteresis() {
+        UploadScheduler uploadScheduler = new UploadScheduler(new UploadConfig().setBacklogWatermarks(5, 10));
+        assertFalse(uploadScheduler.updateBacklog(9));
+        assertTrue(uploadScheduler.updateBacklog(10));
+        assertTrue(uploadScheduler.updateBacklog(6));
+        assertFalse(uploadScheduler.updateBacklog(5));
+        uploadScheduler.shutdown();
+    }
+
+    @Test
+    public void concurrentUploads_outperformSerial() throws Exception {
+        double serial = runThroughput(1);
+        double concurrent = runThroughput(4);
+        assertTrue("concurrent " + concurrent + " vs serial " + serial, concurrent > serial * 1.5);
+    }
+
+    private double runThroughput(int maxInFlight) throws Exception {
+        UploadScheduler uploadScheduler = new UploadScheduler(new UploadConfig().setMaxInFlight(maxInFlight));
+        final long[] latencies = new long[SHOTS];
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(SHOTS);
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < SHOTS; i++) {
+            final int shot = i;
+            uploadScheduler.acquireSlot();
+            uploadScheduler.enqueue(newRequest(), new UploadScheduler.Listener() {
+                @Override
+                public void onUploaded(Response response, long latencyNanos) throws IOException {
+                    response.body().string();
+                    latencies[shot] = latencyNanos;
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailed(IOException e, long latencyNanos) {
+                    failures.incrementAndGet();
+                    latencies[shot] = latencyNanos;
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        long elapsedNanos = System.nanoTime() - startNanos;
+        uploadScheduler.shutdown();
+
+        assertEquals(0, failures.get());
+        Arrays.sort(latencies);
+        double shotsPerSecond = SHOTS * 1e9 / elapsedNanos;
+        System.out.printf("maxInFlight=%d: %.1f shots/s, p50 %.1f ms, p99 %.1f ms%n", maxInFlight, shotsPerSecond,
+                latencies[SHOTS / 2] / 1e6, latencies[SHOTS * 99 / 100] / 1e6);
+        return shotsPerSecond;
+    }
+
+    private Request newRequest() {
+        RequestBody requestBody = RequestBody.create(MediaType.parse("image/jpeg"), new byte[SHOT_BYTES]);
+        return new Request.Builder().url(server.url("/image")).post(requestBody).build();
+    }
+}
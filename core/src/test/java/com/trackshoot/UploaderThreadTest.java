@@ -0,0 +1,213 @@
+package com.trackshoot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+public class UploaderThreadTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ShotServer shotServer;
+    private UploadConfig uploadConfig;
+
+    private static final int IMAGE_SIZE = 32 * 1024;
+
+    private static final Logger SILENT = new Logger() {
+        @Override
+        public void debug(String message) {
+        }
+
+        @Override
+        public void error(String message) {
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        shotServer = new ShotServer();
+        server.setDispatcher(shotServer);
+        server.start();
+        uploadConfig = new UploadConfig().setEndpoint(server.url("/shots").toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    // The process dies after the server acknowledged the shot and its hash was journaled, before the queue entry
+    // was removed. The next run finds the entry and skips it instead of sending it again.
+    @Test
+    public void acknowledgedButNotCompleted_isSkippedAfterReload() throws Exception {
+        File queueDirectory = temporaryFolder.newFolder();
+        File journalFile = temporaryFolder.newFile();
+        File imageFile = newImage(temporaryFolder.getRoot(), 7);
+
+        // Stands still right after journaling, the files are then what a crash at this point leaves behind.
+        final CountDownLatch journaled = new CountDownLatch(1);
+        final CountDownLatch crashed = new CountDownLatch(1);
+        AcknowledgedHashes dying = new AcknowledgedHashes(journalFile, AcknowledgedHashes.DEFAULT_CAPACITY) {
+            @Override
+            public synchronized void add(String hash) {
+                super.add(hash);
+                journaled.countDown();
+                try {
+                    crashed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        UploadQueue uploadQueue = new UploadQueue(queueDirectory, new Metrics(), SILENT);
+        uploadQueue.add(imageFile, "app", "{}", null, System.currentTimeMillis());
+        UploaderThread firstRun = newUploader(uploadQueue, dying);
+        UploaderThread secondRun = null;
+        try {
+            firstRun.start();
+            assertTrue(journaled.await(10, TimeUnit.SECONDS));
+            assertEquals(1, server.getRequestCount());
+
+            UploadQueue reloadedQueue = new UploadQueue(queueDirectory, new Metrics(), SILENT);
+            assertEquals(1, reloadedQueue.storedCount());
+            AcknowledgedHashes reopened = new AcknowledgedHashes(journalFile, AcknowledgedHashes.DEFAULT_CAPACITY);
+            secondRun = newUploader(reloadedQueue, reopened);
+            secondRun.start();
+
+            assertTrue(reloadedQueue.awaitDelivered(10000));
+            assertEquals(1, server.getRequestCount());
+            assertEquals(0, queueDirectory.list().length);
+            assertTrue(imageFile.exists());
+        } finally {
+            crashed.countDown();
+            firstRun.shutdown();
+            firstRun.join();
+            if (secondRun != null) {
+                secondRun.shutdown();
+                secondRun.join();
+            }
+        }
+    }
+
+    // Two devices of the same app, or one before and after a reinstall, give their images the same names.
+    @Test
+    public void chunkedUploads_ofSameNamedImages_goToTheirOwnIds() throws Exception {
+        uploadConfig.setChunking(server.url("/chunks").toString(), 4096);
+        UploadQueue uploadQueue = new UploadQueue(temporaryFolder.newFolder(), new Metrics(), SILENT);
+        uploadQueue.add(newImage(temporaryFolder.newFolder(), 1), "app", "{}", null, System.currentTimeMillis());
+        uploadQueue.add(newImage(temporaryFolder.newFolder(), 2), "app", "{}", null, System.currentTimeMillis());
+        AcknowledgedHashes acknowledgedHashes = new AcknowledgedHashes(temporaryFolder.newFile(),
+                AcknowledgedHashes.DEFAULT_CAPACITY);
+        UploaderThread uploaderThread = newUploader(uploadQueue, acknowledgedHashes);
+        try {
+            uploaderThread.start();
+            assertTrue(uploadQueue.awaitDelivered(10000));
+        } finally {
+            uploaderThread.shutdown();
+            uploaderThread.join();
+        }
+
+        assertEquals(2, shotServer.uploads.size());
+        // Hashed on the way, delivered shots are known by their content like single uploads.
+        for (Buffer upload : shotServer.uploads.values()) {
+            assertEquals(IMAGE_SIZE, upload.size());
+            assertTrue(acknowledgedHashes.contains(upload.snapshot().sha256().hex()));
+        }
+    }
+
+    private UploaderThread newUploader(final UploadQueue uploadQueue, AcknowledgedHashes acknowledgedHashes) {
+        Metrics metrics = new Metrics();
+        UploadPolicy uploadPolicy = new UploadPolicy(UploadPolicy.MODE_IMMEDIATE, UploadPolicy.DEFAULT_MAX_DEFER_MILLIS,
+                UploadPolicy.DEFAULT_MAX_DEFERRED_SHOTS, new AlwaysOnline(), new AlwaysOnline(), new UploadPolicy.Gate() {
+            @Override
+            public void setHeld(boolean held) {
+                uploadQueue.setHeld(held);
+            }
+        }, metrics);
+        uploadPolicy.start(uploadQueue.storedCount(), System.currentTimeMillis());
+        return new UploaderThread(uploadQueue, new UploadScheduler(uploadConfig), uploadConfig, metrics, null,
+                uploadPolicy, acknowledgedHashes, SILENT);
+    }
+
+    private static File newImage(File directory, int seed) throws IOException {
+        byte[] bytes = new byte[IMAGE_SIZE];
+        new Random(seed).nextBytes(bytes);
+        File imageFile = new File(directory, "IMG_0.jpeg");
+        FileOutputStream fileOutputStream = new FileOutputStream(imageFile);
+        try {
+            fileOutputStream.write(bytes);
+        } finally {
+            fileOutputStream.close();
+        }
+        return imageFile;
+    }
+
+    // Takes single shots, and chunked uploads each assembled under its own path.
+    private static class ShotServer extends Dispatcher {
+
+        final Map<String, Buffer> uploads = new HashMap<>();
+
+        @Override
+        public synchronized MockResponse dispatch(RecordedRequest request) {
+            if (!request.getMethod().equals("PUT")) {
+                return new MockResponse().setResponseCode(200).setBody("{}");
+            }
+            Buffer upload = uploads.get(request.getPath());
+            if (upload == null) {
+                upload = new Buffer();
+                uploads.put(request.getPath(), upload);
+            }
+            if (Long.parseLong(request.getHeader(ChunkedUploader.HEADER_OFFSET)) == upload.size()) {
+                Buffer body = request.getBody();
+                upload.write(body, body.size());
+                return new MockResponse().setHeader(ChunkedUploader.HEADER_OFFSET, upload.size());
+            }
+            return new MockResponse().setResponseCode(409).setHeader(ChunkedUploader.HEADER_OFFSET, upload.size());
+        }
+    }
+
+    private static class AlwaysOnline implements UploadPolicy.Connectivity, UploadPolicy.Battery {
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isMetered() {
+            return false;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return true;
+        }
+
+        @Override
+        public int getLevelPercent() {
+            return 100;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.trackshoot.replay;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+// Stands in for the device camera: a capture turns into a synthetic JPEG after the configured latency. Like the
+// service's camera it takes one picture at a time, a trigger during a capture fires once that capture is delivered
+// and only the last of several does. Every image is drawn from its own seed, so sizes vary like camera frames and
+// no two are duplicates.
+final class FakeCamera {
+
+    interface Callback {
+        void onImageCapture(File imageFile, long captureNanos, long captureMillis);
+
+        void onCameraError(IOException e);
+    }
+
+    private final File directory;
+    private final int width;
+    private final int height;
+    private final long latencyMillis;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private int sequence;
+    private boolean inFlight;
+    private Callback pending;
+
+    private static final int NOISE = 48;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    FakeCamera(File directory, int width, int height, long latencyMillis) {
+        this.directory = directory;
+        this.width = width;
+        this.height = height;
+        this.latencyMillis = latencyMillis;
+    }
+
+    synchronized void capture(Callback callback) {
+        if (inFlight) {
+            pending = callback;
+            return;
+        }
+        inFlight = true;
+        executor.execute(newCapture(callback));
+    }
+
+    synchronized void awaitIdle() throws InterruptedException {
+        while (inFlight) {
+            wait();
+        }
+    }
+
+    void shutdown() throws InterruptedException {
+        awaitIdle();
+        executor.shutdown();
+        executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private Runnable newCapture(final Callback callback) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                long captureNanos = System.nanoTime();
+                long captureMillis = System.currentTimeMillis();
+                try {
+                    File imageFile = writeImage(sequence++);
+                    long remainingNanos = captureNanos + latencyMillis * 1000000 - System.nanoTime();
+                    if (remainingNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(remainingNanos);
+                    }
+                    callback.onImageCapture(imageFile, captureNanos, captureMillis);
+                } catch (IOException e) {
+                    callback.onCameraError(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    finished();
+                }
+            }
+        };
+    }
+
+    private synchronized void finished() {
+        if (pending != null) {
+            Callback next = pending;
+            pending = null;
+            executor.execute(newCapture(next));
+        } else {
+            inFlight = false;
+            notifyAll();
+        }
+    }
+
+    // A sky over a road in the shot's own colours, with pixel noise so it compresses like a photo.
+    private File writeImage(int shot) throws IOException {
+        Random random = new Random(shot);
+        int sky = random.nextInt(0x1000000);
+        int ground = random.nextInt(0x1000000);
+        int horizon = height / 3 + random.nextInt(height / 3);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            int base = y < horizon ? sky : ground;
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(NOISE) - NOISE / 2;
+                image.setRGB(x, y, channel(base >> 16, noise) << 16 | channel(base >> 8, noise) << 8
+                        | channel(base, noise));
+            }
+        }
+        File imageFile = new File(directory, "IMG_" + shot + ".jpeg");
+        if (!ImageIO.write(image, "jpeg", imageFile)) {
+            throw new IOException("No JPEG writer");
+        }
+        return imageFile;
+    }
+
+    private static int channel(int value, int noise) {
+        return Math.max(0, Math.min(255, (value & 0xff) + noise));
+    }
+}
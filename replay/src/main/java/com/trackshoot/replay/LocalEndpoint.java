@@ -0,0 +1,85 @@
+package com.trackshoot.replay;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// An upload endpoint on the loopback interface that takes every request, counts it and throws the body away, so a
+// replay measures the pipeline rather than a remote server. An optional delay stands in for the server's work.
+final class LocalEndpoint {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private static final byte[] RESPONSE = "{\"success\":true,\"status\":200}".getBytes(Charset.forName("UTF-8"));
+
+    LocalEndpoint(final long latencyMillis) throws IOException {
+        // The response headers and body go out as separate writes, with Nagle's algorithm the body waits for the
+        // client's delayed ACK, some 40 ms per upload. Read once, when the first server is created.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    bytes.addAndGet(drain(exchange.getRequestBody()));
+                    if (latencyMillis > 0) {
+                        Thread.sleep(latencyMillis);
+                    }
+                    requests.incrementAndGet();
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, RESPONSE.length);
+                    OutputStream output = exchange.getResponseBody();
+                    output.write(RESPONSE);
+                    output.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/upload";
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getRequestBytes() {
+        return bytes.get();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static long drain(InputStream input) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        long total = 0;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            total += read;
+        }
+        input.close();
+        return total;
+    }
+}
@@ -0,0 +1,150 @@
+package com.trackshoot.replay;
+
+import com.trackshoot.TrackFix;
+import com.trackshoot.UploadConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+// Replays a GPX or CSV trace through the shot pipeline and prints what it measured. Exits with 1 when a shot was
+// lost on the way, so a CI job fails on it.
+//
+// Replay <trace> [--rate meters] [--speed factor, 0 for lockstep] [--camera-latency ms] [--image-size WxH]
+//        [--images dir] [--endpoint url | --server-latency ms] [--max-in-flight n] [--app-id id]
+//        [--report json file] [--metrics prometheus file]
+public final class Replay {
+
+    private static final int DEFAULT_RATE = 50;
+    private static final double DEFAULT_SPEED = 1;
+    private static final long DEFAULT_CAMERA_LATENCY_MILLIS = 150;
+    private static final String DEFAULT_IMAGE_SIZE = "640x480";
+    private static final String DEFAULT_APP_ID = "replay";
+
+    private Replay() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.println("Usage: Replay <trace.gpx|trace.csv> [--option value]...");
+            System.exit(2);
+        }
+        int rate = DEFAULT_RATE;
+        double speed = DEFAULT_SPEED;
+        long cameraLatencyMillis = DEFAULT_CAMERA_LATENCY_MILLIS;
+        String imageSize = DEFAULT_IMAGE_SIZE;
+        File imageDirectory = null;
+        String endpoint = null;
+        long serverLatencyMillis = 0;
+        int maxInFlight = UploadConfig.DEFAULT_MAX_IN_FLIGHT;
+        String appId = DEFAULT_APP_ID;
+        File reportFile = null;
+        File metricsFile = null;
+        for (int i = 1; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--rate":
+                    rate = Integer.parseInt(value);
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(value);
+                    break;
+                case "--camera-latency":
+                    cameraLatencyMillis = Long.parseLong(value);
+                    break;
+                case "--image-size":
+                    imageSize = value;
+                    break;
+                case "--images":
+                    imageDirectory = new File(value);
+                    break;
+                case "--endpoint":
+                    endpoint = value;
+                    break;
+                case "--server-latency":
+                    serverLatencyMillis = Long.parseLong(value);
+                    break;
+                case "--max-in-flight":
+                    maxInFlight = Integer.parseInt(value);
+                    break;
+                case "--app-id":
+                    appId = value;
+                    break;
+                case "--report":
+                    reportFile = new File(value);
+                    break;
+                case "--metrics":
+                    metricsFile = new File(value);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        List<TrackFix> trace = TraceReader.read(new File(args[0]));
+        if (imageDirectory == null) {
+            imageDirectory = createTempDirectory("replay");
+        }
+        if (!imageDirectory.isDirectory() && !imageDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + imageDirectory);
+        }
+        // A fresh queue every run, the report counts the shots of this trace only.
+        File queueDirectory = createTempDirectory("replay-queue");
+        String[] size = imageSize.split("x");
+        FakeCamera camera = new FakeCamera(imageDirectory, Integer.parseInt(size[0]), Integer.parseInt(size[1]),
+                cameraLatencyMillis);
+
+        LocalEndpoint localEndpoint = endpoint == null ? new LocalEndpoint(serverLatencyMillis) : null;
+        UploadConfig uploadConfig = new UploadConfig()
+                .setEndpoint(localEndpoint != null ? localEndpoint.getUrl() : endpoint)
+                .setMaxInFlight(maxInFlight);
+        ReplayReport report;
+        try {
+            report = new ReplayEngine(appId, rate, new ReplayClock(speed), camera, uploadConfig, queueDirectory)
+                    .run(trace);
+        } finally {
+            if (localEndpoint != null) {
+                localEndpoint.stop();
+            }
+        }
+
+        System.out.print(report);
+        if (reportFile != null) {
+            write(reportFile, report.toJson().toString(2));
+        }
+        if (metricsFile != null) {
+            Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(metricsFile)),
+                    "UTF-8");
+            try {
+                report.metrics.writePrometheus(writer);
+            } finally {
+                writer.close();
+            }
+        }
+        boolean lost = report.cameraErrors > 0 || report.getUploadCount() < report.captures;
+        System.exit(lost ? 1 : 0);
+    }
+
+    private static File createTempDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        directory.delete();
+        if (!directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return directory;
+    }
+
+    private static void write(File file, String text) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(text);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.trackshoot.replay;
+
+import java.util.concurrent.TimeUnit;
+
+// Puts the trace on the wall clock. At speed 1 the fixes come as they were recorded, at 10 ten times as fast. At 0
+// they come in lockstep, each as soon as the shot the previous one triggered has been delivered, so a replay is
+// deterministic and as fast as the pipeline.
+final class ReplayClock {
+
+    private final double speed;
+    private long startNanos;
+    private long startTraceMillis;
+
+    ReplayClock(double speed) {
+        this.speed = speed;
+    }
+
+    void start(long traceMillis) {
+        startNanos = System.nanoTime();
+        startTraceMillis = traceMillis;
+    }
+
+    boolean isLockstep() {
+        return speed <= 0;
+    }
+
+    void awaitTraceTime(long traceMillis) throws InterruptedException {
+        if (isLockstep()) {
+            return;
+        }
+        long dueNanos = startNanos + (long) ((traceMillis - startTraceMillis) * 1e6 / speed);
+        long waitNanos;
+        while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    // A moment after a fix on the trace timeline, in nanoseconds since the epoch. In lockstep the pipeline's own
+    // time is taken as it is.
+    long toTraceNanos(long fixTraceMillis, long fixNanos, long nanos) {
+        return fixTraceMillis * 1000000 + (long) ((nanos - fixNanos) * (isLockstep() ? 1 : speed));
+    }
+}
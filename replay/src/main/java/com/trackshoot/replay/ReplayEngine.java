@@ -0,0 +1,250 @@
+package com.trackshoot.replay;
+
+import com.trackshoot.CoverageIndex;
+import com.trackshoot.GeoDistance;
+import com.trackshoot.Logger;
+import com.trackshoot.Metrics;
+import com.trackshoot.ShotMetadata;
+import com.trackshoot.ShotRecord;
+import com.trackshoot.ShotRecordEncoder;
+import com.trackshoot.ShotTrigger;
+import com.trackshoot.TrackFix;
+import com.trackshoot.UploadConfig;
+import com.trackshoot.UploadPolicy;
+import com.trackshoot.UploadQueue;
+import com.trackshoot.UploadScheduler;
+import com.trackshoot.UploaderThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Runs the shot pipeline on a recorded trace instead of the location provider. The fixes go through the same
+// trigger and metadata code as on the device, at the pace the clock sets, a fake camera takes the pictures and the
+// shots go through the app's upload queue, scheduler and uploader to the configured endpoint, retries included.
+// Fixes and images are handled on one pipeline thread, the way the service handles them on its callback thread.
+// The glue between them is this class's own and leaves out the app's image processor, duplicate filter and
+// storage budget: every frame of the fake camera is queued as it is, with no limit. One engine replays one trace.
+final class ReplayEngine {
+
+    private final String appId;
+    private final int rate;
+    private final ReplayClock clock;
+    private final FakeCamera camera;
+    private final Metrics metrics = new Metrics();
+    private final UploadQueue uploadQueue;
+    private final UploadScheduler uploadScheduler;
+    private final UploadPolicy uploadPolicy;
+    private final UploaderThread uploaderThread;
+    private final ExecutorService pipeline = Executors.newSingleThreadExecutor();
+    private final CoverageIndex coverageIndex =
+            new CoverageIndex(COVERAGE_CELL_METERS, COVERAGE_FRESHNESS_MILLIS, COVERAGE_MAX_CELLS);
+    private final ShotMetadata shotMetadata;
+    private final ShotTrigger shotTrigger;
+    private final int[] decisions = new int[ShotTrigger.SHOOT + 1];
+    private final List<Double> overshoots = new ArrayList<>();
+    private final List<Double> captureOffsets = new ArrayList<>();
+    private int cameraErrors;
+
+    // The app's defaults.
+    private static final double COVERAGE_CELL_METERS = 20;
+    private static final long COVERAGE_FRESHNESS_MILLIS = 168 * 60 * 60 * 1000L;
+    private static final int COVERAGE_MAX_CELLS = 32768;
+    private static final int FIX_HISTORY = 8;
+    private static final long MAX_EXTRAPOLATION_NANOS = 2000000000L;
+    private static final long UPLOAD_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    // The replay host is always online over an unmetered link and never on battery.
+    private static final Wired WIRED = new Wired();
+
+    // Upload errors are printed as they come, the uploader retries them like on the device.
+    private static final Logger LOGGER = new Logger() {
+        @Override
+        public void debug(String message) {
+        }
+
+        @Override
+        public void error(String message) {
+            System.err.println(message);
+        }
+    };
+
+    // A camera held level, facing north.
+    private static final ShotMetadata.OrientationSource LEVEL = new ShotMetadata.OrientationSource() {
+        @Override
+        public float[] getOrientation(long timestampNanos, float[] out) {
+            out[0] = 0;
+            out[1] = 0;
+            out[2] = 0;
+            return out;
+        }
+    };
+
+    // The queue directory should be empty, shots left in it are uploaded along with the replayed ones.
+    ReplayEngine(String appId, int rate, ReplayClock clock, FakeCamera camera, UploadConfig uploadConfig,
+                 File queueDirectory) {
+        this.appId = appId;
+        this.rate = rate;
+        this.clock = clock;
+        this.camera = camera;
+        this.uploadQueue = new UploadQueue(queueDirectory, metrics, LOGGER);
+        this.uploadScheduler = new UploadScheduler(uploadConfig);
+        this.uploadPolicy = new UploadPolicy(UploadPolicy.MODE_IMMEDIATE, UploadPolicy.DEFAULT_MAX_DEFER_MILLIS,
+                UploadPolicy.DEFAULT_MAX_DEFERRED_SHOTS, WIRED, WIRED, new UploadPolicy.Gate() {
+            @Override
+            public void setHeld(boolean held) {
+                uploadQueue.setHeld(held);
+            }
+        }, metrics);
+        this.uploaderThread = new UploaderThread(uploadQueue, uploadScheduler, uploadConfig, metrics, null,
+                uploadPolicy, null, LOGGER);
+        // The keys of the app's strings.
+        this.shotMetadata = new ShotMetadata(new ShotRecordEncoder("app_id", "rate", "gps", "datetime", "timestamp",
+                "orientation", "m"), LEVEL, FIX_HISTORY, MAX_EXTRAPOLATION_NANOS);
+        this.shotTrigger = new ShotTrigger(new ShotTrigger.Conditions() {
+            @Override
+            public boolean isCovered(double latitude, double longitude, double radiusMeters, long timeMillis) {
+                return coverageIndex.isCovered(latitude, longitude, radiusMeters, timeMillis);
+            }
+
+            // The same check as the service's.
+            @Override
+            public boolean isBacklogged() {
+                return uploadScheduler.updateBacklog(uploadPolicy.getReleasedShots(uploadQueue.size()));
+            }
+        });
+    }
+
+    ReplayReport run(List<TrackFix> trace) throws InterruptedException, ExecutionException {
+        if (trace.isEmpty()) {
+            throw new IllegalArgumentException("Empty trace");
+        }
+        long startNanos = System.nanoTime();
+        uploadPolicy.start(uploadQueue.storedCount(), System.currentTimeMillis());
+        uploaderThread.start();
+        clock.start(trace.get(0).timeMillis);
+        for (final TrackFix fix : trace) {
+            clock.awaitTraceTime(fix.timeMillis);
+            final long fixNanos = System.nanoTime();
+            pipeline.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onFix(fix, fixNanos);
+                }
+            });
+            if (clock.isLockstep()) {
+                awaitPipeline();
+                camera.awaitIdle();
+                awaitPipeline();
+                uploadQueue.awaitDelivered(UPLOAD_TIMEOUT_MILLIS);
+            }
+        }
+
+        // Captures post their shots to the pipeline, which hands them to the queue.
+        awaitPipeline();
+        camera.shutdown();
+        pipeline.shutdown();
+        pipeline.awaitTermination(UPLOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        // Shots still queued after the timeout stay undelivered and are reported as lost.
+        uploadQueue.awaitDelivered(UPLOAD_TIMEOUT_MILLIS);
+        uploaderThread.shutdown();
+        uploaderThread.join(UPLOAD_TIMEOUT_MILLIS);
+        long wallNanos = System.nanoTime() - startNanos;
+
+        long traceMillis = trace.get(trace.size() - 1).timeMillis - trace.get(0).timeMillis;
+        return new ReplayReport(rate, traceMillis, wallNanos, decisions, cameraErrors, metrics, overshoots,
+                captureOffsets);
+    }
+
+    // Pipeline thread.
+    private void onFix(final TrackFix fix, final long fixNanos) {
+        metrics.recordFix();
+        shotMetadata.addFix(fix.timeMillis * 1000000, fix.latitude, fix.longitude, fix.speed, fix.bearing);
+        int decision = shotTrigger.onFix(fix.latitude, fix.longitude, fix.timeMillis, rate);
+        decisions[decision]++;
+        if (decision != ShotTrigger.SHOOT) {
+            return;
+        }
+
+        metrics.recordTrigger();
+        shotMetadata.onTrigger(appId, rate, fix.latitude, fix.longitude, fix.timeMillis);
+        overshoots.add(shotTrigger.getDistance() - rate);
+        camera.capture(new FakeCamera.Callback() {
+            // Camera thread.
+            @Override
+            public void onImageCapture(final File imageFile, final long captureNanos, final long captureMillis) {
+                metrics.recordCapture(captureNanos - fixNanos);
+                metrics.recordImage(System.nanoTime() - captureNanos);
+                final long captureTraceNanos = clock.toTraceNanos(fix.timeMillis, fixNanos, captureNanos);
+                pipeline.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onImage(imageFile, fix, captureTraceNanos, captureMillis);
+                    }
+                });
+            }
+
+            @Override
+            public void onCameraError(IOException e) {
+                e.printStackTrace();
+                pipeline.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        cameraErrors++;
+                    }
+                });
+            }
+        });
+    }
+
+    // Pipeline thread. The record is stamped on the trace timeline, the uploader measures delivery on the wall clock.
+    private void onImage(File imageFile, TrackFix triggerFix, long captureTraceNanos, long captureMillis) {
+        long captureTraceMillis = captureTraceNanos / 1000000;
+        ShotRecord shotRecord = shotMetadata.onCapture(captureTraceNanos, captureTraceMillis);
+        coverageIndex.markCovered(shotRecord.latitude, shotRecord.longitude, captureTraceMillis);
+        captureOffsets.add(GeoDistance.haversine(triggerFix.latitude, triggerFix.longitude, shotRecord.latitude,
+                shotRecord.longitude));
+        try {
+            uploadQueue.add(imageFile, appId, shotMetadata.toJson(), shotMetadata.toBinary(), captureMillis);
+            uploadPolicy.onShotQueued(imageFile.length(), System.currentTimeMillis());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void awaitPipeline() throws InterruptedException, ExecutionException {
+        pipeline.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    private static final class Wired implements UploadPolicy.Connectivity, UploadPolicy.Battery {
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isMetered() {
+            return false;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return true;
+        }
+
+        @Override
+        public int getLevelPercent() {
+            return 100;
+        }
+    }
+}
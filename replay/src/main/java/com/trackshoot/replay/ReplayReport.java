@@ -0,0 +1,144 @@
+package com.trackshoot.replay;
+
+import com.trackshoot.LatencyHistogram;
+import com.trackshoot.Metrics;
+import com.trackshoot.ShotTrigger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Locale;
+
+// What a replay measured. The trigger's accuracy is how far past the rate the shots were triggered, which depends
+// on the fix interval and the speed, and how far the trace moved on between the trigger and the capture, the
+// pipeline's latency as seen on the road.
+final class ReplayReport {
+
+    final int rate;
+    final long traceMillis;
+    final long wallNanos;
+    final int fixes;
+    final int triggers;
+    final int covered;
+    final int backlogged;
+    final int captures;
+    final int cameraErrors;
+    final double meanOvershootMeters;
+    final double maxOvershootMeters;
+    final double meanCaptureOffsetMeters;
+    final double maxCaptureOffsetMeters;
+    final Metrics metrics;
+
+    ReplayReport(int rate, long traceMillis, long wallNanos, int[] decisions, int cameraErrors, Metrics metrics,
+                 List<Double> overshoots, List<Double> captureOffsets) {
+        this.rate = rate;
+        this.traceMillis = traceMillis;
+        this.wallNanos = wallNanos;
+        this.fixes = (int) metrics.getFixCount();
+        this.triggers = decisions[ShotTrigger.SHOOT];
+        this.covered = decisions[ShotTrigger.COVERED];
+        this.backlogged = decisions[ShotTrigger.BACKLOGGED];
+        this.captures = captureOffsets.size();
+        this.cameraErrors = cameraErrors;
+        this.meanOvershootMeters = mean(overshoots);
+        this.maxOvershootMeters = max(overshoots);
+        this.meanCaptureOffsetMeters = mean(captureOffsets);
+        this.maxCaptureOffsetMeters = max(captureOffsets);
+        this.metrics = metrics;
+    }
+
+    long getUploadCount() {
+        return metrics.getUploadCount();
+    }
+
+    long getUploadFailureCount() {
+        return metrics.getUploadFailureCount();
+    }
+
+    double getShotsPerSecond() {
+        return metrics.getUploadCount() / (wallNanos / 1e9);
+    }
+
+    double getUploadBytesPerSecond() {
+        return metrics.getUploadBytes() / (wallNanos / 1e9);
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject shots = new JSONObject()
+                .put("fixes", fixes)
+                .put("triggers", triggers)
+                .put("skipped_covered", covered)
+                .put("skipped_backlog", backlogged)
+                .put("captures", captures)
+                .put("camera_errors", cameraErrors)
+                .put("uploads", getUploadCount())
+                .put("upload_failures", getUploadFailureCount());
+        JSONObject accuracy = new JSONObject()
+                .put("rate_m", rate)
+                .put("overshoot_mean_m", meanOvershootMeters)
+                .put("overshoot_max_m", maxOvershootMeters)
+                .put("capture_offset_mean_m", meanCaptureOffsetMeters)
+                .put("capture_offset_max_m", maxCaptureOffsetMeters);
+        JSONObject latency = new JSONObject()
+                .put("fix_to_capture", toJson(metrics.getFixToCapture()))
+                .put("capture_to_image", toJson(metrics.getCaptureToImage()))
+                .put("capture_to_upload", toJson(metrics.getCaptureToUpload()))
+                .put("upload_duration", toJson(metrics.getUploadDuration()));
+        JSONObject throughput = new JSONObject()
+                .put("trace_s", traceMillis / 1e3)
+                .put("wall_s", wallNanos / 1e9)
+                .put("shots_per_s", getShotsPerSecond())
+                .put("upload_bytes_per_s", getUploadBytesPerSecond());
+        return new JSONObject()
+                .put("shots", shots)
+                .put("accuracy", accuracy)
+                .put("latency_ms", latency)
+                .put("throughput", throughput);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d fixes over %.0f s replayed in %.1f s\n", fixes, traceMillis / 1e3,
+                wallNanos / 1e9)
+                + String.format(Locale.US, "%d triggers, %d skipped as covered, %d for the backlog, %d captures, "
+                + "%d camera errors\n", triggers, covered, backlogged, captures, cameraErrors)
+                + String.format(Locale.US, "%d uploads, %d failed, %.1f shots/s, %.0f KB/s\n", getUploadCount(),
+                getUploadFailureCount(), getShotsPerSecond(), getUploadBytesPerSecond() / 1024)
+                + String.format(Locale.US, "Trigger overshoot over %d m: mean %.2f m, max %.2f m\n", rate,
+                meanOvershootMeters, maxOvershootMeters)
+                + String.format(Locale.US, "Trigger to capture: mean %.2f m, max %.2f m\n", meanCaptureOffsetMeters,
+                maxCaptureOffsetMeters)
+                + "Fix to capture: " + metrics.getFixToCapture() + "\n"
+                + "Capture to image: " + metrics.getCaptureToImage() + "\n"
+                + "Capture to upload: " + metrics.getCaptureToUpload() + "\n"
+                + "Upload: " + metrics.getUploadDuration() + "\n";
+    }
+
+    private static JSONObject toJson(LatencyHistogram histogram) throws JSONException {
+        long count = histogram.getCount();
+        return new JSONObject()
+                .put("count", count)
+                .put("mean", count > 0 ? histogram.getSumNanos() / 1e6 / count : 0.0)
+                .put("p50", histogram.getQuantileMillis(0.5))
+                .put("p90", histogram.getQuantileMillis(0.9))
+                .put("p99", histogram.getQuantileMillis(0.99))
+                .put("max", histogram.getMaxNanos() / 1e6);
+    }
+
+    private static double mean(List<Double> values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return values.isEmpty() ? 0 : sum / values.size();
+    }
+
+    private static double max(List<Double> values) {
+        double max = 0;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
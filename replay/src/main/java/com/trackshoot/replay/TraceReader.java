@@ -0,0 +1,184 @@
+package com.trackshoot.replay;
+
+import com.trackshoot.TrackFix;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+// Reads a recorded trace into fixes: the track points of a GPX file, or a CSV in the format of the test traces,
+// time_ms,latitude,longitude,accuracy_m,speed_mps,bearing_deg with an optional header. What a trace leaves out is
+// NaN, as on a Location without it.
+final class TraceReader {
+
+    private static final Pattern ISO_TIME =
+            Pattern.compile("(\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2})(\\.\\d+)?(Z|[+-]\\d{2}:?\\d{2})?");
+
+    private TraceReader() {
+    }
+
+    static List<TrackFix> read(File file) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return file.getName().toLowerCase(Locale.US).endsWith(".gpx") ? readGpx(input) : readCsv(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    static List<TrackFix> readCsv(InputStream input) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        List<TrackFix> fixes = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || !Character.isDigit(line.charAt(0))) {
+                continue;
+            }
+            String[] columns = line.split(",");
+            if (columns.length < 3) {
+                throw new IOException("Not a trace line: " + line);
+            }
+            try {
+                TrackFix fix = new TrackFix();
+                fix.set(Long.parseLong(columns[0].trim()), Double.parseDouble(columns[1]),
+                        Double.parseDouble(columns[2]), column(columns, 3), column(columns, 4), column(columns, 5));
+                fixes.add(fix);
+            } catch (NumberFormatException e) {
+                throw new IOException("Not a trace line: " + line);
+            }
+        }
+        return fixes;
+    }
+
+    static List<TrackFix> readGpx(InputStream input) throws IOException {
+        GpxHandler handler = new GpxHandler();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(input, handler);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Cannot read GPX: " + e.getMessage());
+        }
+        return handler.fixes;
+    }
+
+    // 2017-07-14T02:40:00Z, with or without fractions of a second and with any offset.
+    static long parseTime(String text) throws IOException {
+        Matcher matcher = ISO_TIME.matcher(text.trim());
+        if (!matcher.matches()) {
+            throw new IOException("Unreadable time " + text);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long millis;
+        try {
+            millis = format.parse(matcher.group(1)).getTime();
+        } catch (ParseException e) {
+            throw new IOException("Unreadable time " + text);
+        }
+        if (matcher.group(2) != null) {
+            millis += Integer.parseInt((matcher.group(2).substring(1) + "00").substring(0, 3));
+        }
+        String offset = matcher.group(3);
+        if (offset != null && !offset.equals("Z")) {
+            String digits = offset.substring(1).replace(":", "");
+            long offsetMillis = (Integer.parseInt(digits.substring(0, 2)) * 60 + Integer.parseInt(digits.substring(2)))
+                    * 60000L;
+            millis -= offset.charAt(0) == '-' ? -offsetMillis : offsetMillis;
+        }
+        return millis;
+    }
+
+    private static float column(String[] columns, int index) {
+        if (index >= columns.length || columns[index].trim().isEmpty()) {
+            return Float.NaN;
+        }
+        return Float.parseFloat(columns[index]);
+    }
+
+    // Track points with their time, and speed and course where the recorder wrote them, as GPX 1.0 elements or
+    // in extensions.
+    private static class GpxHandler extends DefaultHandler {
+
+        final List<TrackFix> fixes = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private boolean inPoint;
+        private double latitude;
+        private double longitude;
+        private long timeMillis;
+        private float speed;
+        private float bearing;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+            text.setLength(0);
+            if (name(qName).equals("trkpt")) {
+                try {
+                    latitude = Double.parseDouble(attributes.getValue("lat"));
+                    longitude = Double.parseDouble(attributes.getValue("lon"));
+                } catch (NullPointerException | NumberFormatException e) {
+                    throw new SAXException("Track point without a position");
+                }
+                inPoint = true;
+                timeMillis = Long.MIN_VALUE;
+                speed = Float.NaN;
+                bearing = Float.NaN;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (!inPoint) {
+                return;
+            }
+            String name = name(qName);
+            try {
+                if (name.equals("time")) {
+                    timeMillis = parseTime(text.toString());
+                } else if (name.equals("speed")) {
+                    speed = Float.parseFloat(text.toString().trim());
+                } else if (name.equals("course")) {
+                    bearing = Float.parseFloat(text.toString().trim());
+                } else if (name.equals("trkpt")) {
+                    if (timeMillis == Long.MIN_VALUE) {
+                        throw new SAXException("Track point without a time");
+                    }
+                    TrackFix fix = new TrackFix();
+                    fix.set(timeMillis, latitude, longitude, Float.NaN, speed, bearing);
+                    fixes.add(fix);
+                    inPoint = false;
+                }
+            } catch (IOException | NumberFormatException e) {
+                throw new SAXException(e.getMessage());
+            }
+        }
+
+        private static String name(String qName) {
+            return qName.substring(qName.indexOf(':') + 1);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.trackshoot.replay;
+
+import com.trackshoot.GeoDistance;
+import com.trackshoot.TrackFix;
+import com.trackshoot.UploadConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplayEngineTest {
+
+    private static final int RATE = 50;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LocalEndpoint localEndpoint;
+
+    @Before
+    public void setUp() throws IOException {
+        localEndpoint = new LocalEndpoint(0);
+    }
+
+    @After
+    public void tearDown() {
+        localEndpoint.stop();
+    }
+
+    // In lockstep every trigger is captured and delivered, and the same trace always triggers the same shots.
+    @Test
+    public void run_lockstepDeliversEveryTrigger() throws Exception {
+        List<TrackFix> trace = readTrace("/tracks/drive.csv");
+        ReplayReport report = replay(trace, 0);
+        System.out.print(report);
+
+        assertEquals(trace.size(), report.fixes);
+        assertTrue(report.triggers > 0);
+        assertEquals(0, report.backlogged);
+        assertEquals(report.triggers, report.captures);
+        assertEquals(report.captures, report.getUploadCount());
+        assertEquals(0, report.getUploadFailureCount());
+        assertEquals(report.getUploadCount(), localEndpoint.getRequestCount());
+        assertEquals(report.triggers, report.metrics.getCaptureToUpload().getCount());
+
+        // A shot is at most one fix interval late.
+        assertTrue(report.maxOvershootMeters <= maxStepMeters(trace));
+        ReplayReport again = replay(trace, 0);
+        assertEquals(report.triggers, again.triggers);
+        assertEquals(report.meanOvershootMeters, again.meanOvershootMeters, 0);
+    }
+
+    @Test
+    public void run_paceFollowsSpeed() throws Exception {
+        List<TrackFix> trace = readTrace("/tracks/walk.csv").subList(0, 101);
+        ReplayReport report = replay(trace, 100);
+
+        assertEquals(100000, report.traceMillis);
+        assertTrue(report.wallNanos >= 1000000000L);
+        assertEquals(report.captures, report.getUploadCount());
+    }
+
+    private ReplayReport replay(List<TrackFix> trace, double speed) throws Exception {
+        FakeCamera camera = new FakeCamera(temporaryFolder.newFolder(), 64, 48, 0);
+        UploadConfig uploadConfig = new UploadConfig().setEndpoint(localEndpoint.getUrl());
+        return new ReplayEngine("replay", RATE, new ReplayClock(speed), camera, uploadConfig,
+                temporaryFolder.newFolder()).run(trace);
+    }
+
+    private static List<TrackFix> readTrace(String resource) throws IOException {
+        InputStream input = ReplayEngineTest.class.getResourceAsStream(resource);
+        try {
+            return TraceReader.readCsv(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static double maxStepMeters(List<TrackFix> trace) {
+        double max = 0;
+        for (int i = 1; i < trace.size(); i++) {
+            TrackFix from = trace.get(i - 1);
+            TrackFix to = trace.get(i);
+            max = Math.max(max, GeoDistance.haversine(from.latitude, from.longitude, to.latitude, to.longitude));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,57 @@
+package com.trackshoot.replay;
+
+import com.trackshoot.TrackFix;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TraceReaderTest {
+
+    private static final String GPX = "<?xml version=\"1.0\"?>\n"
+            + "<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\"\n"
+            + "     xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/TrackPointExtension/v2\">\n"
+            + "  <trk><trkseg>\n"
+            + "    <trkpt lat=\"55.7558958\" lon=\"37.6173328\"><ele>150</ele><time>2017-07-14T02:40:00Z</time></trkpt>\n"
+            + "    <trkpt lat=\"55.7559858\" lon=\"37.6173587\"><time>2017-07-14T05:40:01.250+03:00</time>\n"
+            + "      <extensions><gpxtpx:TrackPointExtension><gpxtpx:speed>9.83</gpxtpx:speed>\n"
+            + "      <gpxtpx:course>10</gpxtpx:course></gpxtpx:TrackPointExtension></extensions></trkpt>\n"
+            + "  </trkseg></trk>\n"
+            + "</gpx>\n";
+
+    @Test
+    public void readGpx_readsTrackPoints() throws IOException {
+        List<TrackFix> fixes = TraceReader.readGpx(new ByteArrayInputStream(GPX.getBytes(Charset.forName("UTF-8"))));
+        assertEquals(2, fixes.size());
+        assertEquals(1500000000000L, fixes.get(0).timeMillis);
+        assertEquals(55.7558958, fixes.get(0).latitude, 0);
+        assertTrue(Float.isNaN(fixes.get(0).speed));
+        assertEquals(1500000001250L, fixes.get(1).timeMillis);
+        assertEquals(37.6173587, fixes.get(1).longitude, 0);
+        assertEquals(9.83f, fixes.get(1).speed, 0);
+        assertEquals(10f, fixes.get(1).bearing, 0);
+    }
+
+    @Test
+    public void readCsv_readsTestTrace() throws IOException {
+        InputStream input = TraceReaderTest.class.getResourceAsStream("/tracks/walk.csv");
+        List<TrackFix> fixes;
+        try {
+            fixes = TraceReader.readCsv(input);
+        } finally {
+            input.close();
+        }
+        assertEquals(900, fixes.size());
+        assertEquals(1500100000000L, fixes.get(0).timeMillis);
+        for (int i = 1; i < fixes.size(); i++) {
+            assertTrue(fixes.get(i).timeMillis > fixes.get(i - 1).timeMillis);
+            assertFalse(Float.isNaN(fixes.get(i).speed));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.trackshoot.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// The shots of one app id: their images next to an append-only index, one record per shot in the order they were
+// committed. An image is moved into the directory before its record is written, so every record points at an image.
+// Records are written with a single write each and checksummed, a record torn by a crash is cut off when the index
+// is opened again. Writes reach the OS at once, not the disk. The image's content hash, where the upload brought one,
+// trails a record, records written before it had them are read without.
+final class AppIndex implements Closeable {
+
+    static final class Entry {
+
+        final long sequence;
+        final long receivedMillis;
+        final String imageName;
+        final long imageBytes;
+        final String metadata;
+        // Hex SHA-256 of the image, null if it was not taken.
+        final String contentHash;
+
+        Entry(long sequence, long receivedMillis, String imageName, long imageBytes, String metadata,
+              String contentHash) {
+            this.sequence = sequence;
+            this.receivedMillis = receivedMillis;
+            this.imageName = imageName;
+            this.imageBytes = imageBytes;
+            this.metadata = metadata;
+            this.contentHash = contentHash;
+        }
+    }
+
+    private final File directory;
+    private final FileChannel channel;
+    private long nextSequence;
+
+    static final String INDEX_NAME = "index";
+    private static final int MAGIC = 0x54534958;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    AppIndex(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File indexFile = new File(directory, INDEX_NAME);
+        if (indexFile.length() > 0) {
+            // Sequences count up from 0 without gaps, the next one is the number of records.
+            long[] scan = scan(indexFile, null);
+            channel = new RandomAccessFile(indexFile, "rw").getChannel();
+            channel.truncate(scan[0]);
+            nextSequence = scan[1];
+        } else {
+            channel = new RandomAccessFile(indexFile, "rw").getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(header, 0);
+        }
+    }
+
+    // Moves the image in and indexes it.
+    synchronized Entry add(File image, String metadata, String contentHash, long receivedMillis) throws IOException {
+        long sequence = nextSequence;
+        String imageName = sequence + ".jpg";
+        long imageBytes = image.length();
+        if (!image.renameTo(new File(directory, imageName))) {
+            throw new IOException("Cannot move " + image + " to " + directory);
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64 + metadata.length());
+        DataOutputStream output = new DataOutputStream(payload);
+        output.writeLong(sequence);
+        output.writeLong(receivedMillis);
+        output.writeUTF(imageName);
+        output.writeLong(imageBytes);
+        byte[] metadataBytes = metadata.getBytes(UTF_8);
+        output.writeInt(metadataBytes.length);
+        output.write(metadataBytes);
+        if (contentHash != null) {
+            output.writeUTF(contentHash);
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteBuffer record = ByteBuffer.allocate(4 + bytes.length + 4);
+        record.putInt(bytes.length).put(bytes).putInt((int) crc.getValue()).flip();
+        long position = channel.size();
+        try {
+            writeFully(record, position);
+        } catch (IOException e) {
+            channel.truncate(position);
+            throw e;
+        }
+        nextSequence++;
+        return new Entry(sequence, receivedMillis, imageName, imageBytes, metadata, contentHash);
+    }
+
+    synchronized long getCount() {
+        return nextSequence;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    static List<Entry> read(File indexFile) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        scan(indexFile, entries);
+        return entries;
+    }
+
+    // Reads the records, into entries unless it is null, and returns the length of the index up to the last complete
+    // record and the number of records.
+    private static long[] scan(File indexFile, List<Entry> entries) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not an index: " + indexFile);
+            }
+            long validLength = HEADER_BYTES;
+            long count = 0;
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] bytes;
+                try {
+                    int length = input.readInt();
+                    if (length < 0 || length > MAX_RECORD_BYTES) {
+                        return new long[]{validLength, count};
+                    }
+                    bytes = new byte[length];
+                    input.readFully(bytes);
+                    crc.reset();
+                    crc.update(bytes);
+                    if (input.readInt() != (int) crc.getValue()) {
+                        return new long[]{validLength, count};
+                    }
+                } catch (EOFException e) {
+                    return new long[]{validLength, count};
+                }
+                if (entries != null) {
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                    long sequence = record.readLong();
+                    long receivedMillis = record.readLong();
+                    String imageName = record.readUTF();
+                    long imageBytes = record.readLong();
+                    byte[] metadata = new byte[record.readInt()];
+                    record.readFully(metadata);
+                    String contentHash = record.available() > 0 ? record.readUTF() : null;
+                    entries.add(new Entry(sequence, receivedMillis, imageName, imageBytes,
+                            new String(metadata, UTF_8), contentHash));
+                }
+                validLength += 4 + bytes.length + 4;
+                count++;
+            }
+        } catch (EOFException e) {
+            throw new IOException("Not an index: " + indexFile);
+        } finally {
+            input.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
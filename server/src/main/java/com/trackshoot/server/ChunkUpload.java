@@ -0,0 +1,153 @@
+package com.trackshoot.server;
+
+import com.trackshoot.ChunkedUploader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import okio.ByteString;
+
+// One chunk of the resumable protocol the app's ChunkedUploader speaks: PUT /chunks/<upload id> with the chunk's
+// range in Upload-Offset and Upload-Length. Chunks are appended to one incoming file and the offset the server
+// answers with is that file's size, so a client that lost a response, or a chunk the server kept half of, goes on
+// from what is really stored. A chunk that does not start there is answered with 409 and the stored offset. Once
+// the file is complete it is committed like any other shot, with Upload-App-Id, the base64 JSON of Upload-Metadata
+// and the Idempotency-Key of the last chunk as content hash.
+final class ChunkUpload implements RequestHandler {
+
+    private final IngestStore store;
+    private final String appId;
+    private final String metadata;
+    private final String contentHash;
+    private final long length;
+    private final File file;
+    private final File doneMarker;
+    private final boolean conflict;
+    private final boolean done;
+    private FileChannel channel;
+    private long size;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    ChunkUpload(IngestStore store, String uploadId, long offset, long length, String appId, String encodedMetadata,
+                String contentHash) throws IOException {
+        if (offset < 0 || length < 1 || offset > length) {
+            throw new IngestException(400, "Invalid upload range");
+        }
+        this.store = store;
+        this.length = length;
+        this.file = store.uploadFile(uploadId);
+        this.doneMarker = store.uploadDoneMarker(uploadId);
+        this.metadata = decode(encodedMetadata);
+        this.contentHash = contentHash;
+        this.appId = appId != null ? appId : IngestStore.appIdOf(metadata);
+        // An upload of this length already stored, the client missed the last response.
+        this.done = isDone(doneMarker, length);
+        this.size = file.length();
+        this.conflict = !done && offset != size;
+        if (!done && !conflict) {
+            doneMarker.delete();
+            channel = new FileOutputStream(file, true).getChannel();
+        }
+    }
+
+    @Override
+    public HttpResponse respondEarly() {
+        return null;
+    }
+
+    @Override
+    public void onBody(ByteBuffer data) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        if (size + data.remaining() > length) {
+            throw new IngestException(400, "Chunk past the upload length");
+        }
+        while (data.hasRemaining()) {
+            size += channel.write(data);
+        }
+    }
+
+    @Override
+    public HttpResponse onComplete() throws IOException {
+        if (done) {
+            return offsetResponse(200, length, new JSONObject());
+        }
+        if (conflict) {
+            return offsetResponse(409, size, new JSONObject());
+        }
+        channel.close();
+        channel = null;
+        JSONObject data = new JSONObject();
+        if (size == length) {
+            String id = store.commit(appId, file, metadata, contentHash);
+            writeDone();
+            try {
+                data.put("id", id);
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+        }
+        return offsetResponse(200, size, data);
+    }
+
+    // What was written of the chunk stays, the client learns the stored offset with its next request.
+    @Override
+    public void abort() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    private void writeDone() throws IOException {
+        FileOutputStream output = new FileOutputStream(doneMarker);
+        try {
+            output.write(Long.toString(length).getBytes(UTF_8));
+        } finally {
+            output.close();
+        }
+    }
+
+    private static boolean isDone(File doneMarker, long length) throws IOException {
+        if (!doneMarker.exists()) {
+            return false;
+        }
+        FileInputStream input = new FileInputStream(doneMarker);
+        try {
+            byte[] bytes = new byte[(int) Math.min(doneMarker.length(), 20)];
+            int read = input.read(bytes);
+            return read > 0 && new String(bytes, 0, read, UTF_8).equals(Long.toString(length));
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String decode(String encodedMetadata) throws IngestException {
+        if (encodedMetadata == null) {
+            return "{}";
+        }
+        ByteString decoded = ByteString.decodeBase64(encodedMetadata);
+        if (decoded == null) {
+            throw new IngestException(400, "Invalid " + ChunkedUploader.HEADER_METADATA);
+        }
+        return decoded.string(UTF_8);
+    }
+
+    private static HttpResponse offsetResponse(int status, long offset, JSONObject data) {
+        return HttpResponse.json(status, data).header(ChunkedUploader.HEADER_OFFSET, Long.toString(offset));
+    }
+}
@@ -0,0 +1,165 @@
+package com.trackshoot.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// One selector thread serving its share of the connections. The first loop also accepts and deals the new
+// connections out to all loops in turn. Handlers write to disk on the loop thread, the writes land in the page
+// cache and are shorter than waiting for a hand-off. Connections idle for longer than the timeout are closed, a
+// device that lost its network does not come back for them.
+final class EventLoop implements Runnable {
+
+    private final IngestServer server;
+    private final Selector selector;
+    private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+    // Shared by the loop's connections, the body is handed on before the next read.
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+    private final long idleTimeoutMillis;
+    private EventLoop[] loops;
+    private int nextLoop;
+    private volatile boolean running = true;
+
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+    EventLoop(IngestServer server, long idleTimeoutMillis) throws IOException {
+        this.server = server;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.selector = Selector.open();
+    }
+
+    // Makes this the accepting loop.
+    void accept(ServerSocketChannel serverChannel, EventLoop[] loops) throws IOException {
+        this.loops = loops;
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // Any thread.
+    void add(SocketChannel socketChannel) {
+        accepted.add(socketChannel);
+        selector.wakeup();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                registerAccepted();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        handle(key);
+                    }
+                }
+                closeIdle();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            e.printStackTrace();
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (key.isAcceptable()) {
+            acceptAll((ServerSocketChannel) key.channel());
+            return;
+        }
+        HttpConnection connection = (HttpConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable(readBuffer);
+            } else if (key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException e) {
+            // The client went away.
+            connection.close();
+        }
+    }
+
+    private void acceptAll(ServerSocketChannel serverChannel) {
+        try {
+            SocketChannel socketChannel;
+            while ((socketChannel = serverChannel.accept()) != null) {
+                loops[nextLoop].add(socketChannel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        } catch (IOException e) {
+            // Out of file descriptors, the connection waits in the backlog until the next select.
+            e.printStackTrace();
+        }
+    }
+
+    private void registerAccepted() {
+        SocketChannel socketChannel;
+        while ((socketChannel = accepted.poll()) != null) {
+            try {
+                socketChannel.configureBlocking(false);
+                socketChannel.socket().setTcpNoDelay(true);
+                SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+                key.attach(new HttpConnection(server, socketChannel, key));
+                server.onConnection();
+            } catch (IOException e) {
+                e.printStackTrace();
+                try {
+                    socketChannel.close();
+                } catch (IOException closeException) {
+                    closeException.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void closeIdle() {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof HttpConnection) {
+                HttpConnection connection = (HttpConnection) attachment;
+                if (now - connection.getLastActivityMillis() > idleTimeoutMillis) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof HttpConnection) {
+                ((HttpConnection) attachment).close();
+            }
+        }
+        SocketChannel socketChannel;
+        while ((socketChannel = accepted.poll()) != null) {
+            try {
+                socketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
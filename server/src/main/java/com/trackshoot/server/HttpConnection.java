@@ -0,0 +1,263 @@
+package com.trackshoot.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// One client connection on its event loop: reads a request head, feeds the body to the route's handler as it
+// arrives and writes the response once the body is in, then waits for the next request on the same connection.
+// Bodies need a Content-Length, which every upload the app makes has. The read buffer belongs to the loop, a
+// connection only keeps the head of a request it has not seen all of.
+final class HttpConnection {
+
+    private final IngestServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private byte[] head;
+    private int headLength;
+    private int state = STATE_HEAD;
+    private RequestHandler handler;
+    private IOException failure;
+    private long remaining;
+    private boolean keepAlive;
+    private ByteBuffer response;
+    private long lastActivityMillis;
+
+    private static final int STATE_HEAD = 0;
+    private static final int STATE_BODY = 1;
+    private static final int STATE_WRITING = 2;
+    private static final int MAX_HEAD_BYTES = 16 * 1024;
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final ByteBuffer CONTINUE = ByteBuffer.wrap("HTTP/1.1 100 Continue\r\n\r\n".getBytes(ISO_8859_1));
+
+    HttpConnection(IngestServer server, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        this.lastActivityMillis = System.currentTimeMillis();
+    }
+
+    long getLastActivityMillis() {
+        return lastActivityMillis;
+    }
+
+    void onReadable(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        lastActivityMillis = System.currentTimeMillis();
+        buffer.flip();
+        while (buffer.hasRemaining() && key.isValid()) {
+            if (state == STATE_HEAD) {
+                readHead(buffer);
+            } else if (state == STATE_BODY) {
+                readBody(buffer);
+            } else {
+                // Clients do not pipeline uploads, a request sent before the response came is refused.
+                keepAlive = false;
+                buffer.position(buffer.limit());
+            }
+        }
+    }
+
+    void onWritable() throws IOException {
+        lastActivityMillis = System.currentTimeMillis();
+        channel.write(response);
+        if (!response.hasRemaining()) {
+            finishResponse();
+        }
+    }
+
+    void close() {
+        if (handler != null) {
+            handler.abort();
+            handler = null;
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readHead(ByteBuffer buffer) throws IOException {
+        if (head == null) {
+            head = new byte[MAX_HEAD_BYTES];
+        }
+        while (buffer.hasRemaining()) {
+            if (headLength == head.length) {
+                keepAlive = false;
+                respond(HttpResponse.error(431, "Request head too large"));
+                return;
+            }
+            byte b = buffer.get();
+            head[headLength++] = b;
+            if (b == '\n' && headLength >= 4 && head[headLength - 2] == '\r' && head[headLength - 3] == '\n'
+                    && head[headLength - 4] == '\r') {
+                String text = new String(head, 0, headLength - 4, ISO_8859_1);
+                head = null;
+                headLength = 0;
+                startRequest(text);
+                return;
+            }
+        }
+    }
+
+    private void startRequest(String text) throws IOException {
+        String[] lines = text.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            keepAlive = false;
+            respond(HttpResponse.error(400, "Malformed request line"));
+            return;
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+                headers.put(name, lines[i].substring(colon + 1).trim());
+            }
+        }
+        String connection = headers.get("connection");
+        keepAlive = requestLine[2].equals("HTTP/1.1") ? !"close".equalsIgnoreCase(connection)
+                : "keep-alive".equalsIgnoreCase(connection);
+
+        if (headers.containsKey("transfer-encoding")) {
+            keepAlive = false;
+            respond(HttpResponse.error(411, "Content-Length required"));
+            return;
+        }
+        long contentLength;
+        try {
+            String value = headers.get("content-length");
+            contentLength = value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            contentLength = -1;
+        }
+        if (contentLength < 0) {
+            keepAlive = false;
+            respond(HttpResponse.error(400, "Invalid Content-Length"));
+            return;
+        }
+        if (contentLength > server.getMaxBodyBytes()) {
+            keepAlive = false;
+            respond(HttpResponse.error(413, "Body larger than " + server.getMaxBodyBytes() + " bytes"));
+            return;
+        }
+
+        failure = null;
+        try {
+            handler = server.route(requestLine[0], requestLine[1], headers);
+        } catch (IOException e) {
+            failure = e;
+        }
+        remaining = contentLength;
+        state = STATE_BODY;
+        if (remaining == 0) {
+            completeRequest();
+        } else if ("100-continue".equalsIgnoreCase(headers.get("expect"))) {
+            HttpResponse early = null;
+            if (handler != null) {
+                try {
+                    early = handler.respondEarly();
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                }
+            }
+            if (early != null || failure != null) {
+                // Not worth sending, answer before it comes and drop the connection.
+                keepAlive = false;
+                if (early != null) {
+                    handler = null;
+                    respond(early);
+                } else {
+                    completeRequest();
+                }
+            } else {
+                channel.write(CONTINUE.duplicate());
+            }
+        }
+    }
+
+    // A handler that failed is dropped, the rest of the body is read and discarded so the connection can be reused.
+    private void readBody(ByteBuffer buffer) throws IOException {
+        int take = (int) Math.min(remaining, buffer.remaining());
+        if (handler != null) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(buffer.position() + take);
+            try {
+                handler.onBody(slice);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+        buffer.position(buffer.position() + take);
+        remaining -= take;
+        if (remaining == 0) {
+            completeRequest();
+        }
+    }
+
+    private void completeRequest() throws IOException {
+        HttpResponse httpResponse = null;
+        if (handler != null) {
+            try {
+                httpResponse = handler.onComplete();
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+            handler = null;
+        }
+        if (httpResponse == null) {
+            httpResponse = errorResponse(failure);
+        }
+        failure = null;
+        respond(httpResponse);
+    }
+
+    private void fail(Exception e) {
+        failure = e instanceof IOException ? (IOException) e : new IOException(e);
+        handler.abort();
+        handler = null;
+    }
+
+    private static HttpResponse errorResponse(IOException failure) {
+        if (failure instanceof IngestException) {
+            return HttpResponse.error(((IngestException) failure).status, failure.getMessage());
+        }
+        failure.printStackTrace();
+        return HttpResponse.error(500, "Internal error");
+    }
+
+    private void respond(HttpResponse httpResponse) throws IOException {
+        server.onResponse(httpResponse.status);
+        state = STATE_WRITING;
+        response = httpResponse.encode(keepAlive);
+        channel.write(response);
+        if (response.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            finishResponse();
+        }
+    }
+
+    private void finishResponse() {
+        response = null;
+        if (!keepAlive) {
+            close();
+            return;
+        }
+        state = STATE_HEAD;
+        key.interestOps(SelectionKey.OP_READ);
+    }
+}
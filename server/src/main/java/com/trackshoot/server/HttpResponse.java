@@ -0,0 +1,99 @@
+package com.trackshoot.server;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class HttpResponse {
+
+    final int status;
+    final byte[] body;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    HttpResponse(int status, byte[] body) {
+        this.status = status;
+        this.body = body;
+    }
+
+    // Imgur's envelope, {"data":...,"success":...,"status":...}, so a client can treat both servers alike.
+    static HttpResponse json(int status, JSONObject data) {
+        JSONObject envelope = new JSONObject();
+        try {
+            envelope.put("data", data).put("success", status < 300).put("status", status);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return new HttpResponse(status, envelope.toString().getBytes(UTF_8))
+                .header("Content-Type", "application/json; charset=utf-8");
+    }
+
+    static HttpResponse error(int status, String message) {
+        JSONObject data = new JSONObject();
+        try {
+            data.put("error", message);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return json(status, data);
+    }
+
+    HttpResponse header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    ByteBuffer encode(boolean keepAlive) {
+        StringBuilder head = new StringBuilder(128)
+                .append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n")
+                .append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        byte[] headBytes = head.toString().getBytes(ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + body.length);
+        buffer.put(headBytes).put(body).flip();
+        return buffer;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 201:
+                return "Created";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 408:
+                return "Request Timeout";
+            case 409:
+                return "Conflict";
+            case 411:
+                return "Length Required";
+            case 413:
+                return "Payload Too Large";
+            case 415:
+                return "Unsupported Media Type";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+}
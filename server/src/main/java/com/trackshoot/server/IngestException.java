@@ -0,0 +1,16 @@
+package com.trackshoot.server;
+
+import java.io.IOException;
+
+// A request the server refuses, answered with the status instead of a 500.
+final class IngestException extends IOException {
+
+    final int status;
+
+    private static final long serialVersionUID = 1L;
+
+    IngestException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+}
@@ -0,0 +1,281 @@
+package com.trackshoot.server;
+
+import com.trackshoot.ChunkedUploader;
+import com.trackshoot.ShotRequestFactory;
+import com.trackshoot.UploadConfig;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A self-hosted stand-in for Imgur: takes the app's uploads, single shots, batches and chunked uploads, on the
+// routes of UploadConfig.setServer and keeps them with their metadata in an IngestStore. Non-blocking sockets on a
+// few event loops serve many devices at once without a thread each.
+//
+// IngestServer [--port 8080] [--root directory] [--loops n] [--max-body-mb n] [--idle-timeout s]
+//
+// GET /stats answers with the counters as JSON. A shot posted with the Idempotency-Key of one stored before is
+// answered with that shot's id and not read, before the body is sent when the client waits for 100 Continue.
+public final class IngestServer {
+
+    private final IngestStore store;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final Thread[] threads;
+    private final long maxBodyBytes;
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final long DEFAULT_MAX_BODY_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60 * 1000;
+    private static final int BACKLOG = 1024;
+
+    public IngestServer(File root, InetSocketAddress address, int loopCount, long maxBodyBytes,
+                        long idleTimeoutMillis) throws IOException {
+        if (loopCount < 1) {
+            throw new IllegalArgumentException("At least one event loop");
+        }
+        this.store = new IngestStore(root);
+        this.maxBodyBytes = maxBodyBytes;
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(this, idleTimeoutMillis);
+        }
+        this.threads = new Thread[loopCount];
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(address, BACKLOG);
+        loops[0].accept(serverChannel, loops);
+    }
+
+    public void start() {
+        for (int i = 0; i < loops.length; i++) {
+            threads[i] = new Thread(loops[i], "ingest-" + i);
+            threads[i].start();
+        }
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void stop() throws IOException, InterruptedException {
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+        for (Thread thread : threads) {
+            if (thread != null) {
+                thread.join();
+            }
+        }
+        serverChannel.close();
+        store.close();
+    }
+
+    public long getShotCount() {
+        return store.getShotCount();
+    }
+
+    long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    void onConnection() {
+        connections.incrementAndGet();
+    }
+
+    void onResponse(int status) {
+        requests.incrementAndGet();
+        if (status >= 400) {
+            errors.incrementAndGet();
+        }
+    }
+
+    // Event loop thread.
+    RequestHandler route(String method, String target, Map<String, String> headers) throws IOException {
+        int query = target.indexOf('?');
+        String path = query >= 0 ? target.substring(0, query) : target;
+        if (path.equals(UploadConfig.SERVER_SHOTS_PATH) || path.equals(UploadConfig.SERVER_BATCH_PATH)) {
+            requireMethod(method, "POST");
+            if (path.equals(UploadConfig.SERVER_SHOTS_PATH)) {
+                String contentHash = header(headers, ShotRequestFactory.HEADER_IDEMPOTENCY_KEY);
+                String id = contentHash != null ? store.findShot(contentHash) : null;
+                if (id != null) {
+                    store.countDuplicate();
+                    return new DuplicateShot(id);
+                }
+            }
+            String boundary = MultipartParser.boundary(headers.get("content-type"));
+            if (boundary == null) {
+                throw new IngestException(415, "multipart/form-data required");
+            }
+            return new MultipartUpload(store, boundary, path.equals(UploadConfig.SERVER_BATCH_PATH));
+        }
+        if (path.startsWith(UploadConfig.SERVER_CHUNKS_PATH + "/")) {
+            requireMethod(method, "PUT");
+            String uploadId = decodePath(path.substring(UploadConfig.SERVER_CHUNKS_PATH.length() + 1));
+            long offset;
+            long length;
+            try {
+                offset = Long.parseLong(header(headers, ChunkedUploader.HEADER_OFFSET));
+                length = Long.parseLong(header(headers, ChunkedUploader.HEADER_LENGTH));
+            } catch (NumberFormatException e) {
+                throw new IngestException(400, "Upload-Offset and Upload-Length required");
+            }
+            return new ChunkUpload(store, uploadId, offset, length, header(headers, ChunkedUploader.HEADER_APP_ID),
+                    header(headers, ChunkedUploader.HEADER_METADATA),
+                    header(headers, ShotRequestFactory.HEADER_IDEMPOTENCY_KEY));
+        }
+        if (path.equals("/stats")) {
+            requireMethod(method, "GET");
+            return new StatsHandler();
+        }
+        throw new IngestException(404, "No route " + path);
+    }
+
+    private static void requireMethod(String method, String expected) throws IngestException {
+        if (!method.equals(expected)) {
+            throw new IngestException(405, expected + " only");
+        }
+    }
+
+    // The connection keeps header names in lower case.
+    private static String header(Map<String, String> headers, String name) {
+        return headers.get(name.toLowerCase(Locale.US));
+    }
+
+    private static String decodePath(String segment) throws IngestException {
+        try {
+            return URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8");
+        } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+            throw new IngestException(400, "Invalid path " + segment);
+        }
+    }
+
+    private final class StatsHandler implements RequestHandler {
+
+        @Override
+        public HttpResponse respondEarly() {
+            return null;
+        }
+
+        @Override
+        public void onBody(ByteBuffer data) {
+        }
+
+        @Override
+        public HttpResponse onComplete() throws IOException {
+            try {
+                return HttpResponse.json(200, new JSONObject()
+                        .put("shots", store.getShotCount())
+                        .put("image_bytes", store.getImageBytes())
+                        .put("duplicates", store.getDuplicateCount())
+                        .put("apps", store.getAppCount())
+                        .put("connections", connections.get())
+                        .put("requests", requests.get())
+                        .put("errors", errors.get()));
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+
+    // A shot that is stored already, its body is discarded.
+    private static final class DuplicateShot implements RequestHandler {
+
+        private final String id;
+
+        DuplicateShot(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public HttpResponse respondEarly() throws IOException {
+            return onComplete();
+        }
+
+        @Override
+        public void onBody(ByteBuffer data) {
+        }
+
+        @Override
+        public HttpResponse onComplete() throws IOException {
+            try {
+                return HttpResponse.json(200, new JSONObject().put("id", id).put("duplicate", true));
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length % 2 != 0) {
+            System.err.println("Usage: IngestServer [--option value]...");
+            System.exit(2);
+        }
+        int port = DEFAULT_PORT;
+        File root = new File("ingest");
+        int loopCount = Runtime.getRuntime().availableProcessors();
+        long maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+        long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--root":
+                    root = new File(value);
+                    break;
+                case "--loops":
+                    loopCount = Integer.parseInt(value);
+                    break;
+                case "--max-body-mb":
+                    maxBodyBytes = Long.parseLong(value) * 1024 * 1024;
+                    break;
+                case "--idle-timeout":
+                    idleTimeoutMillis = Long.parseLong(value) * 1000;
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        final IngestServer server = new IngestServer(root, new InetSocketAddress(port), loopCount, maxBodyBytes,
+                idleTimeoutMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.stop();
+                } catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        server.start();
+        System.out.println("Ingesting into " + root.getAbsolutePath() + " on port " + server.getPort() + " with "
+                + loopCount + " event loops");
+    }
+}
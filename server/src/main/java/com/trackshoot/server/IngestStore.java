@@ -0,0 +1,219 @@
+package com.trackshoot.server;
+
+import com.trackshoot.ShotRecord;
+import com.trackshoot.ShotRecordEncoder;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Where the server keeps what it receives. Uploads are written to files under incoming/ and only moved into their
+// app's directory under apps/, and its index, once they are complete, so a shot is either fully stored or not at
+// all. Safe to use from every event loop. The ids of the last shots stored are remembered by their images' content
+// hashes, filled from the indexes at startup, so a shot a device sends again after losing the response is answered
+// with the first copy's id instead of being stored twice.
+final class IngestStore implements Closeable {
+
+    private final File incoming;
+    private final File apps;
+    private final Map<String, AppIndex> indexes = new HashMap<>();
+    private final AtomicLong incomingCounter = new AtomicLong();
+    private final AtomicLong shotCount = new AtomicLong();
+    private final AtomicLong imageBytes = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    // Guarded by itself.
+    private final Map<String, String> shotsByHash = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_REMEMBERED_HASHES;
+        }
+    };
+
+    static final String INCOMING = "incoming";
+    static final String APPS = "apps";
+    private static final String PART_SUFFIX = ".part";
+    private static final String UPLOAD_SUFFIX = ".upload";
+    private static final String DONE_SUFFIX = ".done";
+    private static final String UNKNOWN_APP_ID = "unknown";
+    private static final int MAX_UPLOAD_ID_LENGTH = 200;
+    private static final String KEY_APP_ID = "app_id";
+    private static final int MAX_REMEMBERED_HASHES = 100000;
+
+    IngestStore(File root) throws IOException {
+        this.incoming = new File(root, INCOMING);
+        this.apps = new File(root, APPS);
+        if (!incoming.isDirectory() && !incoming.mkdirs()) {
+            throw new IOException("Cannot create " + incoming);
+        }
+        // Parts of requests that never completed. Chunked uploads stay, their clients resume them.
+        File[] files = incoming.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(PART_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+        rememberHashes();
+    }
+
+    // A new file for a part being received.
+    File newIncomingFile() {
+        return new File(incoming, System.nanoTime() + "-" + incomingCounter.incrementAndGet() + PART_SUFFIX);
+    }
+
+    // The file a chunked upload is assembled in, it grows across requests.
+    File uploadFile(String uploadId) throws IngestException {
+        return new File(incoming, uploadName(uploadId) + UPLOAD_SUFFIX);
+    }
+
+    // Set once a chunked upload is stored, so a client that lost the last response is told it is done instead of
+    // starting over.
+    File uploadDoneMarker(String uploadId) throws IngestException {
+        return new File(incoming, uploadName(uploadId) + DONE_SUFFIX);
+    }
+
+    // Moves a complete image into its app's directory and indexes it with its metadata. Returns the shot's id. Shots
+    // without an app id are kept as unknown. An image with the content hash of one stored before is deleted and the
+    // earlier shot's id returned.
+    String commit(String appId, File image, String metadata, String contentHash) throws IOException {
+        if (appId == null || appId.isEmpty()) {
+            appId = UNKNOWN_APP_ID;
+        }
+        if (contentHash == null) {
+            return add(appId, image, metadata, null);
+        }
+        // Held across the add, two copies arriving at once on different loops are stored once.
+        synchronized (shotsByHash) {
+            String id = shotsByHash.get(contentHash);
+            if (id != null) {
+                image.delete();
+                duplicateCount.incrementAndGet();
+                return id;
+            }
+            id = add(appId, image, metadata, contentHash);
+            shotsByHash.put(contentHash, id);
+            return id;
+        }
+    }
+
+    // The id of the shot stored with the content hash, null if none is remembered.
+    String findShot(String contentHash) {
+        synchronized (shotsByHash) {
+            return shotsByHash.get(contentHash);
+        }
+    }
+
+    // A shot that was not stored because it was stored before.
+    void countDuplicate() {
+        duplicateCount.incrementAndGet();
+    }
+
+    // The keys of the app's strings.
+    static ShotRecordEncoder newEncoder() {
+        return new ShotRecordEncoder(KEY_APP_ID, "rate", "gps", "datetime", "timestamp", "orientation", "m");
+    }
+
+    // The app id the metadata names, null if it names none.
+    static String appIdOf(String metadata) {
+        try {
+            return new JSONObject(metadata).optString(KEY_APP_ID, null);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    // Reads the binary ShotRecord at the offset and returns the offset after it.
+    static int readRecord(byte[] data, int offset, ShotRecord record) throws IngestException {
+        try {
+            return ShotRecordEncoder.readBinary(data, offset, record);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IngestException(400, "Invalid shot record");
+        }
+    }
+
+    long getShotCount() {
+        return shotCount.get();
+    }
+
+    long getImageBytes() {
+        return imageBytes.get();
+    }
+
+    long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    synchronized int getAppCount() {
+        return indexes.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (AppIndex index : indexes.values()) {
+            index.close();
+        }
+        indexes.clear();
+    }
+
+    private String add(String appId, File image, String metadata, String contentHash) throws IOException {
+        long bytes = image.length();
+        AppIndex index = index(appId);
+        AppIndex.Entry entry = index.add(image, metadata, contentHash, System.currentTimeMillis());
+        shotCount.incrementAndGet();
+        imageBytes.addAndGet(bytes);
+        return index.getDirectory().getName() + "/" + entry.sequence;
+    }
+
+    private void rememberHashes() throws IOException {
+        File[] directories = apps.listFiles();
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            File indexFile = new File(directory, AppIndex.INDEX_NAME);
+            if (!indexFile.isFile()) {
+                continue;
+            }
+            for (AppIndex.Entry entry : AppIndex.read(indexFile)) {
+                if (entry.contentHash != null) {
+                    shotsByHash.put(entry.contentHash, directory.getName() + "/" + entry.sequence);
+                }
+            }
+        }
+    }
+
+    private synchronized AppIndex index(String appId) throws IOException {
+        AppIndex index = indexes.get(appId);
+        if (index == null) {
+            index = new AppIndex(new File(apps, fileName(appId)));
+            indexes.put(appId, index);
+        }
+        return index;
+    }
+
+    private static String uploadName(String uploadId) throws IngestException {
+        if (uploadId.isEmpty() || uploadId.length() > MAX_UPLOAD_ID_LENGTH) {
+            throw new IngestException(400, "Invalid upload id");
+        }
+        return fileName(uploadId);
+    }
+
+    // An id made safe as a file name, . is escaped too so no id names a directory or its parent.
+    private static String fileName(String id) {
+        try {
+            return URLEncoder.encode(id, "UTF-8").replace(".", "%2E");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
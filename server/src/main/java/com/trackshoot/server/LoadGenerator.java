@@ -0,0 +1,235 @@
+package com.trackshoot.server;
+
+import com.trackshoot.LatencyHistogram;
+import com.trackshoot.PendingShot;
+import com.trackshoot.ShotRecord;
+import com.trackshoot.ShotRecordEncoder;
+import com.trackshoot.ShotRequestFactory;
+import com.trackshoot.UploadConfig;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Simulated devices uploading shots back to back with the app's request factory, each on its own keep-alive
+// connection, for a fixed time. Reports the sustained shots per second and the upload latency. Without --server an
+// embedded server in a temporary directory takes the load.
+//
+// LoadGenerator [--server http://host:port] [--devices n] [--seconds s] [--image-kb n] [--batch n]
+//               [--loops n] [--report json file]
+public final class LoadGenerator {
+
+    private final UploadConfig uploadConfig;
+    private final OkHttpClient okHttpClient;
+    private final File image;
+    private final int batchSize;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong shots = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long deadlineNanos;
+
+    private static final int DEFAULT_DEVICES = 50;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int DEFAULT_IMAGE_KB = 200;
+    private static final int RATE = 50;
+
+    private LoadGenerator(UploadConfig uploadConfig, int devices, File image, int batchSize) {
+        this.uploadConfig = uploadConfig;
+        this.okHttpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(devices, 5, TimeUnit.MINUTES))
+                .readTimeout(60, TimeUnit.SECONDS)
+                .writeTimeout(60, TimeUnit.SECONDS)
+                .build();
+        this.image = image;
+        this.batchSize = batchSize;
+    }
+
+    private void runDevice(int device) {
+        ShotRequestFactory shotRequestFactory = new ShotRequestFactory(uploadConfig);
+        ShotRecordEncoder encoder = IngestStore.newEncoder();
+        ShotRecord shotRecord = new ShotRecord();
+        Random random = new Random(device);
+        String appId = "load-" + device;
+        float[] orientation = new float[3];
+        long id = 0;
+        while (System.nanoTime() < deadlineNanos) {
+            List<PendingShot> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                shotRecord.set(appId, RATE, 45 + random.nextDouble(), 9 + random.nextDouble(),
+                        System.currentTimeMillis(), orientation);
+                PendingShot pendingShot = new PendingShot(id++, image, appId, encoder.toJson(shotRecord), 0);
+                pendingShot.record = encoder.toBinary(shotRecord);
+                batch.add(pendingShot);
+            }
+            Request request = batchSize > 1 ? shotRequestFactory.newBatchRequest(batch)
+                    : shotRequestFactory.newShotRequest(batch.get(0));
+            long startNanos = System.nanoTime();
+            try {
+                Response response = okHttpClient.newCall(request).execute();
+                try {
+                    if (response.isSuccessful()) {
+                        shots.addAndGet(batchSize);
+                        latency.record(System.nanoTime() - startNanos);
+                    } else {
+                        failures.incrementAndGet();
+                    }
+                } finally {
+                    response.close();
+                }
+            } catch (IOException e) {
+                failures.incrementAndGet();
+            }
+        }
+    }
+
+    private JSONObject run(int devices, int seconds) throws Exception {
+        deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long startNanos = System.nanoTime();
+        Thread[] threads = new Thread[devices];
+        for (int i = 0; i < devices; i++) {
+            final int device = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runDevice(device);
+                }
+            }, "device-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+        double shotsPerSecond = shots.get() / wallSeconds;
+        return new JSONObject()
+                .put("devices", devices)
+                .put("batch_size", batchSize)
+                .put("image_bytes", image.length())
+                .put("wall_s", wallSeconds)
+                .put("shots", shots.get())
+                .put("failures", failures.get())
+                .put("shots_per_s", shotsPerSecond)
+                .put("megabytes_per_s", shotsPerSecond * image.length() / (1024 * 1024))
+                .put("latency_ms", new JSONObject()
+                        .put("p50", latency.getQuantileMillis(0.5))
+                        .put("p90", latency.getQuantileMillis(0.9))
+                        .put("p99", latency.getQuantileMillis(0.99))
+                        .put("max", latency.getMaxNanos() / 1e6));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length % 2 != 0) {
+            System.err.println("Usage: LoadGenerator [--option value]...");
+            System.exit(2);
+        }
+        String serverUrl = null;
+        int devices = DEFAULT_DEVICES;
+        int seconds = DEFAULT_SECONDS;
+        int imageKilobytes = DEFAULT_IMAGE_KB;
+        int batchSize = 1;
+        int loopCount = Runtime.getRuntime().availableProcessors();
+        File reportFile = null;
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--server":
+                    serverUrl = value;
+                    break;
+                case "--devices":
+                    devices = Integer.parseInt(value);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(value);
+                    break;
+                case "--image-kb":
+                    imageKilobytes = Integer.parseInt(value);
+                    break;
+                case "--batch":
+                    batchSize = Integer.parseInt(value);
+                    break;
+                case "--loops":
+                    loopCount = Integer.parseInt(value);
+                    break;
+                case "--report":
+                    reportFile = new File(value);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        File workDirectory = File.createTempFile("loadtest", "");
+        workDirectory.delete();
+        workDirectory.mkdirs();
+        File image = new File(workDirectory, "shot.jpg");
+        byte[] bytes = new byte[imageKilobytes * 1024];
+        new Random(0).nextBytes(bytes);
+        FileOutputStream output = new FileOutputStream(image);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+
+        IngestServer server = null;
+        if (serverUrl == null) {
+            server = new IngestServer(new File(workDirectory, "ingest"), new InetSocketAddress("127.0.0.1", 0),
+                    loopCount, IngestServer.DEFAULT_MAX_BODY_BYTES, IngestServer.DEFAULT_IDLE_TIMEOUT_MILLIS);
+            server.start();
+            serverUrl = "http://127.0.0.1:" + server.getPort();
+        }
+        JSONObject report;
+        try {
+            report = new LoadGenerator(new UploadConfig().setServer(serverUrl), devices, image, batchSize)
+                    .run(devices, seconds);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            delete(workDirectory);
+        }
+
+        System.out.println(String.format(Locale.US, "%d devices, %d shots in %.1f s, %d failed: %.1f shots/s, "
+                        + "%.1f MB/s, latency p50 %d ms, p99 %d ms", devices, report.getLong("shots"),
+                report.getDouble("wall_s"), report.getLong("failures"), report.getDouble("shots_per_s"),
+                report.getDouble("megabytes_per_s"), report.getJSONObject("latency_ms").getLong("p50"),
+                report.getJSONObject("latency_ms").getLong("p99")));
+        if (reportFile != null) {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+            try {
+                writer.write(report.toString(2));
+            } finally {
+                writer.close();
+            }
+        }
+        // okhttp's connection pool threads would keep the JVM alive for their keep-alive time.
+        System.exit(report.getLong("failures") > 0 ? 1 : 0);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
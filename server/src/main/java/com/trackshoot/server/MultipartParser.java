@@ -0,0 +1,212 @@
+package com.trackshoot.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Splits a multipart/form-data body into its parts as the bytes arrive. Part data is handed on as slices of the
+// buffer it arrived in, so a file part goes to disk straight from the socket's buffer. Nothing is held back but a
+// part's headers and the bytes that might start a delimiter at the end of a buffer.
+final class MultipartParser {
+
+    interface Listener {
+        // The filename is null for a plain field.
+        void onPartStart(String name, String filename) throws IOException;
+
+        // The data is only valid during the call.
+        void onPartData(ByteBuffer data) throws IOException;
+
+        void onPartEnd() throws IOException;
+    }
+
+    private final Listener listener;
+    // CRLF--boundary, the body's first delimiter lacks the CRLF and is matched as if one came before it.
+    private final byte[] delimiter;
+    private final int[] fallback;
+    private final byte[] headers = new byte[MAX_HEADER_BYTES];
+    private int headerLength;
+    private int state = STATE_PREAMBLE;
+    // Delimiter bytes matched so far, the first held of them came in an earlier buffer and were not passed on.
+    private int matched;
+    private int held;
+    private int trailerLength;
+    private byte trailerFirst;
+
+    private static final int STATE_PREAMBLE = 0;
+    private static final int STATE_TRAILER = 1;
+    private static final int STATE_HEADERS = 2;
+    private static final int STATE_DATA = 3;
+    private static final int STATE_DONE = 4;
+    private static final int MAX_HEADER_BYTES = 8 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern BOUNDARY = Pattern.compile(";\\s*boundary=(\"([^\"]+)\"|[^;\\s]+)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern NAME = Pattern.compile(";\\s*name=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FILENAME = Pattern.compile(";\\s*filename=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+
+    MultipartParser(String boundary, Listener listener) {
+        this.listener = listener;
+        this.delimiter = ("\r\n--" + boundary).getBytes(UTF_8);
+        // The usual substring search table, how much of a match survives a mismatch.
+        this.fallback = new int[delimiter.length];
+        for (int i = 1, length = 0; i < delimiter.length; i++) {
+            while (length > 0 && delimiter[i] != delimiter[length]) {
+                length = fallback[length - 1];
+            }
+            if (delimiter[i] == delimiter[length]) {
+                length++;
+            }
+            fallback[i] = length;
+        }
+        this.matched = 2;
+        this.held = 2;
+    }
+
+    // The boundary of a multipart/form-data content type, null for anything else.
+    static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.US).startsWith("multipart/form-data")) {
+            return null;
+        }
+        Matcher matcher = BOUNDARY.matcher(contentType);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(2) != null ? matcher.group(2) : matcher.group(1);
+    }
+
+    void parse(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            switch (state) {
+                case STATE_PREAMBLE:
+                case STATE_DATA:
+                    scan(data);
+                    break;
+                case STATE_TRAILER:
+                    readTrailer(data.get());
+                    break;
+                case STATE_HEADERS:
+                    readHeader(data.get());
+                    break;
+                default:
+                    // The epilogue.
+                    data.position(data.limit());
+            }
+        }
+    }
+
+    // Throws unless the closing delimiter came.
+    void finish() throws IOException {
+        if (state != STATE_DONE) {
+            throw new IngestException(400, "Truncated multipart body");
+        }
+    }
+
+    // Looks for the delimiter, passing what is certainly not part of it on as data when inside a part.
+    private void scan(ByteBuffer data) throws IOException {
+        boolean inPart = state == STATE_DATA;
+        int start = data.position();
+        int limit = data.limit();
+        for (int i = start; i < limit; i++) {
+            byte b = data.get(i);
+            while (matched > 0 && b != delimiter[matched]) {
+                int shorter = fallback[matched - 1];
+                releaseHeld(matched - shorter, inPart);
+                matched = shorter;
+            }
+            if (b == delimiter[matched]) {
+                matched++;
+            }
+            if (matched == delimiter.length) {
+                if (inPart) {
+                    emit(data, start, i + 1 - (matched - held));
+                    listener.onPartEnd();
+                }
+                matched = 0;
+                held = 0;
+                trailerLength = 0;
+                state = STATE_TRAILER;
+                data.position(i + 1);
+                return;
+            }
+        }
+        if (inPart) {
+            emit(data, start, limit - (matched - held));
+        }
+        held = matched;
+        data.position(limit);
+    }
+
+    // The front of a failed match is data after all. The held bytes come first, they are the delimiter's own.
+    private void releaseHeld(int count, boolean inPart) throws IOException {
+        int released = Math.min(count, held);
+        if (released > 0) {
+            if (inPart) {
+                listener.onPartData(ByteBuffer.wrap(delimiter, 0, released));
+            }
+            held -= released;
+        }
+    }
+
+    private void emit(ByteBuffer data, int from, int to) throws IOException {
+        if (to > from) {
+            ByteBuffer slice = data.duplicate();
+            slice.limit(to).position(from);
+            listener.onPartData(slice);
+        }
+    }
+
+    // CRLF after a delimiter starts a part, -- ends the body.
+    private void readTrailer(byte b) throws IOException {
+        if (trailerLength == 0) {
+            trailerFirst = b;
+            trailerLength = 1;
+            return;
+        }
+        if (trailerFirst == '\r' && b == '\n') {
+            headerLength = 0;
+            state = STATE_HEADERS;
+        } else if (trailerFirst == '-' && b == '-') {
+            state = STATE_DONE;
+        } else {
+            throw new IngestException(400, "Malformed multipart delimiter");
+        }
+    }
+
+    private void readHeader(byte b) throws IOException {
+        if (headerLength == headers.length) {
+            throw new IngestException(400, "Multipart headers too large");
+        }
+        headers[headerLength++] = b;
+        if (headerLength >= 2 && headers[headerLength - 2] == '\r' && b == '\n') {
+            if (headerLength == 2) {
+                throw new IngestException(400, "Multipart part without a content disposition");
+            }
+            if (headerLength >= 4 && headers[headerLength - 4] == '\r' && headers[headerLength - 3] == '\n') {
+                startPart();
+            }
+        }
+    }
+
+    private void startPart() throws IOException {
+        String name = null;
+        String filename = null;
+        for (String line : new String(headers, 0, headerLength - 4, UTF_8).split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Disposition")) {
+                String disposition = line.substring(colon + 1);
+                Matcher nameMatcher = NAME.matcher(disposition);
+                name = nameMatcher.find() ? nameMatcher.group(1) : null;
+                Matcher filenameMatcher = FILENAME.matcher(disposition);
+                filename = filenameMatcher.find() ? filenameMatcher.group(1) : null;
+            }
+        }
+        if (name == null) {
+            throw new IngestException(400, "Multipart part without a name");
+        }
+        state = STATE_DATA;
+        listener.onPartStart(name, filename);
+    }
+}
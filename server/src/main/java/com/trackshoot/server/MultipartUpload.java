@@ -0,0 +1,246 @@
+package com.trackshoot.server;
+
+import com.trackshoot.ShotRecord;
+import com.trackshoot.ShotRecordEncoder;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okio.ByteString;
+
+// A shot, or a batch of shots, posted as multipart/form-data the way ShotRequestFactory builds them. File parts are
+// written to incoming files as they arrive, the other fields are small and kept in memory. The shots are committed
+// once the whole body is in, a batch only when every shot in it is complete. Images are hashed as they are written,
+// a copy of one stored before is not stored again.
+final class MultipartUpload implements RequestHandler, MultipartParser.Listener {
+
+    private final IngestStore store;
+    private final boolean batch;
+    private final MultipartParser parser;
+    private final Map<String, File> files = new HashMap<>();
+    private final Map<String, byte[]> fields = new HashMap<>();
+    private final Map<String, String> hashes = new HashMap<>();
+    private String partName;
+    private FileChannel partChannel;
+    private MessageDigest partDigest;
+    private ByteArrayOutputStream partField;
+    private int fieldBytes;
+    private byte[] copyBuffer;
+
+    private static final int MAX_FIELD_BYTES = 256 * 1024;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    MultipartUpload(IngestStore store, String boundary, boolean batch) {
+        this.store = store;
+        this.batch = batch;
+        this.parser = new MultipartParser(boundary, this);
+    }
+
+    @Override
+    public HttpResponse respondEarly() {
+        return null;
+    }
+
+    @Override
+    public void onBody(ByteBuffer data) throws IOException {
+        parser.parse(data);
+    }
+
+    @Override
+    public HttpResponse onComplete() throws IOException {
+        parser.finish();
+        JSONObject data = new JSONObject();
+        try {
+            if (batch) {
+                JSONArray ids = new JSONArray();
+                for (String id : commitBatch()) {
+                    ids.put(id);
+                }
+                data.put("ids", ids);
+            } else {
+                data.put("id", commitShot());
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        } finally {
+            // Parts nobody asked for.
+            abort();
+        }
+        return HttpResponse.json(200, data);
+    }
+
+    @Override
+    public void abort() {
+        closePart();
+        for (File file : files.values()) {
+            file.delete();
+        }
+        files.clear();
+    }
+
+    @Override
+    public void onPartStart(String name, String filename) throws IOException {
+        partName = name;
+        if (filename != null) {
+            File file = store.newIncomingFile();
+            File previous = files.put(name, file);
+            if (previous != null) {
+                previous.delete();
+            }
+            partChannel = new FileOutputStream(file).getChannel();
+            partDigest = newDigest();
+        } else {
+            partField = new ByteArrayOutputStream();
+        }
+    }
+
+    @Override
+    public void onPartData(ByteBuffer data) throws IOException {
+        if (partChannel != null) {
+            partDigest.update(data.duplicate());
+            while (data.hasRemaining()) {
+                partChannel.write(data);
+            }
+            return;
+        }
+        fieldBytes += data.remaining();
+        if (fieldBytes > MAX_FIELD_BYTES) {
+            throw new IngestException(413, "Fields too large");
+        }
+        if (data.hasArray()) {
+            partField.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            if (copyBuffer == null || copyBuffer.length < data.remaining()) {
+                copyBuffer = new byte[Math.max(data.remaining(), 4096)];
+            }
+            int length = data.remaining();
+            data.get(copyBuffer, 0, length);
+            partField.write(copyBuffer, 0, length);
+        }
+    }
+
+    @Override
+    public void onPartEnd() throws IOException {
+        if (partChannel != null) {
+            partChannel.close();
+            partChannel = null;
+            hashes.put(partName, ByteString.of(partDigest.digest()).hex());
+            partDigest = null;
+        } else {
+            fields.put(partName, partField.toByteArray());
+            partField = null;
+        }
+    }
+
+    // image, with metadata as JSON, as a binary record or, from older clients, only the app id as description.
+    private String commitShot() throws IOException {
+        File image = files.remove("image");
+        if (image == null) {
+            throw new IngestException(400, "No image");
+        }
+        String appId = field("description");
+        String metadata = field("metadata");
+        byte[] record = fields.get("record");
+        if (metadata == null && record != null) {
+            ShotRecord shotRecord = new ShotRecord();
+            IngestStore.readRecord(record, 0, shotRecord);
+            metadata = IngestStore.newEncoder().toJson(shotRecord);
+            appId = shotRecord.appId;
+        } else if (metadata != null && IngestStore.appIdOf(metadata) != null) {
+            appId = IngestStore.appIdOf(metadata);
+        }
+        if (metadata == null) {
+            metadata = "{}";
+        }
+        return store.commit(appId, image, metadata, hashes.get("image"));
+    }
+
+    // count, then image_<n> with metadata_<n> per shot, or one records part of the shots' binary records in order.
+    private List<String> commitBatch() throws IOException {
+        int count;
+        try {
+            count = Integer.parseInt(field("count"));
+        } catch (NumberFormatException e) {
+            throw new IngestException(400, "No count");
+        }
+        if (count < 1 || count > MAX_BATCH_SIZE) {
+            throw new IngestException(400, "Invalid count " + count);
+        }
+
+        String[] metadata = new String[count];
+        String[] appIds = new String[count];
+        byte[] records = fields.get("records");
+        if (records != null) {
+            ShotRecordEncoder encoder = IngestStore.newEncoder();
+            ShotRecord shotRecord = new ShotRecord();
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                if (offset >= records.length) {
+                    throw new IngestException(400, "Fewer records than shots");
+                }
+                offset = IngestStore.readRecord(records, offset, shotRecord);
+                metadata[i] = encoder.toJson(shotRecord);
+                appIds[i] = shotRecord.appId;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                metadata[i] = field("metadata_" + i);
+                if (metadata[i] == null) {
+                    throw new IngestException(400, "No metadata_" + i);
+                }
+                appIds[i] = IngestStore.appIdOf(metadata[i]);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (!files.containsKey("image_" + i)) {
+                throw new IngestException(400, "No image_" + i);
+            }
+        }
+
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(store.commit(appIds[i], files.remove("image_" + i), metadata[i], hashes.get("image_" + i)));
+        }
+        return ids;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String field(String name) {
+        byte[] value = fields.get(name);
+        return value != null ? new String(value, UTF_8) : null;
+    }
+
+    private void closePart() {
+        if (partChannel != null) {
+            try {
+                partChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            partChannel = null;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.trackshoot.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Takes one request's body as it arrives off the socket and answers once all of it is in. Runs on the connection's
+// event loop.
+interface RequestHandler {
+
+    // The answer if it is known before the body, sent instead of 100 Continue to a client that waits for one. Null
+    // to take the body.
+    HttpResponse respondEarly() throws IOException;
+
+    // The data is only valid during the call.
+    void onBody(ByteBuffer data) throws IOException;
+
+    HttpResponse onComplete() throws IOException;
+
+    // The body could not be read to the end or onBody failed, drop whatever was stored for the request.
+    void abort();
+}
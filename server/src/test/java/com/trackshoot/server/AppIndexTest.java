@@ -0,0 +1,76 @@
+package com.trackshoot.server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AppIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Test
+    public void add_movesTheImageInAndSurvivesAReopen() throws Exception {
+        File directory = new File(temporaryFolder.getRoot(), "app");
+        AppIndex appIndex = new AppIndex(directory);
+        appIndex.add(newImage(100), "{\"shot\":0}", null, 1000);
+        AppIndex.Entry entry = appIndex.add(newImage(200), "{\"shot\":1}", HASH, 2000);
+        appIndex.close();
+
+        assertEquals(1, entry.sequence);
+        assertEquals(200, new File(directory, entry.imageName).length());
+        appIndex = new AppIndex(directory);
+        assertEquals(2, appIndex.getCount());
+        appIndex.add(newImage(300), "{\"shot\":2}", null, 3000);
+        appIndex.close();
+
+        List<AppIndex.Entry> entries = AppIndex.read(new File(directory, AppIndex.INDEX_NAME));
+        assertEquals(3, entries.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, entries.get(i).sequence);
+            assertEquals((i + 1) * 1000, entries.get(i).receivedMillis);
+            assertEquals((i + 1) * 100, entries.get(i).imageBytes);
+            assertEquals("{\"shot\":" + i + "}", entries.get(i).metadata);
+            assertEquals(i == 1 ? HASH : null, entries.get(i).contentHash);
+        }
+    }
+
+    @Test
+    public void open_cutsOffATornRecord() throws Exception {
+        File directory = new File(temporaryFolder.getRoot(), "app");
+        AppIndex appIndex = new AppIndex(directory);
+        appIndex.add(newImage(100), "{\"shot\":0}", null, 1000);
+        appIndex.add(newImage(100), "{\"shot\":1}", null, 2000);
+        appIndex.close();
+        File indexFile = new File(directory, AppIndex.INDEX_NAME);
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        appIndex = new AppIndex(directory);
+        assertEquals(1, appIndex.getCount());
+        appIndex.add(newImage(100), "{\"shot\":2}", null, 3000);
+        appIndex.close();
+        List<AppIndex.Entry> entries = AppIndex.read(indexFile);
+        assertEquals(2, entries.size());
+        assertEquals("{\"shot\":2}", entries.get(1).metadata);
+        assertEquals(1, entries.get(1).sequence);
+    }
+
+    private File newImage(int size) throws Exception {
+        File file = temporaryFolder.newFile();
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(new byte[size]);
+        fileOutputStream.close();
+        return file;
+    }
+}
@@ -0,0 +1,230 @@
+package com.trackshoot.server;
+
+import com.trackshoot.ChunkedUploader;
+import com.trackshoot.PendingShot;
+import com.trackshoot.ShotRecord;
+import com.trackshoot.ShotRecordEncoder;
+import com.trackshoot.ShotRequestFactory;
+import com.trackshoot.UploadConfig;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.ByteString;
+
+import static org.junit.Assert.*;
+
+public class IngestServerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final OkHttpClient okHttpClient = new OkHttpClient();
+    private final ShotRecordEncoder encoder = IngestStore.newEncoder();
+    private IngestServer server;
+    private File root;
+    private UploadConfig uploadConfig;
+
+    private static final MediaType MEDIA_TYPE_CHUNK = MediaType.parse("application/offset+octet-stream");
+
+    @Before
+    public void setUp() throws Exception {
+        root = temporaryFolder.newFolder("ingest");
+        server = new IngestServer(root, new InetSocketAddress("127.0.0.1", 0), 2,
+                IngestServer.DEFAULT_MAX_BODY_BYTES, IngestServer.DEFAULT_IDLE_TIMEOUT_MILLIS);
+        server.start();
+        uploadConfig = new UploadConfig().setServer("http://127.0.0.1:" + server.getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void singleAndBatchUploads_areStoredAndIndexedPerApp() throws Exception {
+        ShotRequestFactory shotRequestFactory = new ShotRequestFactory(uploadConfig);
+        assertEquals(200, execute(shotRequestFactory.newShotRequest(newShot("app", 0, 50000))));
+
+        uploadConfig.setBatching(3, 1000).setBinaryBatchMetadata(true);
+        List<PendingShot> batch = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            batch.add(newShot(i == 2 ? "other" : "app", i, 1000 * i));
+        }
+        assertEquals(200, execute(shotRequestFactory.newBatchRequest(batch)));
+
+        List<AppIndex.Entry> entries = entries("app");
+        assertEquals(3, entries.size());
+        assertEquals(50000, entries.get(0).imageBytes);
+        assertTrue(entries.get(0).metadata.contains("\"timestamp\":0"));
+        assertEquals(3000, entries.get(2).imageBytes);
+        assertTrue(entries.get(2).metadata.contains("\"timestamp\":3"));
+        assertEquals(1, entries("other").size());
+        assertEquals(4, server.getShotCount());
+        assertEquals(0, new File(root, IngestStore.INCOMING).list().length);
+    }
+
+    @Test
+    public void chunkedUpload_resumesFromTheStoredOffsetAndCommitsOnce() throws Exception {
+        byte[] image = new byte[250];
+        Arrays.fill(image, (byte) 7);
+        String metadata = ByteString.encodeUtf8("{\"app_id\":\"app\"}").base64();
+
+        Response response = putChunk("app_IMG_1.jpeg", image, 0, 100, metadata);
+        assertEquals(200, response.code());
+        assertEquals("100", response.header(ChunkedUploader.HEADER_OFFSET));
+        // A chunk resent after a lost response.
+        response = putChunk("app_IMG_1.jpeg", image, 0, 100, metadata);
+        assertEquals(409, response.code());
+        assertEquals("100", response.header(ChunkedUploader.HEADER_OFFSET));
+        response = putChunk("app_IMG_1.jpeg", image, 100, 150, metadata);
+        assertEquals(200, response.code());
+        assertEquals("250", response.header(ChunkedUploader.HEADER_OFFSET));
+        response = putChunk("app_IMG_1.jpeg", image, 100, 150, metadata);
+        assertEquals(200, response.code());
+        assertEquals("250", response.header(ChunkedUploader.HEADER_OFFSET));
+
+        List<AppIndex.Entry> entries = entries("app");
+        assertEquals(1, entries.size());
+        assertEquals(250, entries.get(0).imageBytes);
+        assertEquals("{\"app_id\":\"app\"}", entries.get(0).metadata);
+    }
+
+    @Test
+    public void resentShots_areStoredOnceAndAnsweredWithTheFirstId() throws Exception {
+        ShotRequestFactory shotRequestFactory = new ShotRequestFactory(uploadConfig);
+        PendingShot pendingShot = newShot("app", 0, 5000);
+        JSONObject first = executeForData(shotRequestFactory.newShotRequest(pendingShot));
+        assertNotNull(pendingShot.contentHash);
+        // The retry names the hash and is answered before its body is sent.
+        JSONObject retry = executeForData(shotRequestFactory.newShotRequest(pendingShot));
+        assertEquals(first.getString("id"), retry.getString("id"));
+        assertTrue(retry.getBoolean("duplicate"));
+        // A copy sent without the key is recognised by its content.
+        JSONObject copy = executeForData(shotRequestFactory.newShotRequest(newShot("app", 0, 5000)));
+        assertEquals(first.getString("id"), copy.getString("id"));
+
+        // The hashes are read back from the index.
+        server.stop();
+        server = new IngestServer(root, new InetSocketAddress("127.0.0.1", 0), 1,
+                IngestServer.DEFAULT_MAX_BODY_BYTES, IngestServer.DEFAULT_IDLE_TIMEOUT_MILLIS);
+        server.start();
+        uploadConfig.setServer("http://127.0.0.1:" + server.getPort());
+        retry = executeForData(shotRequestFactory.newShotRequest(pendingShot));
+        assertEquals(first.getString("id"), retry.getString("id"));
+
+        assertEquals(1, entries("app").size());
+        assertEquals(pendingShot.contentHash, entries("app").get(0).contentHash);
+        assertEquals(0, new File(root, IngestStore.INCOMING).list().length);
+    }
+
+    @Test
+    public void chunkedUploads_carryTheContentHash() throws Exception {
+        uploadConfig.setChunking(uploadConfig.getChunkEndpoint(), 1000);
+        PendingShot pendingShot = newShot("app", 0, 2500);
+        ChunkedUploader chunkedUploader = new ChunkedUploader(okHttpClient, uploadConfig);
+        ChunkedUploader.ProgressListener progressListener = new ChunkedUploader.ProgressListener() {
+            @Override
+            public void onProgress(long acknowledgedOffset) {
+            }
+        };
+        String contentHash = chunkedUploader.upload(pendingShot.imageFile, "first", "app", pendingShot.metadata, 0,
+                progressListener);
+        assertEquals(ByteString.of(new byte[2500]).sha256().hex(), contentHash);
+        // The same image under another upload id, as from a queue entry that outlived its upload.
+        assertEquals(contentHash, chunkedUploader.upload(pendingShot.imageFile, "second", "app",
+                pendingShot.metadata, 0, progressListener));
+        pendingShot.contentHash = contentHash;
+        assertTrue(executeForData(new ShotRequestFactory(uploadConfig).newShotRequest(pendingShot))
+                .getBoolean("duplicate"));
+
+        assertEquals(1, entries("app").size());
+        assertEquals(contentHash, entries("app").get(0).contentHash);
+    }
+
+    @Test
+    public void invalidRequests_areRefusedWithoutStoringAnything() throws Exception {
+        String base = "http://127.0.0.1:" + server.getPort();
+        assertEquals(404, execute(new Request.Builder().url(base + "/3/image")
+                .post(RequestBody.create(MediaType.parse("text/plain"), "x")).build()));
+        assertEquals(415, execute(new Request.Builder().url(base + UploadConfig.SERVER_SHOTS_PATH)
+                .post(RequestBody.create(MediaType.parse("application/json"), "{}")).build()));
+        assertEquals(405, execute(new Request.Builder().url(base + UploadConfig.SERVER_SHOTS_PATH).build()));
+        // A batch with a missing image is not stored in part.
+        uploadConfig.setBatching(2, 1000);
+        List<PendingShot> batch = new ArrayList<>();
+        batch.add(newShot("app", 0, 100));
+        Request request = new ShotRequestFactory(uploadConfig).newBatchRequest(batch);
+        Buffer body = new Buffer();
+        request.body().writeTo(body);
+        String multipart = body.readUtf8().replace("name=\"count\"\r\nContent-Length: 1\r\n\r\n1",
+                "name=\"count\"\r\nContent-Length: 1\r\n\r\n2");
+        assertEquals(400, execute(request.newBuilder()
+                .post(RequestBody.create(request.body().contentType(), multipart)).build()));
+        assertEquals(0, server.getShotCount());
+        assertEquals(0, new File(root, IngestStore.INCOMING).list().length);
+    }
+
+    private int execute(Request request) throws Exception {
+        Response response = okHttpClient.newCall(request).execute();
+        response.close();
+        return response.code();
+    }
+
+    private JSONObject executeForData(Request request) throws Exception {
+        Response response = okHttpClient.newCall(request).execute();
+        try {
+            assertEquals(200, response.code());
+            return new JSONObject(response.body().string()).getJSONObject("data");
+        } finally {
+            response.close();
+        }
+    }
+
+    private Response putChunk(String uploadId, byte[] image, int offset, int length, String metadata)
+            throws Exception {
+        Request request = new Request.Builder()
+                .url(uploadConfig.getChunkEndpoint() + "/" + uploadId)
+                .header(ChunkedUploader.HEADER_OFFSET, Integer.toString(offset))
+                .header(ChunkedUploader.HEADER_LENGTH, Integer.toString(image.length))
+                .header(ChunkedUploader.HEADER_APP_ID, "app")
+                .header(ChunkedUploader.HEADER_METADATA, metadata)
+                .put(RequestBody.create(MEDIA_TYPE_CHUNK, image, offset, length))
+                .build();
+        Response response = okHttpClient.newCall(request).execute();
+        response.close();
+        return response;
+    }
+
+    private PendingShot newShot(String appId, long timestamp, int imageSize) throws Exception {
+        File image = temporaryFolder.newFile();
+        FileOutputStream fileOutputStream = new FileOutputStream(image);
+        fileOutputStream.write(new byte[imageSize]);
+        fileOutputStream.close();
+        ShotRecord shotRecord = new ShotRecord().set(appId, 50, 45, 9, timestamp, new float[3]);
+        PendingShot pendingShot = new PendingShot(timestamp, image, appId, encoder.toJson(shotRecord), 0);
+        pendingShot.record = encoder.toBinary(shotRecord);
+        return pendingShot;
+    }
+
+    private List<AppIndex.Entry> entries(String appId) throws Exception {
+        return AppIndex.read(new File(new File(new File(root, IngestStore.APPS), appId), AppIndex.INDEX_NAME));
+    }
+}
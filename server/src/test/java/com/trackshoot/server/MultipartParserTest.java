@@ -0,0 +1,103 @@
+package com.trackshoot.server;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MultipartParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void parse_findsEveryPartWhereverTheBodyIsSplit() throws Exception {
+        // Data that starts like the delimiter, in the file and right before the real one.
+        String file = "\r\n--bound\r\n-\r\n--boun";
+        String body = "preamble\r\n--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"description\"\r\n\r\n"
+                + "app\r\n--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"shot.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n"
+                + file + "\r\n--boundary--\r\nepilogue";
+        byte[] bytes = body.getBytes(UTF_8);
+
+        for (int split = 0; split <= bytes.length; split++) {
+            RecordingListener listener = new RecordingListener();
+            MultipartParser parser = new MultipartParser("boundary", listener);
+            parser.parse(ByteBuffer.wrap(bytes, 0, split));
+            parser.parse(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            parser.finish();
+            assertEquals("split at " + split, "description:null=app|image:shot.jpg=" + file + "|",
+                    listener.toString());
+        }
+
+        RecordingListener listener = new RecordingListener();
+        MultipartParser parser = new MultipartParser("boundary", listener);
+        for (byte b : bytes) {
+            parser.parse(ByteBuffer.wrap(new byte[]{b}));
+        }
+        parser.finish();
+        assertEquals("description:null=app|image:shot.jpg=" + file + "|", listener.toString());
+    }
+
+    @Test
+    public void finish_failsOnATruncatedBody() throws Exception {
+        MultipartParser parser = new MultipartParser("boundary", new RecordingListener());
+        parser.parse(ByteBuffer.wrap(("--boundary\r\nContent-Disposition: form-data; name=\"image\"\r\n\r\n12")
+                .getBytes(UTF_8)));
+        try {
+            parser.finish();
+            fail();
+        } catch (IngestException e) {
+            assertEquals(400, e.status);
+        }
+    }
+
+    @Test
+    public void boundary_readsPlainAndQuotedBoundaries() {
+        assertEquals("abc", MultipartParser.boundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b", MultipartParser.boundary("multipart/form-data; boundary=\"a b\"; charset=utf-8"));
+        assertNull(MultipartParser.boundary("application/json"));
+        assertNull(MultipartParser.boundary(null));
+    }
+
+    private static class RecordingListener implements MultipartParser.Listener {
+
+        private final List<String> parts = new ArrayList<>();
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private String part;
+
+        @Override
+        public void onPartStart(String name, String filename) {
+            part = name + ":" + filename;
+            data.reset();
+        }
+
+        @Override
+        public void onPartData(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                data.write(buffer.get());
+            }
+        }
+
+        @Override
+        public void onPartEnd() throws IOException {
+            parts.add(part + "=" + data.toString("UTF-8"));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (String part : parts) {
+                builder.append(part).append('|');
+            }
+            return builder.toString();
+        }
+    }
+}